@@ -2,7 +2,6 @@ package com.acertainbookstore.business;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -34,6 +33,16 @@ public class CertainBookStore implements BookStore, StockManager {
      */
     private Map<Integer, BookStoreBook> bookMap = null;
 
+    /**
+     * The books ordered by average rating, read without the store lock.
+     */
+    private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+    /**
+     * The books which had sale misses, most missed first.
+     */
+    private final SaleMissIndex saleMissIndex = new SaleMissIndex();
+
     /**
      * Instantiates a new {@link CertainBookStore}.
      */
@@ -127,7 +136,10 @@ public class CertainBookStore implements BookStore, StockManager {
         // Then add these books to the store.
         for (StockBook book : bookSet) {
             int isbn = book.getISBN();
-            bookMap.put(isbn, new BookStoreBook(book));
+            BookStoreBook bookStoreBook = new BookStoreBook(book);
+            bookMap.put(isbn, bookStoreBook);
+            topRatedIndex.update(bookStoreBook);
+            saleMissIndex.update(bookStoreBook);
         }
 
     }
@@ -158,6 +170,7 @@ public class CertainBookStore implements BookStore, StockManager {
             numCopies = bookCopy.getNumCopies();
             book = bookMap.get(isbn);
             book.addCopies(numCopies);
+            saleMissIndex.update(book); // Replenished books are no longer in demand.
         }
 
     }
@@ -233,6 +246,7 @@ public class CertainBookStore implements BookStore, StockManager {
             for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
                 book = bookMap.get(saleMissEntry.getKey());
                 book.addSaleMiss(saleMissEntry.getValue());
+                saleMissIndex.update(book);
             }
             throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
         }
@@ -328,17 +342,14 @@ public class CertainBookStore implements BookStore, StockManager {
      * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
      */
     @Override
-    public synchronized List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+    public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
 
         if (numBooks < 0) {
             throw new BookStoreException(numBooks + BookStoreConstants.INVALID);
         }
 
-        return bookMap.values().stream()
-                      .sorted(Comparator.comparing(BookStoreBook::getAverageRating).reversed())
-                      .limit(numBooks)
-                      .map(BookStoreBook::immutableBook)
-                      .collect(Collectors.toList());
+        // Not synchronized, the index is read while writers update it.
+        return topRatedIndex.getTopRated(numBooks);
     }
 
     /*
@@ -348,10 +359,10 @@ public class CertainBookStore implements BookStore, StockManager {
      */
     @Override
     public synchronized List<StockBook> getBooksInDemand() throws BookStoreException {
-        return bookMap.values().stream()
-                      .filter(BookStoreBook::hadSaleMiss)
-                      .map(BookStoreBook::immutableStockBook)
-                      .collect(Collectors.toList());
+        // Most missed first.
+        return saleMissIndex.getISBNs().stream()
+                            .map(isbn -> bookMap.get(isbn).immutableStockBook())
+                            .collect(Collectors.toList());
     }
 
     /*
@@ -370,7 +381,9 @@ public class CertainBookStore implements BookStore, StockManager {
         }
 
         for (BookRating br : bookRating) {
-            bookMap.get(br.getISBN()).addRating(br.getRating());
+            BookStoreBook book = bookMap.get(br.getISBN());
+            book.addRating(br.getRating());
+            topRatedIndex.update(book);
         }
     }
 
@@ -381,6 +394,8 @@ public class CertainBookStore implements BookStore, StockManager {
      */
     public synchronized void removeAllBooks() throws BookStoreException {
         bookMap.clear();
+        topRatedIndex.clear();
+        saleMissIndex.clear();
     }
 
     /*
@@ -405,6 +420,8 @@ public class CertainBookStore implements BookStore, StockManager {
 
         for (int isbn : isbnSet) {
             bookMap.remove(isbn);
+            topRatedIndex.remove(isbn);
+            saleMissIndex.remove(isbn);
         }
     }
 }
@@ -0,0 +1,96 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * {@link SaleMissIndex} keeps the books of the store which had sale misses,
+ * ordered by their number of sale misses, most missed first. The books in
+ * demand are thus found without scanning the catalog.
+ * <p>
+ * The index is not thread-safe, the store updates and reads it under its lock.
+ */
+final class SaleMissIndex {
+
+	/**
+	 * {@link Entry} is the position of a book in the index.
+	 */
+	private static final class Entry {
+
+		private final int isbn;
+
+		private final long numSaleMisses;
+
+		private Entry(int isbn, long numSaleMisses) {
+			this.isbn = isbn;
+			this.numSaleMisses = numSaleMisses;
+		}
+	}
+
+	/** Most missed first, and ties by ascending ISBN so entries are unique. */
+	private static final Comparator<Entry> ORDER = Comparator.comparingLong((Entry entry) -> -entry.numSaleMisses)
+			.thenComparingInt(entry -> entry.isbn);
+
+	/** The entries in sale miss order. */
+	private final TreeSet<Entry> entries = new TreeSet<>(ORDER);
+
+	/** The current entry of each book, to find it again in {@link #entries}. */
+	private final Map<Integer, Entry> entriesByISBN = new HashMap<>();
+
+	/**
+	 * Adds, repositions or removes a book after its sale misses changed.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void update(BookStoreBook book) {
+		remove(book.getISBN());
+
+		if (book.hadSaleMiss()) {
+			Entry entry = new Entry(book.getISBN(), book.getNumSaleMisses());
+			entriesByISBN.put(entry.isbn, entry);
+			entries.add(entry);
+		}
+	}
+
+	/**
+	 * Removes a book.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	void remove(int isbn) {
+		Entry previous = entriesByISBN.remove(isbn);
+
+		if (previous != null) {
+			entries.remove(previous);
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	void clear() {
+		entriesByISBN.clear();
+		entries.clear();
+	}
+
+	/**
+	 * Gets the books which had sale misses.
+	 *
+	 * @return the ISBNs of the books, most missed first
+	 */
+	List<Integer> getISBNs() {
+		List<Integer> isbns = new ArrayList<>(entries.size());
+
+		for (Entry entry : entries) {
+			isbns.add(entry.isbn);
+		}
+
+		return isbns;
+	}
+}
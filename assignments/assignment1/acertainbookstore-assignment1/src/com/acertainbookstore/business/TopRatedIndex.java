@@ -0,0 +1,107 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * {@link TopRatedIndex} keeps the books of the store ordered by their average
+ * rating, best rated first, so the top rated books are read off its head
+ * instead of sorting the whole catalog.
+ * <p>
+ * The index is updated by the store while it holds its lock, but is read
+ * without it. Each entry holds an immutable snapshot of its book, so readers
+ * never see a book in the middle of an update. While a book is re-rated a
+ * concurrent reader may miss it, but never sees it twice.
+ */
+final class TopRatedIndex {
+
+	/**
+	 * {@link Entry} is the position of a book in the index.
+	 */
+	private static final class Entry {
+
+		private final int isbn;
+
+		private final float averageRating;
+
+		private final Book book;
+
+		private Entry(BookStoreBook book) {
+			this.isbn = book.getISBN();
+			this.averageRating = book.getAverageRating();
+			this.book = book.immutableBook();
+		}
+	}
+
+	/** Best rated first, and ties by ascending ISBN so entries are unique. */
+	private static final Comparator<Entry> ORDER = Comparator.comparingDouble((Entry entry) -> -entry.averageRating)
+			.thenComparingInt(entry -> entry.isbn);
+
+	/** The entries in rating order. */
+	private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>(ORDER);
+
+	/** The current entry of each book, to find it again in {@link #entries}. */
+	private final ConcurrentMap<Integer, Entry> entriesByISBN = new ConcurrentHashMap<>();
+
+	/**
+	 * Adds or repositions a book after it was added or rated.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void update(BookStoreBook book) {
+		Entry entry = new Entry(book);
+		Entry previous = entriesByISBN.put(entry.isbn, entry);
+
+		if (previous != null) {
+			entries.remove(previous);
+		}
+
+		entries.add(entry);
+	}
+
+	/**
+	 * Removes a book.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	void remove(int isbn) {
+		Entry previous = entriesByISBN.remove(isbn);
+
+		if (previous != null) {
+			entries.remove(previous);
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	void clear() {
+		entriesByISBN.clear();
+		entries.clear();
+	}
+
+	/**
+	 * Gets the best rated books.
+	 *
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books, best rated first
+	 */
+	List<Book> getTopRated(int numBooks) {
+		List<Book> topRated = new ArrayList<>(Math.min(numBooks, entriesByISBN.size()));
+		Iterator<Entry> iterator = entries.iterator();
+
+		while (topRated.size() < numBooks && iterator.hasNext()) {
+			topRated.add(iterator.next().book);
+		}
+
+		return topRated;
+	}
+}
@@ -470,6 +470,24 @@ public class BookStoreTest {
         assertEquals("Test of Thrones", client.getTopRatedBooks(1).get(0).getTitle());
     }
 
+    /**
+     * Top rated books follow new ratings and removed books
+     */
+    @Test
+    public void shouldUpdateTopRatedBooks() throws BookStoreException {
+        addBooks(3, 2);
+        client.rateBooks(new HashSet<>(Arrays.asList(new BookRating(TEST_ISBN, 3), new BookRating(3, 4))));
+        assertEquals(3, client.getTopRatedBooks(1).get(0).getISBN());
+
+        client.rateBooks(new HashSet<>(singletonList(new BookRating(3, 0))));
+        assertEquals(TEST_ISBN, client.getTopRatedBooks(1).get(0).getISBN());
+
+        storeManager.removeBooks(new HashSet<>(singletonList(TEST_ISBN)));
+        List<Book> topRated = client.getTopRatedBooks(100);
+        assertEquals(1, topRated.size());
+        assertEquals(3, topRated.get(0).getISBN());
+    }
+
     /**
 	 * Tear down after class.
 	 *
@@ -488,6 +488,41 @@ public class StockManagerTest {
 		assertEquals("The Art of Computer Programming", storeManager.getBooksInDemand().get(0).getTitle());
 	}
 
+	/**
+	 *  Books in demand follow sale misses and replenishments, most missed first
+	 */
+	@Test
+	public void shouldOrderBooksInDemandBySaleMisses() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+											  (float) 300, NUM_COPIES, 1, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+		assertTrue(storeManager.getBooksInDemand().size() == 1);
+
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 3));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInDemand = storeManager.getBooksInDemand();
+		assertTrue(booksInDemand.size() == 2);
+		assertEquals(TEST_ISBN, (Integer) booksInDemand.get(0).getISBN());
+		assertEquals(TEST_ISBN + 1, booksInDemand.get(1).getISBN());
+
+		Set<BookCopy> copiesToAdd = new HashSet<>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN, 1));
+		storeManager.addCopies(copiesToAdd);
+
+		booksInDemand = storeManager.getBooksInDemand();
+		assertTrue(booksInDemand.size() == 1);
+		assertEquals(TEST_ISBN + 1, booksInDemand.get(0).getISBN());
+	}
+
 	/**
 	 * Tear down after class.
 	 *
@@ -0,0 +1,561 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookLockManager} implements the multi-granularity locking of the
+ * {@link TwoLevelLockingConcurrentCertainBookStore}. The whole catalog is the
+ * root of the hierarchy and the books are its children. A request on single
+ * books takes an intention lock (IS or IX) on the catalog and then S or X locks
+ * on its books, so catalog inserts and removals only conflict with requests on
+ * the ISBNs they touch. Requests on the whole catalog take S or X on the root.
+ * <p>
+ * The root is always locked first and the books in ascending ISBN order, so two
+ * requests can never wait for each other in a cycle. Optionally a request gives
+ * up and is aborted when it cannot get a lock within a timeout.
+ * <p>
+ * The books of the store are kept in the same slots as their locks, in a
+ * {@link ConcurrentIntHashMap} keyed by ISBN, so a request finds a book and its
+ * lock without boxing the ISBN or probing a second map. A book may only be read
+ * or written while its lock, or the whole catalog, is held in a suitable mode.
+ *
+ * @see TwoLevelLockingConcurrentCertainBookStore
+ */
+final class BookLockManager {
+
+	/** Timeout value meaning that requests wait for their locks indefinitely. */
+	static final long NO_TIMEOUT = 0;
+
+	/**
+	 * The lock modes of the multi-granularity locking protocol.
+	 */
+	enum LockMode {
+
+		/** Intention to read some children. */
+		IS,
+
+		/** Intention to write some children. */
+		IX,
+
+		/** Shared. */
+		S,
+
+		/** Exclusive. */
+		X;
+
+		/** COMPATIBLE[a][b] tells whether modes a and b can be held together. */
+		private static final boolean[][] COMPATIBLE = {
+				// IS     IX     S      X
+				{ true, true, true, false }, // IS
+				{ true, true, false, false }, // IX
+				{ true, false, true, false }, // S
+				{ false, false, false, false } // X
+		};
+
+		boolean isCompatibleWith(LockMode other) {
+			return COMPATIBLE[ordinal()][other.ordinal()];
+		}
+	}
+
+	/** The lock on the whole catalog. */
+	private final LockNode catalogLock = new LockNode();
+
+	/**
+	 * The slots of the individual books. Slots are created on demand, also for
+	 * books not yet in the store, and dropped once they hold neither a book nor
+	 * a request.
+	 */
+	private final ConcurrentIntHashMap<BookSlot> slots = new ConcurrentIntHashMap<>();
+
+	/** The lock wait timeout in milliseconds, or {@link #NO_TIMEOUT}. */
+	private final long timeoutMillis;
+
+	/** Whether waiting requests are granted strictly in arrival order. */
+	private final boolean fair;
+
+	/** The number of requests aborted because a lock wait timed out. */
+	private final AtomicLong numAborts = new AtomicLong();
+
+	/** The number of lock acquisitions which had to wait for another request. */
+	private final AtomicLong numContendedAcquisitions = new AtomicLong();
+
+	/** The number of requests currently waiting for a lock. */
+	private final AtomicInteger numWaiting = new AtomicInteger();
+
+	/** The longest wait queue observed on a single lock. */
+	private final AtomicInteger maxQueueLength = new AtomicInteger();
+
+	/**
+	 * {@link LockNode} is one lock of the hierarchy. It counts the granted
+	 * modes and queues the waiting requests.
+	 */
+	private class LockNode {
+
+		/** Guards the state of the node. */
+		private final ReentrantLock latch = new ReentrantLock();
+
+		/** Signalled whenever the granted modes or the queue change. */
+		private final Condition changed = latch.newCondition();
+
+		/** The number of holders per mode, indexed by {@link LockMode#ordinal()}. */
+		private final int[] numGranted = new int[LockMode.values().length];
+
+		/** The waiting requests, in arrival order. */
+		private final Deque<Waiter> queue = new ArrayDeque<>();
+
+		private boolean isGrantable(LockMode mode) {
+			for (LockMode held : LockMode.values()) {
+				if (numGranted[held.ordinal()] > 0 && !mode.isCompatibleWith(held)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * Acquires the node in the given mode.
+		 *
+		 * @return true, if the lock was granted before the timeout
+		 */
+		private boolean acquire(LockMode mode) throws InterruptedException {
+			latch.lock();
+			try {
+				if ((queue.isEmpty() || !fair) && isGrantable(mode)) {
+					numGranted[mode.ordinal()]++;
+					return true;
+				}
+
+				Waiter waiter = new Waiter();
+				queue.addLast(waiter);
+				numContendedAcquisitions.incrementAndGet();
+				numWaiting.incrementAndGet();
+				maxQueueLength.accumulateAndGet(queue.size(), Math::max);
+
+				long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+				try {
+					while (!((queue.peekFirst() == waiter || !fair) && isGrantable(mode))) {
+						if (timeoutMillis == NO_TIMEOUT) {
+							changed.await();
+						} else if (remainingNanos <= 0) {
+							return false;
+						} else {
+							remainingNanos = changed.awaitNanos(remainingNanos);
+						}
+					}
+
+					numGranted[mode.ordinal()]++;
+					return true;
+				} finally {
+					queue.remove(waiter);
+					numWaiting.decrementAndGet();
+
+					// The next request in line may be compatible as well, or
+					// is now at the head of the queue.
+					changed.signalAll();
+				}
+			} finally {
+				latch.unlock();
+			}
+		}
+
+		private void release(LockMode mode) {
+			latch.lock();
+			try {
+				numGranted[mode.ordinal()]--;
+				changed.signalAll();
+			} finally {
+				latch.unlock();
+			}
+		}
+
+		private int getQueueLength() {
+			latch.lock();
+			try {
+				return queue.size();
+			} finally {
+				latch.unlock();
+			}
+		}
+	}
+
+	/**
+	 * {@link BookSlot} is the lock of a book together with the book itself.
+	 */
+	private final class BookSlot extends LockNode {
+
+		/** The book, or null if it is not in the store. Guarded by the lock. */
+		private BookStoreBook book = null;
+
+		/** The number of requests using the slot, guarded by {@link #slots}. */
+		private int numPins = 0;
+	}
+
+	/**
+	 * {@link Waiter} is the place of one request in the queue of a node.
+	 */
+	private static final class Waiter {
+	}
+
+	/**
+	 * {@link BookLocks} is the set of locks held by one request. It releases
+	 * the locks at most once, in the reverse order of acquisition.
+	 */
+	final class BookLocks {
+
+		/** The locked books in acquisition order, the catalog excluded. */
+		private final int[] isbns;
+
+		/** The locked nodes in acquisition order, the catalog first. */
+		private final LockNode[] nodes;
+
+		/** The mode each node is held in. */
+		private final LockMode[] modes;
+
+		/** The number of acquired nodes. */
+		private int numNodes = 0;
+
+		/** Whether the locks were released. */
+		private boolean released = false;
+
+		private BookLocks(int[] isbns) {
+			this.isbns = isbns;
+			this.nodes = new LockNode[isbns.length + 1];
+			this.modes = new LockMode[isbns.length + 1];
+		}
+
+		private void add(LockNode node, LockMode mode) {
+			nodes[numNodes] = node;
+			modes[numNodes] = mode;
+			numNodes++;
+		}
+
+		/**
+		 * Releases the locks, unless they were released before.
+		 */
+		void release() {
+			if (released) {
+				return;
+			}
+
+			released = true;
+
+			for (int i = numNodes - 1; i >= 0; i--) {
+				nodes[i].release(modes[i]);
+			}
+
+			for (int isbn : isbns) {
+				unpin(isbn);
+			}
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link BookLockManager}.
+	 *
+	 * @param timeoutMillis
+	 *            the lock wait timeout in milliseconds, or {@link #NO_TIMEOUT}
+	 * @param fair
+	 *            whether waiting requests are granted strictly in arrival
+	 *            order; otherwise a compatible request may overtake them
+	 */
+	BookLockManager(long timeoutMillis, boolean fair) {
+		this.timeoutMillis = timeoutMillis;
+		this.fair = fair;
+	}
+
+	/**
+	 * Locks the books in shared mode, and the catalog in intention shared mode.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @return the held locks
+	 * @throws BookStoreException
+	 *             if the request was aborted
+	 */
+	BookLocks lockShared(Collection<Integer> isbns) throws BookStoreException {
+		return lock(isbns, LockMode.IS, LockMode.S);
+	}
+
+	/**
+	 * Locks the books in exclusive mode, and the catalog in intention exclusive
+	 * mode. The books need not be in the store, so this also guards inserts.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @return the held locks
+	 * @throws BookStoreException
+	 *             if the request was aborted
+	 */
+	BookLocks lockExclusive(Collection<Integer> isbns) throws BookStoreException {
+		return lock(isbns, LockMode.IX, LockMode.X);
+	}
+
+	/**
+	 * Locks the whole catalog in shared mode.
+	 *
+	 * @return the held locks
+	 * @throws BookStoreException
+	 *             if the request was aborted
+	 */
+	BookLocks lockCatalogShared() throws BookStoreException {
+		return lock(null, LockMode.S, null);
+	}
+
+	/**
+	 * Locks the whole catalog in exclusive mode.
+	 *
+	 * @return the held locks
+	 * @throws BookStoreException
+	 *             if the request was aborted
+	 */
+	BookLocks lockCatalogExclusive() throws BookStoreException {
+		return lock(null, LockMode.X, null);
+	}
+
+	/**
+	 * Gets the number of requests aborted because a lock wait timed out. With
+	 * ordered acquisition these are convoys, not deadlocks.
+	 *
+	 * @return the number of aborts
+	 */
+	long getNumAborts() {
+		return numAborts.get();
+	}
+
+	/**
+	 * Gets the number of lock acquisitions which had to wait.
+	 *
+	 * @return the number of contended acquisitions
+	 */
+	long getNumContendedAcquisitions() {
+		return numContendedAcquisitions.get();
+	}
+
+	/**
+	 * Gets the number of requests currently waiting for a lock.
+	 *
+	 * @return the number of waiting requests
+	 */
+	int getNumWaiting() {
+		return numWaiting.get();
+	}
+
+	/**
+	 * Gets the number of requests currently waiting for the catalog lock.
+	 *
+	 * @return the length of the catalog lock queue
+	 */
+	int getCatalogQueueLength() {
+		return catalogLock.getQueueLength();
+	}
+
+	/**
+	 * Gets the longest wait queue observed on a single lock.
+	 *
+	 * @return the maximum queue length
+	 */
+	int getMaxQueueLength() {
+		return maxQueueLength.get();
+	}
+
+	/**
+	 * Checks whether waiting requests are granted strictly in arrival order.
+	 *
+	 * @return true, if the locks are fair
+	 */
+	boolean isFair() {
+		return fair;
+	}
+
+	/**
+	 * Gets a book. The caller must hold its lock or the catalog lock.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @return the book, or null if it is not in the store
+	 */
+	BookStoreBook getBook(int isbn) {
+		BookSlot slot = slots.get(isbn);
+		return (slot == null) ? null : slot.book;
+	}
+
+	/**
+	 * Puts a book into the store. The caller must hold its lock exclusively.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void putBook(BookStoreBook book) {
+		slots.get(book.getISBN()).book = book;
+	}
+
+	/**
+	 * Removes a book from the store. The caller must hold its lock
+	 * exclusively; the slot is dropped when the lock is released.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	void removeBook(int isbn) {
+		slots.get(isbn).book = null;
+	}
+
+	/**
+	 * Removes all books from the store. The caller must hold the catalog lock
+	 * exclusively.
+	 */
+	void removeAllBooks() {
+		// Requests waiting for the catalog have pinned their slots, keep those.
+		slots.replaceAll((isbn, slot) -> {
+			slot.book = null;
+			return (slot.numPins == 0) ? null : slot;
+		});
+	}
+
+	/**
+	 * Removes the books stamped with an LSN before the given one, when a
+	 * logged removal of all the books is replayed. The caller must hold the
+	 * catalog lock exclusively.
+	 *
+	 * @param lsn
+	 *            the LSN of the removal
+	 */
+	void removeBooksBefore(long lsn) {
+		slots.replaceAll((isbn, slot) -> {
+			if (slot.book != null && slot.book.getLsn() < lsn) {
+				slot.book = null;
+			}
+
+			return (slot.book == null && slot.numPins == 0) ? null : slot;
+		});
+	}
+
+	/**
+	 * Gets all books in the store. The caller must hold the catalog lock.
+	 *
+	 * @return the books
+	 */
+	List<BookStoreBook> getBooks() {
+		List<BookStoreBook> books = new ArrayList<>();
+
+		for (BookSlot slot : slots.values()) {
+			if (slot.book != null) {
+				books.add(slot.book);
+			}
+		}
+
+		return books;
+	}
+
+	/**
+	 * Gets the ISBNs of the books in the store without locking them, so that
+	 * they can be locked a few at a time. The books added before the call are
+	 * included; the ISBNs of books added, removed or being locked meanwhile
+	 * may be missing or in excess.
+	 *
+	 * @return the ISBNs
+	 */
+	List<Integer> getIsbns() {
+		return slots.keys();
+	}
+
+	private BookLocks lock(Collection<Integer> isbns, LockMode catalogMode, LockMode bookMode)
+			throws BookStoreException {
+		// Sorting gives every request the same global acquisition order.
+		int[] sortedIsbns = sortedDistinct(isbns);
+		BookSlot[] bookSlots = new BookSlot[sortedIsbns.length];
+		BookLocks locks = new BookLocks(sortedIsbns);
+
+		for (int i = 0; i < sortedIsbns.length; i++) {
+			bookSlots[i] = pin(sortedIsbns[i]);
+		}
+
+		try {
+			acquire(catalogLock, catalogMode, locks, BookStoreConstants.CATALOG);
+
+			for (int i = 0; i < sortedIsbns.length; i++) {
+				acquire(bookSlots[i], bookMode, locks, BookStoreConstants.ISBN + sortedIsbns[i]);
+			}
+		} catch (BookStoreException ex) {
+			locks.release();
+			throw ex;
+		}
+
+		return locks;
+	}
+
+	private void acquire(LockNode node, LockMode mode, BookLocks locks, String lockName)
+			throws BookStoreException {
+		boolean granted;
+
+		try {
+			granted = node.acquire(mode);
+		} catch (InterruptedException ex) {
+			// A cancelled request, not a lock wait which timed out.
+			Thread.currentThread().interrupt();
+			throw new BookStoreException(lockName + BookStoreConstants.LOCK_INTERRUPTED);
+		}
+
+		if (!granted) {
+			numAborts.incrementAndGet();
+			throw new BookStoreException(lockName + BookStoreConstants.LOCK_TIMEOUT);
+		}
+
+		locks.add(node, mode);
+	}
+
+	private static int[] sortedDistinct(Collection<Integer> isbns) {
+		if (isbns == null || isbns.isEmpty()) {
+			return new int[0];
+		}
+
+		int[] sorted = new int[isbns.size()];
+		int size = 0;
+
+		for (int isbn : isbns) {
+			sorted[size++] = isbn;
+		}
+
+		Arrays.sort(sorted);
+
+		int numDistinct = 1;
+
+		for (int i = 1; i < size; i++) {
+			if (sorted[i] != sorted[numDistinct - 1]) {
+				sorted[numDistinct++] = sorted[i];
+			}
+		}
+
+		return (numDistinct == size) ? sorted : Arrays.copyOf(sorted, numDistinct);
+	}
+
+	private BookSlot pin(int isbn) {
+		return slots.compute(isbn, (key, slot) -> {
+			BookSlot pinned = (slot == null) ? new BookSlot() : slot;
+			pinned.numPins++;
+			return pinned;
+		});
+	}
+
+	private void unpin(int isbn) {
+		slots.compute(isbn, (key, slot) -> {
+			slot.numPins--;
+			return (slot.numPins == 0 && slot.book == null) ? null : slot;
+		});
+	}
+}
@@ -0,0 +1,231 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookLockManager.BookLocks;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookLockManagerTest} tests the multi-granularity locking of the
+ * {@link BookLockManager}: which of the IS, IX, S and X modes of the catalog
+ * and of the books can be held together, and how the requests which time out
+ * are aborted and counted. It lives in the package of the lock manager, which
+ * is not public. Locks are not owned by threads, so a single thread can hold
+ * one request and see whether a second one is granted or times out.
+ *
+ * @see BookLockManager
+ */
+public class BookLockManagerTest {
+
+	/** The Constant TIMEOUT_MILLIS of the requests which must not be granted. */
+	private static final long TIMEOUT_MILLIS = 20;
+
+	/** The Constant TEST_ISBN of the first book. */
+	private static final int TEST_ISBN = 7044560;
+
+	/** The Constant OTHER_ISBN of another book. */
+	private static final int OTHER_ISBN = TEST_ISBN + 1;
+
+	/**
+	 * {@link Request} takes one kind of lock on the lock manager.
+	 */
+	private interface Request {
+		BookLocks lock(BookLockManager lockManager) throws BookStoreException;
+	}
+
+	/** Intention shared on the catalog and shared on the first book. */
+	private static final Request SHARED = lockManager -> lockManager.lockShared(Collections.singleton(TEST_ISBN));
+
+	/** Intention shared on the catalog and shared on another book. */
+	private static final Request OTHER_SHARED = lockManager -> lockManager
+			.lockShared(Collections.singleton(OTHER_ISBN));
+
+	/** Intention exclusive on the catalog and exclusive on the first book. */
+	private static final Request EXCLUSIVE = lockManager -> lockManager
+			.lockExclusive(Collections.singleton(TEST_ISBN));
+
+	/** Intention exclusive on the catalog and exclusive on another book. */
+	private static final Request OTHER_EXCLUSIVE = lockManager -> lockManager
+			.lockExclusive(Collections.singleton(OTHER_ISBN));
+
+	/** Shared on the catalog. */
+	private static final Request CATALOG_SHARED = BookLockManager::lockCatalogShared;
+
+	/** Exclusive on the catalog. */
+	private static final Request CATALOG_EXCLUSIVE = BookLockManager::lockCatalogExclusive;
+
+	/** The lock manager, whose requests give up after a short timeout. */
+	private BookLockManager lockManager;
+
+	/**
+	 * Creates the lock manager.
+	 */
+	@Before
+	public void setUp() {
+		lockManager = new BookLockManager(TIMEOUT_MILLIS, false);
+	}
+
+	/**
+	 * Checks whether a request is granted while another one is held, and
+	 * that either way nothing is left locked afterwards.
+	 *
+	 * @param held
+	 *            the request holding its locks
+	 * @param requested
+	 *            the request which may have to wait
+	 * @return true, if the request was granted; false, if it timed out
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private boolean isGrantedWhileHeld(Request held, Request requested) throws BookStoreException {
+		BookLocks heldLocks = held.lock(lockManager);
+		boolean granted;
+
+		try {
+			requested.lock(lockManager).release();
+			granted = true;
+		} catch (BookStoreException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().endsWith(BookStoreConstants.LOCK_TIMEOUT));
+			granted = false;
+		} finally {
+			heldLocks.release();
+		}
+
+		// The aborted request released the locks it got before it gave up.
+		requested.lock(lockManager).release();
+		assertEquals(0, lockManager.getNumWaiting());
+		return granted;
+	}
+
+	/**
+	 * Tests that requests on single books only conflict with the requests on
+	 * the same books or on the whole catalog, as the compatibility of the IS,
+	 * IX, S and X modes says.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testCompatibleModes() throws BookStoreException {
+		// IS and S.
+		assertTrue(isGrantedWhileHeld(SHARED, SHARED));
+		assertTrue(isGrantedWhileHeld(SHARED, OTHER_EXCLUSIVE));
+		assertTrue(isGrantedWhileHeld(SHARED, CATALOG_SHARED));
+		assertFalse(isGrantedWhileHeld(SHARED, EXCLUSIVE));
+		assertFalse(isGrantedWhileHeld(SHARED, CATALOG_EXCLUSIVE));
+
+		// IX and X.
+		assertTrue(isGrantedWhileHeld(EXCLUSIVE, OTHER_SHARED));
+		assertTrue(isGrantedWhileHeld(EXCLUSIVE, OTHER_EXCLUSIVE));
+		assertFalse(isGrantedWhileHeld(EXCLUSIVE, SHARED));
+		assertFalse(isGrantedWhileHeld(EXCLUSIVE, EXCLUSIVE));
+		assertFalse(isGrantedWhileHeld(EXCLUSIVE, CATALOG_SHARED));
+		assertFalse(isGrantedWhileHeld(EXCLUSIVE, CATALOG_EXCLUSIVE));
+
+		// S on the catalog.
+		assertTrue(isGrantedWhileHeld(CATALOG_SHARED, SHARED));
+		assertTrue(isGrantedWhileHeld(CATALOG_SHARED, CATALOG_SHARED));
+		assertFalse(isGrantedWhileHeld(CATALOG_SHARED, OTHER_EXCLUSIVE));
+		assertFalse(isGrantedWhileHeld(CATALOG_SHARED, CATALOG_EXCLUSIVE));
+
+		// X on the catalog.
+		for (Request requested : Arrays.asList(SHARED, OTHER_EXCLUSIVE, CATALOG_SHARED, CATALOG_EXCLUSIVE)) {
+			assertFalse(isGrantedWhileHeld(CATALOG_EXCLUSIVE, requested));
+		}
+	}
+
+	/**
+	 * Tests that every request which times out is aborted and counted once,
+	 * together with the waits, and names the lock it waited for.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testTimeoutsAreCountedAsAborts() throws BookStoreException {
+		BookLocks heldLocks = lockManager.lockExclusive(Arrays.asList(TEST_ISBN, OTHER_ISBN));
+
+		try {
+			for (int i = 1; i <= 3; i++) {
+				try {
+					lockManager.lockShared(Collections.singleton(OTHER_ISBN));
+					fail();
+				} catch (BookStoreException ex) {
+					assertEquals(BookStoreConstants.ISBN + OTHER_ISBN + BookStoreConstants.LOCK_TIMEOUT,
+							ex.getMessage());
+				}
+
+				assertEquals(i, lockManager.getNumAborts());
+				assertEquals(i, lockManager.getNumContendedAcquisitions());
+				assertEquals(0, lockManager.getNumWaiting());
+			}
+
+			try {
+				lockManager.lockCatalogShared();
+				fail();
+			} catch (BookStoreException ex) {
+				assertEquals(BookStoreConstants.CATALOG + BookStoreConstants.LOCK_TIMEOUT, ex.getMessage());
+			}
+
+			assertEquals(4, lockManager.getNumAborts());
+		} finally {
+			heldLocks.release();
+		}
+
+		// Granted requests are not aborts, and releasing twice is harmless.
+		heldLocks.release();
+		lockManager.lockCatalogExclusive().release();
+		assertEquals(4, lockManager.getNumAborts());
+	}
+
+	/**
+	 * Tests that a request without a timeout waits for a conflicting one and
+	 * is granted once it releases its locks, without being aborted.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testWaitingRequestIsGranted() throws Exception {
+		BookLockManager waitingLockManager = new BookLockManager(BookLockManager.NO_TIMEOUT, true);
+		BookLocks heldLocks = waitingLockManager.lockExclusive(Collections.singleton(TEST_ISBN));
+		CountDownLatch granted = new CountDownLatch(1);
+		List<Integer> isbns = Collections.singletonList(TEST_ISBN);
+
+		Thread waiter = new Thread(() -> {
+			try {
+				waitingLockManager.lockShared(isbns).release();
+				granted.countDown();
+			} catch (BookStoreException ex) {
+				ex.printStackTrace();
+			}
+		});
+		waiter.start();
+
+		try {
+			while (waitingLockManager.getNumWaiting() == 0) {
+				Thread.sleep(1);
+			}
+
+			assertFalse(granted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		} finally {
+			heldLocks.release();
+		}
+
+		assertTrue(granted.await(10, TimeUnit.SECONDS));
+		waiter.join();
+		assertEquals(0, waitingLockManager.getNumAborts());
+		assertEquals(1, waitingLockManager.getNumContendedAcquisitions());
+		assertEquals(0, waitingLockManager.getNumWaiting());
+	}
+}
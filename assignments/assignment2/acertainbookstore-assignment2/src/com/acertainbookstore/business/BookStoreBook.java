@@ -11,7 +11,7 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * @see StockBook
  * @see ImmutableBook
  */
-public class BookStoreBook extends ImmutableBook {
+public class BookStoreBook extends ImmutableBook implements StockBook {
 
 	/** The number of copies. */
 	private int numCopies;
@@ -28,6 +28,9 @@ public class BookStoreBook extends ImmutableBook {
 	/** Whether the book is editor picked. */
 	private boolean editorPick;
 
+	/** The LSN of the last logged change of the book, or 0 if none. */
+	private long lsn;
+
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
 	 *
@@ -123,6 +126,25 @@ public class BookStoreBook extends ImmutableBook {
 		return editorPick;
 	}
 
+	/**
+	 * Gets the LSN of the last logged change of the book.
+	 *
+	 * @return the LSN, or 0 if no change of the book was logged
+	 */
+	long getLsn() {
+		return lsn;
+	}
+
+	/**
+	 * Stamps the book with the LSN of its last logged change.
+	 *
+	 * @param lsn
+	 *            the LSN
+	 */
+	void setLsn(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/**
 	 * Sets the total rating of the book.
 	 *
@@ -280,6 +302,18 @@ public class BookStoreBook extends ImmutableBook {
 				this.editorPick);
 	}
 
+	/**
+	 * Returns a copy of the whole state of the book, with the LSN of its last
+	 * logged change, for a checkpoint.
+	 *
+	 * @return the book store book
+	 */
+	BookStoreBook checkpointCopy() {
+		BookStoreBook book = new BookStoreBook(this);
+		book.setLsn(lsn);
+		return book;
+	}
+
 	/**
 	 * Returns a {@link BookStoreBook} copy of the book.
 	 *
@@ -0,0 +1,438 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link ConcurrentIntHashMap} is a concurrent hash map with primitive int
+ * keys, so looking up an ISBN neither boxes it nor allocates anything else.
+ * The map is split into stripes, each an open addressing table with linear
+ * probing guarded by its own {@link StampedLock}. Lookups first read the
+ * stripe optimistically and only take its read lock if a writer interfered.
+ * Null values are not supported, a null slot marks an empty slot.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+final class ConcurrentIntHashMap<V> {
+
+	/** The default number of stripes, a power of two. */
+	static final int DEFAULT_NUM_STRIPES = 64;
+
+	/** The initial capacity of a stripe, a power of two. */
+	private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+	/**
+	 * {@link Remapping} computes the new value of a key from its current value.
+	 *
+	 * @param <V>
+	 *            the type of the values
+	 */
+	interface Remapping<V> {
+
+		/**
+		 * Computes the new value of the key.
+		 *
+		 * @param key
+		 *            the key
+		 * @param value
+		 *            the current value, or null if the key is absent
+		 * @return the new value, or null to remove the key
+		 */
+		V apply(int key, V value);
+	}
+
+	/**
+	 * {@link Stripe} is one open addressing table of the map.
+	 */
+	private static final class Stripe {
+
+		private final StampedLock lock = new StampedLock();
+
+		private int[] keys = new int[INITIAL_STRIPE_CAPACITY];
+
+		private Object[] values = new Object[INITIAL_STRIPE_CAPACITY];
+
+		private int size = 0;
+
+		/**
+		 * Finds the slot of the key, or the empty slot it would be put into.
+		 * The table always has at least one empty slot.
+		 */
+		private static int indexOf(int[] keys, Object[] values, int key, int hash) {
+			int mask = keys.length - 1;
+			int index = hash & mask;
+
+			while (values[index] != null && keys[index] != key) {
+				index = (index + 1) & mask;
+			}
+
+			return index;
+		}
+
+		private Object get(int key, int hash) {
+			long stamp = lock.tryOptimisticRead();
+
+			if (stamp != 0) {
+				int[] currentKeys = keys;
+				Object[] currentValues = values;
+
+				// A concurrent resize may leave the arrays out of step.
+				if (currentKeys.length == currentValues.length) {
+					Object value = currentValues[indexOfBounded(currentKeys, currentValues, key, hash)];
+
+					if (lock.validate(stamp)) {
+						return value;
+					}
+				}
+			}
+
+			stamp = lock.readLock();
+			try {
+				return values[indexOf(keys, values, key, hash)];
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Like {@link #indexOf}, but gives up after one pass over the table, as
+		 * an optimistic reader may see a table without empty slots.
+		 */
+		private static int indexOfBounded(int[] keys, Object[] values, int key, int hash) {
+			int mask = keys.length - 1;
+			int index = hash & mask;
+
+			for (int probes = 0; probes < keys.length && values[index] != null && keys[index] != key; probes++) {
+				index = (index + 1) & mask;
+			}
+
+			return index;
+		}
+
+		/** Must be called with the write lock held. */
+		private Object put(int key, int hash, Object value) {
+			int index = indexOf(keys, values, key, hash);
+			Object previous = values[index];
+
+			if (previous == null) {
+				keys[index] = key;
+				values[index] = value;
+				size++;
+
+				// Keep the load factor at most 1/2 so that probe sequences stay short.
+				if (size * 2 > keys.length) {
+					resize(keys.length * 2);
+				}
+			} else {
+				values[index] = value;
+			}
+
+			return previous;
+		}
+
+		/** Must be called with the write lock held. */
+		private Object remove(int key, int hash) {
+			int index = indexOf(keys, values, key, hash);
+			Object previous = values[index];
+
+			if (previous != null) {
+				deleteAt(index);
+			}
+
+			return previous;
+		}
+
+		/**
+		 * Empties a slot and shifts back the entries of its probe sequence, so
+		 * that linear probing needs no tombstones.
+		 */
+		private void deleteAt(int index) {
+			int mask = keys.length - 1;
+			int hole = index;
+			int next = (hole + 1) & mask;
+
+			while (values[next] != null) {
+				int home = mix(keys[next]) & mask;
+
+				// Move the entry if its home slot is not within (hole, next].
+				if (((next - home) & mask) >= ((next - hole) & mask)) {
+					keys[hole] = keys[next];
+					values[hole] = values[next];
+					hole = next;
+				}
+
+				next = (next + 1) & mask;
+			}
+
+			values[hole] = null;
+			size--;
+		}
+
+		private void resize(int capacity) {
+			int[] newKeys = new int[capacity];
+			Object[] newValues = new Object[capacity];
+			int newSize = 0;
+
+			for (int i = 0; i < keys.length; i++) {
+				if (values[i] != null) {
+					int index = indexOf(newKeys, newValues, keys[i], mix(keys[i]));
+					newKeys[index] = keys[i];
+					newValues[index] = values[i];
+					newSize++;
+				}
+			}
+
+			keys = newKeys;
+			values = newValues;
+			size = newSize;
+		}
+	}
+
+	/** The stripes of the map. */
+	private final Stripe[] stripes;
+
+	/** The number of bits selecting a stripe. */
+	private final int stripeShift;
+
+	/**
+	 * Instantiates a new {@link ConcurrentIntHashMap} with the default number
+	 * of stripes.
+	 */
+	ConcurrentIntHashMap() {
+		this(DEFAULT_NUM_STRIPES);
+	}
+
+	/**
+	 * Instantiates a new {@link ConcurrentIntHashMap}.
+	 *
+	 * @param numStripes
+	 *            the number of stripes, rounded up to a power of two
+	 */
+	ConcurrentIntHashMap(int numStripes) {
+		int size = 1;
+
+		while (size < numStripes) {
+			size <<= 1;
+		}
+
+		stripes = new Stripe[size];
+		stripeShift = Integer.SIZE - Integer.numberOfTrailingZeros(size);
+
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Spreads the key over the whole int, since ISBNs are often sequential.
+	 */
+	private static int mix(int key) {
+		int hash = key * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private Stripe stripeOf(int hash) {
+		// The high bits select the stripe, the low bits the slot within it.
+		return (stripeShift == Integer.SIZE) ? stripes[0] : stripes[hash >>> stripeShift];
+	}
+
+	/**
+	 * Gets the value of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is absent
+	 */
+	@SuppressWarnings("unchecked")
+	V get(int key) {
+		int hash = mix(key);
+		return (V) stripeOf(hash).get(key, hash);
+	}
+
+	/**
+	 * Checks whether the key is present.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is present
+	 */
+	boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Puts the value of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not null
+	 * @return the previous value, or null if the key was absent
+	 */
+	@SuppressWarnings("unchecked")
+	V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+
+		int hash = mix(key);
+		Stripe stripe = stripeOf(hash);
+		long stamp = stripe.lock.writeLock();
+		try {
+			return (V) stripe.put(key, hash, value);
+		} finally {
+			stripe.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the previous value, or null if the key was absent
+	 */
+	@SuppressWarnings("unchecked")
+	V remove(int key) {
+		int hash = mix(key);
+		Stripe stripe = stripeOf(hash);
+		long stamp = stripe.lock.writeLock();
+		try {
+			return (V) stripe.remove(key, hash);
+		} finally {
+			stripe.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Atomically replaces the value of the key by the one computed from it.
+	 * The remapping runs with the stripe locked, so it must be short.
+	 *
+	 * @param key
+	 *            the key
+	 * @param remapping
+	 *            computes the new value, or null to remove the key
+	 * @return the new value
+	 */
+	@SuppressWarnings("unchecked")
+	V compute(int key, Remapping<V> remapping) {
+		int hash = mix(key);
+		Stripe stripe = stripeOf(hash);
+		long stamp = stripe.lock.writeLock();
+		try {
+			V value = (V) stripe.values[Stripe.indexOf(stripe.keys, stripe.values, key, hash)];
+			V newValue = remapping.apply(key, value);
+
+			if (newValue != null) {
+				stripe.put(key, hash, newValue);
+			} else if (value != null) {
+				stripe.remove(key, hash);
+			}
+
+			return newValue;
+		} finally {
+			stripe.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Replaces every value by the one computed from it, one stripe at a time.
+	 *
+	 * @param remapping
+	 *            computes the new value, or null to remove the key
+	 */
+	@SuppressWarnings("unchecked")
+	void replaceAll(Remapping<V> remapping) {
+		for (Stripe stripe : stripes) {
+			long stamp = stripe.lock.writeLock();
+			try {
+				boolean removed = false;
+
+				for (int i = 0; i < stripe.keys.length; i++) {
+					if (stripe.values[i] != null) {
+						stripe.values[i] = remapping.apply(stripe.keys[i], (V) stripe.values[i]);
+						removed |= stripe.values[i] == null;
+					}
+				}
+
+				// Removed entries break probe sequences, so rebuild the table.
+				if (removed) {
+					stripe.resize(stripe.keys.length);
+				}
+			} finally {
+				stripe.lock.unlockWrite(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Gets a snapshot of the values, one stripe at a time.
+	 *
+	 * @return the values
+	 */
+	@SuppressWarnings("unchecked")
+	List<V> values() {
+		List<V> values = new ArrayList<>();
+
+		for (Stripe stripe : stripes) {
+			long stamp = stripe.lock.readLock();
+			try {
+				for (Object value : stripe.values) {
+					if (value != null) {
+						values.add((V) value);
+					}
+				}
+			} finally {
+				stripe.lock.unlockRead(stamp);
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Gets a snapshot of the keys, one stripe at a time.
+	 *
+	 * @return the keys
+	 */
+	List<Integer> keys() {
+		List<Integer> keys = new ArrayList<>();
+
+		for (Stripe stripe : stripes) {
+			long stamp = stripe.lock.readLock();
+			try {
+				for (int i = 0; i < stripe.keys.length; i++) {
+					if (stripe.values[i] != null) {
+						keys.add(stripe.keys[i]);
+					}
+				}
+			} finally {
+				stripe.lock.unlockRead(stamp);
+			}
+		}
+
+		return keys;
+	}
+
+	/**
+	 * Gets the number of keys.
+	 *
+	 * @return the number of keys
+	 */
+	int size() {
+		int size = 0;
+
+		for (Stripe stripe : stripes) {
+			long stamp = stripe.lock.readLock();
+			try {
+				size += stripe.size;
+			} finally {
+				stripe.lock.unlockRead(stamp);
+			}
+		}
+
+		return size;
+	}
+}
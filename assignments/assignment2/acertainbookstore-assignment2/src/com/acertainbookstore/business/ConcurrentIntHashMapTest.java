@@ -0,0 +1,251 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * {@link ConcurrentIntHashMapTest} tests the probing, deletion and resizing of
+ * the {@link ConcurrentIntHashMap}. It lives in the package of the map, which
+ * is not public. Most cases use a single stripe, whose initial table of 16
+ * slots holds at most 8 keys before it grows, so that the keys can be chosen
+ * to collide on given slots.
+ *
+ * @see ConcurrentIntHashMap
+ */
+public class ConcurrentIntHashMapTest {
+
+	/** The Constant INITIAL_CAPACITY of a stripe. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The Constant NUM_PRESENT_KEYS the readers look up during the resizes. */
+	private static final int NUM_PRESENT_KEYS = 1000;
+
+	/** The Constant NUM_ADDED_KEYS which make the stripe grow meanwhile. */
+	private static final int NUM_ADDED_KEYS = 100000;
+
+	/** The Constant NUM_READERS looking up keys at once. */
+	private static final int NUM_READERS = 2;
+
+	/**
+	 * Gets the home slot of a key in a table of the given capacity, as the map
+	 * hashes it.
+	 *
+	 * @param key
+	 *            the key
+	 * @param capacity
+	 *            the capacity of the table
+	 * @return the home slot
+	 */
+	private static int homeSlot(int key, int capacity) {
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & (capacity - 1);
+	}
+
+	/**
+	 * Finds keys whose home slot in the initial table is the given one.
+	 *
+	 * @param slot
+	 *            the home slot
+	 * @param numKeys
+	 *            the number of keys
+	 * @return the keys
+	 */
+	private static List<Integer> keysHomedAt(int slot, int numKeys) {
+		List<Integer> keys = new ArrayList<>();
+
+		for (int key = 1; keys.size() < numKeys; key++) {
+			if (homeSlot(key, INITIAL_CAPACITY) == slot) {
+				keys.add(key);
+			}
+		}
+
+		return keys;
+	}
+
+	/**
+	 * Tests that keys colliding on the last slot wrap around to the start of
+	 * the table, and that a missing key with the same home slot is not found.
+	 */
+	@Test
+	public void testCollidingKeysWrapAround() {
+		ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>(1);
+		List<Integer> keys = keysHomedAt(INITIAL_CAPACITY - 1, 6);
+		int missingKey = keys.remove(keys.size() - 1);
+
+		for (int key : keys) {
+			assertNull(map.put(key, "v" + key));
+		}
+
+		for (int key : keys) {
+			assertTrue(map.containsKey(key));
+			assertEquals("v" + key, map.get(key));
+		}
+
+		assertFalse(map.containsKey(missingKey));
+		assertNull(map.get(missingKey));
+		assertEquals("v" + keys.get(2), map.put(keys.get(2), "w"));
+		assertEquals("w", map.get(keys.get(2)));
+		assertEquals(keys.size(), map.size());
+	}
+
+	/**
+	 * Tests that removing keys in the middle of a probe chain which wraps
+	 * around shifts back the keys after them, including a key displaced from
+	 * its own home slot by the chain.
+	 */
+	@Test
+	public void testRemoveInProbeChain() {
+		ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>(1);
+		List<Integer> lastSlotKeys = keysHomedAt(INITIAL_CAPACITY - 1, 3);
+		int firstSlotKey = keysHomedAt(0, 1).get(0);
+
+		// The chain is last, last, first, last over slots 15, 0, 1 and 2.
+		map.put(lastSlotKeys.get(0), "a");
+		map.put(lastSlotKeys.get(1), "b");
+		map.put(firstSlotKey, "c");
+		map.put(lastSlotKeys.get(2), "d");
+
+		assertEquals("b", map.remove(lastSlotKeys.get(1)));
+		assertNull(map.get(lastSlotKeys.get(1)));
+		assertEquals("a", map.get(lastSlotKeys.get(0)));
+		assertEquals("c", map.get(firstSlotKey));
+		assertEquals("d", map.get(lastSlotKeys.get(2)));
+
+		assertEquals("a", map.remove(lastSlotKeys.get(0)));
+		assertEquals("c", map.get(firstSlotKey));
+		assertEquals("d", map.get(lastSlotKeys.get(2)));
+
+		assertNull(map.remove(lastSlotKeys.get(0)));
+		assertEquals("c", map.remove(firstSlotKey));
+		assertEquals("d", map.get(lastSlotKeys.get(2)));
+		assertEquals(1, map.size());
+	}
+
+	/**
+	 * Tests that readers always find the keys present while a writer makes
+	 * the stripe grow again and again under them.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testResizeUnderConcurrentGet() throws Exception {
+		ConcurrentIntHashMap<Integer> map = new ConcurrentIntHashMap<>(1);
+
+		for (int key = 0; key < NUM_PRESENT_KEYS; key++) {
+			map.put(key, key);
+		}
+
+		AtomicBoolean writing = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_READERS);
+		List<Future<Integer>> readers = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < NUM_READERS; i++) {
+				readers.add(executor.submit(() -> {
+					int numMisses = 0;
+
+					do {
+						for (int key = 0; key < NUM_PRESENT_KEYS; key++) {
+							Integer value = map.get(key);
+
+							if (value == null || value != key) {
+								numMisses++;
+							}
+						}
+					} while (writing.get());
+
+					return numMisses;
+				}));
+			}
+
+			for (int key = NUM_PRESENT_KEYS; key < NUM_PRESENT_KEYS + NUM_ADDED_KEYS; key++) {
+				map.put(key, key);
+			}
+		} finally {
+			writing.set(false);
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+		}
+
+		for (Future<Integer> reader : readers) {
+			assertEquals(Integer.valueOf(0), reader.get());
+		}
+
+		assertEquals(NUM_PRESENT_KEYS + NUM_ADDED_KEYS, map.size());
+	}
+
+	/**
+	 * Tests that replaceAll removes the keys mapped to null and that the keys
+	 * left behind are still found, in every stripe.
+	 */
+	@Test
+	public void testReplaceAllRemovingEntries() {
+		ConcurrentIntHashMap<Integer> map = new ConcurrentIntHashMap<>();
+		List<Integer> expectedKeys = new ArrayList<>();
+
+		for (int key = 0; key < NUM_PRESENT_KEYS; key++) {
+			map.put(key, key);
+
+			if (key % 3 == 0) {
+				expectedKeys.add(key);
+			}
+		}
+
+		map.replaceAll((key, value) -> (key % 3 == 0) ? value + 1 : null);
+
+		assertEquals(expectedKeys.size(), map.size());
+
+		for (int key = 0; key < NUM_PRESENT_KEYS; key++) {
+			assertEquals((key % 3 == 0) ? Integer.valueOf(key + 1) : null, map.get(key));
+		}
+
+		List<Integer> keys = map.keys();
+		Collections.sort(keys);
+		assertEquals(expectedKeys, keys);
+		assertEquals(expectedKeys.size(), map.values().size());
+	}
+
+	/**
+	 * Tests that compute removes a present key when it returns null, leaves an
+	 * absent key absent, and otherwise puts the new value.
+	 */
+	@Test
+	public void testComputeReturningNull() {
+		ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>(1);
+		List<Integer> keys = keysHomedAt(3, 3);
+
+		for (int key : keys) {
+			map.put(key, "v" + key);
+		}
+
+		assertNull(map.compute(keys.get(0), (key, value) -> null));
+		assertFalse(map.containsKey(keys.get(0)));
+
+		// The keys after the removed one in its probe chain are shifted back.
+		assertEquals("v" + keys.get(1), map.get(keys.get(1)));
+		assertEquals("v" + keys.get(2), map.get(keys.get(2)));
+
+		assertNull(map.compute(keys.get(0), (key, value) -> {
+			assertNull(value);
+			return null;
+		}));
+		assertFalse(map.containsKey(keys.get(0)));
+		assertEquals(2, map.size());
+
+		assertEquals("new", map.compute(keys.get(0), (key, value) -> "new"));
+		assertEquals("v" + keys.get(1) + "!", map.compute(keys.get(1), (key, value) -> value + "!"));
+		assertEquals("new", map.get(keys.get(0)));
+		assertEquals(3, map.size());
+	}
+}
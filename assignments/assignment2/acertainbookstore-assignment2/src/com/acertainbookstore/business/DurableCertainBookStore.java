@@ -0,0 +1,559 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreSerializerType;
+import com.acertainbookstore.utils.WriteAheadLog;
+
+/**
+ * {@link DurableCertainBookStore} makes an in-memory store durable. It logs
+ * the changes of every mutating request to a {@link WriteAheadLog} as a redo
+ * record and replays the log on {@link #recover()} to rebuild the store after
+ * a restart.
+ * <p>
+ * The store appends the record through a {@link StoreLog} from inside its own
+ * critical section, once it applied the request, so only requests which
+ * changed the store are logged and requests which change the same book are
+ * logged in the order they were applied. Requests on other books are not
+ * ordered against each other. Waiting for the log to reach the disk happens
+ * after the store released the books, so concurrent writers share a flush.
+ * Reads go straight to the store.
+ * <p>
+ * A record holds the books as the request left them rather than the request,
+ * and the log stamps each book with the LSN of the last record which changed
+ * it. A checkpoint therefore needs no consistent cut of store and log and
+ * stops no writer for the whole copy: it takes the LSN appended so far, copies
+ * the books a few at a time with their stamps, writes them to a snapshot file
+ * and truncates the log up to that LSN. A restart loads the snapshot and
+ * replays the records logged after it, skipping the changes of the books whose
+ * stamp shows that the copy already reflects them.
+ *
+ * @see WriteAheadLog
+ */
+public class DurableCertainBookStore implements BookStore, StockManager {
+
+    /**
+     * {@link LogRecord} is the redo record of a request: what it removed, and
+     * the books it added or updated as it left them.
+     */
+    private static final class LogRecord {
+
+        /** Whether the request removed all the books. */
+        private final boolean allRemoved;
+
+        /** The ISBNs of the books the request removed. */
+        private final Set<Integer> removedIsbns;
+
+        /** The books the request added or updated. */
+        private final List<StockBook> books;
+
+        private LogRecord(boolean allRemoved, Set<Integer> removedIsbns, List<StockBook> books) {
+            this.allRemoved = allRemoved;
+            this.removedIsbns = removedIsbns;
+            this.books = books;
+        }
+    }
+
+    /**
+     * {@link Checkpoint} is the state of the store after the records up to an
+     * LSN, and maybe some later ones, were applied.
+     */
+    private static final class Checkpoint {
+
+        /** The LSN of the last record reflected in the books. */
+        private final long lsn;
+
+        /** The books of the store, stamped with the LSN of their last change. */
+        private final List<BookStoreBook> books;
+
+        private Checkpoint(long lsn, List<BookStoreBook> books) {
+            this.lsn = lsn;
+            this.books = books;
+        }
+    }
+
+    /**
+     * {@link Mutation} is a request applied to the store.
+     */
+    private interface Mutation {
+        void apply(StoreLog storeLog) throws BookStoreException;
+    }
+
+    /**
+     * {@link RequestLog} appends the changes of one request to the log and
+     * keeps the LSN of its record, for the request to wait for.
+     */
+    private final class RequestLog implements StoreLog {
+
+        /** The LSN of the record, or 0 if the request changed nothing. */
+        private long lsn = 0;
+
+        @Override
+        public long logUpdated(Collection<BookStoreBook> books) throws BookStoreException {
+            List<StockBook> images = new ArrayList<>(books.size());
+
+            for (BookStoreBook book : books) {
+                images.add(book.immutableStockBook());
+            }
+
+            long recordLsn = append(new LogRecord(false, Collections.emptySet(), images));
+
+            for (BookStoreBook book : books) {
+                book.setLsn(recordLsn);
+            }
+
+            return recordLsn;
+        }
+
+        @Override
+        public long logRemoved(Set<Integer> isbns) throws BookStoreException {
+            return append(new LogRecord(false, new HashSet<>(isbns), Collections.emptyList()));
+        }
+
+        @Override
+        public long logAllRemoved() throws BookStoreException {
+            return append(new LogRecord(true, Collections.emptySet(), Collections.emptyList()));
+        }
+
+        private long append(LogRecord record) throws BookStoreException {
+            BookStoreSerializer serializer = BookStoreSerializerType.KRYO.borrowSerializer();
+
+            try {
+                lsn = log.append(serializer.serialize(record));
+                return lsn;
+            } catch (IOException ex) {
+                throw new BookStoreException(BookStoreConstants.LOG_FAILURE, ex);
+            } finally {
+                BookStoreSerializerType.KRYO.returnSerializer(serializer);
+            }
+        }
+    }
+
+    /** The store as seen by customers. */
+    private final BookStore bookStore;
+
+    /** The store as seen by the stock manager. */
+    private final StockManager stockManager;
+
+    /** The same store, which applies and logs the mutating requests. */
+    private final RestorableStore store;
+
+    /** The log of the store. */
+    private final WriteAheadLog log;
+
+    /** The snapshot file of the last checkpoint. */
+    private final Path checkpointFile;
+
+    /** Takes one checkpoint at a time. */
+    private final ReentrantLock checkpointing = new ReentrantLock();
+
+    /** The LSN of the last checkpoint, guarded by {@link #checkpointing}. */
+    private long checkpointLsn = 0;
+
+    /** Takes checkpoints in the background, once started. */
+    private ScheduledExecutorService checkpointer = null;
+
+    /**
+     * Instantiates a new {@link DurableCertainBookStore}.
+     *
+     * @param bookStore
+     *            the store as seen by customers
+     * @param stockManager
+     *            the store as seen by the stock manager, usually the same,
+     *            which applies and logs all the mutating requests
+     * @param log
+     *            the log of the store
+     * @param checkpointFile
+     *            the snapshot file of the checkpoints
+     * @throws IllegalArgumentException
+     *             if the stock manager is not one of the stores of this
+     *             package, which log their changes
+     */
+    public DurableCertainBookStore(BookStore bookStore, StockManager stockManager, WriteAheadLog log,
+            Path checkpointFile) {
+        if (!(stockManager instanceof RestorableStore)) {
+            throw new IllegalArgumentException("The store cannot log its changes: " + stockManager);
+        }
+
+        this.bookStore = bookStore;
+        this.stockManager = stockManager;
+        this.store = (RestorableStore) stockManager;
+        this.log = log;
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Rebuilds the store from the last checkpoint and the records logged
+     * after it. Must be called on an empty store before it serves requests.
+     *
+     * @return the number of replayed records
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public long recover() throws IOException {
+        checkpointing.lock();
+        try {
+            if (Files.exists(checkpointFile)) {
+                Checkpoint checkpoint = (Checkpoint) new BookStoreKryoSerializer()
+                        .deserialize(Files.readAllBytes(checkpointFile));
+
+                try {
+                    store.restoreBooks(checkpoint.books);
+                } catch (BookStoreException ex) {
+                    throw new IOException("The checkpoint could not be restored", ex);
+                }
+
+                checkpointLsn = checkpoint.lsn;
+            }
+
+            if (log.getStartLsn() > checkpointLsn) {
+                throw new IOException("The log starts after the checkpoint, records are missing");
+            }
+
+            long[] numRecords = { 0 };
+            BookStoreKryoSerializer serializer = new BookStoreKryoSerializer();
+
+            // A crash between a checkpoint and the truncation leaves records it covers.
+            log.replay((lsn, record) -> {
+                if (lsn > checkpointLsn) {
+                    try {
+                        apply(lsn, (LogRecord) serializer.deserialize(record));
+                    } catch (BookStoreException ex) {
+                        throw new IOException("The record " + lsn + " could not be replayed", ex);
+                    }
+
+                    numRecords[0]++;
+                }
+            });
+
+            // A log which lost the records the checkpoint covers must not reuse their LSNs.
+            log.restartAt(checkpointLsn);
+            return numRecords[0];
+        } finally {
+            checkpointing.unlock();
+        }
+    }
+
+    /**
+     * Takes a checkpoint: copies the books without stopping the writers,
+     * writes them to the snapshot file and truncates the log up to the LSN
+     * appended before they were copied.
+     *
+     * @return the LSN of the checkpoint
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws BookStoreException
+     *             the book store exception
+     */
+    public long checkpoint() throws IOException, BookStoreException {
+        checkpointing.lock();
+        try {
+            // The copy reflects every record up to this LSN, and maybe some
+            // later ones, which its stamps skip when they are replayed.
+            long lsn = log.getAppendedLsn();
+
+            if (lsn == checkpointLsn) {
+                return lsn;
+            }
+
+            List<BookStoreBook> books = store.copyBooks();
+
+            // The checkpoint must not get ahead of the log, or LSNs are reused.
+            log.flush();
+
+            ByteBuffer snapshot = ByteBuffer.wrap(new BookStoreKryoSerializer().serialize(new Checkpoint(lsn, books)));
+            Path snapshotPath = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".new");
+
+            try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (snapshot.hasRemaining()) {
+                    channel.write(snapshot);
+                }
+
+                channel.force(false);
+            }
+
+            Files.move(snapshotPath, checkpointFile, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            checkpointLsn = lsn;
+            log.truncate(lsn);
+            return lsn;
+        } finally {
+            checkpointing.unlock();
+        }
+    }
+
+    /**
+     * Starts taking checkpoints in the background.
+     *
+     * @param intervalMillis
+     *            the time between checkpoints
+     */
+    public synchronized void startCheckpoints(long intervalMillis) {
+        if (checkpointer != null) {
+            return;
+        }
+
+        checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException | BookStoreException ex) {
+                System.err.println("The checkpoint failed: " + ex);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the LSN of the last checkpoint.
+     *
+     * @return the LSN
+     */
+    public long getCheckpointLsn() {
+        checkpointing.lock();
+        try {
+            return checkpointLsn;
+        } finally {
+            checkpointing.unlock();
+        }
+    }
+
+    /**
+     * Gets the log of the store.
+     *
+     * @return the log
+     */
+    public WriteAheadLog getLog() {
+        return log;
+    }
+
+    /**
+     * Forces the log to disk and closes it.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (checkpointer != null) {
+                checkpointer.shutdown();
+            }
+        }
+
+        // Let a running checkpoint finish before the log goes away.
+        checkpointing.lock();
+        try {
+            log.close();
+        } finally {
+            checkpointing.unlock();
+        }
+    }
+
+    /**
+     * Replays a record, setting the books it changed to their logged state
+     * unless the checkpoint already reflects the change.
+     */
+    private void apply(long lsn, LogRecord record) throws BookStoreException {
+        if (record.allRemoved) {
+            store.discardAllBooks(lsn);
+        }
+
+        if (!record.removedIsbns.isEmpty()) {
+            store.discardBooks(record.removedIsbns, lsn);
+        }
+
+        if (!record.books.isEmpty()) {
+            List<BookStoreBook> books = new ArrayList<>(record.books.size());
+
+            for (StockBook image : record.books) {
+                BookStoreBook book = new BookStoreBook(image);
+                book.setLsn(lsn);
+                books.add(book);
+            }
+
+            store.restoreBooks(books);
+        }
+    }
+
+    /**
+     * Applies a request to the store, which logs its changes, and waits for
+     * them to reach the disk.
+     */
+    private void applyAndLog(Mutation mutation) throws BookStoreException {
+        RequestLog requestLog = new RequestLog();
+        BookStoreException failure = null;
+
+        try {
+            mutation.apply(requestLog);
+        } catch (BookStoreException ex) {
+            // A purchase may fail after recording its sale misses.
+            failure = ex;
+        }
+
+        if (requestLog.lsn > 0) {
+            try {
+                log.commit(requestLog.lsn);
+            } catch (IOException ex) {
+                throw new BookStoreException(BookStoreConstants.LOG_FAILURE, ex);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+     */
+    public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+        applyAndLog(storeLog -> store.addBooks(bookSet, storeLog));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+     */
+    public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+        applyAndLog(storeLog -> store.addCopies(bookCopiesSet, storeLog));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+     */
+    public List<StockBook> getBooks() throws BookStoreException {
+        return stockManager.getBooks();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+     * .Set)
+     */
+    public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+        applyAndLog(storeLog -> store.updateEditorPicks(editorPicks, storeLog));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+     */
+    public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+        applyAndLog(storeLog -> store.buyBooks(bookCopiesToBuy, storeLog));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+     * Set)
+     */
+    public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+        return stockManager.getBooksByISBN(isbnSet);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+     */
+    public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+        return bookStore.getBooks(isbnSet);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+     */
+    public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+        return bookStore.getEditorPicks(numBooks);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+     */
+    @Override
+    public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+        return bookStore.getTopRatedBooks(numBooks);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+     */
+    @Override
+    public List<StockBook> getBooksInDemand() throws BookStoreException {
+        return stockManager.getBooksInDemand();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+     */
+    @Override
+    public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+        // None of the stores keeps ratings yet, so rating changes nothing to log.
+        bookStore.rateBooks(bookRating);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+     */
+    public void removeAllBooks() throws BookStoreException {
+        applyAndLog(store::removeAllBooks);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+     */
+    public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+        applyAndLog(storeLog -> store.removeBooks(isbnSet, storeLog));
+    }
+}
@@ -0,0 +1,171 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * {@link EditorPicksIndex} keeps the ISBNs of the editor picks of a store, so
+ * that a random sample of them is drawn without scanning the catalog.
+ * <p>
+ * The ISBNs are kept densely in an array with their positions in a map, so
+ * adding and removing a pick take constant time. A sample of k picks is drawn
+ * with Floyd's algorithm in O(k), without reordering the array. The index is
+ * thread-safe on its own; keeping it in step with the books is up to the
+ * store.
+ */
+final class EditorPicksIndex {
+
+	/** The initial capacity of the array of picks. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The ISBNs of the picks, in positions [0, numPicks). */
+	private int[] picks = new int[INITIAL_CAPACITY];
+
+	/** The number of picks. */
+	private int numPicks = 0;
+
+	/** The position of each pick in {@link #picks}. */
+	private final Map<Integer, Integer> positions = new HashMap<>();
+
+	/** The source of randomness of the samples. */
+	private final Random random = new Random();
+
+	/**
+	 * Sets whether a book is an editor pick.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @param editorPick
+	 *            whether the book is an editor pick
+	 */
+	synchronized void set(int isbn, boolean editorPick) {
+		if (editorPick) {
+			add(isbn);
+		} else {
+			remove(isbn);
+		}
+	}
+
+	/**
+	 * Adds a pick, unless it is already there.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	synchronized void add(int isbn) {
+		if (positions.containsKey(isbn)) {
+			return;
+		}
+
+		if (numPicks == picks.length) {
+			picks = Arrays.copyOf(picks, picks.length * 2);
+		}
+
+		picks[numPicks] = isbn;
+		positions.put(isbn, numPicks);
+		numPicks++;
+	}
+
+	/**
+	 * Removes a pick, if it is there.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	synchronized void remove(int isbn) {
+		Integer position = positions.remove(isbn);
+
+		if (position == null) {
+			return;
+		}
+
+		// Move the last pick into the hole to keep the array dense.
+		numPicks--;
+
+		if (position != numPicks) {
+			int last = picks[numPicks];
+			picks[position] = last;
+			positions.put(last, position);
+		}
+	}
+
+	/**
+	 * Removes all picks.
+	 */
+	synchronized void clear() {
+		picks = new int[INITIAL_CAPACITY];
+		numPicks = 0;
+		positions.clear();
+	}
+
+	/**
+	 * Draws distinct picks uniformly at random.
+	 *
+	 * @param numBooks
+	 *            the number of picks to draw
+	 * @return the ISBNs of the drawn picks, all of them if there are at most
+	 *         numBooks
+	 */
+	synchronized Set<Integer> sample(int numBooks) {
+		return sample(numBooks, Collections.emptySet());
+	}
+
+	/**
+	 * Draws distinct picks uniformly at random among those not excluded.
+	 *
+	 * @param numBooks
+	 *            the number of picks to draw
+	 * @param excluded
+	 *            the ISBNs which must not be drawn, such as those drawn before
+	 * @return the ISBNs of the drawn picks, all of them if there are at most
+	 *         numBooks which are not excluded
+	 */
+	synchronized Set<Integer> sample(int numBooks, Set<Integer> excluded) {
+		int[] candidates = picks;
+		int numCandidates = numPicks;
+
+		if (!excluded.isEmpty()) {
+			// Only after a sample went stale, so copying the picks is rare.
+			candidates = new int[numPicks];
+			numCandidates = 0;
+
+			for (int i = 0; i < numPicks; i++) {
+				if (!excluded.contains(picks[i])) {
+					candidates[numCandidates++] = picks[i];
+				}
+			}
+		}
+
+		Set<Integer> sample = new HashSet<>();
+
+		if (numCandidates <= numBooks) {
+			for (int i = 0; i < numCandidates; i++) {
+				sample.add(candidates[i]);
+			}
+
+			return sample;
+		}
+
+		// Floyd's algorithm: each position j adds either a fresh random
+		// position below it or, if that one was drawn already, j itself.
+		Set<Integer> drawn = new HashSet<>();
+
+		for (int j = numCandidates - numBooks; j < numCandidates; j++) {
+			int position = random.nextInt(j + 1);
+
+			if (!drawn.add(position)) {
+				drawn.add(j);
+				position = j;
+			}
+
+			sample.add(candidates[position]);
+		}
+
+		return sample;
+	}
+}
@@ -0,0 +1,949 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link MultiVersionConcurrentCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities using multi-version concurrency control.
+ * <p>
+ * Every book is kept as a short chain of committed {@link BookStoreBook} versions, each stamped with
+ * the commit timestamp of the transaction that wrote it. Readers take a snapshot of the commit clock
+ * and read the newest version not younger than the snapshot, so they never take a lock. Writers work
+ * on private copies, then validate under a short commit lock that none of the versions they read was
+ * replaced in the meantime; if one was, the transaction is retried. A reader whose snapshot was pruned
+ * by the writers retries a few times, then holds them off for one last read rather than starve.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class MultiVersionConcurrentCertainBookStore implements BookStore, StockManager, RestorableStore {
+
+    /**
+     * The number of snapshots a reader tries before it takes the commit lock for its read.
+     */
+    private static final int MAX_SNAPSHOT_READS = 8;
+
+    /**
+     * Serializes the validate-and-install phase of the writers; readers never take it.
+     */
+    private final Lock commitLock = new ReentrantLock();
+
+    /**
+     * The timestamp of the last committed transaction.
+     */
+    private final AtomicLong commitClock = new AtomicLong();
+
+    /**
+     * The commit timestamp of the last transaction which removed books from the catalog.
+     */
+    private volatile long lastRemovalTimestamp;
+
+    /**
+     * The commit timestamp of the last transaction which took books out of the editor picks.
+     */
+    private volatile long lastUnpickTimestamp;
+
+    /**
+     * The ISBNs of the editor picks in the newest versions, so that readers do not scan the catalog;
+     * the books picked after a snapshot are filtered out by its readers.
+     */
+    private final Set<Integer> editorPickIsbns = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The mapping of books from ISBN to the newest {@link BookVersion}.
+     */
+    private final ConcurrentMap<Integer, BookVersion> bookMap;
+
+    /**
+     * A committed version of a book.
+     */
+    private static final class BookVersion {
+
+        /**
+         * Marks a chain whose older versions have been discarded.
+         */
+        private static final BookVersion PRUNED = new BookVersion(Long.MAX_VALUE, null, null);
+
+        /** The commit timestamp of the transaction which wrote this version. */
+        private final long commitTimestamp;
+
+        /** The state of the book, never modified after the version is installed. */
+        private final BookStoreBook book;
+
+        /** The version this one replaced, or null if the book was added by it. */
+        private volatile BookVersion previous;
+
+        private BookVersion(long commitTimestamp, BookStoreBook book, BookVersion previous) {
+            this.commitTimestamp = commitTimestamp;
+            this.book = book;
+            this.previous = previous;
+        }
+
+        /**
+         * Finds the version visible to a reader with the given snapshot.
+         *
+         * @param snapshot
+         *            the snapshot timestamp
+         * @return the version, null if the book did not exist at the snapshot, or {@link #PRUNED}
+         *         if the version has already been discarded
+         */
+        private BookVersion visibleAt(long snapshot) {
+            BookVersion version = this;
+
+            while (version.commitTimestamp > snapshot) {
+                version = version.previous;
+
+                if (version == null || version == PRUNED) {
+                    return version;
+                }
+            }
+
+            return version;
+        }
+    }
+
+    /**
+     * {@link SnapshotRead} reads books as of a snapshot, and returns null if the snapshot is no longer
+     * readable.
+     */
+    private interface SnapshotRead<T> {
+        T read(long snapshot) throws BookStoreException;
+    }
+
+    /**
+     * Instantiates a new {@link MultiVersionConcurrentCertainBookStore}.
+     */
+    public MultiVersionConcurrentCertainBookStore() {
+        // Constructors are not synchronized
+        bookMap = new ConcurrentHashMap<>();
+    }
+
+    private void validate(StockBook book) throws BookStoreException {
+        int isbn = book.getISBN();
+        String bookTitle = book.getTitle();
+        String bookAuthor = book.getAuthor();
+        int noCopies = book.getNumCopies();
+        float bookPrice = book.getPrice();
+
+        if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+            throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+        }
+
+        if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+            throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+        }
+
+        if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+            throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+        }
+
+        if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+            throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+        }
+
+        if (bookPrice < 0.0) { // Check if the price of the book is valid
+            throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+        }
+
+        if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+            throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+        }
+    }
+
+    private void validate(BookCopy bookCopy) throws BookStoreException {
+        int isbn = bookCopy.getISBN();
+        int numCopies = bookCopy.getNumCopies();
+
+        validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+        if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+            throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+        }
+    }
+
+    private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+        int isbn = editorPickArg.getISBN();
+        validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+    }
+
+    private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+        if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+            throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+        }
+        if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+            throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+        }
+    }
+
+    /**
+     * Reads the newest version of a book for an update. The returned version is only a guess at this
+     * point; {@link #commit(Map, Map, StoreLog)} checks that it is still the newest one.
+     *
+     * @param isbn
+     *            the ISBN
+     * @return the newest version
+     * @throws BookStoreException
+     *             if the book is not in stock
+     */
+    private BookVersion readForUpdate(int isbn) throws BookStoreException {
+        BookVersion head = bookMap.get(isbn);
+
+        if (head == null) {
+            throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
+        }
+
+        return head;
+    }
+
+    /**
+     * Installs the new versions of an update transaction if none of the versions it read has been
+     * replaced since.
+     *
+     * @param readSet
+     *            the versions read by the transaction
+     * @param writeSet
+     *            the new states of the books written by the transaction
+     * @param storeLog
+     *            the log of the new states, appended to before they are installed
+     * @return true, if the transaction committed; false, if it has to be retried
+     * @throws BookStoreException
+     *             if the transaction could not be logged, in which case nothing is installed
+     */
+    private boolean commit(Map<Integer, BookVersion> readSet, Map<Integer, BookStoreBook> writeSet,
+            StoreLog storeLog) throws BookStoreException {
+        commitLock.lock();
+        try {
+            for (Map.Entry<Integer, BookVersion> readEntry : readSet.entrySet()) {
+                if (bookMap.get(readEntry.getKey()) != readEntry.getValue()) {
+                    return false;
+                }
+            }
+
+            // Installed versions are never modified, so they are stamped with their LSN before.
+            storeLog.logUpdated(writeSet.values());
+            long commitTimestamp = commitClock.get() + 1;
+
+            for (Map.Entry<Integer, BookStoreBook> writeEntry : writeSet.entrySet()) {
+                BookVersion replaced = readSet.get(writeEntry.getKey());
+                bookMap.put(writeEntry.getKey(), new BookVersion(commitTimestamp, writeEntry.getValue(), replaced));
+                indexEditorPick(writeEntry.getValue(), commitTimestamp);
+
+                // Keep at most two versions per book; older snapshots retry instead.
+                if (replaced.previous != null) {
+                    replaced.previous = BookVersion.PRUNED;
+                }
+            }
+
+            commitClock.set(commitTimestamp);
+            return true;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Keeps the editor picks up to date with a new version of a book. It is called under the commit lock,
+     * before the commit timestamp is published.
+     *
+     * @param book
+     *            the new version of the book
+     * @param commitTimestamp
+     *            the commit timestamp of the new version
+     */
+    private void indexEditorPick(BookStoreBook book, long commitTimestamp) {
+        if (book.isEditorPick()) {
+            editorPickIsbns.add(book.getISBN());
+        } else if (editorPickIsbns.contains(book.getISBN())) {
+            // Readers with an older snapshot must retry once they miss a pick.
+            lastUnpickTimestamp = commitTimestamp;
+            editorPickIsbns.remove(book.getISBN());
+        }
+    }
+
+    /**
+     * Reads the books with the given ISBNs as of the snapshot.
+     *
+     * @param isbnSet
+     *            the ISBNs
+     * @param snapshot
+     *            the snapshot timestamp
+     * @return the books, or null if the snapshot is no longer readable and the read has to be retried
+     * @throws BookStoreException
+     *             if an ISBN is invalid or the book was not in stock at the snapshot
+     */
+    private List<BookStoreBook> readSnapshot(Set<Integer> isbnSet, long snapshot) throws BookStoreException {
+        List<BookStoreBook> books = new ArrayList<>(isbnSet.size());
+
+        for (Integer ISBN : isbnSet) {
+            if (BookStoreUtility.isInvalidISBN(ISBN)) {
+                throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+            }
+
+            BookVersion head = bookMap.get(ISBN);
+            BookVersion version = (head == null) ? null : head.visibleAt(snapshot);
+
+            if (version == BookVersion.PRUNED) {
+                return null;
+            }
+
+            if (version == null) {
+                // The book may have been removed after the snapshot was taken.
+                if (lastRemovalTimestamp > snapshot) {
+                    return null;
+                }
+
+                throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+            }
+
+            books.add(version.book);
+        }
+
+        return (lastRemovalTimestamp > snapshot) ? null : books;
+    }
+
+    /**
+     * Reads all the books in the catalog as of the snapshot.
+     *
+     * @param snapshot
+     *            the snapshot timestamp
+     * @return the books, or null if the snapshot is no longer readable and the read has to be retried
+     */
+    private List<BookStoreBook> readSnapshot(long snapshot) {
+        List<BookStoreBook> books = new ArrayList<>(bookMap.size());
+
+        for (BookVersion head : bookMap.values()) {
+            BookVersion version = head.visibleAt(snapshot);
+
+            if (version == BookVersion.PRUNED) {
+                return null;
+            }
+
+            if (version != null) {
+                books.add(version.book);
+            }
+        }
+
+        return (lastRemovalTimestamp > snapshot) ? null : books;
+    }
+
+    /**
+     * Reads the editor picks as of the snapshot.
+     *
+     * @param snapshot
+     *            the snapshot timestamp
+     * @return the books, or null if the snapshot is no longer readable and the read has to be retried
+     */
+    private List<BookStoreBook> readEditorPicks(long snapshot) {
+        List<BookStoreBook> books = new ArrayList<>();
+
+        for (Integer ISBN : editorPickIsbns) {
+            BookVersion head = bookMap.get(ISBN);
+            BookVersion version = (head == null) ? null : head.visibleAt(snapshot);
+
+            if (version == BookVersion.PRUNED) {
+                return null;
+            }
+
+            // The books picked after the snapshot are already in the index.
+            if (version != null && version.book.isEditorPick()) {
+                books.add(version.book);
+            }
+        }
+
+        return (lastRemovalTimestamp > snapshot || lastUnpickTimestamp > snapshot) ? null : books;
+    }
+
+    /**
+     * Reads from a consistent snapshot. The read is retried on a newer snapshot a few times; after that
+     * the writers, which keep pruning the versions it needs, are held off for one last read, which cannot
+     * fail.
+     *
+     * @param snapshotRead
+     *            the read
+     * @return the result of the read
+     * @throws BookStoreException
+     *             if the read fails
+     */
+    private <T> T readConsistent(SnapshotRead<T> snapshotRead) throws BookStoreException {
+        for (int i = 0; i < MAX_SNAPSHOT_READS; i++) {
+            T result = snapshotRead.read(commitClock.get());
+
+            if (result != null) {
+                return result;
+            }
+        }
+
+        commitLock.lock();
+        try {
+            return snapshotRead.read(commitClock.get());
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+     */
+    public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+        addBooks(bookSet, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#addBooks(java.util.Set,
+     * com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void addBooks(Set<StockBook> bookSet, StoreLog storeLog) throws BookStoreException {
+        if (bookSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        commitLock.lock();
+        try {
+            // Check if all are there
+            for (StockBook book : bookSet) {
+                validate(book);
+            }
+
+            List<BookStoreBook> addedBooks = new ArrayList<>(bookSet.size());
+
+            for (StockBook book : bookSet) {
+                addedBooks.add(new BookStoreBook(book));
+            }
+
+            storeLog.logUpdated(addedBooks);
+            long commitTimestamp = commitClock.get() + 1;
+
+            for (BookStoreBook addedBook : addedBooks) {
+                bookMap.put(addedBook.getISBN(), new BookVersion(commitTimestamp, addedBook, null));
+                indexEditorPick(addedBook, commitTimestamp);
+            }
+
+            commitClock.set(commitTimestamp);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#restoreBooks(java.util.
+     * Collection)
+     */
+    @Override
+    public void restoreBooks(Collection<BookStoreBook> books) throws BookStoreException {
+        if (books == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        commitLock.lock();
+        try {
+            long commitTimestamp = commitClock.get() + 1;
+
+            for (BookStoreBook book : books) {
+                BookVersion head = bookMap.get(book.getISBN());
+
+                if (head == null || head.book.getLsn() < book.getLsn()) {
+                    bookMap.put(book.getISBN(), new BookVersion(commitTimestamp, book.checkpointCopy(), null));
+                    indexEditorPick(book, commitTimestamp);
+                }
+            }
+
+            commitClock.set(commitTimestamp);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#discardBooks(java.util.Set,
+     * long)
+     */
+    @Override
+    public void discardBooks(Set<Integer> isbns, long lsn) throws BookStoreException {
+        if (isbns == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        commitLock.lock();
+        try {
+            long commitTimestamp = commitClock.get() + 1;
+
+            // Readers with an older snapshot must retry once they miss a book.
+            lastRemovalTimestamp = commitTimestamp;
+
+            for (int isbn : isbns) {
+                BookVersion head = bookMap.get(isbn);
+
+                if (head != null && head.book.getLsn() < lsn) {
+                    bookMap.remove(isbn);
+                    editorPickIsbns.remove(isbn);
+                }
+            }
+
+            commitClock.set(commitTimestamp);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.business.RestorableStore#discardAllBooks(long)
+     */
+    @Override
+    public void discardAllBooks(long lsn) throws BookStoreException {
+        commitLock.lock();
+        try {
+            long commitTimestamp = commitClock.get() + 1;
+
+            // Readers with an older snapshot must retry once they miss a book.
+            lastRemovalTimestamp = commitTimestamp;
+            bookMap.values().removeIf(head -> head.book.getLsn() < lsn);
+            editorPickIsbns.retainAll(bookMap.keySet());
+            commitClock.set(commitTimestamp);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.business.RestorableStore#copyBooks()
+     */
+    @Override
+    public List<BookStoreBook> copyBooks() throws BookStoreException {
+        // Waits for the writers which were logged but not yet installed; the
+        // installed versions are immutable, so the copy needs no lock.
+        commitLock.lock();
+        commitLock.unlock();
+
+        List<BookStoreBook> books = new ArrayList<>(bookMap.size());
+
+        for (BookVersion head : bookMap.values()) {
+            books.add(head.book.checkpointCopy());
+        }
+
+        return books;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+     */
+    public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+        addCopies(bookCopiesSet, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#addCopies(java.util.Set,
+     * com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void addCopies(Set<BookCopy> bookCopiesSet, StoreLog storeLog) throws BookStoreException {
+        if (bookCopiesSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        Map<Integer, BookVersion> readSet;
+        Map<Integer, BookStoreBook> writeSet;
+
+        do {
+            readSet = new HashMap<>();
+            writeSet = new HashMap<>();
+
+            for (BookCopy bookCopy : bookCopiesSet) {
+                validate(bookCopy);
+            }
+
+            // Update the number of copies on private copies of the books
+            for (BookCopy bookCopy : bookCopiesSet) {
+                int isbn = bookCopy.getISBN();
+                BookStoreBook book = writeSet.get(isbn);
+
+                if (book == null) {
+                    BookVersion version = readForUpdate(isbn);
+                    readSet.put(isbn, version);
+                    book = new BookStoreBook(version.book);
+                    writeSet.put(isbn, book);
+                }
+
+                book.addCopies(bookCopy.getNumCopies());
+            }
+        } while (!commit(readSet, writeSet, storeLog));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+     */
+    public List<StockBook> getBooks() throws BookStoreException {
+        List<BookStoreBook> books = readConsistent(snapshot -> readSnapshot(snapshot));
+
+        return books.stream()
+                    .map(BookStoreBook::immutableStockBook)
+                    .collect(Collectors.toList());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+     * .Set)
+     */
+    public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+        updateEditorPicks(editorPicks, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#updateEditorPicks(java.
+     * util.Set, com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void updateEditorPicks(Set<BookEditorPick> editorPicks, StoreLog storeLog) throws BookStoreException {
+        // Check that all ISBNs that we add/remove are there first.
+        if (editorPicks == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        Map<Integer, BookVersion> readSet;
+        Map<Integer, BookStoreBook> writeSet;
+
+        do {
+            readSet = new HashMap<>();
+            writeSet = new HashMap<>();
+
+            for (BookEditorPick editorPickArg : editorPicks) {
+                validate(editorPickArg);
+            }
+
+            for (BookEditorPick editorPickArg : editorPicks) {
+                int isbn = editorPickArg.getISBN();
+                BookStoreBook book = writeSet.get(isbn);
+
+                if (book == null) {
+                    BookVersion version = readForUpdate(isbn);
+                    readSet.put(isbn, version);
+                    book = new BookStoreBook(version.book);
+                    writeSet.put(isbn, book);
+                }
+
+                book.setEditorPick(editorPickArg.isEditorPick());
+            }
+        } while (!commit(readSet, writeSet, storeLog));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+     */
+    public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+        buyBooks(bookCopiesToBuy, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#buyBooks(java.util.Set,
+     * com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void buyBooks(Set<BookCopy> bookCopiesToBuy, StoreLog storeLog) throws BookStoreException {
+        if (bookCopiesToBuy == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        Map<Integer, BookVersion> readSet;
+        Map<Integer, BookStoreBook> writeSet;
+        boolean saleMiss;
+
+        do {
+            readSet = new HashMap<>();
+            writeSet = new HashMap<>();
+            saleMiss = false;
+
+            Map<Integer, Integer> salesMisses = new HashMap<>();
+
+            // Check that all ISBNs that we buy are there first.
+            for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+                int isbn = bookCopyToBuy.getISBN();
+                validate(bookCopyToBuy);
+
+                BookVersion version = readSet.get(isbn);
+
+                if (version == null) {
+                    version = readForUpdate(isbn);
+                    readSet.put(isbn, version);
+                }
+
+                if (!version.book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+                    // If we cannot sell the copies of the book, it is a miss.
+                    salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - version.book.getNumCopies());
+                    saleMiss = true;
+                }
+            }
+
+            // We record the misses now since we want to see how many books in
+            // the order incurred misses which is used by books in demand
+            if (saleMiss) {
+                for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+                    BookStoreBook book = new BookStoreBook(readSet.get(saleMissEntry.getKey()).book);
+                    book.addSaleMiss(saleMissEntry.getValue());
+                    writeSet.put(saleMissEntry.getKey(), book);
+                }
+            } else {
+                // Then make the purchase.
+                for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+                    int isbn = bookCopyToBuy.getISBN();
+                    BookStoreBook book = writeSet.get(isbn);
+
+                    if (book == null) {
+                        book = new BookStoreBook(readSet.get(isbn).book);
+                        writeSet.put(isbn, book);
+                    }
+
+                    book.buyCopies(bookCopyToBuy.getNumCopies());
+                }
+            }
+        } while (!commit(readSet, writeSet, storeLog));
+
+        if (saleMiss) {
+            throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+     * Set)
+     */
+    public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+        if (isbnSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        List<BookStoreBook> books = readConsistent(snapshot -> readSnapshot(isbnSet, snapshot));
+
+        return books.stream()
+                    .map(BookStoreBook::immutableStockBook)
+                    .collect(Collectors.toList());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+     */
+    public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+        if (isbnSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        List<BookStoreBook> books = readConsistent(snapshot -> readSnapshot(isbnSet, snapshot));
+
+        return books.stream()
+                    .map(BookStoreBook::immutableBook)
+                    .collect(Collectors.toList());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+     */
+    public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+        if (numBooks < 0) {
+            throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+        }
+
+        List<BookStoreBook> listAllEditorPicks = readConsistent(snapshot -> readEditorPicks(snapshot));
+
+        // Find numBooks random indices of books that will be picked.
+        Random rand = new Random();
+        Set<Integer> tobePicked = new HashSet<>();
+        int rangePicks = listAllEditorPicks.size();
+
+        if (rangePicks <= numBooks) {
+
+            // We need to add all books.
+            for (int i = 0; i < listAllEditorPicks.size(); i++) {
+                tobePicked.add(i);
+            }
+        } else {
+
+            // We need to pick randomly the books that need to be returned.
+            int randNum;
+
+            while (tobePicked.size() < numBooks) {
+                randNum = rand.nextInt(rangePicks);
+                tobePicked.add(randNum);
+            }
+        }
+
+        // Return all the books by the randomly chosen indices.
+        return tobePicked.stream()
+                         .map(index -> listAllEditorPicks.get(index).immutableBook())
+                         .collect(Collectors.toList());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+     */
+    @Override
+    public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+        throw new BookStoreException();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+     */
+    @Override
+    public List<StockBook> getBooksInDemand() throws BookStoreException {
+        throw new BookStoreException();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+     */
+    @Override
+    public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+        throw new BookStoreException();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+     */
+    public void removeAllBooks() throws BookStoreException {
+        removeAllBooks(StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#removeAllBooks(com.
+     * acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void removeAllBooks(StoreLog storeLog) throws BookStoreException {
+        commitLock.lock();
+        try {
+            long commitTimestamp = commitClock.get() + 1;
+
+            // Readers with an older snapshot must retry once they miss a book.
+            lastRemovalTimestamp = commitTimestamp;
+            bookMap.clear();
+            editorPickIsbns.clear();
+            commitClock.set(commitTimestamp);
+            storeLog.logAllRemoved();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+     */
+    public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+        removeBooks(isbnSet, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#removeBooks(java.util.Set,
+     * com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void removeBooks(Set<Integer> isbnSet, StoreLog storeLog) throws BookStoreException {
+        if (isbnSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        commitLock.lock();
+        try {
+            for (Integer ISBN : isbnSet) {
+                if (BookStoreUtility.isInvalidISBN(ISBN)) {
+                    throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+                }
+
+                if (!bookMap.containsKey(ISBN)) {
+                    throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+                }
+            }
+
+            long commitTimestamp = commitClock.get() + 1;
+
+            // Readers with an older snapshot must retry once they miss a book.
+            lastRemovalTimestamp = commitTimestamp;
+
+            for (int isbn : isbnSet) {
+                bookMap.remove(isbn);
+                editorPickIsbns.remove(isbn);
+            }
+
+            commitClock.set(commitTimestamp);
+            storeLog.logRemoved(isbnSet);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+}
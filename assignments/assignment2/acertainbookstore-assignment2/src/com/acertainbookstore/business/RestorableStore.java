@@ -0,0 +1,152 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link RestorableStore} is a store which can be made durable by
+ * {@link DurableCertainBookStore}: its requests report their changes to a
+ * {@link StoreLog}, which stamps the changed books with the LSN of their
+ * record, and it can be loaded from a checkpoint and the changes logged after
+ * it, skipping the changes the checkpoint already reflects.
+ *
+ * @see DurableCertainBookStore
+ */
+interface RestorableStore {
+
+	/**
+	 * The number of books copied at a time for a checkpoint, so that writers
+	 * only wait for the copy of a chunk.
+	 */
+	int COPY_CHUNK_SIZE = 1024;
+
+	/**
+	 * Loads books exactly as they were when the checkpoint copied them or their
+	 * change was logged, replacing the books with the same ISBNs unless these
+	 * are stamped with the same or a later LSN, since the checkpoint already
+	 * reflects the change then. Unlike addBooks, books which were sold out or
+	 * rated are accepted, since they were valid when they were logged.
+	 *
+	 * @param books
+	 *            the books, stamped with the LSN of their last logged change
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void restoreBooks(Collection<BookStoreBook> books) throws BookStoreException;
+
+	/**
+	 * Removes the books with the given ISBNs which are in the store, when a
+	 * logged removal is replayed, unless they are stamped with the same or a
+	 * later LSN.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @param lsn
+	 *            the LSN of the removal
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void discardBooks(Set<Integer> isbns, long lsn) throws BookStoreException;
+
+	/**
+	 * Removes all the books stamped with an earlier LSN, when a logged removal
+	 * of all the books is replayed.
+	 *
+	 * @param lsn
+	 *            the LSN of the removal
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void discardAllBooks(long lsn) throws BookStoreException;
+
+	/**
+	 * Copies the books for a checkpoint, stamped with the LSN of their last
+	 * logged change, without stopping the writers for the whole copy. The copy
+	 * reflects every change logged before the call, and maybe some later ones.
+	 *
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<BookStoreBook> copyBooks() throws BookStoreException;
+
+	/**
+	 * Adds books and logs them.
+	 *
+	 * @param bookSet
+	 *            the books
+	 * @param storeLog
+	 *            the log of the changes
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @see com.acertainbookstore.interfaces.StockManager#addBooks(Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet, StoreLog storeLog) throws BookStoreException;
+
+	/**
+	 * Adds copies of books and logs the books.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies
+	 * @param storeLog
+	 *            the log of the changes
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @see com.acertainbookstore.interfaces.StockManager#addCopies(Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet, StoreLog storeLog) throws BookStoreException;
+
+	/**
+	 * Updates the editor picks and logs the books.
+	 *
+	 * @param editorPicks
+	 *            the editor picks
+	 * @param storeLog
+	 *            the log of the changes
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @see com.acertainbookstore.interfaces.StockManager#updateEditorPicks(Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks, StoreLog storeLog) throws BookStoreException;
+
+	/**
+	 * Buys books and logs them, or logs the books whose sale misses were
+	 * recorded if the purchase failed.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the copies to buy
+	 * @param storeLog
+	 *            the log of the changes
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy, StoreLog storeLog) throws BookStoreException;
+
+	/**
+	 * Removes all the books and logs it.
+	 *
+	 * @param storeLog
+	 *            the log of the changes
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks(StoreLog storeLog) throws BookStoreException;
+
+	/**
+	 * Removes books and logs them.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs of the books
+	 * @param storeLog
+	 *            the log of the changes
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @see com.acertainbookstore.interfaces.StockManager#removeBooks(Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet, StoreLog storeLog) throws BookStoreException;
+}
@@ -6,12 +6,12 @@ import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -25,7 +25,7 @@ import java.util.stream.Collectors;
  * @see BookStore
  * @see StockManager
  */
-public class SingleLockConcurrentCertainBookStore implements BookStore, StockManager {
+public class SingleLockConcurrentCertainBookStore implements BookStore, StockManager, RestorableStore {
 
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     private final Lock writeLock = readWriteLock.writeLock();
@@ -35,6 +35,11 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
      */
     private Map<Integer, BookStoreBook> bookMap;
 
+    /**
+     * The ISBNs of the editor picks, to sample them without a scan.
+     */
+    private final EditorPicksIndex editorPicksIndex = new EditorPicksIndex();
+
     /**
      * Instantiates a new {@link SingleLockConcurrentCertainBookStore}.
      */
@@ -108,6 +113,18 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
      * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
      */
     public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+        addBooks(bookSet, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#addBooks(java.util.Set,
+     * com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void addBooks(Set<StockBook> bookSet, StoreLog storeLog) throws BookStoreException {
         writeLock.lock();
         // even in case of exception always unlock lock
         try {
@@ -120,15 +137,131 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
                 validate(book);
             }
 
+            List<BookStoreBook> addedBooks = new ArrayList<>(bookSet.size());
+
             for (StockBook book : bookSet) {
                 int isbn = book.getISBN();
-                bookMap.put(isbn, new BookStoreBook(book));
+                BookStoreBook addedBook = new BookStoreBook(book);
+                bookMap.put(isbn, addedBook);
+                editorPicksIndex.set(isbn, book.isEditorPick());
+                addedBooks.add(addedBook);
             }
+
+            storeLog.logUpdated(addedBooks);
         } finally {
             writeLock.unlock();
         }
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#restoreBooks(java.util.
+     * Collection)
+     */
+    @Override
+    public void restoreBooks(Collection<BookStoreBook> books) throws BookStoreException {
+        if (books == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        writeLock.lock();
+        try {
+            for (BookStoreBook book : books) {
+                int isbn = book.getISBN();
+                BookStoreBook current = bookMap.get(isbn);
+
+                if (current == null || current.getLsn() < book.getLsn()) {
+                    bookMap.put(isbn, book.checkpointCopy());
+                    editorPicksIndex.set(isbn, book.isEditorPick());
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#discardBooks(java.util.Set,
+     * long)
+     */
+    @Override
+    public void discardBooks(Set<Integer> isbns, long lsn) throws BookStoreException {
+        if (isbns == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        writeLock.lock();
+        try {
+            for (int isbn : isbns) {
+                BookStoreBook current = bookMap.get(isbn);
+
+                if (current != null && current.getLsn() < lsn) {
+                    bookMap.remove(isbn);
+                    editorPicksIndex.remove(isbn);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.business.RestorableStore#discardAllBooks(long)
+     */
+    @Override
+    public void discardAllBooks(long lsn) throws BookStoreException {
+        writeLock.lock();
+        try {
+            discardBooks(new HashSet<>(bookMap.keySet()), lsn);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.business.RestorableStore#copyBooks()
+     */
+    @Override
+    public List<BookStoreBook> copyBooks() throws BookStoreException {
+        List<Integer> isbns;
+
+        readLock.lock();
+        try {
+            isbns = new ArrayList<>(bookMap.keySet());
+        } finally {
+            readLock.unlock();
+        }
+
+        List<BookStoreBook> books = new ArrayList<>(isbns.size());
+
+        // Writers only wait for the copy of one chunk.
+        for (int from = 0; from < isbns.size(); from += COPY_CHUNK_SIZE) {
+            readLock.lock();
+            try {
+                for (int isbn : isbns.subList(from, Math.min(from + COPY_CHUNK_SIZE, isbns.size()))) {
+                    BookStoreBook book = bookMap.get(isbn);
+
+                    if (book != null) {
+                        books.add(book.checkpointCopy());
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        return books;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -136,6 +269,18 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
      * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
      */
     public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+        addCopies(bookCopiesSet, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#addCopies(java.util.Set,
+     * com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void addCopies(Set<BookCopy> bookCopiesSet, StoreLog storeLog) throws BookStoreException {
         writeLock.lock();
         try {
             int isbn;
@@ -150,6 +295,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
             }
 
             BookStoreBook book;
+            List<BookStoreBook> updatedBooks = new ArrayList<>(bookCopiesSet.size());
 
             // Update the number of copies
             for (BookCopy bookCopy : bookCopiesSet) {
@@ -157,7 +303,10 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
                 numCopies = bookCopy.getNumCopies();
                 book = bookMap.get(isbn);
                 book.addCopies(numCopies);
+                updatedBooks.add(book);
             }
+
+            storeLog.logUpdated(updatedBooks);
         } finally {
             writeLock.unlock();
         }
@@ -189,6 +338,18 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
      * .Set)
      */
     public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+        updateEditorPicks(editorPicks, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#updateEditorPicks(java.
+     * util.Set, com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void updateEditorPicks(Set<BookEditorPick> editorPicks, StoreLog storeLog) throws BookStoreException {
         writeLock.lock();
         try {
             // Check that all ISBNs that we add/remove are there first.
@@ -202,9 +363,16 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
                 validate(editorPickArg);
             }
 
+            List<BookStoreBook> updatedBooks = new ArrayList<>(editorPicks.size());
+
             for (BookEditorPick editorPickArg : editorPicks) {
-                bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+                BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+                book.setEditorPick(editorPickArg.isEditorPick());
+                editorPicksIndex.set(editorPickArg.getISBN(), editorPickArg.isEditorPick());
+                updatedBooks.add(book);
             }
+
+            storeLog.logUpdated(updatedBooks);
         } finally {
             writeLock.unlock();
         }
@@ -216,6 +384,18 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
      * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
      */
     public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+        buyBooks(bookCopiesToBuy, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#buyBooks(java.util.Set,
+     * com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void buyBooks(Set<BookCopy> bookCopiesToBuy, StoreLog storeLog) throws BookStoreException {
         writeLock.lock();
         try {
             if (bookCopiesToBuy == null) {
@@ -245,11 +425,16 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 
             // We throw exception now since we want to see how many books in the
             // order incurred misses which is used by books in demand
+            List<BookStoreBook> updatedBooks = new ArrayList<>(bookCopiesToBuy.size());
+
             if (saleMiss) {
                 for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
                     book = bookMap.get(saleMissEntry.getKey());
                     book.addSaleMiss(saleMissEntry.getValue());
+                    updatedBooks.add(book);
                 }
+
+                storeLog.logUpdated(updatedBooks);
                 throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
             }
 
@@ -257,7 +442,10 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
             for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
                 book = bookMap.get(bookCopyToBuy.getISBN());
                 book.buyCopies(bookCopyToBuy.getNumCopies());
+                updatedBooks.add(book);
             }
+
+            storeLog.logUpdated(updatedBooks);
         } finally {
             writeLock.unlock();
         }
@@ -326,37 +514,10 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
                 throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
             }
 
-            List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-                                                            .map(pair -> pair.getValue())
-                                                            .filter(book -> book.isEditorPick())
-                                                            .collect(Collectors.toList());
-
-            // Find numBooks random indices of books that will be picked.
-            Random rand = new Random();
-            Set<Integer> tobePicked = new HashSet<>();
-            int rangePicks = listAllEditorPicks.size();
-
-            if (rangePicks <= numBooks) {
-
-                // We need to add all books.
-                for (int i = 0; i < listAllEditorPicks.size(); i++) {
-                    tobePicked.add(i);
-                }
-            } else {
-
-                // We need to pick randomly the books that need to be returned.
-                int randNum;
-
-                while (tobePicked.size() < numBooks) {
-                    randNum = rand.nextInt(rangePicks);
-                    tobePicked.add(randNum);
-                }
-            }
-
-            // Return all the books by the randomly chosen indices.
-            return tobePicked.stream()
-                             .map(index -> listAllEditorPicks.get(index).immutableBook())
-                             .collect(Collectors.toList());
+            // Draw numBooks random picks from the index.
+            return editorPicksIndex.sample(numBooks).stream()
+                                   .map(isbn -> bookMap.get(isbn).immutableBook())
+                                   .collect(Collectors.toList());
         } finally {
             readLock.unlock();
         }
@@ -398,9 +559,23 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
      * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
      */
     public void removeAllBooks() throws BookStoreException {
+        removeAllBooks(StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#removeAllBooks(com.
+     * acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void removeAllBooks(StoreLog storeLog) throws BookStoreException {
         writeLock.lock();
         try {
             bookMap.clear();
+            editorPicksIndex.clear();
+            storeLog.logAllRemoved();
         } finally {
             writeLock.unlock();
         }
@@ -413,6 +588,18 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
      * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
      */
     public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+        removeBooks(isbnSet, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#removeBooks(java.util.Set,
+     * com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void removeBooks(Set<Integer> isbnSet, StoreLog storeLog) throws BookStoreException {
         writeLock.lock();
         try {
             if (isbnSet == null) {
@@ -431,7 +618,10 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 
             for (int isbn : isbnSet) {
                 bookMap.remove(isbn);
+                editorPicksIndex.remove(isbn);
             }
+
+            storeLog.logRemoved(isbnSet);
         } finally {
             writeLock.unlock();
         }
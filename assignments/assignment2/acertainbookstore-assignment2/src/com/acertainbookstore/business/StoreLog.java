@@ -0,0 +1,74 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.Set;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link StoreLog} receives the changes of a request from the store which
+ * applies it. The store calls it from inside its own critical section, while it
+ * still holds the books the request changed, so two requests which change the
+ * same book are logged in the order they were applied, while requests on other
+ * books neither wait for nor are ordered against each other.
+ * <p>
+ * Only requests which changed the store are logged, including a purchase which
+ * failed but recorded its sale misses.
+ *
+ * @see DurableCertainBookStore
+ * @see RestorableStore
+ */
+interface StoreLog {
+
+	/** Logs nothing, for the requests of a store which is not durable. */
+	StoreLog NONE = new StoreLog() {
+
+		@Override
+		public long logUpdated(Collection<BookStoreBook> books) {
+			return 0;
+		}
+
+		@Override
+		public long logRemoved(Set<Integer> isbns) {
+			return 0;
+		}
+
+		@Override
+		public long logAllRemoved() {
+			return 0;
+		}
+	};
+
+	/**
+	 * Logs the books a request added or updated, as the request left them, and
+	 * stamps them with the LSN of the record.
+	 *
+	 * @param books
+	 *            the books, which may be read and stamped but not kept after
+	 *            the call
+	 * @return the LSN of the record
+	 * @throws BookStoreException
+	 *             if the record could not be logged
+	 */
+	long logUpdated(Collection<BookStoreBook> books) throws BookStoreException;
+
+	/**
+	 * Logs the books a request removed.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @return the LSN of the record
+	 * @throws BookStoreException
+	 *             if the record could not be logged
+	 */
+	long logRemoved(Set<Integer> isbns) throws BookStoreException;
+
+	/**
+	 * Logs that a request removed all the books.
+	 *
+	 * @return the LSN of the record
+	 * @throws BookStoreException
+	 *             if the record could not be logged
+	 */
+	long logAllRemoved() throws BookStoreException;
+}
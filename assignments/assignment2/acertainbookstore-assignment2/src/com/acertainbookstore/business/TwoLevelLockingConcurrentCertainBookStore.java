@@ -1,19 +1,15 @@
 package com.acertainbookstore.business;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
+import com.acertainbookstore.business.BookLockManager.BookLocks;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
@@ -23,88 +19,113 @@ import com.acertainbookstore.utils.BookStoreUtility;
 /**
  * {@link TwoLevelLockingConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
+ * <p>
+ * Locks are taken through the {@link BookLockManager} on two levels: requests
+ * on single books, including adding and removing books, take an intention lock
+ * on the catalog and S or X locks on their books, while requests on the whole
+ * catalog lock it in S or X mode.
  *
  * @see BookStore
  * @see StockManager
  */
-public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, StockManager {
+public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, StockManager, RestorableStore {
 
-    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-    private final Lock globalExclusiveLock = readWriteLock.writeLock();
-    private final Lock globalSharedLock = readWriteLock.readLock();
     /**
-     * The mapping of books from ISBN to {@link BookStoreBook}.
+     * The locks of the catalog and of the individual books, which also holds
+     * the books themselves next to their locks.
      */
-    private Map<Integer, BookStoreBook> bookMap;
-    private ConcurrentMap<Integer, ReentrantReadWriteLock> bookLocksMap;
+    private final BookLockManager lockManager;
 
+    /**
+     * The ISBNs of the editor picks, to sample them without a scan.
+     */
+    private final EditorPicksIndex editorPicksIndex = new EditorPicksIndex();
 
     /**
-     * Instantiates a new {@link TwoLevelLockingConcurrentCertainBookStore}.
+     * Instantiates a new {@link TwoLevelLockingConcurrentCertainBookStore}
+     * whose requests wait for their locks indefinitely.
      */
     public TwoLevelLockingConcurrentCertainBookStore() {
-        // Constructors are not synchronized
-        bookMap = new HashMap<>();
-        bookLocksMap = new ConcurrentHashMap<>();
+        this(BookLockManager.NO_TIMEOUT, true);
     }
 
-    private void checkISBN(final int isbn) throws BookStoreException {
-        if (!bookLocksMap.containsKey(isbn)) {
-            throw new BookStoreException("ISBN" + isbn + BookStoreConstants.NOT_AVAILABLE);
-        }
+    /**
+     * Instantiates a new {@link TwoLevelLockingConcurrentCertainBookStore}.
+     *
+     * @param lockTimeoutMillis
+     *            the time in milliseconds a request waits for a lock before it
+     *            is aborted, or 0 to wait indefinitely
+     * @param fairLocks
+     *            whether waiting requests are granted their locks strictly in
+     *            arrival order; otherwise compatible requests may overtake them
+     */
+    public TwoLevelLockingConcurrentCertainBookStore(long lockTimeoutMillis, boolean fairLocks) {
+        // Constructors are not synchronized
+        lockManager = new BookLockManager(lockTimeoutMillis, fairLocks);
     }
 
-    private void getLocalReadLock(int isbn) throws BookStoreException {
-
-        checkISBN(isbn);
-
-        ReadWriteLock lock = bookLocksMap.get(isbn);
-
-        globalSharedLock.lock();
-        lock.readLock().lock();
-
+    /**
+     * Gets the number of requests aborted because they could not get a lock
+     * within the lock timeout.
+     *
+     * @return the number of aborted requests
+     */
+    public long getNumLockAborts() {
+        return lockManager.getNumAborts();
     }
 
-    private void releaseLocalReadLock(int isbn) {
-
-        if (!bookLocksMap.containsKey(isbn)) {
-            return;
-        }
-
-        ReadWriteLock lock = bookLocksMap.get(isbn);
-
-        try {
-            lock.readLock().unlock();
-            globalSharedLock.unlock();
-        } catch (IllegalMonitorStateException e) {
-            // if a lock hasn't been acquired, catch exception - don't do anything about it
-        }
+    /**
+     * Gets the number of lock acquisitions which had to wait for another
+     * request.
+     *
+     * @return the number of contended lock acquisitions
+     */
+    public long getNumContendedLockAcquisitions() {
+        return lockManager.getNumContendedAcquisitions();
     }
 
-    private void getLocalWriteLock(int isbn) throws BookStoreException {
-
-        checkISBN(isbn);
-
-        ReadWriteLock lock = bookLocksMap.get(isbn);
-
-        globalSharedLock.lock();
-        lock.writeLock().lock();
+    /**
+     * Gets the number of requests currently waiting for a lock.
+     *
+     * @return the number of waiting requests
+     */
+    public int getNumWaitingRequests() {
+        return lockManager.getNumWaiting();
     }
 
-    private void releaseLocalWriteLock(int isbn) {
+    /**
+     * Gets the number of requests currently queued on the catalog lock.
+     *
+     * @return the catalog lock queue length
+     */
+    public int getCatalogLockQueueLength() {
+        return lockManager.getCatalogQueueLength();
+    }
 
-        if (!bookLocksMap.containsKey(isbn)) {
-            return;
-        }
+    /**
+     * Gets the longest queue of waiting requests observed on a single lock.
+     *
+     * @return the maximum lock queue length
+     */
+    public int getMaxLockQueueLength() {
+        return lockManager.getMaxQueueLength();
+    }
 
-        ReadWriteLock lock = bookLocksMap.get(isbn);
+    /**
+     * Checks whether waiting requests are granted their locks strictly in
+     * arrival order.
+     *
+     * @return true, if the locks are fair
+     */
+    public boolean hasFairLocks() {
+        return lockManager.isFair();
+    }
 
-        try {
-            lock.writeLock().unlock();
-            globalSharedLock.unlock();
-        } catch (IllegalMonitorStateException e) {
-            // if a lock hasn't been acquired, catch exception - don't do anything about it
-        }
+    /**
+     * Collects the ISBNs of a set of book copies.
+     */
+    private static Set<Integer> isbnsOf(Collection<? extends BookCopy> bookCopies) {
+        return bookCopies.stream().map(BookCopy::getISBN).collect(Collectors.toSet());
     }
 
     private void validate(StockBook book) throws BookStoreException {
@@ -134,7 +155,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
         }
 
-        if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+        if (lockManager.getBook(isbn) != null) {// Check if the book is not in stock
             throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
         }
     }
@@ -155,11 +176,11 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
         validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
     }
 
-    private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+    private void validateISBNInStock(int ISBN) throws BookStoreException {
         if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
             throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
         }
-        if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+        if (lockManager.getBook(ISBN) == null) {// Check if the book is in stock
             throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
         }
     }
@@ -171,28 +192,160 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
      */
     public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+        addBooks(bookSet, StoreLog.NONE);
+    }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#addBooks(java.util.Set,
+     * com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void addBooks(Set<StockBook> bookSet, StoreLog storeLog) throws BookStoreException {
         if (bookSet == null) {
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
 
-        globalExclusiveLock.lock();
+        // Only the new ISBNs are locked, the rest of the catalog stays available.
+        Set<Integer> isbnSet = bookSet.stream()
+                                      .map(StockBook::getISBN)
+                                      .collect(Collectors.toSet());
+
+        BookLocks locks = lockManager.lockExclusive(isbnSet);
         try {
             // Check if all are there
             for (StockBook book : bookSet) {
                 validate(book);
             }
 
+            List<BookStoreBook> addedBooks = new ArrayList<>(bookSet.size());
+
             for (StockBook book : bookSet) {
-                int isbn = book.getISBN();
-                bookMap.put(isbn, new BookStoreBook(book));
-                bookLocksMap.put(isbn, new ReentrantReadWriteLock());
+                BookStoreBook addedBook = new BookStoreBook(book);
+                lockManager.putBook(addedBook);
+                editorPicksIndex.set(book.getISBN(), book.isEditorPick());
+                addedBooks.add(addedBook);
+            }
+
+            storeLog.logUpdated(addedBooks);
+        } finally {
+            locks.release();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#restoreBooks(java.util.
+     * Collection)
+     */
+    @Override
+    public void restoreBooks(Collection<BookStoreBook> books) throws BookStoreException {
+        if (books == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        Set<Integer> isbnSet = books.stream()
+                                    .map(BookStoreBook::getISBN)
+                                    .collect(Collectors.toSet());
+
+        BookLocks locks = lockManager.lockExclusive(isbnSet);
+        try {
+            for (BookStoreBook book : books) {
+                BookStoreBook current = lockManager.getBook(book.getISBN());
+
+                if (current == null || current.getLsn() < book.getLsn()) {
+                    lockManager.putBook(book.checkpointCopy());
+                    editorPicksIndex.set(book.getISBN(), book.isEditorPick());
+                }
+            }
+        } finally {
+            locks.release();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#discardBooks(java.util.Set,
+     * long)
+     */
+    @Override
+    public void discardBooks(Set<Integer> isbns, long lsn) throws BookStoreException {
+        if (isbns == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        BookLocks locks = lockManager.lockExclusive(isbns);
+        try {
+            for (int isbn : isbns) {
+                BookStoreBook current = lockManager.getBook(isbn);
+
+                if (current != null && current.getLsn() < lsn) {
+                    lockManager.removeBook(isbn);
+                    editorPicksIndex.remove(isbn);
+                }
             }
         } finally {
-            globalExclusiveLock.unlock();
+            locks.release();
         }
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.business.RestorableStore#discardAllBooks(long)
+     */
+    @Override
+    public void discardAllBooks(long lsn) throws BookStoreException {
+        BookLocks locks = lockManager.lockCatalogExclusive();
+        try {
+            for (BookStoreBook book : lockManager.getBooks()) {
+                if (book.getLsn() < lsn) {
+                    editorPicksIndex.remove(book.getISBN());
+                }
+            }
+
+            lockManager.removeBooksBefore(lsn);
+        } finally {
+            locks.release();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.acertainbookstore.business.RestorableStore#copyBooks()
+     */
+    @Override
+    public List<BookStoreBook> copyBooks() throws BookStoreException {
+        List<Integer> isbns = lockManager.getIsbns();
+        List<BookStoreBook> books = new ArrayList<>(isbns.size());
+
+        // Writers only wait for the books of one chunk, and only to write them.
+        for (int from = 0; from < isbns.size(); from += COPY_CHUNK_SIZE) {
+            List<Integer> chunk = isbns.subList(from, Math.min(from + COPY_CHUNK_SIZE, isbns.size()));
+            BookLocks locks = lockManager.lockShared(chunk);
+            try {
+                for (int isbn : chunk) {
+                    BookStoreBook book = lockManager.getBook(isbn);
+
+                    if (book != null) {
+                        books.add(book.checkpointCopy());
+                    }
+                }
+            } finally {
+                locks.release();
+            }
+        }
+
+        return books;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -200,6 +353,18 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
      */
     public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+        addCopies(bookCopiesSet, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#addCopies(java.util.Set,
+     * com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void addCopies(Set<BookCopy> bookCopiesSet, StoreLog storeLog) throws BookStoreException {
         int isbn;
         int numCopies;
 
@@ -207,26 +372,27 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
 
-
+        BookLocks locks = lockManager.lockExclusive(isbnsOf(bookCopiesSet));
         try {
             for (BookCopy bookCopy : bookCopiesSet) {
-                getLocalWriteLock(bookCopy.getISBN());
                 validate(bookCopy);
             }
 
             BookStoreBook book;
+            List<BookStoreBook> updatedBooks = new ArrayList<>(bookCopiesSet.size());
 
             // Update the number of copies
             for (BookCopy bookCopy : bookCopiesSet) {
                 isbn = bookCopy.getISBN();
                 numCopies = bookCopy.getNumCopies();
-                book = bookMap.get(isbn);
+                book = lockManager.getBook(isbn);
                 book.addCopies(numCopies);
+                updatedBooks.add(book);
             }
+
+            storeLog.logUpdated(updatedBooks);
         } finally {
-            for (BookCopy bookCopy : bookCopiesSet) {
-                releaseLocalWriteLock(bookCopy.getISBN());
-            }
+            locks.release();
         }
     }
 
@@ -236,21 +402,13 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * @see com.acertainbookstore.interfaces.StockManager#getBooks()
      */
     public List<StockBook> getBooks() throws BookStoreException {
-        Collection<BookStoreBook> bookMapValues = bookMap.values();
-
+        BookLocks locks = lockManager.lockCatalogShared();
         try {
-
-            for (BookStoreBook book : bookMapValues) {
-                getLocalReadLock(book.getISBN());
-            }
-
-            return bookMapValues.stream()
-                                .map(BookStoreBook::immutableStockBook)
-                                .collect(Collectors.toList());
+            return lockManager.getBooks().stream()
+                                         .map(BookStoreBook::immutableStockBook)
+                                         .collect(Collectors.toList());
         } finally {
-            for (BookStoreBook book : bookMapValues) {
-                releaseLocalReadLock(book.getISBN());
-            }
+            locks.release();
         }
     }
 
@@ -262,25 +420,45 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * .Set)
      */
     public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+        updateEditorPicks(editorPicks, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#updateEditorPicks(java.
+     * util.Set, com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void updateEditorPicks(Set<BookEditorPick> editorPicks, StoreLog storeLog) throws BookStoreException {
         // Check that all ISBNs that we add/remove are there first.
         if (editorPicks == null) {
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
 
+        Set<Integer> isbnSet = editorPicks.stream()
+                                          .map(BookEditorPick::getISBN)
+                                          .collect(Collectors.toSet());
+
+        BookLocks locks = lockManager.lockExclusive(isbnSet);
         try {
             for (BookEditorPick editorPickArg : editorPicks) {
-                getLocalWriteLock(editorPickArg.getISBN());
                 validate(editorPickArg);
             }
 
+            List<BookStoreBook> updatedBooks = new ArrayList<>(editorPicks.size());
 
             for (BookEditorPick editorPickArg : editorPicks) {
-                bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+                BookStoreBook book = lockManager.getBook(editorPickArg.getISBN());
+                book.setEditorPick(editorPickArg.isEditorPick());
+                editorPicksIndex.set(editorPickArg.getISBN(), editorPickArg.isEditorPick());
+                updatedBooks.add(book);
             }
+
+            storeLog.logUpdated(updatedBooks);
         } finally {
-            for (BookEditorPick editorPick : editorPicks) {
-                releaseLocalWriteLock(editorPick.getISBN());
-            }
+            locks.release();
         }
     }
 
@@ -290,6 +468,18 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
      */
     public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+        buyBooks(bookCopiesToBuy, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#buyBooks(java.util.Set,
+     * com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void buyBooks(Set<BookCopy> bookCopiesToBuy, StoreLog storeLog) throws BookStoreException {
         if (bookCopiesToBuy == null) {
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
@@ -301,13 +491,13 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
         Map<Integer, Integer> salesMisses = new HashMap<>();
 
+        BookLocks locks = lockManager.lockExclusive(isbnsOf(bookCopiesToBuy));
         try {
             for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
                 isbn = bookCopyToBuy.getISBN();
-                getLocalWriteLock(isbn);
                 validate(bookCopyToBuy);
 
-                book = bookMap.get(isbn);
+                book = lockManager.getBook(isbn);
 
                 if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
                     // If we cannot sell the copies of the book, it is a miss.
@@ -318,23 +508,29 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
             // We throw exception now since we want to see how many books in the
             // order incurred misses which is used by books in demand
+            List<BookStoreBook> updatedBooks = new ArrayList<>(bookCopiesToBuy.size());
+
             if (saleMiss) {
                 for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-                    book = bookMap.get(saleMissEntry.getKey());
+                    book = lockManager.getBook(saleMissEntry.getKey());
                     book.addSaleMiss(saleMissEntry.getValue());
+                    updatedBooks.add(book);
                 }
+
+                storeLog.logUpdated(updatedBooks);
                 throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
             }
 
             // Then make the purchase.
             for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-                book = bookMap.get(bookCopyToBuy.getISBN());
+                book = lockManager.getBook(bookCopyToBuy.getISBN());
                 book.buyCopies(bookCopyToBuy.getNumCopies());
+                updatedBooks.add(book);
             }
+
+            storeLog.logUpdated(updatedBooks);
         } finally {
-            for (BookCopy bookCopy : bookCopiesToBuy) {
-                releaseLocalWriteLock(bookCopy.getISBN());
-            }
+            locks.release();
         }
     }
 
@@ -350,20 +546,17 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
 
+        BookLocks locks = lockManager.lockShared(isbnSet);
         try {
-
             for (Integer ISBN : isbnSet) {
-                getLocalReadLock(ISBN);
                 validateISBNInStock(ISBN);
             }
 
             return isbnSet.stream()
-                          .map(isbn -> bookMap.get(isbn).immutableStockBook())
+                          .map(isbn -> lockManager.getBook(isbn).immutableStockBook())
                           .collect(Collectors.toList());
         } finally {
-            for (Integer ISBN : isbnSet) {
-                releaseLocalReadLock(ISBN);
-            }
+            locks.release();
         }
     }
 
@@ -377,20 +570,18 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
 
+        BookLocks locks = lockManager.lockShared(isbnSet);
         try {
             // Check that all ISBNs that we rate are there to start with.
             for (Integer ISBN : isbnSet) {
-                getLocalReadLock(ISBN);
                 validateISBNInStock(ISBN);
             }
 
             return isbnSet.stream()
-                          .map(isbn -> bookMap.get(isbn).immutableBook())
+                          .map(isbn -> lockManager.getBook(isbn).immutableBook())
                           .collect(Collectors.toList());
         } finally {
-            for (Integer ISBN : isbnSet) {
-                releaseLocalReadLock(ISBN);
-            }
+            locks.release();
         }
     }
 
@@ -404,48 +595,35 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
         }
 
-        try {
+        List<Book> picks = new ArrayList<>();
+        Set<Integer> drawn = new HashSet<>();
 
-            List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-                                                            .map(pair -> pair.getValue())
-                                                            .filter(book -> book.isEditorPick())
-                                                            .collect(Collectors.toList());
+        // Only the drawn picks are locked. Those which changed before that are
+        // replaced by fresh draws until there are enough or the index runs out.
+        while (picks.size() < numBooks) {
+            Set<Integer> tobePicked = editorPicksIndex.sample(numBooks - picks.size(), drawn);
 
-            for(Book book : listAllEditorPicks) {
-                getLocalReadLock(book.getISBN());
+            if (tobePicked.isEmpty()) {
+                break;
             }
 
-            // Find numBooks random indices of books that will be picked.
-            Random rand = new Random();
-            Set<Integer> tobePicked = new HashSet<>();
-            int rangePicks = listAllEditorPicks.size();
+            drawn.addAll(tobePicked);
 
-            if (rangePicks <= numBooks) {
+            BookLocks locks = lockManager.lockShared(tobePicked);
+            try {
+                for (int isbn : tobePicked) {
+                    BookStoreBook book = lockManager.getBook(isbn);
 
-                // We need to add all books.
-                for (int i = 0; i < listAllEditorPicks.size(); i++) {
-                    tobePicked.add(i);
+                    if (book != null && book.isEditorPick()) {
+                        picks.add(book.immutableBook());
+                    }
                 }
-            } else {
-
-                // We need to pick randomly the books that need to be returned.
-                int randNum;
-
-                while (tobePicked.size() < numBooks) {
-                    randNum = rand.nextInt(rangePicks);
-                    tobePicked.add(randNum);
-                }
-            }
-
-            // Return all the books by the randomly chosen indices.
-            return tobePicked.stream()
-                             .map(index -> listAllEditorPicks.get(index).immutableBook())
-                             .collect(Collectors.toList());
-        } finally {
-            for (Book book : bookMap.values()) {
-                releaseLocalReadLock(book.getISBN());
+            } finally {
+                locks.release();
             }
         }
+
+        return picks;
     }
 
     /*
@@ -484,12 +662,25 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
      */
     public void removeAllBooks() throws BookStoreException {
-        globalExclusiveLock.lock();
+        removeAllBooks(StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#removeAllBooks(com.
+     * acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void removeAllBooks(StoreLog storeLog) throws BookStoreException {
+        BookLocks locks = lockManager.lockCatalogExclusive();
         try {
-            bookMap.clear();
-            bookLocksMap.clear();
+            lockManager.removeAllBooks();
+            editorPicksIndex.clear();
+            storeLog.logAllRemoved();
         } finally {
-            globalExclusiveLock.unlock();
+            locks.release();
         }
     }
 
@@ -500,28 +691,42 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
      */
     public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+        removeBooks(isbnSet, StoreLog.NONE);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.acertainbookstore.business.RestorableStore#removeBooks(java.util.Set,
+     * com.acertainbookstore.business.StoreLog)
+     */
+    @Override
+    public void removeBooks(Set<Integer> isbnSet, StoreLog storeLog) throws BookStoreException {
         if (isbnSet == null) {
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
 
-        globalExclusiveLock.lock();
+        BookLocks locks = lockManager.lockExclusive(isbnSet);
         try {
             for (Integer ISBN : isbnSet) {
                 if (BookStoreUtility.isInvalidISBN(ISBN)) {
                     throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
                 }
 
-                if (!bookMap.containsKey(ISBN)) {
+                if (lockManager.getBook(ISBN) == null) {
                     throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
                 }
             }
 
             for (int isbn : isbnSet) {
-                bookMap.remove(isbn);
-                bookLocksMap.remove(isbn);
+                lockManager.removeBook(isbn);
+                editorPicksIndex.remove(isbn);
             }
+
+            storeLog.logRemoved(isbnSet);
         } finally {
-            globalExclusiveLock.unlock();
+            locks.release();
         }
 
     }
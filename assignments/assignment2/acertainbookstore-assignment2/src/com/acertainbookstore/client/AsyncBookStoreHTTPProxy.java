@@ -0,0 +1,251 @@
+package com.acertainbookstore.client;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jetty.client.HttpClient;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.interfaces.AsyncBookStore;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreOperation;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializerType;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link AsyncBookStoreHTTPProxy} implements the client level asynchronous
+ * {@link CertainBookStore} API declared in the {@link AsyncBookStore} class.
+ * Requests do not hold a thread while they wait for the server, so a single
+ * proxy can keep thousands of them in flight.
+ *
+ * @see AsyncBookStore
+ * @see BookStoreHTTPProxy
+ */
+public class AsyncBookStoreHTTPProxy implements AsyncBookStore {
+
+	/** The client. */
+	protected HttpClient client;
+
+	/** The server address. */
+	protected String serverAddress;
+
+	/** The serializer type of the requests, also asked for the responses. */
+	private BookStoreSerializerType serializerType;
+
+	/** The client runtime shared with the other proxies. */
+	private BookStoreClientRuntime runtime;
+
+	/** The HTTP/2 client, or null if the requests go through HTTP/1.1. */
+	private BookStoreHTTP2Client http2Client = null;
+
+	/** Batches the small calls, or null if they are sent on their own. */
+	private BookStoreRequestBatcher batcher = null;
+
+	/**
+	 * Initializes a new {@link AsyncBookStoreHTTPProxy}.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @throws Exception
+	 *             the exception
+	 */
+	public AsyncBookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, Long.getLong(BookStoreConstants.PROPERTY_KEY_BATCH_WINDOW, 0));
+	}
+
+	/**
+	 * Initializes a new {@link AsyncBookStoreHTTPProxy} which batches the small getBooks
+	 * and buyBooks calls made at about the same time.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param batchWindowMicros
+	 *            the time a batch waits for more calls, in microseconds, or 0
+	 *            not to batch
+	 * @throws Exception
+	 *             the exception
+	 */
+	public AsyncBookStoreHTTPProxy(String serverAddress, long batchWindowMicros) throws Exception {
+
+		// Setup the type of serializer.
+		serializerType = BookStoreSerializerType.getConfigured();
+
+		setServerAddress(serverAddress);
+		runtime = BookStoreClientRuntime.acquire();
+
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2)) {
+			// All the requests share the streams of a single connection.
+			http2Client = runtime.getHTTP2Client();
+		} else {
+			client = runtime.getHttpClient();
+		}
+
+		if (batchWindowMicros > 0) {
+			batcher = new BookStoreRequestBatcher(this::exchangeAsync, this::getServerAddress, runtime.getScheduler(),
+					batchWindowMicros);
+		}
+	}
+
+	/**
+	 * Gets the server address.
+	 *
+	 * @return the server address
+	 */
+	public String getServerAddress() {
+		return serverAddress;
+	}
+
+	/**
+	 * Sets the server address.
+	 *
+	 * @param serverAddress
+	 *            the new server address
+	 */
+	public void setServerAddress(String serverAddress) {
+		this.serverAddress = serverAddress;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.AsyncBookStore#buyBooks(java.util.Set)
+	 */
+	public CompletableFuture<Void> buyBooks(Set<BookCopy> isbnSet) {
+		if (isBatched(isbnSet)) {
+			return batcher.submit(BookStoreMessageTag.BUYBOOKS, isbnSet).thenApply(bookStoreResponse -> null);
+		}
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
+		return exchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.AsyncBookStore#getBooks(java.util.Set)
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<Book>> getBooks(Set<Integer> isbnSet) {
+		if (isBatched(isbnSet)) {
+			return batcher.submit(BookStoreMessageTag.GETBOOKS, isbnSet)
+					.thenApply(bookStoreResponse -> (List<Book>) bookStoreResponse.getList());
+		}
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
+		return exchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> (List<Book>) bookStoreResponse.getList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.AsyncBookStore#getEditorPicks(int)
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<Book>> getEditorPicks(int numBooks) {
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETEDITORPICKS + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		return exchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> (List<Book>) bookStoreResponse.getList());
+	}
+
+	/**
+	 * Executes operations of the book store and the stock manager in a single
+	 * request, in order.
+	 *
+	 * @param operations
+	 *            the operations, GETBOOKS, BUYBOOKS, RATEBOOKS or ADDCOPIES
+	 *            with their sets
+	 * @return the future responses of the operations, in order; a failed
+	 *         operation has its exception set and does not stop the others
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<BookStoreResponse>> executeBatch(List<BookStoreOperation> operations) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.BATCH;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, new ArrayList<>(operations));
+		return exchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> (List<BookStoreResponse>) bookStoreResponse.getList());
+	}
+
+	/**
+	 * Checks whether a call is small enough to be batched.
+	 *
+	 * @param set
+	 *            the set of the call
+	 * @return true if the call goes into a batch
+	 */
+	private boolean isBatched(Set<?> set) {
+		return batcher != null && set != null && set.size() <= BookStoreClientConstants.CLIENT_MAX_BATCHED_SET_SIZE;
+	}
+
+	/**
+	 * Performs the HTTP exchange of a request without waiting for the
+	 * response.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @return the future book store response
+	 */
+	private CompletableFuture<BookStoreResponse> exchangeAsync(BookStoreRequest bookStoreRequest) {
+		if (http2Client != null) {
+			return http2Client.performHttpExchangeAsync(bookStoreRequest, serializerType);
+		}
+
+		return BookStoreUtility.performHttpExchangeAsync(client, bookStoreRequest, serializerType);
+	}
+
+	/**
+	 * Stops the proxy and releases the client runtime. Requests still in flight fail.
+	 */
+	public void stop() {
+		if (batcher != null) {
+			batcher.stop();
+		}
+
+		if (runtime != null) {
+			runtime.release();
+			runtime = null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.AsyncBookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public CompletableFuture<Void> rateBooks(Set<BookRating> bookRating) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		future.completeExceptionally(new BookStoreException());
+		return future;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.AsyncBookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public CompletableFuture<List<Book>> getTopRatedBooks(int numBooks) {
+		CompletableFuture<List<Book>> future = new CompletableFuture<>();
+		future.completeExceptionally(new BookStoreException());
+		return future;
+	}
+}
@@ -0,0 +1,223 @@
+package com.acertainbookstore.client;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jetty.client.HttpClient;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.AsyncStockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializerType;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link AsyncStockManagerHTTPProxy} implements the client level asynchronous
+ * {@link CertainBookStore} API declared in the {@link AsyncStockManager}
+ * class. Requests do not hold a thread while they wait for the server.
+ *
+ * @see AsyncStockManager
+ * @see StockManagerHTTPProxy
+ */
+public class AsyncStockManagerHTTPProxy implements AsyncStockManager {
+
+	/** The client. */
+	protected HttpClient client;
+
+	/** The server address. */
+	protected String serverAddress;
+
+	/** The serializer type of the requests, also asked for the responses. */
+	private BookStoreSerializerType serializerType;
+
+	/** The client runtime shared with the other proxies. */
+	private BookStoreClientRuntime runtime;
+
+	/** The HTTP/2 client, or null if the requests go through HTTP/1.1. */
+	private BookStoreHTTP2Client http2Client = null;
+
+	/**
+	 * Initializes a new {@link AsyncStockManagerHTTPProxy}.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @throws Exception
+	 *             the exception
+	 */
+	public AsyncStockManagerHTTPProxy(String serverAddress) throws Exception {
+
+		// Setup the type of serializer.
+		serializerType = BookStoreSerializerType.getConfigured();
+
+		setServerAddress(serverAddress);
+		runtime = BookStoreClientRuntime.acquire();
+
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2)) {
+			// All the requests share the streams of a single connection.
+			http2Client = runtime.getHTTP2Client();
+		} else {
+			client = runtime.getHttpClient();
+		}
+	}
+
+	/**
+	 * Gets the server address.
+	 *
+	 * @return the server address
+	 */
+	public String getServerAddress() {
+		return serverAddress;
+	}
+
+	/**
+	 * Sets the server address.
+	 *
+	 * @param serverAddress
+	 *            the new server address
+	 */
+	public void setServerAddress(String serverAddress) {
+		this.serverAddress = serverAddress;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#addBooks(java.util.Set)
+	 */
+	public CompletableFuture<Void> addBooks(Set<StockBook> bookSet) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookSet);
+		return exchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#addCopies(java.util.Set)
+	 */
+	public CompletableFuture<Void> addCopies(Set<BookCopy> bookCopiesSet) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDCOPIES;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookCopiesSet);
+		return exchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.AsyncStockManager#getBooks()
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<StockBook>> getBooks() {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		return exchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> (List<StockBook>) bookStoreResponse.getList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#updateEditorPicks(java.
+	 * util.Set)
+	 */
+	public CompletableFuture<Void> updateEditorPicks(Set<BookEditorPick> editorPicksValues) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.UPDATEEDITORPICKS + "?";
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, editorPicksValues);
+		return exchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.AsyncStockManager#getBooksInDemand()
+	 */
+	@Override
+	public CompletableFuture<List<StockBook>> getBooksInDemand() {
+		CompletableFuture<List<StockBook>> future = new CompletableFuture<>();
+		future.completeExceptionally(new BookStoreException("Not implemented"));
+		return future;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.AsyncStockManager#removeAllBooks()
+	 */
+	public CompletableFuture<Void> removeAllBooks() {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEALLBOOKS;
+
+		// The request is just a signal to remove all books.
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
+		return exchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#removeBooks(java.util.
+	 * Set)
+	 */
+	public CompletableFuture<Void> removeBooks(Set<Integer> isbnSet) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
+		return exchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#getBooksByISBN(java.
+	 * util.Set)
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<StockBook>> getBooksByISBN(Set<Integer> isbns) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbns);
+		return exchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> (List<StockBook>) bookStoreResponse.getList());
+	}
+
+	/**
+	 * Performs the HTTP exchange of a request without waiting for the
+	 * response.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @return the future book store response
+	 */
+	private CompletableFuture<BookStoreResponse> exchangeAsync(BookStoreRequest bookStoreRequest) {
+		if (http2Client != null) {
+			return http2Client.performHttpExchangeAsync(bookStoreRequest, serializerType);
+		}
+
+		return BookStoreUtility.performHttpExchangeAsync(client, bookStoreRequest, serializerType);
+	}
+
+	/**
+	 * Stops the proxy and releases the client runtime. Requests still in flight fail.
+	 */
+	public void stop() {
+		if (runtime != null) {
+			runtime.release();
+			runtime = null;
+		}
+	}
+}
@@ -11,7 +11,25 @@ public final class BookStoreClientConstants {
 	/** The Constant CLIENT_MAX_CONNECTION_ADDRESS. */
 	public static final int CLIENT_MAX_CONNECTION_ADDRESS = 200;
 
-	/** The Constant CLIENT_MAX_THREADSPOOL_THREADS. */
+	/**
+	 * The Constant CLIENT_MAX_QUEUED_REQUESTS_ADDRESS, the requests of the
+	 * asynchronous proxies waiting for a connection to every address.
+	 */
+	public static final int CLIENT_MAX_QUEUED_REQUESTS_ADDRESS = 10000;
+
+	/**
+	 * The Constant CLIENT_MAX_CONCURRENT_STREAMS, the HTTP/2 requests in flight
+	 * on the connection to every address; servers allow at least 100.
+	 */
+	public static final int CLIENT_MAX_CONCURRENT_STREAMS = 100;
+
+	/** The Constant CLIENT_MAX_BATCH_OPERATIONS, sent at once without waiting. */
+	public static final int CLIENT_MAX_BATCH_OPERATIONS = 64;
+
+	/** The Constant CLIENT_MAX_BATCHED_SET_SIZE, the largest set of a batched call. */
+	public static final int CLIENT_MAX_BATCHED_SET_SIZE = 16;
+
+	/** The Constant CLIENT_MAX_THREADSPOOL_THREADS, shared by all the proxies. */
 	public static final int CLIENT_MAX_THREADSPOOL_THREADS = 250;
 
 	/** The Constant CLIENT_MAX_TIMEOUT_MILLISECS. */
@@ -0,0 +1,192 @@
+package com.acertainbookstore.client;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
+
+/**
+ * {@link BookStoreClientRuntime} is the client runtime shared by all the
+ * proxies of a process: the HTTP clients with their connection pools and
+ * selectors, the thread pool running their callbacks and the timer of the
+ * batches. The serializers are already pooled by their type.
+ * <p>
+ * The runtime is reference counted. Every proxy acquires it when created and
+ * releases it when stopped, and the last release stops it, so a process
+ * talking to many servers through many proxies holds a single pool of at most
+ * {@link BookStoreClientConstants#CLIENT_MAX_THREADSPOOL_THREADS} threads and
+ * at most {@link BookStoreClientConstants#CLIENT_MAX_CONNECTION_ADDRESS}
+ * connections to each server. A proxy created afterwards starts a new runtime.
+ *
+ * @see BookStoreHTTPProxy
+ * @see StockManagerHTTPProxy
+ */
+public final class BookStoreClientRuntime {
+
+	/** The runtime shared by the proxies, or null if none is running. */
+	private static BookStoreClientRuntime shared = null;
+
+	/** The number of proxies holding the runtime. */
+	private int references = 0;
+
+	/** The threads running the callbacks of both HTTP clients. */
+	private final QueuedThreadPool executor;
+
+	/** The timer of the batches, started with the first batching proxy. */
+	private ScheduledExecutorService scheduler = null;
+
+	/** The HTTP/1.1 client, started with the first proxy using it. */
+	private HttpClient httpClient = null;
+
+	/** The HTTP/2 client, started with the first proxy using it. */
+	private BookStoreHTTP2Client http2Client = null;
+
+	/**
+	 * Instantiates a new {@link BookStoreClientRuntime} and starts its
+	 * threads.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	private BookStoreClientRuntime() throws Exception {
+		executor = new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS);
+		executor.setName("BookStoreClientRuntime");
+		executor.setDaemon(true);
+
+		// Started here, the pool is not stopped by the clients which use it.
+		executor.start();
+	}
+
+	/**
+	 * Acquires the shared runtime, starting it if no proxy holds it.
+	 *
+	 * @return the runtime
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static synchronized BookStoreClientRuntime acquire() throws Exception {
+		if (shared == null) {
+			shared = new BookStoreClientRuntime();
+		}
+
+		shared.references++;
+		return shared;
+	}
+
+	/**
+	 * Releases the runtime, stopping it with the last release. Requests still
+	 * in flight then fail.
+	 */
+	public void release() {
+		synchronized (BookStoreClientRuntime.class) {
+			if (--references > 0) {
+				return;
+			}
+
+			if (shared == this) {
+				shared = null;
+			}
+		}
+
+		stop();
+	}
+
+	/**
+	 * Gets the number of proxies holding the runtime.
+	 *
+	 * @return the number of references
+	 */
+	public int getReferences() {
+		synchronized (BookStoreClientRuntime.class) {
+			return references;
+		}
+	}
+
+	/**
+	 * Gets the HTTP/1.1 client, starting it on the first call.
+	 *
+	 * @return the HTTP client
+	 * @throws Exception
+	 *             the exception
+	 */
+	public synchronized HttpClient getHttpClient() throws Exception {
+		if (httpClient == null) {
+			HttpClient client = new HttpClient();
+
+			// Max concurrent connections to every address.
+			client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
+
+			// Requests beyond the connections wait in a queue instead of a thread.
+			client.setMaxRequestsQueuedPerDestination(BookStoreClientConstants.CLIENT_MAX_QUEUED_REQUESTS_ADDRESS);
+
+			// The threads are shared with the HTTP/2 client.
+			client.setExecutor(executor);
+
+			// Seconds timeout; if no server reply, the request expires.
+			client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+
+			client.start();
+			httpClient = client;
+		}
+
+		return httpClient;
+	}
+
+	/**
+	 * Gets the HTTP/2 client, starting it on the first call.
+	 *
+	 * @return the HTTP/2 client
+	 * @throws Exception
+	 *             the exception
+	 */
+	public synchronized BookStoreHTTP2Client getHTTP2Client() throws Exception {
+		if (http2Client == null) {
+			http2Client = new BookStoreHTTP2Client(executor);
+		}
+
+		return http2Client;
+	}
+
+	/**
+	 * Gets the timer of the batches, starting it on the first call.
+	 *
+	 * @return the scheduler
+	 */
+	synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "BookStoreRequestBatcher");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		return scheduler;
+	}
+
+	/**
+	 * Stops the clients, then the threads they share.
+	 */
+	private synchronized void stop() {
+		try {
+			if (scheduler != null) {
+				scheduler.shutdown();
+			}
+
+			if (httpClient != null) {
+				httpClient.stop();
+			}
+
+			if (http2Client != null) {
+				http2Client.stop();
+			}
+
+			executor.stop();
+		} catch (Exception ex) {
+			System.err.println(ex.getStackTrace());
+		}
+	}
+}
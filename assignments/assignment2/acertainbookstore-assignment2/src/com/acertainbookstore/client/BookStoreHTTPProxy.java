@@ -3,21 +3,22 @@ package com.acertainbookstore.client;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import org.eclipse.jetty.client.HttpClient;
-import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.interfaces.BookStore;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
-import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+import com.acertainbookstore.utils.BookStoreSerializerType;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
 import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreOperation;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
 import com.acertainbookstore.utils.BookStoreUtility;
@@ -37,8 +38,17 @@ public class BookStoreHTTPProxy implements BookStore {
 	/** The server address. */
 	protected String serverAddress;
 
-	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	/** The serializer type of the requests, also asked for the responses. */
+	private BookStoreSerializerType serializerType;
+
+	/** The client runtime shared with the other proxies. */
+	private BookStoreClientRuntime runtime;
+
+	/** The HTTP/2 client, or null if the requests go through HTTP/1.1. */
+	private BookStoreHTTP2Client http2Client = null;
+
+	/** Batches the small calls, or null if they are sent on their own. */
+	private BookStoreRequestBatcher batcher = null;
 
 	/**
 	 * Initializes a new {@link BookStoreHTTPProxy}.
@@ -49,27 +59,40 @@ public class BookStoreHTTPProxy implements BookStore {
 	 *             the exception
 	 */
 	public BookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, Long.getLong(BookStoreConstants.PROPERTY_KEY_BATCH_WINDOW, 0));
+	}
+
+	/**
+	 * Initializes a new {@link BookStoreHTTPProxy} which batches the small getBooks
+	 * and buyBooks calls made at about the same time.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param batchWindowMicros
+	 *            the time a batch waits for more calls, in microseconds, or 0
+	 *            not to batch
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTPProxy(String serverAddress, long batchWindowMicros) throws Exception {
 
 		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
-		}
+		serializerType = BookStoreSerializerType.getConfigured();
 
 		setServerAddress(serverAddress);
-		client = new HttpClient();
-
-		// Max concurrent connections to every address.
-		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
-
-		// Max number of threads.
-		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+		runtime = BookStoreClientRuntime.acquire();
 
-		// Seconds timeout; if no server reply, the request expires.
-		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2)) {
+			// All the requests share the streams of a single connection.
+			http2Client = runtime.getHTTP2Client();
+		} else {
+			client = runtime.getHttpClient();
+		}
 
-		client.start();
+		if (batchWindowMicros > 0) {
+			batcher = new BookStoreRequestBatcher(this::exchangeAsync, this::getServerAddress, runtime.getScheduler(),
+					batchWindowMicros);
+		}
 	}
 
 	/**
@@ -97,9 +120,14 @@ public class BookStoreHTTPProxy implements BookStore {
 	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
 	 */
 	public void buyBooks(Set<BookCopy> isbnSet) throws BookStoreException {
+		if (isBatched(isbnSet)) {
+			BookStoreRequestBatcher.await(batcher.submit(BookStoreMessageTag.BUYBOOKS, isbnSet));
+			return;
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		exchange(bookStoreRequest);
 	}
 
 	/*
@@ -109,10 +137,14 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isBatched(isbnSet)) {
+			return (List<Book>) BookStoreRequestBatcher.await(batcher.submit(BookStoreMessageTag.GETBOOKS, isbnSet))
+					.getList();
+		}
+
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = exchange(bookStoreRequest);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -131,19 +163,85 @@ public class BookStoreHTTPProxy implements BookStore {
 				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
 
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = exchange(bookStoreRequest);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
 	/**
-	 * Stops the proxy.
+	 * Executes operations of the book store and the stock manager in a single
+	 * request, in order.
+	 *
+	 * @param operations
+	 *            the operations, GETBOOKS, BUYBOOKS, RATEBOOKS or ADDCOPIES
+	 *            with their sets
+	 * @return the responses of the operations, in order; a failed operation
+	 *         has its exception set and does not stop the others
+	 * @throws BookStoreException
+	 *             if the batch itself fails
+	 */
+	@SuppressWarnings("unchecked")
+	public List<BookStoreResponse> executeBatch(List<BookStoreOperation> operations) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.BATCH;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, new ArrayList<>(operations));
+		BookStoreResponse bookStoreResponse = exchange(bookStoreRequest);
+		return (List<BookStoreResponse>) bookStoreResponse.getList();
+	}
+
+	/**
+	 * Checks whether a call is small enough to be batched.
+	 *
+	 * @param set
+	 *            the set of the call
+	 * @return true if the call goes into a batch
+	 */
+	private boolean isBatched(Set<?> set) {
+		return batcher != null && set != null && set.size() <= BookStoreClientConstants.CLIENT_MAX_BATCHED_SET_SIZE;
+	}
+
+	/**
+	 * Performs the HTTP exchange of a request, waiting for the response.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreResponse exchange(BookStoreRequest bookStoreRequest) throws BookStoreException {
+		if (http2Client != null) {
+			return http2Client.performHttpExchange(bookStoreRequest, serializerType);
+		}
+
+		return BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializerType);
+	}
+
+	/**
+	 * Performs the HTTP exchange of a request without waiting for the
+	 * response.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @return the future book store response
+	 */
+	private CompletableFuture<BookStoreResponse> exchangeAsync(BookStoreRequest bookStoreRequest) {
+		if (http2Client != null) {
+			return http2Client.performHttpExchangeAsync(bookStoreRequest, serializerType);
+		}
+
+		return BookStoreUtility.performHttpExchangeAsync(client, bookStoreRequest, serializerType);
+	}
+
+	/**
+	 * Stops the proxy and releases the client runtime.
 	 */
 	public void stop() {
-		try {
-			client.stop();
-		} catch (Exception ex) {
-			System.err.println(ex.getStackTrace());
+		if (batcher != null) {
+			batcher.stop();
+		}
+
+		if (runtime != null) {
+			runtime.release();
+			runtime = null;
 		}
 	}
 
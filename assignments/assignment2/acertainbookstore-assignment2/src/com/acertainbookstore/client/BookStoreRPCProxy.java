@@ -0,0 +1,488 @@
+package com.acertainbookstore.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreOperation;
+import com.acertainbookstore.utils.BookStoreRPCFrame;
+import com.acertainbookstore.utils.BookStoreResponse;
+
+/**
+ * {@link BookStoreRPCProxy} implements the client level synchronous
+ * {@link CertainBookStore} API declared in the {@link BookStore} and
+ * {@link StockManager} classes over the binary RPC transport of the server,
+ * which skips HTTP for clients on the same network.
+ * <p>
+ * All the threads of the proxy share a single connection: every call writes
+ * its request with an identifier, and a reader thread hands each response to
+ * the call with the same identifier, in whichever order the server answers.
+ * A lost connection fails the calls in flight and is opened again by the next
+ * call.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see com.acertainbookstore.server.BookStoreRPCServer
+ */
+public class BookStoreRPCProxy implements BookStore, StockManager {
+
+	/** The address of the server. */
+	private final InetSocketAddress serverAddress;
+
+	/** The identifier of the next request. */
+	private final AtomicInteger nextRequestId = new AtomicInteger();
+
+	/** The calls waiting for their response, by request identifier. */
+	private final Map<Integer, CompletableFuture<BookStoreResponse>> pendingCalls = new ConcurrentHashMap<>();
+
+	/** The connection, or null if it is not open; guarded by the proxy. */
+	private SocketChannel channel = null;
+
+	/** Whether the proxy was stopped; guarded by the proxy. */
+	private boolean stopped = false;
+
+	/**
+	 * Initializes a new {@link BookStoreRPCProxy}. The connection is opened by
+	 * the first call.
+	 *
+	 * @param host
+	 *            the host of the server
+	 * @param port
+	 *            the RPC port of the server
+	 */
+	public BookStoreRPCProxy(String host, int port) {
+		serverAddress = new InetSocketAddress(host, port);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		call(BookStoreMessageTag.BUYBOOKS, bookCopiesToBuy);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		call(BookStoreMessageTag.RATEBOOKS, bookRating);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return (List<Book>) call(BookStoreMessageTag.GETBOOKS, isbnSet).getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return (List<Book>) call(BookStoreMessageTag.GETEDITORPICKS, numBooks).getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		call(BookStoreMessageTag.ADDBOOKS, bookSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		call(BookStoreMessageTag.ADDCOPIES, bookCopiesSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<StockBook> getBooks() throws BookStoreException {
+		return (List<StockBook>) call(BookStoreMessageTag.LISTBOOKS, null).getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
+		return (List<StockBook>) call(BookStoreMessageTag.GETSTOCKBOOKSBYISBN, isbns).getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		call(BookStoreMessageTag.UPDATEEDITORPICKS, editorPicks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		call(BookStoreMessageTag.REMOVEALLBOOKS, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		call(BookStoreMessageTag.REMOVEBOOKS, isbnSet);
+	}
+
+	/**
+	 * Executes operations of the book store and the stock manager in a single
+	 * request, in order.
+	 *
+	 * @param operations
+	 *            the operations, GETBOOKS, BUYBOOKS, RATEBOOKS or ADDCOPIES
+	 *            with their sets
+	 * @return the responses of the operations, in order; a failed operation
+	 *         has its exception set and does not stop the others
+	 * @throws BookStoreException
+	 *             if the batch itself fails
+	 */
+	@SuppressWarnings("unchecked")
+	public List<BookStoreResponse> executeBatch(List<BookStoreOperation> operations) throws BookStoreException {
+		return (List<BookStoreResponse>) call(BookStoreMessageTag.BATCH, new ArrayList<>(operations)).getList();
+	}
+
+	/**
+	 * Sends a message without waiting for its response. The future is
+	 * completed by the reader thread, or completed exceptionally with a
+	 * {@link BookStoreException}, including the one of the message.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputValue
+	 *            the value of the message
+	 * @return the future response
+	 */
+	public CompletableFuture<BookStoreResponse> callAsync(BookStoreMessageTag messageTag, Object inputValue) {
+		return callAsync(nextRequestId.getAndIncrement(), messageTag, inputValue);
+	}
+
+	/**
+	 * Sends a message with the given identifier without waiting for its
+	 * response.
+	 *
+	 * @param requestId
+	 *            the identifier of the request
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputValue
+	 *            the value of the message
+	 * @return the future response
+	 */
+	private CompletableFuture<BookStoreResponse> callAsync(int requestId, BookStoreMessageTag messageTag,
+			Object inputValue) {
+		CompletableFuture<BookStoreResponse> future = new CompletableFuture<>();
+
+		try {
+			ByteBuffer frame = BookStoreRPCFrame.encodeRequest(requestId, messageTag, inputValue);
+			write(requestId, future, frame);
+		} catch (IOException ex) {
+			pendingCalls.remove(requestId);
+			future.completeExceptionally(
+					new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex));
+		}
+
+		return future;
+	}
+
+	/**
+	 * Sends a message and waits for its response.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputValue
+	 *            the value of the message
+	 * @return the response
+	 * @throws BookStoreException
+	 *             the exception of the message, or of the transport
+	 */
+	private BookStoreResponse call(BookStoreMessageTag messageTag, Object inputValue) throws BookStoreException {
+		int requestId = nextRequestId.getAndIncrement();
+		CompletableFuture<BookStoreResponse> future = callAsync(requestId, messageTag, inputValue);
+
+		try {
+			return future.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			// Nobody waits for the response anymore, so it is dropped when it comes.
+			pendingCalls.remove(requestId);
+			Thread.currentThread().interrupt();
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			pendingCalls.remove(requestId);
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof BookStoreException) {
+				throw (BookStoreException) ex.getCause();
+			}
+
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+		}
+	}
+
+	/**
+	 * Writes the frame of a call, opening the connection if needed. The
+	 * frames of concurrent calls are written one after the other, and a call
+	 * waits on the connection it was written to.
+	 *
+	 * @param requestId
+	 *            the identifier of the request
+	 * @param future
+	 *            the future of the call
+	 * @param frame
+	 *            the frame
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private synchronized void write(int requestId, CompletableFuture<BookStoreResponse> future, ByteBuffer frame)
+			throws IOException {
+		if (stopped) {
+			throw new IOException("The proxy is stopped");
+		}
+
+		if (channel == null || !channel.isOpen()) {
+			connect();
+		}
+
+		pendingCalls.put(requestId, future);
+
+		try {
+			while (frame.hasRemaining()) {
+				channel.write(frame);
+			}
+		} catch (IOException ex) {
+			// A partial frame would garble the connection for the others.
+			close(channel);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Opens the connection and starts its reader thread.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void connect() throws IOException {
+		SocketChannel socketChannel = SocketChannel.open(serverAddress);
+
+		// The frames are small and written whole: do not wait to fill packets.
+		socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+		Thread reader = new Thread(() -> read(socketChannel), "BookStoreRPCProxy-" + serverAddress);
+		reader.setDaemon(true);
+		reader.start();
+		channel = socketChannel;
+	}
+
+	/**
+	 * Reads the responses of a connection until it is closed, and completes
+	 * their calls.
+	 *
+	 * @param socketChannel
+	 *            the connection
+	 */
+	private void read(SocketChannel socketChannel) {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+		try {
+			while (socketChannel.read(buffer) >= 0) {
+				buffer.flip();
+				int length;
+
+				while ((length = BookStoreRPCFrame.completeFrameLength(buffer)) >= 0) {
+					buffer.getInt();
+					int requestId = buffer.getInt();
+					byte[] payload = new byte[length - BookStoreRPCFrame.RESPONSE_HEADER_SIZE];
+					buffer.get(payload);
+					complete(pendingCalls.remove(requestId), payload);
+				}
+
+				buffer.compact();
+
+				// Make room for a large response.
+				if (!buffer.hasRemaining()) {
+					ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+					buffer.flip();
+					larger.put(buffer);
+					buffer = larger;
+				}
+			}
+		} catch (IOException ex) {
+			// Lost, failed below.
+		}
+
+		close(socketChannel);
+	}
+
+	/**
+	 * Completes a call with its response.
+	 *
+	 * @param future
+	 *            the future of the call, or null if it was failed already
+	 * @param payload
+	 *            the encoded response
+	 */
+	private static void complete(CompletableFuture<BookStoreResponse> future, byte[] payload) {
+		if (future == null) {
+			return;
+		}
+
+		try {
+			BookStoreResponse bookStoreResponse = (BookStoreResponse) BookStoreRPCFrame.deserialize(payload);
+			BookStoreException exception = bookStoreResponse.getException();
+
+			if (exception != null) {
+				future.completeExceptionally(exception);
+			} else {
+				future.complete(bookStoreResponse);
+			}
+		} catch (IOException | RuntimeException ex) {
+			future.completeExceptionally(
+					new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_RESPONSE_DECODING, ex));
+		}
+	}
+
+	/**
+	 * Closes a connection and fails the calls waiting for a response.
+	 *
+	 * @param socketChannel
+	 *            the connection
+	 */
+	private synchronized void close(SocketChannel socketChannel) {
+		try {
+			socketChannel.close();
+		} catch (IOException ex) {
+			// Already lost.
+		}
+
+		if (channel != socketChannel) {
+			// Closed already, and its calls failed.
+			return;
+		}
+
+		channel = null;
+		BookStoreException lost = new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION);
+
+		for (Integer requestId : pendingCalls.keySet()) {
+			CompletableFuture<BookStoreResponse> future = pendingCalls.remove(requestId);
+
+			if (future != null) {
+				future.completeExceptionally(lost);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of calls waiting for their response.
+	 *
+	 * @return the number of calls
+	 */
+	public int getNumPendingCalls() {
+		return pendingCalls.size();
+	}
+
+	/**
+	 * Stops the proxy and closes its connection.
+	 */
+	public void stop() {
+		SocketChannel socketChannel;
+
+		synchronized (this) {
+			stopped = true;
+			socketChannel = channel;
+		}
+
+		if (socketChannel != null) {
+			close(socketChannel);
+		}
+	}
+}
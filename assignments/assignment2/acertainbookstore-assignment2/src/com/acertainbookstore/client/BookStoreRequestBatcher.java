@@ -0,0 +1,181 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreOperation;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+
+/**
+ * {@link BookStoreRequestBatcher} coalesces the small calls of a proxy into
+ * batch requests. The first call of a batch opens a window of a few
+ * microseconds; the calls made by other threads meanwhile join it, and the
+ * batch is sent as a single {@link BookStoreMessageTag#BATCH} request when the
+ * window closes or the batch is full. The response holds a result per call,
+ * which completes the future of that call.
+ * <p>
+ * Batching trades a little latency for fewer round trips, so it only pays off
+ * when many threads share a proxy.
+ *
+ * @see BookStoreHTTPProxy
+ * @see AsyncBookStoreHTTPProxy
+ */
+final class BookStoreRequestBatcher {
+
+	/** Sends the batch requests. */
+	private final Function<BookStoreRequest, CompletableFuture<BookStoreResponse>> transport;
+
+	/** The server address, read when a batch is sent. */
+	private final Supplier<String> serverAddress;
+
+	/** The time a batch waits for more calls, in microseconds. */
+	private final long windowMicros;
+
+	/** Sends the batches whose window is closed, shared with other proxies. */
+	private final ScheduledExecutorService timer;
+
+	/** The operations of the open batch. */
+	private List<BookStoreOperation> operations = new ArrayList<>();
+
+	/** The futures of the operations of the open batch. */
+	private List<CompletableFuture<BookStoreResponse>> futures = new ArrayList<>();
+
+	/**
+	 * Instantiates a new {@link BookStoreRequestBatcher}.
+	 *
+	 * @param transport
+	 *            sends a batch request and returns its future response
+	 * @param serverAddress
+	 *            the server address
+	 * @param timer
+	 *            sends the batches whose window is closed
+	 * @param windowMicros
+	 *            the time a batch waits for more calls, in microseconds
+	 */
+	BookStoreRequestBatcher(Function<BookStoreRequest, CompletableFuture<BookStoreResponse>> transport,
+			Supplier<String> serverAddress, ScheduledExecutorService timer, long windowMicros) {
+		this.transport = transport;
+		this.serverAddress = serverAddress;
+		this.windowMicros = windowMicros;
+		this.timer = timer;
+	}
+
+	/**
+	 * Adds an operation to the open batch. The set of the operation is copied,
+	 * since the batch is only encoded when its window closes and the caller
+	 * may reuse the set as soon as the call returns.
+	 *
+	 * @param messageTag
+	 *            the message tag of the operation
+	 * @param inputValue
+	 *            the input value of the operation
+	 * @return the future response of the operation, completed exceptionally
+	 *         with the {@link BookStoreException} of the operation or of the
+	 *         batch
+	 */
+	CompletableFuture<BookStoreResponse> submit(BookStoreMessageTag messageTag, Object inputValue) {
+		CompletableFuture<BookStoreResponse> future = new CompletableFuture<>();
+		Object value = (inputValue instanceof Set) ? new HashSet<>((Set<?>) inputValue) : inputValue;
+		boolean opened;
+		boolean full;
+
+		synchronized (this) {
+			opened = operations.isEmpty();
+			operations.add(new BookStoreOperation(messageTag, value));
+			futures.add(future);
+			full = operations.size() >= BookStoreClientConstants.CLIENT_MAX_BATCH_OPERATIONS;
+		}
+
+		if (full) {
+			flush();
+		} else if (opened) {
+			timer.schedule(this::flush, windowMicros, TimeUnit.MICROSECONDS);
+		}
+
+		return future;
+	}
+
+	/**
+	 * Sends the open batch, if it has any operation.
+	 */
+	void flush() {
+		List<BookStoreOperation> batchOperations;
+		List<CompletableFuture<BookStoreResponse>> batchFutures;
+
+		synchronized (this) {
+			if (operations.isEmpty()) {
+				return;
+			}
+
+			batchOperations = operations;
+			batchFutures = futures;
+			operations = new ArrayList<>();
+			futures = new ArrayList<>();
+		}
+
+		String urlString = serverAddress.get() + "/" + BookStoreMessageTag.BATCH;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, batchOperations);
+		transport.apply(bookStoreRequest).whenComplete((bookStoreResponse, failure) -> {
+			List<?> results = (failure == null) ? bookStoreResponse.getList() : null;
+			Throwable batchFailure = failure;
+
+			if (failure == null && (results == null || results.size() != batchFutures.size())) {
+				batchFailure = new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_RESPONSE_DECODING);
+			}
+
+			for (int i = 0; i < batchFutures.size(); i++) {
+				if (batchFailure != null) {
+					batchFutures.get(i).completeExceptionally(batchFailure);
+					continue;
+				}
+
+				BookStoreResponse result = (BookStoreResponse) results.get(i);
+
+				if (result.getException() != null) {
+					batchFutures.get(i).completeExceptionally(result.getException());
+				} else {
+					batchFutures.get(i).complete(result);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sends the open batch before the proxy stops.
+	 */
+	void stop() {
+		flush();
+	}
+
+	/**
+	 * Waits for the response of an operation.
+	 *
+	 * @param future
+	 *            the future response of the operation
+	 * @return the response of the operation
+	 * @throws BookStoreException
+	 *             the exception of the operation or of the batch
+	 */
+	static BookStoreResponse await(CompletableFuture<BookStoreResponse> future) throws BookStoreException {
+		try {
+			return future.join();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof BookStoreException) {
+				throw (BookStoreException) ex.getCause();
+			}
+
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_UNKNOWN, ex.getCause());
+		}
+	}
+}
@@ -4,17 +4,15 @@ import java.util.List;
 import java.util.Set;
 
 import org.eclipse.jetty.client.HttpClient;
-import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
 import com.acertainbookstore.business.StockBook;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
-import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+import com.acertainbookstore.utils.BookStoreSerializerType;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
@@ -36,8 +34,14 @@ public class StockManagerHTTPProxy implements StockManager {
 	/** The server address. */
 	protected String serverAddress;
 
-	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	/** The serializer type of the requests, also asked for the responses. */
+	private BookStoreSerializerType serializerType;
+
+	/** The client runtime shared with the other proxies. */
+	private BookStoreClientRuntime runtime;
+
+	/** The HTTP/2 client, or null if the requests go through HTTP/1.1. */
+	private BookStoreHTTP2Client http2Client = null;
 
 	/**
 	 * Initializes a new {@link StockManagerHTTPProxy}.
@@ -50,25 +54,17 @@ public class StockManagerHTTPProxy implements StockManager {
 	public StockManagerHTTPProxy(String serverAddress) throws Exception {
 
 		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
-		}
+		serializerType = BookStoreSerializerType.getConfigured();
 
 		setServerAddress(serverAddress);
-		client = new HttpClient();
+		runtime = BookStoreClientRuntime.acquire();
 
-		// Max concurrent connections to every address.
-		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
-
-		// Max number of threads.
-		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
-
-		// Seconds timeout; if no server reply, the request expires.
-		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
-
-		client.start();
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2)) {
+			// All the requests share the streams of a single connection.
+			http2Client = runtime.getHTTP2Client();
+		} else {
+			client = runtime.getHttpClient();
+		}
 	}
 
 	/**
@@ -99,7 +95,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		exchange(bookStoreRequest);
 	}
 
 	/*
@@ -111,7 +107,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDCOPIES;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookCopiesSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		exchange(bookStoreRequest);
 	}
 
 	/*
@@ -123,8 +119,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public List<StockBook> getBooks() throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = exchange(bookStoreRequest);
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
@@ -138,7 +133,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void updateEditorPicks(Set<BookEditorPick> editorPicksValues) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.UPDATEEDITORPICKS + "?";
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, editorPicksValues);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		exchange(bookStoreRequest);
 	}
 
 	/*
@@ -163,7 +158,7 @@ public class StockManagerHTTPProxy implements StockManager {
 		// need to send any data; this request is just a signal to remove all
 		// books.
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		exchange(bookStoreRequest);
 	}
 
 	/*
@@ -175,7 +170,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		exchange(bookStoreRequest);
 	}
 
 	/*
@@ -189,19 +184,34 @@ public class StockManagerHTTPProxy implements StockManager {
 	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbns);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = exchange(bookStoreRequest);
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
 	/**
-	 * Stops the proxy.
+	 * Performs the HTTP exchange of a request, waiting for the response.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreResponse exchange(BookStoreRequest bookStoreRequest) throws BookStoreException {
+		if (http2Client != null) {
+			return http2Client.performHttpExchange(bookStoreRequest, serializerType);
+		}
+
+		return BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializerType);
+	}
+
+	/**
+	 * Stops the proxy and releases the client runtime.
 	 */
 	public void stop() {
-		try {
-			client.stop();
-		} catch (Exception ex) {
-			System.err.println(ex.getStackTrace());
+		if (runtime != null) {
+			runtime.release();
+			runtime = null;
 		}
 	}
 }
@@ -0,0 +1,644 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.AsyncBookStoreHTTPProxy;
+import com.acertainbookstore.client.AsyncStockManagerHTTPProxy;
+import com.acertainbookstore.client.BookStoreClientConstants;
+import com.acertainbookstore.client.BookStoreClientRuntime;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.interfaces.AsyncBookStore;
+import com.acertainbookstore.interfaces.AsyncStockManager;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.server.BookStoreRequestDispatcher;
+import com.acertainbookstore.server.BookStoreRouteStatistics;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreOperation;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializerType;
+
+/**
+ * {@link AsyncBookStoreTest} tests the {@link AsyncBookStore} and
+ * {@link AsyncStockManager} interfaces against a server started by the test.
+ *
+ * @see AsyncBookStore
+ * @see AsyncStockManager
+ */
+public class AsyncBookStoreTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The Constant NUM_CONCURRENT_REQUESTS in flight at once. */
+	private static final int NUM_CONCURRENT_REQUESTS = 2000;
+
+	/** The Constant BATCH_WINDOW_MICROS of the batching proxies. */
+	private static final long BATCH_WINDOW_MICROS = 2000;
+
+	/** The Constant DROP_TIMEOUT_SECS, well below the timeout of a request. */
+	private static final long DROP_TIMEOUT_SECS = 10;
+
+	/** The server address. */
+	private static String serverAddress;
+
+	/** The server. */
+	private static Server server;
+
+	/** The dispatcher of the server. */
+	private static BookStoreRequestDispatcher dispatcher;
+
+	/** The handler of the server. */
+	private static BookStoreHTTPMessageHandler handler;
+
+	/** The store manager. */
+	private static AsyncStockManagerHTTPProxy storeManager;
+
+	/** The client. */
+	private static AsyncBookStoreHTTPProxy client;
+
+	/**
+	 * Starts a server on a free port and the proxies talking to it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+		server = new Server();
+		server.addConnector(BookStoreHTTPServerUtility.createConnector(server, 0, true));
+		dispatcher = new BookStoreRequestDispatcher(store, store);
+		handler = new BookStoreHTTPMessageHandler(dispatcher);
+		server.setHandler(handler);
+		server.start();
+
+		serverAddress = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+		storeManager = new AsyncStockManagerHTTPProxy(serverAddress + "/stock");
+		client = new AsyncBookStoreHTTPProxy(serverAddress);
+	}
+
+	/**
+	 * Adds the default book before every test case is run.
+	 */
+	@Before
+	public void initializeBooks() {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES,
+				0, 0, 0, false));
+		storeManager.removeAllBooks().thenCompose(removed -> storeManager.addBooks(booksToAdd)).join();
+	}
+
+	/**
+	 * Tests that many requests in flight at once all get their response.
+	 */
+	@Test
+	public void testConcurrentGetBooks() {
+		List<CompletableFuture<List<Book>>> futures = new ArrayList<>();
+
+		for (int i = 0; i < NUM_CONCURRENT_REQUESTS; i++) {
+			futures.add(client.getBooks(Collections.singleton(TEST_ISBN)));
+		}
+
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+		for (CompletableFuture<List<Book>> future : futures) {
+			List<Book> books = future.join();
+			assertEquals(1, books.size());
+			assertEquals(TEST_ISBN, books.get(0).getISBN());
+		}
+	}
+
+	/**
+	 * Tests that buying books completes once the copies are sold.
+	 */
+	@Test
+	public void testBuyBooks() {
+		Set<BookCopy> booksToBuy = Collections.singleton(new BookCopy(TEST_ISBN, 2));
+		List<StockBook> books = client.buyBooks(booksToBuy).thenCompose(bought -> storeManager.getBooks()).join();
+		assertEquals(NUM_COPIES - 2, books.get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that a rejected request completes its future exceptionally with
+	 * the exception of the server, and leaves the books as they were.
+	 */
+	@Test
+	public void testFailedRequest() {
+		CompletableFuture<Void> future = client.buyBooks(Collections.singleton(new BookCopy(-1, 1)));
+
+		try {
+			future.join();
+			fail();
+		} catch (CompletionException ex) {
+			assertTrue(ex.getCause() instanceof BookStoreException);
+		}
+
+		assertEquals(NUM_COPIES, storeManager.getBooks().join().get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that the futures of the stock manager can be chained.
+	 */
+	@Test
+	public void testAddCopies() {
+		Set<BookCopy> bookCopies = Collections.singleton(new BookCopy(TEST_ISBN, 3));
+		List<StockBook> books = storeManager.addCopies(bookCopies)
+				.thenCompose(added -> storeManager.getBooksByISBN(Collections.singleton(TEST_ISBN))).join();
+		assertEquals(NUM_COPIES + 3, books.get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that concurrent small calls of a batching proxy get their own
+	 * results, and that a failed call does not fail the others of its batch.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBatchedCalls() throws Exception {
+		AsyncBookStoreHTTPProxy batchingClient = new AsyncBookStoreHTTPProxy(serverAddress, BATCH_WINDOW_MICROS);
+		BookStoreHTTPProxy batchingSyncClient = new BookStoreHTTPProxy(serverAddress, BATCH_WINDOW_MICROS);
+
+		try {
+			List<CompletableFuture<List<Book>>> futures = new ArrayList<>();
+
+			for (int i = 0; i < NUM_CONCURRENT_REQUESTS / 10; i++) {
+				futures.add(batchingClient.getBooks(Collections.singleton(TEST_ISBN)));
+			}
+
+			CompletableFuture<Void> failedBuy = batchingClient.buyBooks(Collections.singleton(new BookCopy(-1, 1)));
+			CompletableFuture<Void> buy = batchingClient.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+
+			for (CompletableFuture<List<Book>> future : futures) {
+				assertEquals(TEST_ISBN, future.join().get(0).getISBN());
+			}
+
+			buy.join();
+
+			try {
+				failedBuy.join();
+				fail();
+			} catch (CompletionException ex) {
+				assertTrue(ex.getCause() instanceof BookStoreException);
+			}
+
+			batchingSyncClient.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+			assertEquals(TEST_ISBN, batchingSyncClient.getBooks(Collections.singleton(TEST_ISBN)).get(0).getISBN());
+
+			try {
+				batchingSyncClient.getBooks(Collections.singleton(-1));
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			assertEquals(NUM_COPIES - 2, storeManager.getBooks().join().get(0).getNumCopies());
+		} finally {
+			batchingClient.stop();
+			batchingSyncClient.stop();
+		}
+	}
+
+	/**
+	 * Tests that a batching proxy sends the books of a call as they were when
+	 * it was made, even if the caller changes its set before the batch is
+	 * sent.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBatchedCallsCopyTheirSets() throws Exception {
+		AsyncBookStoreHTTPProxy batchingClient = new AsyncBookStoreHTTPProxy(serverAddress, BATCH_WINDOW_MICROS);
+
+		try {
+			Set<BookCopy> bookCopies = new HashSet<>();
+			bookCopies.add(new BookCopy(TEST_ISBN, 1));
+			CompletableFuture<Void> buy = batchingClient.buyBooks(bookCopies);
+
+			// The window of the batch is still open.
+			bookCopies.clear();
+			bookCopies.add(new BookCopy(TEST_ISBN, 2));
+			buy.join();
+
+			assertEquals(NUM_COPIES - 1, storeManager.getBooks().join().get(0).getNumCopies());
+		} finally {
+			batchingClient.stop();
+		}
+	}
+
+	/**
+	 * Tests that a batch mixing the operations of a checkout gets a result per
+	 * operation, in order, and that the failed operations do not stop the
+	 * others.
+	 */
+	@Test
+	public void testCheckoutBatch() {
+		List<BookStoreOperation> operations = new ArrayList<>();
+		operations.add(new BookStoreOperation(BookStoreMessageTag.GETBOOKS, Collections.singleton(TEST_ISBN)));
+		operations.add(new BookStoreOperation(BookStoreMessageTag.BUYBOOKS,
+				Collections.singleton(new BookCopy(TEST_ISBN, 2))));
+		operations.add(new BookStoreOperation(BookStoreMessageTag.RATEBOOKS,
+				Collections.singleton(new BookRating(TEST_ISBN, 5))));
+		operations.add(new BookStoreOperation(BookStoreMessageTag.ADDCOPIES,
+				Collections.singleton(new BookCopy(TEST_ISBN, 3))));
+		operations.add(new BookStoreOperation(BookStoreMessageTag.REMOVEALLBOOKS, null));
+
+		List<BookStoreResponse> results = client.executeBatch(operations).join();
+		assertEquals(operations.size(), results.size());
+		assertEquals(TEST_ISBN, ((Book) results.get(0).getList().get(0)).getISBN());
+		assertNull(results.get(1).getException());
+
+		// The stores do not implement rateBooks yet.
+		assertNotNull(results.get(2).getException());
+		assertNull(results.get(3).getException());
+		assertNotNull(results.get(4).getException());
+
+		assertEquals(NUM_COPIES - 2 + 3, storeManager.getBooks().join().get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that the proxies talk HTTP/2 to a server accepting it, with more
+	 * requests in flight than streams allowed on the connection, and with
+	 * responses large enough to be compressed.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testHTTP2() throws Exception {
+		AsyncBookStoreHTTPProxy http2Client;
+		StockManagerHTTPProxy http2StoreManager;
+		System.setProperty(BookStoreConstants.PROPERTY_KEY_HTTP2, "true");
+
+		try {
+			http2Client = new AsyncBookStoreHTTPProxy(serverAddress);
+			http2StoreManager = new StockManagerHTTPProxy(serverAddress + "/stock");
+		} finally {
+			System.clearProperty(BookStoreConstants.PROPERTY_KEY_HTTP2);
+		}
+
+		try {
+			List<CompletableFuture<List<Book>>> futures = new ArrayList<>();
+
+			for (int i = 0; i < NUM_CONCURRENT_REQUESTS; i++) {
+				futures.add(http2Client.getBooks(Collections.singleton(TEST_ISBN)));
+			}
+
+			for (CompletableFuture<List<Book>> future : futures) {
+				assertEquals(TEST_ISBN, future.join().get(0).getISBN());
+			}
+
+			try {
+				http2Client.buyBooks(Collections.singleton(new BookCopy(-1, 1))).join();
+				fail();
+			} catch (CompletionException ex) {
+				assertTrue(ex.getCause() instanceof BookStoreException);
+			}
+
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+			for (int i = 1; i <= NUM_CONCURRENT_REQUESTS; i++) {
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Title " + i, "Author " + i, i, NUM_COPIES, 0,
+						0, 0, false));
+			}
+
+			http2StoreManager.addBooks(booksToAdd);
+			assertEquals(NUM_CONCURRENT_REQUESTS + 1, http2StoreManager.getBooks().size());
+		} finally {
+			http2Client.stop();
+			http2StoreManager.stop();
+		}
+	}
+
+	/**
+	 * Tests that an answer without a response, such as a 404, completes the
+	 * futures of the proxies exceptionally over HTTP/1.1 and HTTP/2 instead of
+	 * leaving them pending.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testNotFound() throws Exception {
+		AsyncBookStoreHTTPProxy http1Client = new AsyncBookStoreHTTPProxy(serverAddress + "/missing");
+		AsyncBookStoreHTTPProxy http2Client;
+		System.setProperty(BookStoreConstants.PROPERTY_KEY_HTTP2, "true");
+
+		try {
+			http2Client = new AsyncBookStoreHTTPProxy(serverAddress + "/missing");
+		} finally {
+			System.clearProperty(BookStoreConstants.PROPERTY_KEY_HTTP2);
+		}
+
+		try {
+			for (AsyncBookStoreHTTPProxy proxy : new AsyncBookStoreHTTPProxy[] { http1Client, http2Client }) {
+				try {
+					proxy.getBooks(Collections.singleton(TEST_ISBN)).get(DROP_TIMEOUT_SECS, TimeUnit.SECONDS);
+					fail();
+				} catch (ExecutionException ex) {
+					assertTrue(ex.getCause() instanceof BookStoreException);
+					assertEquals(BookStoreConstants.HTTP_STATUS + HttpStatus.NOT_FOUND_404,
+							ex.getCause().getMessage());
+				}
+			}
+		} finally {
+			http1Client.stop();
+			http2Client.stop();
+		}
+	}
+
+	/**
+	 * Tests that the HTTP/2 requests in flight fail when the server drops the
+	 * connection, instead of waiting for their timeout, and that they hand
+	 * their streams to the waiting requests, which fail on the next
+	 * connection as well.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testHTTP2ConnectionDropped() throws Exception {
+		try (ServerSocket dropper = new ServerSocket(0)) {
+			Thread dropperThread = new Thread(() -> dropConnections(dropper));
+			dropperThread.setDaemon(true);
+			dropperThread.start();
+
+			AsyncBookStoreHTTPProxy http2Client;
+			System.setProperty(BookStoreConstants.PROPERTY_KEY_HTTP2, "true");
+
+			try {
+				http2Client = new AsyncBookStoreHTTPProxy("http://localhost:" + dropper.getLocalPort());
+			} finally {
+				System.clearProperty(BookStoreConstants.PROPERTY_KEY_HTTP2);
+			}
+
+			try {
+				List<CompletableFuture<List<Book>>> futures = new ArrayList<>();
+
+				for (int i = 0; i <= BookStoreClientConstants.CLIENT_MAX_CONCURRENT_STREAMS; i++) {
+					futures.add(http2Client.getBooks(Collections.singleton(TEST_ISBN)));
+				}
+
+				for (CompletableFuture<List<Book>> future : futures) {
+					try {
+						future.get(DROP_TIMEOUT_SECS, TimeUnit.SECONDS);
+						fail();
+					} catch (ExecutionException ex) {
+						assertTrue(ex.getCause() instanceof BookStoreException);
+					}
+				}
+			} finally {
+				http2Client.stop();
+			}
+		}
+	}
+
+	/**
+	 * Accepts HTTP/2 connections and drops each of them as soon as the first
+	 * request arrives, until the server socket is closed.
+	 *
+	 * @param serverSocket
+	 *            the server socket
+	 */
+	private static void dropConnections(ServerSocket serverSocket) {
+		while (!serverSocket.isClosed()) {
+			try (Socket socket = serverSocket.accept()) {
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				byte[] frameHeader = new byte[9];
+
+				// The preface of the server is an empty SETTINGS frame.
+				socket.getOutputStream().write(new byte[] { 0, 0, 0, 4, 0, 0, 0, 0, 0 });
+				in.readFully(new byte[24]);
+
+				// Skips the frames of the client up to its first HEADERS frame.
+				do {
+					in.readFully(frameHeader);
+					in.readFully(new byte[((frameHeader[0] & 0xff) << 16) | ((frameHeader[1] & 0xff) << 8)
+							| (frameHeader[2] & 0xff)]);
+				} while (frameHeader[3] != 1);
+			} catch (IOException ex) {
+				// The connection or the server socket is closed.
+			}
+		}
+	}
+
+	/**
+	 * Tests that the proxies share the client runtime, and that stopping a
+	 * proxy, even twice, leaves it running for the others.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSharedRuntime() throws Exception {
+		BookStoreClientRuntime runtime = BookStoreClientRuntime.acquire();
+
+		try {
+			int references = runtime.getReferences();
+			BookStoreHTTPProxy otherClient = new BookStoreHTTPProxy(serverAddress);
+			assertEquals(references + 1, runtime.getReferences());
+			assertEquals(TEST_ISBN, otherClient.getBooks(Collections.singleton(TEST_ISBN)).get(0).getISBN());
+
+			otherClient.stop();
+			otherClient.stop();
+			assertEquals(references, runtime.getReferences());
+			assertEquals(TEST_ISBN, client.getBooks(Collections.singleton(TEST_ISBN)).join().get(0).getISBN());
+		} finally {
+			runtime.release();
+		}
+	}
+
+	/**
+	 * Tests that the paths are routed ignoring case, with or without the
+	 * prefix of the stock manager, and that the routes count their requests.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRoutes() throws Exception {
+		BookStoreClientRuntime runtime = BookStoreClientRuntime.acquire();
+
+		try {
+			HttpClient httpClient = runtime.getHttpClient();
+			BookStoreRouteStatistics statistics = dispatcher.getStatistics(BookStoreMessageTag.LISTBOOKS);
+			long messages = statistics.getMessages();
+			long unroutedRequests = handler.getUnroutedRequests();
+			String binaryType = BookStoreSerializerType.BINARY.getMediaType();
+
+			for (String path : new String[] { "/stock/listbooks", "/STOCK/ListBooks", "/LISTBOOKS" }) {
+				ContentResponse response = httpClient.newRequest(serverAddress + path)
+						.header(HttpHeader.ACCEPT, binaryType).send();
+				assertEquals(HttpStatus.OK_200, response.getStatus());
+			}
+
+			for (String path : new String[] { "/stock/listbook", "/stock", "/stocklistbooks", "/" }) {
+				ContentResponse response = httpClient.newRequest(serverAddress + path)
+						.header(HttpHeader.ACCEPT, binaryType).send();
+				assertEquals(HttpStatus.NOT_FOUND_404, response.getStatus());
+			}
+
+			assertEquals(messages + 3, statistics.getMessages());
+			assertEquals(unroutedRequests + 4, handler.getUnroutedRequests());
+		} finally {
+			runtime.release();
+		}
+	}
+
+	/**
+	 * Tests that a request without a Content-Type is decoded with the
+	 * serializer its Accept header asks for, as the registry check assumed.
+	 * The request is written by hand, since the HTTP client always sends a
+	 * Content-Type with a body.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRequestTypeFromAccept() throws Exception {
+		BookStoreSerializerType xmlType = BookStoreSerializerType.XSTREAM;
+		BookStoreSerializer serializer = xmlType.borrowSerializer();
+		int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+
+		try (Socket socket = new Socket("localhost", port)) {
+			byte[] content = serializer.serialize(new HashSet<>(Collections.singleton(TEST_ISBN)));
+			String head = "POST /" + BookStoreMessageTag.GETBOOKS + " HTTP/1.0\r\nAccept: " + xmlType.getMediaType()
+					+ "\r\nContent-Length: " + content.length + "\r\n\r\n";
+			socket.getOutputStream().write(head.getBytes(StandardCharsets.US_ASCII));
+			socket.getOutputStream().write(content);
+
+			// An HTTP/1.0 response ends with the connection.
+			byte[] response = readAll(socket.getInputStream());
+			String text = new String(response, StandardCharsets.ISO_8859_1);
+			assertTrue(text, text.startsWith("HTTP/1.1 200"));
+
+			int bodyStart = text.indexOf("\r\n\r\n") + 4;
+			BookStoreResponse bookStoreResponse = (BookStoreResponse) serializer
+					.deserialize(Arrays.copyOfRange(response, bodyStart, response.length));
+			assertNull(bookStoreResponse.getException());
+			assertEquals(TEST_ISBN, ((Book) bookStoreResponse.getList().get(0)).getISBN());
+		} finally {
+			xmlType.returnSerializer(serializer);
+		}
+	}
+
+	/**
+	 * Reads a stream to its end.
+	 *
+	 * @param in
+	 *            the stream
+	 * @return the bytes
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int length;
+
+		while ((length = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, length);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Tests that a registered handler replaces the one of its message, and
+	 * that its failures are counted.
+	 */
+	@Test
+	public void testRegisteredHandler() {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+		BookStoreRequestDispatcher otherDispatcher = new BookStoreRequestDispatcher(store, store);
+		otherDispatcher.register(BookStoreMessageTag.GETEDITORPICKS, false,
+				value -> Collections.nCopies((Integer) value, TEST_ISBN));
+
+		assertEquals(3, otherDispatcher.dispatch(BookStoreMessageTag.GETEDITORPICKS, 3).getList().size());
+		assertNotNull(otherDispatcher.dispatch(BookStoreMessageTag.GETEDITORPICKS, "3").getException());
+
+		BookStoreRouteStatistics statistics = otherDispatcher.getStatistics(BookStoreMessageTag.GETEDITORPICKS);
+		assertEquals(2, statistics.getMessages());
+		assertEquals(1, statistics.getFailures());
+	}
+
+	/**
+	 * Tests that messages without a value or with a value of the wrong type
+	 * fail with a book store exception rather than escaping the dispatcher.
+	 */
+	@Test
+	public void testInvalidMessageValues() {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+		BookStoreRequestDispatcher otherDispatcher = new BookStoreRequestDispatcher(store, store);
+
+		for (BookStoreMessageTag messageTag : new BookStoreMessageTag[] { BookStoreMessageTag.GETEDITORPICKS,
+				BookStoreMessageTag.BATCH, BookStoreMessageTag.BUYBOOKS }) {
+			assertEquals(BookStoreConstants.NULL_INPUT,
+					otherDispatcher.dispatch(messageTag, null).getException().getMessage());
+		}
+
+		assertEquals(BookStoreConstants.INVALID_MESSAGE_VALUE + BookStoreMessageTag.GETEDITORPICKS,
+				otherDispatcher.dispatch(BookStoreMessageTag.GETEDITORPICKS, "3").getException().getMessage());
+
+		List<BookStoreResponse> results = otherDispatcher
+				.dispatchBatch(Collections.singletonList((BookStoreOperation) null));
+		assertEquals(BookStoreConstants.NULL_INPUT, results.get(0).getException().getMessage());
+	}
+
+	/**
+	 * Stops the proxies and the server.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		storeManager.stop();
+		client.stop();
+		server.stop();
+	}
+}
@@ -0,0 +1,265 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreRPCProxy;
+import com.acertainbookstore.server.BookStoreRPCServer;
+import com.acertainbookstore.server.BookStoreRequestDispatcher;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreOperation;
+import com.acertainbookstore.utils.BookStoreResponse;
+
+/**
+ * {@link BookStoreRPCTest} tests the binary RPC transport against a server
+ * started by the test.
+ *
+ * @see BookStoreRPCProxy
+ * @see BookStoreRPCServer
+ */
+public class BookStoreRPCTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 4044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The Constant NUM_CONCURRENT_REQUESTS in flight at once. */
+	private static final int NUM_CONCURRENT_REQUESTS = 2000;
+
+	/** The Constant NUM_TIMED_CALLS measuring the latency. */
+	private static final int NUM_TIMED_CALLS = 20000;
+
+	/** The workers of the server. */
+	private static ExecutorService workers;
+
+	/** The server. */
+	private static BookStoreRPCServer server;
+
+	/** The proxy. */
+	private static BookStoreRPCProxy proxy;
+
+	/**
+	 * Starts a server on a free port and the proxy talking to it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+		workers = Executors.newFixedThreadPool(8);
+		server = new BookStoreRPCServer(0, new BookStoreRequestDispatcher(store, store), workers);
+		server.start();
+		proxy = new BookStoreRPCProxy("localhost", server.getLocalPort());
+	}
+
+	/**
+	 * Adds the default book before every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		proxy.removeAllBooks();
+		proxy.addBooks(Collections.singleton(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit",
+				(float) 10, NUM_COPIES, 0, 0, 0, false)));
+	}
+
+	/**
+	 * Tests that many requests in flight at once on the connection all get
+	 * their own response.
+	 */
+	@Test
+	public void testPipelinedCalls() {
+		List<CompletableFuture<BookStoreResponse>> futures = new ArrayList<>();
+
+		for (int i = 0; i < NUM_CONCURRENT_REQUESTS; i++) {
+			BookStoreMessageTag messageTag = (i % 2 == 0) ? BookStoreMessageTag.GETBOOKS
+					: BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
+			futures.add(proxy.callAsync(messageTag, Collections.singleton(TEST_ISBN)));
+		}
+
+		for (int i = 0; i < NUM_CONCURRENT_REQUESTS; i++) {
+			Object book = futures.get(i).join().getList().get(0);
+			assertEquals(TEST_ISBN, ((Book) book).getISBN());
+			assertEquals(i % 2 != 0, book instanceof StockBook);
+		}
+	}
+
+	/**
+	 * Tests that the exception of a message reaches its caller and leaves the
+	 * books as they were.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testFailedCall() throws BookStoreException {
+		try {
+			proxy.buyBooks(Collections.singleton(new BookCopy(-1, 1)));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			proxy.callAsync(BookStoreMessageTag.GETBOOKS, Collections.singleton(-1)).join();
+			fail();
+		} catch (CompletionException ex) {
+			assertTrue(ex.getCause() instanceof BookStoreException);
+		}
+
+		proxy.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 2)));
+		assertEquals(NUM_COPIES - 2, proxy.getBooks().get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that a call interrupted while it waits for a server which never
+	 * answers fails and no longer counts as pending.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testInterruptedCall() throws Exception {
+		try (ServerSocket silentServer = new ServerSocket(0)) {
+			BookStoreRPCProxy silentProxy = new BookStoreRPCProxy("localhost", silentServer.getLocalPort());
+			AtomicReference<Exception> failure = new AtomicReference<>();
+
+			Thread caller = new Thread(() -> {
+				try {
+					silentProxy.getBooks();
+				} catch (BookStoreException ex) {
+					failure.set(ex);
+				}
+			});
+			caller.start();
+
+			try {
+				while (silentProxy.getNumPendingCalls() == 0) {
+					Thread.sleep(1);
+				}
+
+				caller.interrupt();
+				caller.join();
+				assertTrue(failure.get() instanceof BookStoreException);
+				assertEquals(0, silentProxy.getNumPendingCalls());
+			} finally {
+				silentProxy.stop();
+			}
+		}
+	}
+
+	/**
+	 * Tests the messages without a value, and a batch.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testEditorPicksAndBatch() throws BookStoreException {
+		assertTrue(proxy.getEditorPicks(1).isEmpty());
+
+		List<BookStoreOperation> operations = new ArrayList<>();
+		operations.add(new BookStoreOperation(BookStoreMessageTag.BUYBOOKS,
+				Collections.singleton(new BookCopy(TEST_ISBN, 1))));
+		operations.add(new BookStoreOperation(BookStoreMessageTag.REMOVEALLBOOKS, null));
+
+		List<BookStoreResponse> results = proxy.executeBatch(operations);
+		assertNull(results.get(0).getException());
+		assertNotNull(results.get(1).getException());
+		assertEquals(NUM_COPIES - 1, proxy.getBooks().get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests frames much larger than the buffers of both sides.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testLargeFrames() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= NUM_CONCURRENT_REQUESTS * 10; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Title " + i, "Author " + i, i, NUM_COPIES, 0, 0,
+					0, false));
+		}
+
+		proxy.addBooks(booksToAdd);
+		assertEquals(booksToAdd.size() + 1, proxy.getBooks().size());
+	}
+
+	/**
+	 * Prints the latency of a call on its own connection, and tests that a
+	 * stopped proxy refuses calls.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testLatency() throws Exception {
+		BookStoreRPCProxy otherProxy = new BookStoreRPCProxy("localhost", server.getLocalPort());
+
+		try {
+			Set<Integer> isbns = Collections.singleton(TEST_ISBN);
+
+			for (int i = 0; i < NUM_TIMED_CALLS / 10; i++) {
+				otherProxy.getBooks(isbns);
+			}
+
+			long startTime = System.nanoTime();
+
+			for (int i = 0; i < NUM_TIMED_CALLS; i++) {
+				otherProxy.getBooks(isbns);
+			}
+
+			long latencyNanos = (System.nanoTime() - startTime) / NUM_TIMED_CALLS;
+			System.out.println("RPC getBooks latency: " + latencyNanos / 1000.0 + " us");
+		} finally {
+			otherProxy.stop();
+		}
+
+		try {
+			otherProxy.getBooks(Collections.singleton(TEST_ISBN));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Stops the proxy and the server.
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() {
+		proxy.stop();
+		server.stop();
+		workers.shutdown();
+	}
+}
@@ -0,0 +1,503 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreBinarySerializer;
+import com.acertainbookstore.utils.BookStoreCompression;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreOperation;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializerType;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.sun.management.ThreadMXBean;
+
+/**
+ * {@link BookStoreSerializerTest} tests the round trip of messages through the
+ * {@link BookStoreKryoSerializer} and the {@link BookStoreBinarySerializer},
+ * and benchmarks their allocations and sizes.
+ *
+ * @see BookStoreKryoSerializer
+ * @see BookStoreBinarySerializer
+ */
+public class BookStoreSerializerTest {
+
+	/** The Constant NUM_BOOKS in a typical response. */
+	private static final int NUM_BOOKS = 10;
+
+	/** The Constant NUM_ROUND_TRIPS measured by the benchmark. */
+	private static final int NUM_ROUND_TRIPS = 20000;
+
+	/**
+	 * Gets a typical response, the answer to a getBooks request.
+	 *
+	 * @return the response
+	 */
+	private static BookStoreResponse getTypicalResponse() {
+		List<Book> books = new ArrayList<Book>();
+
+		for (int i = 1; i <= NUM_BOOKS; i++) {
+			books.add(new ImmutableBook(i, "The Art of Computer Programming, Volume " + i, "Donald Knuth", 300));
+		}
+
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		bookStoreResponse.setList(books);
+		return bookStoreResponse;
+	}
+
+	/**
+	 * Tests that a response survives a round trip, also after a message large
+	 * enough to outgrow the reused buffer.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		BookStoreKryoSerializer serializer = new BookStoreKryoSerializer();
+		BookStoreResponse bookStoreResponse = getTypicalResponse();
+
+		List<Book> largeList = new ArrayList<Book>();
+
+		for (int i = 1; i <= 50000; i++) {
+			largeList.add(new ImmutableBook(i, "Title " + i, "Author " + i, i));
+		}
+
+		BookStoreResponse largeResponse = new BookStoreResponse();
+		largeResponse.setList(largeList);
+
+		for (BookStoreResponse response : new BookStoreResponse[] { bookStoreResponse, largeResponse,
+				bookStoreResponse }) {
+			BookStoreResponse decoded = (BookStoreResponse) serializer.deserialize(serializer.serialize(response));
+			assertEquals(response.getList(), decoded.getList());
+			assertNull(decoded.getException());
+		}
+	}
+
+	/**
+	 * Tests that every registered class survives a round trip and that the
+	 * registry makes messages smaller than writing class names.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRegisteredClasses() throws IOException {
+		BookStoreKryoSerializer serializer = new BookStoreKryoSerializer();
+
+		List<StockBook> stockBooks = new ArrayList<StockBook>();
+		stockBooks.add(new ImmutableStockBook(-1, "Harry Potter and JUnit", "JK Unit", (float) 10, 5, 2, 3, 12, true));
+		BookStoreResponse stockResponse = new BookStoreResponse();
+		stockResponse.setList(stockBooks);
+		BookStoreResponse decodedStockResponse = (BookStoreResponse) serializer
+				.deserialize(serializer.serialize(stockResponse));
+		StockBook decodedStockBook = (StockBook) decodedStockResponse.getList().get(0);
+		assertEquals(stockBooks.get(0), decodedStockBook);
+		assertEquals(5, decodedStockBook.getNumCopies());
+		assertEquals(2, decodedStockBook.getNumSaleMisses());
+		assertEquals(3, decodedStockBook.getNumTimesRated());
+		assertEquals(12, decodedStockBook.getTotalRating());
+		assertTrue(decodedStockBook.isEditorPick());
+
+		Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+		bookCopies.add(new BookCopy(-3, -5));
+		BookCopy decodedBookCopy = (BookCopy) ((Set<?>) serializer.deserialize(serializer.serialize(bookCopies)))
+				.iterator().next();
+		assertEquals(-3, decodedBookCopy.getISBN());
+		assertEquals(-5, decodedBookCopy.getNumCopies());
+
+		BookRating decodedBookRating = (BookRating) serializer.deserialize(serializer.serialize(new BookRating(7, 4)));
+		assertEquals(7, decodedBookRating.getISBN());
+		assertEquals(4, decodedBookRating.getRating());
+
+		BookEditorPick decodedEditorPick = (BookEditorPick) serializer
+				.deserialize(serializer.serialize(new BookEditorPick(8, true)));
+		assertEquals(8, decodedEditorPick.getISBN());
+		assertTrue(decodedEditorPick.isEditorPick());
+
+		BookStoreResponse failedResponse = new BookStoreResponse();
+		failedResponse.setException(new BookStoreException("ISBN -1 is invalid", new NumberFormatException("-1")));
+		BookStoreException decodedException = ((BookStoreResponse) serializer
+				.deserialize(serializer.serialize(failedResponse))).getException();
+		assertEquals("ISBN -1 is invalid", decodedException.getMessage());
+		assertEquals(new NumberFormatException("-1").toString(), decodedException.getCause().getMessage());
+
+		Kryo unregisteredKryo = new Kryo();
+		unregisteredKryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+		byte[] unregisteredBytes;
+
+		try (Output out = new Output(4096, -1)) {
+			unregisteredKryo.writeClassAndObject(out, getTypicalResponse());
+			unregisteredBytes = out.toBytes();
+		}
+
+		assertTrue(serializer.serialize(getTypicalResponse()).length < unregisteredBytes.length);
+	}
+
+	/**
+	 * Tests that every kind of message survives a round trip through the
+	 * binary format, including ISBNs at the ends of the integer range.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testBinaryRoundTrip() throws IOException {
+		BookStoreSerializer serializer = new BookStoreBinarySerializer();
+
+		Set<Integer> isbns = new HashSet<Integer>(
+				Arrays.asList(Integer.MIN_VALUE, -1, 0, 1, 2, 3, 1000, Integer.MAX_VALUE));
+		assertEquals(isbns, serializer.deserialize(serializer.serialize(isbns)));
+		assertEquals(new HashSet<Integer>(), serializer.deserialize(serializer.serialize(new HashSet<Integer>())));
+		assertEquals("", serializer.deserialize(serializer.serialize("")));
+		assertNull(serializer.deserialize(serializer.serialize(null)));
+
+		Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+		bookCopies.add(new BookCopy(Integer.MAX_VALUE, -5));
+		bookCopies.add(new BookCopy(Integer.MIN_VALUE, 3));
+		bookCopies.add(new BookCopy(Integer.MIN_VALUE + 1, 4));
+		Set<?> decodedBookCopies = (Set<?>) serializer.deserialize(serializer.serialize(bookCopies));
+		assertEquals(3, decodedBookCopies.size());
+		long totalCopies = 0;
+
+		for (Object bookCopy : decodedBookCopies) {
+			totalCopies += ((BookCopy) bookCopy).getNumCopies() + (long) ((BookCopy) bookCopy).getISBN();
+		}
+
+		assertEquals((long) Integer.MAX_VALUE - 5 + 2L * Integer.MIN_VALUE + 1 + 7, totalCopies);
+
+		Set<BookRating> bookRatings = new HashSet<BookRating>();
+		bookRatings.add(new BookRating(7, 4));
+		BookRating decodedBookRating = (BookRating) ((Set<?>) serializer.deserialize(serializer.serialize(bookRatings)))
+				.iterator().next();
+		assertEquals(7, decodedBookRating.getISBN());
+		assertEquals(4, decodedBookRating.getRating());
+
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(8, true));
+		BookEditorPick decodedEditorPick = (BookEditorPick) ((Set<?>) serializer
+				.deserialize(serializer.serialize(editorPicks))).iterator().next();
+		assertEquals(8, decodedEditorPick.getISBN());
+		assertTrue(decodedEditorPick.isEditorPick());
+
+		Set<StockBook> stockBooks = new HashSet<StockBook>();
+		stockBooks.add(new ImmutableStockBook(3, "Harry Potter and JUnit", "JK Unit", (float) 10, 5, 2, 3, 12, true));
+		stockBooks.add(new ImmutableStockBook(1, "Der Zauberberg, Band \u00fc", "Thomas Mann", (float) 0.5, 0, 0, 0, 0, false));
+		Set<?> decodedStockBooks = (Set<?>) serializer.deserialize(serializer.serialize(stockBooks));
+		assertEquals(stockBooks.size(), decodedStockBooks.size());
+
+		for (Object decodedStockBook : decodedStockBooks) {
+			StockBook book = (StockBook) decodedStockBook;
+			StockBook original = book.getISBN() == 3 ? stockBooks.stream().filter(b -> b.getISBN() == 3).findAny().get()
+					: stockBooks.stream().filter(b -> b.getISBN() == 1).findAny().get();
+			assertEquals(original.getTitle(), book.getTitle());
+			assertEquals(original.getAuthor(), book.getAuthor());
+			assertEquals(original.getPrice(), book.getPrice(), 0);
+			assertEquals(original.getNumCopies(), book.getNumCopies());
+			assertEquals(original.getNumSaleMisses(), book.getNumSaleMisses());
+			assertEquals(original.getNumTimesRated(), book.getNumTimesRated());
+			assertEquals(original.getTotalRating(), book.getTotalRating());
+			assertEquals(original.isEditorPick(), book.isEditorPick());
+		}
+
+		BookStoreResponse bookStoreResponse = getTypicalResponse();
+		BookStoreResponse decodedResponse = (BookStoreResponse) serializer
+				.deserialize(serializer.serialize(bookStoreResponse));
+		assertEquals(bookStoreResponse.getList(), decodedResponse.getList());
+		assertFalse(decodedResponse.getList().get(0) instanceof StockBook);
+
+		BookStoreResponse stockResponse = new BookStoreResponse();
+		stockResponse.setList(new ArrayList<StockBook>(stockBooks));
+		decodedResponse = (BookStoreResponse) serializer.deserialize(serializer.serialize(stockResponse));
+		assertEquals(stockResponse.getList(), decodedResponse.getList());
+		assertTrue(decodedResponse.getList().get(0) instanceof StockBook);
+
+		BookStoreResponse failedResponse = new BookStoreResponse();
+		failedResponse.setException(new BookStoreException("ISBN -1 is invalid"));
+		decodedResponse = (BookStoreResponse) serializer.deserialize(serializer.serialize(failedResponse));
+		assertEquals("ISBN -1 is invalid", decodedResponse.getException().getMessage());
+		assertNull(decodedResponse.getList());
+	}
+
+	/**
+	 * Checks that the binary format encodes the ISBN set of a getBooks request
+	 * in fewer bytes than Kryo, and prints the sizes of the response, which
+	 * are close since both write strings and floats alike.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testBinarySize() throws IOException {
+		BookStoreSerializer binarySerializer = new BookStoreBinarySerializer();
+		BookStoreSerializer kryoSerializer = new BookStoreKryoSerializer();
+		Set<Integer> isbns = new HashSet<Integer>();
+
+		for (int i = 0; i < 100; i++) {
+			isbns.add(30345650 + i * 3);
+		}
+
+		int binaryRequestSize = binarySerializer.serialize(isbns).length;
+		int kryoRequestSize = kryoSerializer.serialize(isbns).length;
+		int binaryResponseSize = binarySerializer.serialize(getTypicalResponse()).length;
+		int kryoResponseSize = kryoSerializer.serialize(getTypicalResponse()).length;
+
+		System.out.println("Bytes of a getBooks request of 100 ISBNs: " + binaryRequestSize + " binary, "
+				+ kryoRequestSize + " Kryo; of a response of " + NUM_BOOKS + " books: " + binaryResponseSize
+				+ " binary, " + kryoResponseSize + " Kryo");
+		assertTrue(binaryRequestSize < kryoRequestSize);
+	}
+
+	/**
+	 * Tests that the compact XML round trips, is smaller than the default XML
+	 * and still reads the default XML of older clients.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCompactXML() throws IOException {
+		BookStoreSerializer defaultSerializer = new BookStoreXStreamSerializer();
+		BookStoreSerializer compactSerializer = new BookStoreXStreamSerializer(true);
+		BookStoreResponse bookStoreResponse = getTypicalResponse();
+
+		byte[] defaultXML = defaultSerializer.serialize(bookStoreResponse);
+		byte[] compactXML = compactSerializer.serialize(bookStoreResponse);
+		System.out.println("Bytes of a response of " + NUM_BOOKS + " books: " + defaultXML.length + " XML, "
+				+ compactXML.length + " compact XML");
+		assertTrue(compactXML.length < defaultXML.length);
+
+		for (byte[] xml : Arrays.asList(defaultXML, compactXML)) {
+			BookStoreResponse decodedResponse = (BookStoreResponse) compactSerializer.deserialize(xml);
+			assertEquals(bookStoreResponse.getList(), decodedResponse.getList());
+		}
+
+		Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+		bookCopies.add(new BookCopy(3044560, 2));
+		BookCopy decodedBookCopy = (BookCopy) ((Set<?>) compactSerializer
+				.deserialize(compactSerializer.serialize(bookCopies))).iterator().next();
+		assertEquals(3044560, decodedBookCopy.getISBN());
+		assertEquals(2, decodedBookCopy.getNumCopies());
+	}
+
+	/**
+	 * Tests the negotiation of the content coding and that compressed bodies
+	 * decode to the original message.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCompression() throws IOException {
+		assertEquals(BookStoreCompression.GZIP, BookStoreCompression.negotiate("deflate, gzip"));
+		assertEquals(BookStoreCompression.DEFLATE, BookStoreCompression.negotiate("gzip;q=0, deflate"));
+		assertNull(BookStoreCompression.negotiate("br"));
+		assertNull(BookStoreCompression.negotiate(null));
+		assertTrue(BookStoreCompression.isSupported(null));
+		assertFalse(BookStoreCompression.isSupported("br"));
+
+		BookStoreSerializer serializer = new BookStoreKryoSerializer();
+		byte[] bytes = serializer.serialize(getTypicalResponse());
+
+		for (String contentEncoding : Arrays.asList(BookStoreCompression.GZIP, BookStoreCompression.DEFLATE)) {
+			byte[] compressed = BookStoreCompression.compress(contentEncoding, bytes);
+			assertTrue(compressed.length < bytes.length);
+			BookStoreResponse decodedResponse = (BookStoreResponse) serializer.deserialize(
+					BookStoreCompression.decode(contentEncoding, new ByteArrayInputStream(compressed)));
+			assertEquals(getTypicalResponse().getList(), decodedResponse.getList());
+		}
+	}
+
+	/**
+	 * Tests that a batch of operations and its response with a result per
+	 * operation survive a round trip through every serializer.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testBatchRoundTrip() throws IOException {
+		Set<Integer> isbns = new HashSet<Integer>(Arrays.asList(3, 1, 2));
+		Set<BookCopy> bookCopies = new HashSet<BookCopy>(Arrays.asList(new BookCopy(1, 2), new BookCopy(5, 1)));
+		List<BookStoreOperation> operations = new ArrayList<BookStoreOperation>();
+		operations.add(new BookStoreOperation(BookStoreMessageTag.GETBOOKS, isbns));
+		operations.add(new BookStoreOperation(BookStoreMessageTag.BUYBOOKS, bookCopies));
+
+		BookStoreResponse failedResult = new BookStoreResponse();
+		failedResult.setException(new BookStoreException("ISBN 5 not available"));
+		BookStoreResponse batchResponse = new BookStoreResponse();
+		batchResponse.setList(new ArrayList<BookStoreResponse>(
+				Arrays.asList(getTypicalResponse(), failedResult, new BookStoreResponse())));
+
+		for (BookStoreSerializerType serializerType : BookStoreSerializerType.values()) {
+			BookStoreSerializer serializer = serializerType.newSerializer();
+
+			List<BookStoreOperation> decodedOperations = (List<BookStoreOperation>) serializer
+					.deserialize(serializer.serialize(operations));
+			assertEquals(2, decodedOperations.size());
+			assertEquals(BookStoreMessageTag.GETBOOKS, decodedOperations.get(0).getMessageTag());
+			assertEquals(isbns, decodedOperations.get(0).getInputValue());
+			assertEquals(BookStoreMessageTag.BUYBOOKS, decodedOperations.get(1).getMessageTag());
+			assertEquals(bookCopies, decodedOperations.get(1).getInputValue());
+
+			List<BookStoreResponse> results = (List<BookStoreResponse>) ((BookStoreResponse) serializer
+					.deserialize(serializer.serialize(batchResponse))).getList();
+			assertEquals(3, results.size());
+			assertEquals(getTypicalResponse().getList(), results.get(0).getList());
+			assertEquals("ISBN 5 not available", results.get(1).getException().getMessage());
+			assertNull(results.get(2).getException());
+			assertNull(results.get(2).getList());
+		}
+	}
+
+	/**
+	 * Tests that the serializers are found by the media types of Content-Type
+	 * and Accept headers.
+	 */
+	@Test
+	public void testMediaTypes() {
+		for (BookStoreSerializerType serializerType : BookStoreSerializerType.values()) {
+			assertEquals(serializerType, BookStoreSerializerType.forMediaType(serializerType.getMediaType()));
+		}
+
+		assertEquals(BookStoreSerializerType.XSTREAM,
+				BookStoreSerializerType.forMediaType("Application/XML; charset=UTF-8"));
+		assertNull(BookStoreSerializerType.forMediaType("application/json"));
+		assertNull(BookStoreSerializerType.forMediaType(null));
+
+		assertEquals(BookStoreSerializerType.BINARY, BookStoreSerializerType
+				.forAccept("application/json, application/x-bookstore-binary, application/x-kryo;q=0.5"));
+		assertNull(BookStoreSerializerType.forAccept("*/*"));
+		assertNull(BookStoreSerializerType.forAccept(null));
+	}
+
+	/**
+	 * Tests that a returned serializer is lent again, also to other threads,
+	 * and that serializers borrowed at once are distinct.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSerializerPool() throws Exception {
+		BookStoreSerializerType serializerType = BookStoreSerializerType.KRYO;
+		BookStoreSerializer first = serializerType.borrowSerializer();
+		BookStoreSerializer second = serializerType.borrowSerializer();
+		assertNotSame(first, second);
+
+		serializerType.returnSerializer(second);
+		serializerType.returnSerializer(first);
+
+		// A new thread per request, as with virtual threads, reuses the last one.
+		Set<BookStoreSerializer> borrowed = new HashSet<>();
+
+		for (int i = 0; i < 4; i++) {
+			Thread thread = new Thread(() -> {
+				BookStoreSerializer serializer = serializerType.borrowSerializer();
+				borrowed.add(serializer);
+				serializerType.returnSerializer(serializer);
+			});
+			thread.start();
+			thread.join();
+		}
+
+		assertEquals(Collections.singleton(first), borrowed);
+	}
+
+	/**
+	 * Benchmarks the bytes allocated per round trip of a typical response
+	 * against fresh streams and buffers per call, and checks that reusing the
+	 * buffers allocates less.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRoundTripAllocations() throws IOException {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+
+		BookStoreKryoSerializer serializer = new BookStoreKryoSerializer();
+		Kryo kryo = new Kryo();
+		kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+		BookStoreResponse bookStoreResponse = getTypicalResponse();
+
+		long freshBytes = 0;
+		long pooledBytes = 0;
+
+		// The first round warms up both, the second is measured.
+		for (int round = 0; round < 2; round++) {
+			long start = getAllocatedBytes();
+
+			for (int i = 0; i < NUM_ROUND_TRIPS; i++) {
+				roundTripWithFreshBuffers(kryo, bookStoreResponse);
+			}
+
+			freshBytes = (getAllocatedBytes() - start) / NUM_ROUND_TRIPS;
+			start = getAllocatedBytes();
+
+			for (int i = 0; i < NUM_ROUND_TRIPS; i++) {
+				serializer.deserialize(serializer.serialize(bookStoreResponse));
+			}
+
+			pooledBytes = (getAllocatedBytes() - start) / NUM_ROUND_TRIPS;
+		}
+
+		System.out.println("Bytes allocated per round trip: " + freshBytes + " with fresh buffers, " + pooledBytes
+				+ " with reused buffers");
+		assertTrue(pooledBytes < freshBytes);
+	}
+
+	/**
+	 * Does a round trip with new streams and buffers for each call.
+	 */
+	private static Object roundTripWithFreshBuffers(Kryo kryo, Object object) throws IOException {
+		byte[] bytes;
+
+		try (ByteArrayOutputStream outStream = new ByteArrayOutputStream(); Output out = new Output(outStream)) {
+			kryo.writeClassAndObject(out, object);
+			out.flush();
+			bytes = outStream.toByteArray();
+		}
+
+		try (InputStream inStream = new ByteArrayInputStream(bytes); Input in = new Input(inStream)) {
+			return kryo.readClassAndObject(in);
+		}
+	}
+
+	/**
+	 * Gets the bytes allocated by the current thread so far.
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
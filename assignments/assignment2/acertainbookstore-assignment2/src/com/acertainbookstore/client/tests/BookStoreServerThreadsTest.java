@@ -0,0 +1,249 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.server.BookStoreRequestDispatcher;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreKryoRegistry;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreServerThreadsTest} runs the same contended workload against
+ * servers which handle the requests on thread pools of several sizes, on a
+ * new platform thread per request and on virtual threads, and prints the
+ * throughput and latency of each. The customers all buy and look up the same
+ * few books, so that the requests wait for the locks of the two-level locking
+ * store.
+ *
+ * @see BookStoreHTTPMessageHandler
+ */
+public class BookStoreServerThreadsTest {
+
+	/** The Constant FIRST_ISBN of the books. */
+	private static final int FIRST_ISBN = 5044560;
+
+	/** The Constant NUM_BOOKS all the customers buy. */
+	private static final int NUM_BOOKS = 4;
+
+	/** The Constant NUM_COPIES of every book, more than are bought. */
+	private static final int NUM_COPIES = 1000000;
+
+	/** The Constant NUM_CUSTOMERS calling at once. */
+	private static final int NUM_CUSTOMERS = 128;
+
+	/** The Constant NUM_CALLS of every customer. */
+	private static final int NUM_CALLS = 40;
+
+	/** The Constant THREADPOOL_SIZES compared. */
+	private static final int[] THREADPOOL_SIZES = { 16, 64, 256 };
+
+	/**
+	 * Runs the workload on thread pools of several sizes.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testThreadPools() throws Exception {
+		for (int size : THREADPOOL_SIZES) {
+			runWorkload("Thread pool of " + size, size, null);
+		}
+	}
+
+	/**
+	 * Runs the workload with a new platform thread per request, handed over
+	 * by the thread pool.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testThreadPerRequest() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+
+		try {
+			runWorkload("Platform thread per request", THREADPOOL_SIZES[0], executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Runs the workload on virtual threads, if the Java runtime has them.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testVirtualThreads() throws Exception {
+		ExecutorService executor = BookStoreHTTPServerUtility.newVirtualThreadExecutor();
+		Assume.assumeNotNull(executor);
+
+		try {
+			runWorkload("Virtual thread per request", THREADPOOL_SIZES[0], executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a request which fails on the executor with a runtime
+	 * exception is answered with an internal server error rather than with an
+	 * empty response.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testExecutorFailure() throws Exception {
+		TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore() {
+			@Override
+			public List<Book> getEditorPicks(int numBooks) {
+				throw new IllegalStateException("The editor picks are broken");
+			}
+		};
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		Server server = new Server(new QueuedThreadPool(THREADPOOL_SIZES[0], 8));
+		server.addConnector(BookStoreHTTPServerUtility.createConnector(server, 0, false));
+		server.setHandler(new BookStoreHTTPMessageHandler(new BookStoreRequestDispatcher(store, store), executor));
+		server.start();
+
+		HttpClient client = new HttpClient();
+		client.start();
+
+		try {
+			ContentResponse response = client
+					.newRequest("http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort()
+							+ "/" + BookStoreMessageTag.GETEDITORPICKS + "?" + BookStoreConstants.BOOK_NUM_PARAM + "=1")
+					.header(BookStoreConstants.REGISTRY_HEADER, BookStoreKryoRegistry.getFingerprint()).send();
+			assertEquals(HttpStatus.INTERNAL_SERVER_ERROR_500, response.getStatus());
+		} finally {
+			client.stop();
+			server.stop();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Starts a server, runs the workload against it and prints its figures.
+	 *
+	 * @param name
+	 *            the name of the configuration
+	 * @param threadpoolSize
+	 *            the size of the thread pool of Jetty
+	 * @param executor
+	 *            handles the requests, or null to handle them on the pool
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void runWorkload(String name, int threadpoolSize, Executor executor) throws Exception {
+		TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
+		Set<StockBook> books = new HashSet<StockBook>();
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			books.add(new ImmutableStockBook(FIRST_ISBN + i, "Title " + i, "Author " + i, 10, NUM_COPIES, 0, 0, 0,
+					false));
+		}
+
+		store.addBooks(books);
+
+		Server server = new Server(new QueuedThreadPool(threadpoolSize, Math.min(8, threadpoolSize)));
+		server.addConnector(BookStoreHTTPServerUtility.createConnector(server, 0, false));
+		server.setHandler(new BookStoreHTTPMessageHandler(new BookStoreRequestDispatcher(store, store), executor));
+		server.start();
+
+		String serverAddress = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+		BookStoreHTTPProxy client = new BookStoreHTTPProxy(serverAddress);
+		ExecutorService customers = Executors.newFixedThreadPool(NUM_CUSTOMERS);
+
+		try {
+			Set<Integer> isbns = new HashSet<Integer>();
+
+			for (int i = 0; i < NUM_BOOKS; i++) {
+				isbns.add(FIRST_ISBN + i);
+			}
+
+			List<Callable<long[]>> calls = new ArrayList<>();
+
+			for (int customer = 0; customer < NUM_CUSTOMERS; customer++) {
+				int isbn = FIRST_ISBN + customer % NUM_BOOKS;
+
+				calls.add(() -> {
+					long[] latencies = new long[NUM_CALLS];
+
+					for (int call = 0; call < NUM_CALLS; call++) {
+						long startTime = System.nanoTime();
+
+						if (call % 2 == 0) {
+							client.buyBooks(Collections.singleton(new BookCopy(isbn, 1)));
+						} else {
+							client.getBooks(isbns);
+						}
+
+						latencies[call] = System.nanoTime() - startTime;
+					}
+
+					return latencies;
+				});
+			}
+
+			long startTime = System.nanoTime();
+			List<Future<long[]>> results = customers.invokeAll(calls);
+			long elapsedNanos = System.nanoTime() - startTime;
+
+			long[] latencies = new long[NUM_CUSTOMERS * NUM_CALLS];
+
+			for (int customer = 0; customer < NUM_CUSTOMERS; customer++) {
+				System.arraycopy(results.get(customer).get(), 0, latencies, customer * NUM_CALLS, NUM_CALLS);
+			}
+
+			Arrays.sort(latencies);
+			System.out.println(name + ": " + latencies.length * 1000000000L / elapsedNanos + " calls/s, median "
+					+ latencies[latencies.length / 2] / 1000 + " us, p99 " + latencies[latencies.length * 99 / 100] / 1000
+					+ " us");
+
+			// Every customer bought a copy on every other call.
+			long numCopies = 0;
+
+			for (StockBook book : store.getBooks()) {
+				numCopies += book.getNumCopies();
+			}
+
+			assertEquals((long) NUM_BOOKS * NUM_COPIES - NUM_CUSTOMERS * NUM_CALLS / 2, numCopies);
+		} finally {
+			customers.shutdown();
+			client.stop();
+			server.stop();
+		}
+	}
+}
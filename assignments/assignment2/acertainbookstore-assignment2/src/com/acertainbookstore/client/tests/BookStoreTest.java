@@ -18,11 +18,14 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.MultiVersionConcurrentCertainBookStore;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.BookStoreRPCProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
@@ -48,6 +51,9 @@ public class BookStoreTest {
 	/** Single lock test */
 	private static boolean singleLock = true;
 
+	/** Multi-version test */
+	private static boolean multiVersion = false;
+
 	/** Error for checking if snapshot is wrong */
 	private static boolean snapshotError = false;
 	
@@ -69,8 +75,15 @@ public class BookStoreTest {
 			String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
 			singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
 
+			String multiVersionProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_MULTI_VERSION);
+			multiVersion = (multiVersionProperty != null) ? Boolean.parseBoolean(multiVersionProperty) : multiVersion;
+
 			if (localTest) {
-				if (singleLock) {
+				if (multiVersion) {
+					MultiVersionConcurrentCertainBookStore store = new MultiVersionConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (singleLock) {
 					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
 					storeManager = store;
 					client = store;
@@ -79,6 +92,11 @@ public class BookStoreTest {
 					storeManager = store;
 					client = store;
 				}
+			} else if (Integer.getInteger(BookStoreConstants.PROPERTY_KEY_RPC_PORT) != null) {
+				BookStoreRPCProxy proxy = new BookStoreRPCProxy("localhost",
+						Integer.getInteger(BookStoreConstants.PROPERTY_KEY_RPC_PORT));
+				storeManager = proxy;
+				client = proxy;
 			} else {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
@@ -90,6 +108,19 @@ public class BookStoreTest {
 		}
 	}
 
+	/**
+	 * Tests a local store whatever the properties ask for, so that subclasses
+	 * run the test cases against every store in the default test run.
+	 *
+	 * @param store
+	 *            the empty store
+	 */
+	protected static <S extends BookStore & StockManager> void setUpLocalStore(S store) {
+		localTest = true;
+		storeManager = store;
+		client = store;
+	}
+
 	/**
 	 * Helper method to add some books.
 	 *
@@ -615,6 +646,107 @@ public class BookStoreTest {
     }
 
 
+    /**
+     * Test 5, three threads buy and replenish overlapping baskets, none of
+     * them may stall the others.
+     *
+     * @throws BookStoreException
+     *             the book store exception
+     */
+    @Test
+    public void testOverlappingBasketsDoNotDeadlock() throws BookStoreException {
+        //starting from scratch
+        storeManager.removeAllBooks();
+
+        addBooks(TEST_ISBN, NUM_COPIES);
+        addBooks(TEST_ISBN+1,NUM_COPIES);
+        addBooks(TEST_ISBN+2,NUM_COPIES);
+
+        Set<BookCopy> basket1 = new HashSet<>();
+        basket1.add(new BookCopy(TEST_ISBN, 1));
+        basket1.add(new BookCopy(TEST_ISBN+1, 1));
+
+        Set<BookCopy> basket2 = new HashSet<>();
+        basket2.add(new BookCopy(TEST_ISBN+1, 1));
+        basket2.add(new BookCopy(TEST_ISBN+2, 1));
+
+        Set<BookCopy> basket3 = new HashSet<>();
+        basket3.add(new BookCopy(TEST_ISBN+2, 1));
+        basket3.add(new BookCopy(TEST_ISBN, 1));
+
+        Thread c1 = new Thread(new buyAndReplenishRunnable(500, basket1));
+        Thread c2 = new Thread(new buyAndReplenishRunnable(500, basket2));
+        Thread c3 = new Thread(new buyAndReplenishRunnable(500, basket3));
+
+        c1.start();
+        c2.start();
+        c3.start();
+
+        try {
+            c1.join(30000);
+            c2.join(30000);
+            c3.join(30000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        assertFalse(c1.isAlive() || c2.isAlive() || c3.isAlive());
+        assertEquals(NUM_COPIES, storeManager.getBooksByISBN(new HashSet<>(singletonList(TEST_ISBN))).get(0).getNumCopies());
+        assertEquals(NUM_COPIES, storeManager.getBooksByISBN(new HashSet<>(singletonList(TEST_ISBN + 1))).get(0).getNumCopies());
+        assertEquals(NUM_COPIES, storeManager.getBooksByISBN(new HashSet<>(singletonList(TEST_ISBN + 2))).get(0).getNumCopies());
+    }
+
+
+    /**
+     * Test 6, the editor picks keep their number while other books stop and
+     * start being picks at the same time.
+     *
+     * @throws BookStoreException
+     *             the book store exception
+     */
+    @Test
+    public void testEditorPicksWhilePicksChange() throws BookStoreException {
+        //starting from scratch
+        storeManager.removeAllBooks();
+
+        Set<BookEditorPick> stablePicks = new HashSet<>();
+        Set<BookEditorPick> changingPicks = new HashSet<>();
+        Set<BookEditorPick> changedPicks = new HashSet<>();
+
+        for (int i = 0; i < 10; i++) {
+            addBooks(TEST_ISBN + i, NUM_COPIES);
+            addBooks(TEST_ISBN + 10 + i, NUM_COPIES);
+            stablePicks.add(new BookEditorPick(TEST_ISBN + i, true));
+            changingPicks.add(new BookEditorPick(TEST_ISBN + 10 + i, true));
+            changedPicks.add(new BookEditorPick(TEST_ISBN + 10 + i, false));
+        }
+
+        storeManager.updateEditorPicks(stablePicks);
+
+        Thread c1 = new Thread(() -> {
+            try {
+                for (int i = 0; i < 500; i++) {
+                    storeManager.updateEditorPicks(changingPicks);
+                    storeManager.updateEditorPicks(changedPicks);
+                }
+            } catch (BookStoreException e) {
+                e.printStackTrace();
+            }
+        });
+
+        c1.start();
+
+        int numPicks = 5;
+
+        while (c1.isAlive()) {
+            List<Book> picks = client.getEditorPicks(numPicks);
+            assertEquals(numPicks, picks.size());
+            assertEquals(numPicks, new HashSet<>(picks).size());
+        }
+
+        assertEquals(stablePicks.size(), client.getEditorPicks(stablePicks.size() * 2).size());
+    }
+
 	/**
 	 * Tear down after class.
 	 *
@@ -625,7 +757,9 @@ public class BookStoreTest {
 	public static void tearDownAfterClass() throws BookStoreException {
 		storeManager.removeAllBooks();
 
-		if (!localTest) {
+		if (client instanceof BookStoreRPCProxy) {
+			((BookStoreRPCProxy) client).stop();
+		} else if (!localTest) {
 			((BookStoreHTTPProxy) client).stop();
 			((StockManagerHTTPProxy) storeManager).stop();
 		}
@@ -0,0 +1,415 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.MultiVersionConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link MultiVersionBookStoreTest} tests what the
+ * {@link MultiVersionConcurrentCertainBookStore} adds to the other stores:
+ * readers see a consistent snapshot while writers commit, conflicting writers
+ * are validated and retried, and readers retry when their snapshot was pruned
+ * or books were removed after it was taken. It always runs locally, whatever
+ * store the other tests use.
+ *
+ * @see MultiVersionConcurrentCertainBookStore
+ */
+public class MultiVersionBookStoreTest {
+
+	/** The Constant TEST_ISBN of the first book. */
+	private static final int TEST_ISBN = 6044560;
+
+	/** The Constant OTHER_ISBN always bought together with the first book. */
+	private static final int OTHER_ISBN = TEST_ISBN + 1;
+
+	/** The Constant REMOVED_ISBN removed and added again. */
+	private static final int REMOVED_ISBN = TEST_ISBN + 2;
+
+	/** The Constant NUM_COPIES of every book. */
+	private static final int NUM_COPIES = 100;
+
+	/**
+	 * The Constant NUM_OTHER_BOOKS in the catalog, so that reading all of it
+	 * takes long enough for the writers to prune the versions it reads.
+	 */
+	private static final int NUM_OTHER_BOOKS = 2000;
+
+	/** The Constant NUM_WRITERS running at once. */
+	private static final int NUM_WRITERS = 4;
+
+	/** The Constant NUM_READERS running at once. */
+	private static final int NUM_READERS = 2;
+
+	/** The Constant NUM_OPERATIONS of every writer. */
+	private static final int NUM_OPERATIONS = 2000;
+
+	/** The store. */
+	private MultiVersionConcurrentCertainBookStore store;
+
+	/** The threads of the test. */
+	private ExecutorService threads;
+
+	/**
+	 * Creates a store with the two books bought together and the other books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void setUp() throws BookStoreException {
+		store = new MultiVersionConcurrentCertainBookStore();
+		threads = Executors.newFixedThreadPool(NUM_WRITERS + NUM_READERS + 1);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(createBook(TEST_ISBN));
+		booksToAdd.add(createBook(OTHER_ISBN));
+		booksToAdd.add(createBook(REMOVED_ISBN));
+
+		for (int i = 1; i <= NUM_OTHER_BOOKS; i++) {
+			booksToAdd.add(createBook(REMOVED_ISBN + i));
+		}
+
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Creates a book with the default number of copies.
+	 *
+	 * @param isbn
+	 *            the isbn
+	 * @return the book
+	 */
+	private static StockBook createBook(int isbn) {
+		return new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, (float) 10, NUM_COPIES, 0, 0, 0, false);
+	}
+
+	/**
+	 * Tests that readers of a few books and of the whole catalog always see
+	 * both books bought together with the same number of copies, while
+	 * writers buy and replenish them at once.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSnapshotsUnderConcurrentWriters() throws Exception {
+		Set<BookCopy> basket = new HashSet<>();
+		basket.add(new BookCopy(TEST_ISBN, 1));
+		basket.add(new BookCopy(OTHER_ISBN, 1));
+
+		List<Future<?>> writers = new ArrayList<>();
+
+		for (int i = 0; i < NUM_WRITERS; i++) {
+			writers.add(threads.submit(() -> {
+				for (int op = 0; op < NUM_OPERATIONS; op++) {
+					store.buyBooks(basket);
+					store.addCopies(basket);
+				}
+
+				return null;
+			}));
+		}
+
+		Set<Integer> isbns = new HashSet<>();
+		isbns.add(TEST_ISBN);
+		isbns.add(OTHER_ISBN);
+
+		AtomicBoolean writing = new AtomicBoolean(true);
+		Future<Integer> catalogReader = threads.submit(() -> {
+			int snapshots = 0;
+
+			while (writing.get()) {
+				assertEqualCopies(store.getBooks());
+				snapshots++;
+			}
+
+			return snapshots;
+		});
+		Future<Integer> stockReader = threads.submit(() -> {
+			int snapshots = 0;
+
+			while (writing.get()) {
+				assertEqualCopies(store.getBooksByISBN(isbns));
+				assertEquals(2, store.getBooks(isbns).size());
+				snapshots++;
+			}
+
+			return snapshots;
+		});
+
+		try {
+			for (Future<?> writer : writers) {
+				writer.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			writing.set(false);
+		}
+
+		assertTrue(catalogReader.get() > 0);
+		assertTrue(stockReader.get() > 0);
+
+		for (StockBook book : store.getBooksByISBN(isbns)) {
+			assertEquals(NUM_COPIES, book.getNumCopies());
+		}
+	}
+
+	/**
+	 * Tests that writers of the same book which conflict are retried rather
+	 * than losing one of the updates.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConflictingWritersRetry() throws Exception {
+		Set<BookCopy> copies = Collections.singleton(new BookCopy(TEST_ISBN, 1));
+		List<Future<?>> writers = new ArrayList<>();
+
+		for (int i = 0; i < NUM_WRITERS; i++) {
+			writers.add(threads.submit(() -> {
+				for (int op = 0; op < NUM_OPERATIONS; op++) {
+					store.addCopies(copies);
+				}
+
+				return null;
+			}));
+		}
+
+		for (Future<?> writer : writers) {
+			writer.get(60, TimeUnit.SECONDS);
+		}
+
+		assertEquals(NUM_COPIES + NUM_WRITERS * NUM_OPERATIONS,
+				store.getBooksByISBN(Collections.singleton(TEST_ISBN)).get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that readers whose snapshot is older than a removal retry instead
+	 * of failing on books which are still in the catalog, and see the removed
+	 * book either entirely or not at all.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testReadsRetryAfterRemovals() throws Exception {
+		Set<BookCopy> basket = new HashSet<>();
+		basket.add(new BookCopy(TEST_ISBN, 1));
+		basket.add(new BookCopy(OTHER_ISBN, 1));
+
+		Future<?> remover = threads.submit(() -> {
+			for (int op = 0; op < NUM_OPERATIONS; op++) {
+				store.removeBooks(Collections.singleton(REMOVED_ISBN));
+				store.addBooks(Collections.singleton(createBook(REMOVED_ISBN)));
+			}
+
+			return null;
+		});
+		Future<?> writer = threads.submit(() -> {
+			for (int op = 0; op < NUM_OPERATIONS; op++) {
+				store.buyBooks(basket);
+				store.addCopies(basket);
+			}
+
+			return null;
+		});
+
+		Set<Integer> isbns = new HashSet<>();
+		isbns.add(TEST_ISBN);
+		isbns.add(OTHER_ISBN);
+
+		AtomicBoolean writing = new AtomicBoolean(true);
+		Future<?> reader = threads.submit(() -> {
+			while (writing.get()) {
+				assertEqualCopies(store.getBooksByISBN(isbns));
+
+				List<StockBook> books = store.getBooks();
+				assertEqualCopies(books);
+
+				int size = books.size();
+				assertTrue(size == NUM_OTHER_BOOKS + 3 || size == NUM_OTHER_BOOKS + 2);
+			}
+
+			return null;
+		});
+
+		try {
+			remover.get(60, TimeUnit.SECONDS);
+			writer.get(60, TimeUnit.SECONDS);
+		} finally {
+			writing.set(false);
+		}
+
+		reader.get();
+		assertEquals(NUM_OTHER_BOOKS + 3, store.getBooks().size());
+	}
+
+	/**
+	 * Tests that readers of the whole catalog finish while writers keep
+	 * pruning the versions they read, rather than retrying for as long as
+	 * the writers run.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCatalogReadsFinishUnderWriters() throws Exception {
+		Set<BookCopy> basket = new HashSet<>();
+		basket.add(new BookCopy(TEST_ISBN, 1));
+		basket.add(new BookCopy(OTHER_ISBN, 1));
+
+		AtomicBoolean reading = new AtomicBoolean(true);
+		List<Future<?>> writers = new ArrayList<>();
+
+		for (int i = 0; i < NUM_WRITERS; i++) {
+			writers.add(threads.submit(() -> {
+				while (reading.get()) {
+					store.buyBooks(basket);
+					store.addCopies(basket);
+				}
+
+				return null;
+			}));
+		}
+
+		List<Future<?>> readers = new ArrayList<>();
+
+		for (int i = 0; i < NUM_READERS; i++) {
+			readers.add(threads.submit(() -> {
+				for (int op = 0; op < NUM_READERS * 10; op++) {
+					List<StockBook> books = store.getBooks();
+					assertEqualCopies(books);
+					assertEquals(NUM_OTHER_BOOKS + 3, books.size());
+				}
+
+				return null;
+			}));
+		}
+
+		try {
+			for (Future<?> reader : readers) {
+				reader.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			reading.set(false);
+		}
+
+		for (Future<?> writer : writers) {
+			writer.get(60, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Tests that readers of the editor picks see the books picked together
+	 * either all or none, while writers pick and unpick them at once, and
+	 * always see the book picked before.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testEditorPicksUnderConcurrentWriters() throws Exception {
+		int pickedIsbn = REMOVED_ISBN + 1;
+		store.updateEditorPicks(Collections.singleton(new BookEditorPick(pickedIsbn, true)));
+
+		Set<BookEditorPick> picks = new HashSet<>();
+		picks.add(new BookEditorPick(TEST_ISBN, true));
+		picks.add(new BookEditorPick(OTHER_ISBN, true));
+
+		Set<BookEditorPick> unpicks = new HashSet<>();
+		unpicks.add(new BookEditorPick(TEST_ISBN, false));
+		unpicks.add(new BookEditorPick(OTHER_ISBN, false));
+
+		Future<?> writer = threads.submit(() -> {
+			for (int op = 0; op < NUM_OPERATIONS; op++) {
+				store.updateEditorPicks(picks);
+				store.updateEditorPicks(unpicks);
+			}
+
+			return null;
+		});
+
+		AtomicBoolean writing = new AtomicBoolean(true);
+		Future<Integer> reader = threads.submit(() -> {
+			int snapshots = 0;
+
+			while (writing.get()) {
+				Set<Integer> isbns = new HashSet<>();
+
+				for (Book book : store.getEditorPicks(NUM_OTHER_BOOKS)) {
+					isbns.add(book.getISBN());
+				}
+
+				assertTrue(isbns.contains(pickedIsbn));
+				assertTrue(isbns.size() == 1 || isbns.size() == 3);
+				assertEquals(isbns.contains(TEST_ISBN), isbns.contains(OTHER_ISBN));
+				snapshots++;
+			}
+
+			return snapshots;
+		});
+
+		try {
+			writer.get(60, TimeUnit.SECONDS);
+		} finally {
+			writing.set(false);
+		}
+
+		assertTrue(reader.get() > 0);
+		assertEquals(1, store.getEditorPicks(NUM_OTHER_BOOKS).size());
+
+		store.removeBooks(Collections.singleton(pickedIsbn));
+		assertEquals(0, store.getEditorPicks(NUM_OTHER_BOOKS).size());
+	}
+
+	/**
+	 * Asserts that the books bought together have the same number of copies
+	 * in the books read from one snapshot.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	private static void assertEqualCopies(List<StockBook> books) {
+		int testCopies = -1;
+		int otherCopies = -2;
+
+		for (StockBook book : books) {
+			if (book.getISBN() == TEST_ISBN) {
+				testCopies = book.getNumCopies();
+			} else if (book.getISBN() == OTHER_ISBN) {
+				otherCopies = book.getNumCopies();
+			}
+		}
+
+		assertEquals(testCopies, otherCopies);
+	}
+
+	/**
+	 * Stops the threads of the test.
+	 */
+	@After
+	public void tearDown() {
+		threads.shutdownNow();
+	}
+}
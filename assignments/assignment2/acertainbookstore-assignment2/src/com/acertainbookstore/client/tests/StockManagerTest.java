@@ -2,10 +2,23 @@ package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -16,15 +29,21 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.MultiVersionConcurrentCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.BookStoreRPCProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.WriteAheadLog;
+import com.acertainbookstore.utils.WriteAheadLog.FlushPolicy;
 
 /**
  * {@StockManagerTest} tests the {@link StockManager} interface.
@@ -42,6 +61,9 @@ public class StockManagerTest {
 	/** The local test. */
 	private static boolean localTest = true;
 
+	/** Multi-version test */
+	private static boolean multiVersion = false;
+
 	/** The store manager. */
 	private static StockManager storeManager;
 
@@ -56,11 +78,25 @@ public class StockManagerTest {
 		try {
 			String localTestProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCAL_TEST);
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
+
+			String multiVersionProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_MULTI_VERSION);
+			multiVersion = (multiVersionProperty != null) ? Boolean.parseBoolean(multiVersionProperty) : multiVersion;
 			
 			if (localTest) {
-				SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
-				storeManager = store;
-				client = store;
+				if (multiVersion) {
+					MultiVersionConcurrentCertainBookStore store = new MultiVersionConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else {
+					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				}
+			} else if (Integer.getInteger(BookStoreConstants.PROPERTY_KEY_RPC_PORT) != null) {
+				BookStoreRPCProxy proxy = new BookStoreRPCProxy("localhost",
+						Integer.getInteger(BookStoreConstants.PROPERTY_KEY_RPC_PORT));
+				storeManager = proxy;
+				client = proxy;
 			} else {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
@@ -384,6 +420,39 @@ public class StockManagerTest {
 		assertTrue(editorPick.equals(defaultBookAdded));
 	}
 
+	/**
+	 * Tests that editor picks are drawn without repetition and follow the
+	 * changes to the picks.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testEditorPicksFollowUpdates() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= 10; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Book " + i, "Author " + i, (float) 10, NUM_COPIES, 0,
+					0, 0, true));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		List<Book> editorPicks = client.getEditorPicks(5);
+		assertEquals(5, editorPicks.size());
+		assertEquals(5, new HashSet<Book>(editorPicks).size());
+
+		addEditorPick(TEST_ISBN + 1, false);
+		storeManager.removeBooks(new HashSet<Integer>(Arrays.asList(TEST_ISBN + 2, TEST_ISBN + 3)));
+
+		editorPicks = client.getEditorPicks(100);
+		assertEquals(7, editorPicks.size());
+
+		for (Book book : editorPicks) {
+			assertTrue(book.getISBN() > TEST_ISBN + 3);
+		}
+	}
+
 	/**
 	 * Checks that a book can be removed.
 	 *
@@ -475,6 +544,414 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that a store replaying its log ends up in the state it was in
+	 * before the restart, sale misses of failed purchases included.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRecoverFromLog() throws BookStoreException, IOException {
+		Path logFile = Files.createTempFile("bookstore", ".log");
+		Path checkpointFile = logFile.resolveSibling(logFile.getFileName() + ".checkpoint");
+
+		try {
+			SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+			DurableCertainBookStore durableStore = new DurableCertainBookStore(store, store,
+					new WriteAheadLog(logFile, FlushPolicy.GROUP_COMMIT, 0), checkpointFile);
+			assertEquals(0, durableStore.recover());
+
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(getDefaultBook());
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+					(float) 300, NUM_COPIES, 0, 0, 0, false));
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+					"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES, 0, 0, 0, false));
+			durableStore.addBooks(booksToAdd);
+
+			Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+			copiesToAdd.add(new BookCopy(TEST_ISBN + 1, 2));
+			durableStore.addCopies(copiesToAdd);
+
+			Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+			editorPicks.add(new BookEditorPick(TEST_ISBN, true));
+			durableStore.updateEditorPicks(editorPicks);
+
+			Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+			booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+			durableStore.buyBooks(booksToBuy);
+
+			booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 3));
+
+			try {
+				durableStore.buyBooks(booksToBuy);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			Set<Integer> isbnsToRemove = new HashSet<Integer>();
+			isbnsToRemove.add(TEST_ISBN + 2);
+			durableStore.removeBooks(isbnsToRemove);
+
+			List<StockBook> booksBeforeRestart = store.getBooks();
+			long numRecords = durableStore.getLog().getNumRecords();
+			durableStore.close();
+
+			SingleLockConcurrentCertainBookStore recoveredStore = new SingleLockConcurrentCertainBookStore();
+			DurableCertainBookStore recoveredDurableStore = new DurableCertainBookStore(recoveredStore,
+					recoveredStore, new WriteAheadLog(logFile, FlushPolicy.GROUP_COMMIT, 0), checkpointFile);
+			assertEquals(numRecords, recoveredDurableStore.recover());
+
+			assertSameBooks(booksBeforeRestart, recoveredStore.getBooks());
+			recoveredDurableStore.close();
+		} finally {
+			Files.delete(logFile);
+			Files.deleteIfExists(checkpointFile);
+		}
+	}
+
+	/**
+	 * Tests that a tail of zeros, left by a file which was extended but never
+	 * written before a crash, is cut off instead of being replayed.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRecoverFromTornTail() throws BookStoreException, IOException {
+		Path logFile = Files.createTempFile("bookstore", ".log");
+		Path checkpointFile = logFile.resolveSibling(logFile.getFileName() + ".checkpoint");
+
+		try {
+			SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+			DurableCertainBookStore durableStore = new DurableCertainBookStore(store, store,
+					new WriteAheadLog(logFile, FlushPolicy.GROUP_COMMIT, 0), checkpointFile);
+			durableStore.recover();
+			durableStore.addBooks(Collections.singleton(getDefaultBook()));
+			durableStore.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+
+			List<StockBook> booksBeforeRestart = store.getBooks();
+			long numRecords = durableStore.getLog().getNumRecords();
+			durableStore.close();
+
+			Files.write(logFile, new byte[4096], StandardOpenOption.APPEND);
+
+			SingleLockConcurrentCertainBookStore recoveredStore = new SingleLockConcurrentCertainBookStore();
+			DurableCertainBookStore recoveredDurableStore = new DurableCertainBookStore(recoveredStore,
+					recoveredStore, new WriteAheadLog(logFile, FlushPolicy.GROUP_COMMIT, 0), checkpointFile);
+			assertEquals(numRecords, recoveredDurableStore.recover());
+			assertSameBooks(booksBeforeRestart, recoveredStore.getBooks());
+
+			// The zeros are gone, so records appended now are replayed too.
+			recoveredDurableStore.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+			booksBeforeRestart = recoveredStore.getBooks();
+			recoveredDurableStore.close();
+
+			recoveredStore = new SingleLockConcurrentCertainBookStore();
+			recoveredDurableStore = new DurableCertainBookStore(recoveredStore, recoveredStore,
+					new WriteAheadLog(logFile, FlushPolicy.GROUP_COMMIT, 0), checkpointFile);
+			assertEquals(numRecords + 1, recoveredDurableStore.recover());
+			assertSameBooks(booksBeforeRestart, recoveredStore.getBooks());
+			recoveredDurableStore.close();
+		} finally {
+			Files.delete(logFile);
+			Files.deleteIfExists(checkpointFile);
+		}
+	}
+
+	/**
+	 * Tests that a checkpoint truncates the log and that a restart restores
+	 * it, sold out books included, before replaying the rest of the log.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRecoverFromCheckpoint() throws BookStoreException, IOException {
+		Path logFile = Files.createTempFile("bookstore", ".log");
+		Path checkpointFile = logFile.resolveSibling(logFile.getFileName() + ".checkpoint");
+
+		try {
+			SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+			DurableCertainBookStore durableStore = new DurableCertainBookStore(store, store,
+					new WriteAheadLog(logFile, FlushPolicy.GROUP_COMMIT, 0), checkpointFile);
+			durableStore.recover();
+
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(getDefaultBook());
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+					(float) 300, NUM_COPIES, 0, 0, 0, false));
+			durableStore.addBooks(booksToAdd);
+
+			Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+			booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+			durableStore.buyBooks(booksToBuy);
+
+			long checkpointLsn = durableStore.checkpoint();
+			assertEquals(checkpointLsn, durableStore.getLog().getStartLsn());
+			assertEquals(checkpointLsn, durableStore.getLog().getAppendedLsn());
+
+			Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+			copiesToAdd.add(new BookCopy(TEST_ISBN + 1, 2));
+			durableStore.addCopies(copiesToAdd);
+
+			List<StockBook> booksBeforeRestart = store.getBooks();
+			durableStore.close();
+
+			SingleLockConcurrentCertainBookStore recoveredStore = new SingleLockConcurrentCertainBookStore();
+			DurableCertainBookStore recoveredDurableStore = new DurableCertainBookStore(recoveredStore,
+					recoveredStore, new WriteAheadLog(logFile, FlushPolicy.GROUP_COMMIT, 0), checkpointFile);
+			assertEquals(1, recoveredDurableStore.recover());
+			assertEquals(checkpointLsn, recoveredDurableStore.getCheckpointLsn());
+
+			assertSameBooks(booksBeforeRestart, recoveredStore.getBooks());
+			recoveredDurableStore.close();
+		} finally {
+			Files.delete(logFile);
+			Files.deleteIfExists(checkpointFile);
+		}
+	}
+
+	/**
+	 * Tests that a checkpoint forces the log to disk even when the commits
+	 * only wrote it to the operating system.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCheckpointForcesUnsyncedLog() throws BookStoreException, IOException {
+		Path logFile = Files.createTempFile("bookstore", ".log");
+		Path checkpointFile = logFile.resolveSibling(logFile.getFileName() + ".checkpoint");
+
+		try {
+			SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+			DurableCertainBookStore durableStore = new DurableCertainBookStore(store, store,
+					new WriteAheadLog(logFile, FlushPolicy.NO_SYNC, 0), checkpointFile);
+			durableStore.recover();
+			durableStore.addBooks(Collections.singleton(getDefaultBook()));
+			durableStore.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+
+			// Both commits were written, but none of them was forced.
+			long numFlushes = durableStore.getLog().getNumFlushes();
+			assertEquals(2, numFlushes);
+
+			durableStore.checkpoint();
+			assertEquals(numFlushes + 1, durableStore.getLog().getNumFlushes());
+
+			// Once forced, the log is not forced again.
+			durableStore.getLog().flush();
+			assertEquals(numFlushes + 1, durableStore.getLog().getNumFlushes());
+			durableStore.close();
+		} finally {
+			Files.delete(logFile);
+			Files.deleteIfExists(checkpointFile);
+		}
+	}
+
+	/**
+	 * Tests that a log which lost the records covered by the checkpoint
+	 * restarts after it, so that the records appended after the restart are
+	 * not taken for records the checkpoint already reflects.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRecoverRestartsLogAfterCheckpoint() throws BookStoreException, IOException {
+		Path logFile = Files.createTempFile("bookstore", ".log");
+		Path checkpointFile = logFile.resolveSibling(logFile.getFileName() + ".checkpoint");
+
+		try {
+			SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+			DurableCertainBookStore durableStore = new DurableCertainBookStore(store, store,
+					new WriteAheadLog(logFile, FlushPolicy.GROUP_COMMIT, 0), checkpointFile);
+			durableStore.recover();
+			durableStore.addBooks(Collections.singleton(getDefaultBook()));
+			durableStore.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+			long checkpointLsn = durableStore.checkpoint();
+			durableStore.close();
+
+			// The log is lost, the checkpoint is not.
+			Files.delete(logFile);
+
+			SingleLockConcurrentCertainBookStore recoveredStore = new SingleLockConcurrentCertainBookStore();
+			DurableCertainBookStore recoveredDurableStore = new DurableCertainBookStore(recoveredStore,
+					recoveredStore, new WriteAheadLog(logFile, FlushPolicy.GROUP_COMMIT, 0), checkpointFile);
+			assertEquals(0, recoveredDurableStore.recover());
+			assertEquals(checkpointLsn, recoveredDurableStore.getLog().getStartLsn());
+			assertEquals(checkpointLsn, recoveredDurableStore.getLog().getAppendedLsn());
+
+			recoveredDurableStore.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+			List<StockBook> booksBeforeRestart = recoveredStore.getBooks();
+			recoveredDurableStore.close();
+
+			recoveredStore = new SingleLockConcurrentCertainBookStore();
+			recoveredDurableStore = new DurableCertainBookStore(recoveredStore, recoveredStore,
+					new WriteAheadLog(logFile, FlushPolicy.GROUP_COMMIT, 0), checkpointFile);
+			assertEquals(1, recoveredDurableStore.recover());
+			assertSameBooks(booksBeforeRestart, recoveredStore.getBooks());
+			recoveredDurableStore.close();
+		} finally {
+			Files.delete(logFile);
+			Files.deleteIfExists(checkpointFile);
+		}
+	}
+
+	/**
+	 * Tests that every store ends up in the state it was in before the
+	 * restart when writers buy, restock and pick the same books at once while
+	 * checkpoints are taken, so that the log orders the changes of each book
+	 * as the store applied them.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRecoverFromConcurrentWriters() throws Exception {
+		List<Supplier<StockManager>> stores = new ArrayList<>();
+		stores.add(SingleLockConcurrentCertainBookStore::new);
+		stores.add(TwoLevelLockingConcurrentCertainBookStore::new);
+		stores.add(MultiVersionConcurrentCertainBookStore::new);
+
+		for (Supplier<StockManager> newStore : stores) {
+			recoverFromConcurrentWriters(newStore);
+		}
+	}
+
+	/**
+	 * Runs concurrent writers and checkpoints against a durable store and
+	 * recovers it into a new one.
+	 *
+	 * @param newStore
+	 *            creates an empty store
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void recoverFromConcurrentWriters(Supplier<StockManager> newStore) throws Exception {
+		final int numBooks = 8;
+		final int numWriters = 4;
+		final int numOperations = 300;
+
+		Path logFile = Files.createTempFile("bookstore", ".log");
+		Path checkpointFile = logFile.resolveSibling(logFile.getFileName() + ".checkpoint");
+		ExecutorService threads = Executors.newFixedThreadPool(numWriters + 1);
+
+		try {
+			StockManager store = newStore.get();
+			DurableCertainBookStore durableStore = new DurableCertainBookStore((BookStore) store, store,
+					new WriteAheadLog(logFile, FlushPolicy.GROUP_COMMIT, 0), checkpointFile);
+			durableStore.recover();
+
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+			for (int i = 0; i < numBooks; i++) {
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Title " + i, "Author " + i, (float) 10,
+						NUM_COPIES, 0, 0, 0, false));
+			}
+
+			durableStore.addBooks(booksToAdd);
+
+			List<Future<?>> writers = new ArrayList<>();
+
+			for (int writer = 0; writer < numWriters; writer++) {
+				Random random = new Random(writer);
+
+				writers.add(threads.submit(() -> {
+					for (int op = 0; op < numOperations; op++) {
+						Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+						bookCopies.add(new BookCopy(TEST_ISBN + random.nextInt(numBooks), 1 + random.nextInt(3)));
+						bookCopies.add(new BookCopy(TEST_ISBN + random.nextInt(numBooks), 1 + random.nextInt(3)));
+
+						try {
+							switch (op % 3) {
+							case 0:
+								durableStore.buyBooks(bookCopies);
+								break;
+							case 1:
+								durableStore.addCopies(bookCopies);
+								break;
+							default:
+								durableStore.updateEditorPicks(Collections.singleton(
+										new BookEditorPick(TEST_ISBN + random.nextInt(numBooks), random.nextBoolean())));
+								break;
+							}
+						} catch (BookStoreException ex) {
+							// A purchase of sold out books only records its sale misses.
+						}
+					}
+
+					return null;
+				}));
+			}
+
+			AtomicBoolean writing = new AtomicBoolean(true);
+			Future<?> checkpointer = threads.submit(() -> {
+				while (writing.get()) {
+					durableStore.checkpoint();
+				}
+
+				return null;
+			});
+
+			try {
+				for (Future<?> writer : writers) {
+					writer.get(60, TimeUnit.SECONDS);
+				}
+			} finally {
+				writing.set(false);
+			}
+
+			checkpointer.get();
+
+			List<StockBook> booksBeforeRestart = store.getBooks();
+			durableStore.close();
+
+			StockManager recoveredStore = newStore.get();
+			DurableCertainBookStore recoveredDurableStore = new DurableCertainBookStore((BookStore) recoveredStore,
+					recoveredStore, new WriteAheadLog(logFile, FlushPolicy.GROUP_COMMIT, 0), checkpointFile);
+			recoveredDurableStore.recover();
+
+			assertSameBooks(booksBeforeRestart, recoveredStore.getBooks());
+			recoveredDurableStore.close();
+		} finally {
+			threads.shutdownNow();
+			Files.delete(logFile);
+			Files.deleteIfExists(checkpointFile);
+		}
+	}
+
+	/**
+	 * Asserts that the books have the same stock after a restart.
+	 *
+	 * @param booksBeforeRestart
+	 *            the books before the restart
+	 * @param booksAfterRestart
+	 *            the books after the restart
+	 */
+	private static void assertSameBooks(List<StockBook> booksBeforeRestart, List<StockBook> booksAfterRestart) {
+		assertEquals(booksBeforeRestart.size(), booksAfterRestart.size());
+
+		for (StockBook bookBeforeRestart : booksBeforeRestart) {
+			StockBook bookAfterRestart = booksAfterRestart.get(booksAfterRestart.indexOf(bookBeforeRestart));
+			assertEquals(bookBeforeRestart.getNumCopies(), bookAfterRestart.getNumCopies());
+			assertEquals(bookBeforeRestart.getNumSaleMisses(), bookAfterRestart.getNumSaleMisses());
+			assertEquals(bookBeforeRestart.isEditorPick(), bookAfterRestart.isEditorPick());
+		}
+	}
+
 	/**
 	 * Tear down after class.
 	 *
@@ -485,7 +962,9 @@ public class StockManagerTest {
 	public static void tearDownAfterClass() throws BookStoreException {
 		storeManager.removeAllBooks();
 
-		if (!localTest) {
+		if (client instanceof BookStoreRPCProxy) {
+			((BookStoreRPCProxy) client).stop();
+		} else if (!localTest) {
 			((BookStoreHTTPProxy) client).stop();
 			((StockManagerHTTPProxy) storeManager).stop();
 		}
@@ -0,0 +1,26 @@
+package com.acertainbookstore.client.tests;
+
+import org.junit.BeforeClass;
+
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+
+/**
+ * {@link TwoLevelLockingBookStoreTest} runs the test cases of
+ * {@link BookStoreTest}, including the overlapping baskets which deadlock
+ * without ordered locking, against a local
+ * {@link TwoLevelLockingConcurrentCertainBookStore}, which the default test run
+ * does not otherwise use.
+ *
+ * @see TwoLevelLockingConcurrentCertainBookStore
+ */
+public class TwoLevelLockingBookStoreTest extends BookStoreTest {
+
+	/**
+	 * Sets up the two-level store, in place of the store the properties ask
+	 * for.
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		setUpLocalStore(new TwoLevelLockingConcurrentCertainBookStore());
+	}
+}
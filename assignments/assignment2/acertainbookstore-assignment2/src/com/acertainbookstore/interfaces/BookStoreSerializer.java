@@ -1,6 +1,8 @@
 package com.acertainbookstore.interfaces;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * {@link BookStoreSerializer} specifies the serialization and de-serialization
@@ -29,4 +31,29 @@ public interface BookStoreSerializer {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	Object deserialize(byte[] bytes) throws IOException;
+
+	/**
+	 * Serializes an object straight into a stream, without materializing the
+	 * whole sequence of bytes. The stream is flushed but not closed.
+	 *
+	 * @param object
+	 *            the object
+	 * @param out
+	 *            the output stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void serialize(Object object, OutputStream out) throws IOException;
+
+	/**
+	 * De-serializes an object straight from a stream, without materializing
+	 * the whole sequence of bytes. The stream is not closed.
+	 *
+	 * @param in
+	 *            the input stream
+	 * @return the object
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	Object deserialize(InputStream in) throws IOException;
 }
@@ -1,68 +1,112 @@
 package com.acertainbookstore.server;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.net.URLDecoder;
-import java.nio.charset.StandardCharsets;
-import java.util.Set;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
-import com.acertainbookstore.business.BookCopy;
-import com.acertainbookstore.business.BookEditorPick;
-import com.acertainbookstore.business.StockBook;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreKryoRegistry;
 import com.acertainbookstore.interfaces.BookStore;
-import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.interfaces.StockManager;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreSerializerType;
+import com.acertainbookstore.utils.BookStoreCompression;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreResponse;
 import com.acertainbookstore.utils.BookStoreUtility;
-import com.esotericsoftware.kryo.io.Input;
 
 /**
  * {@link BookStoreHTTPMessageHandler} implements the message handler class
  * which is invoked to handle messages received by the
- * {@link BookStoreHTTPServerUtility}. It decodes the HTTP message and invokes
- * the {@link CertainBookStore} server API.
+ * {@link BookStoreHTTPServerUtility}. It routes the HTTP message to its
+ * message tag, decodes it and invokes the {@link CertainBookStore} server API
+ * through the {@link BookStoreRequestDispatcher}.
  * 
  * @see AbstractHandler
  * @see BookStoreHTTPServerUtility
  * @see CertainBookStore
  */
 public class BookStoreHTTPMessageHandler extends AbstractHandler {
-	/** The book store. */
-	private BookStore bookStore = null;
-	
-	/** The stock manager. */
-	private StockManager stockManager = null;
 
-	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	/** Executes the messages shared with the other transports. */
+	private final BookStoreRequestDispatcher dispatcher;
+
+	/** Maps the paths of the requests to their message tags. */
+	private final BookStoreRouter router = new BookStoreRouter();
+
+	/** The media type of requests which do not name their serializer. */
+	private static final String UNNAMED_MEDIA_TYPE = "application/octet-stream";
+
+	/** The serializer type of the clients which do not negotiate. */
+	private BookStoreSerializerType defaultSerializerType;
+
+	/** Handles the requests, or null to handle them on the threads of Jetty. */
+	private final Executor executor;
 
 	/**
 	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
 	 *
 	 * @param bookStore
 	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
 	 */
 	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager) {
-		this.bookStore = bookStore;
-		this.stockManager = stockManager;
+		this(new BookStoreRequestDispatcher(bookStore, stockManager));
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler} sharing the
+	 * handlers of the messages with other transports.
+	 *
+	 * @param dispatcher
+	 *            executes the messages
+	 */
+	public BookStoreHTTPMessageHandler(BookStoreRequestDispatcher dispatcher) {
+		this(dispatcher, null);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler} which hands the
+	 * requests over to an executor, such as one starting a virtual thread per
+	 * request. The threads of Jetty then only accept and parse the requests,
+	 * so that requests waiting for the locks of the store do not hold them.
+	 *
+	 * @param dispatcher
+	 *            executes the messages
+	 * @param executor
+	 *            handles the requests, or null to handle them on the threads
+	 *            of Jetty
+	 */
+	public BookStoreHTTPMessageHandler(BookStoreRequestDispatcher dispatcher, Executor executor) {
+		this.dispatcher = dispatcher;
+		this.executor = executor;
 
 		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
-		}
+		defaultSerializerType = BookStoreSerializerType.getConfigured();
+	}
+
+	/**
+	 * Gets the number of requests whose path matched no message.
+	 *
+	 * @return the number of requests
+	 */
+	public long getUnroutedRequests() {
+		return router.getMisses();
 	}
 
 	/*
@@ -74,131 +118,59 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
 			throws IOException, ServletException {
-		BookStoreMessageTag messageTag;
-		String requestURI;
-
-		response.setStatus(HttpServletResponse.SC_OK);
-		requestURI = request.getRequestURI();
-
-		// Need to do request multiplexing
-		if (!BookStoreUtility.isEmpty(requestURI) && requestURI.toLowerCase().startsWith("/stock")) {
-			// The request is from the store manager; more sophisticated.
-			// security features could be added here.
-			messageTag = BookStoreUtility.convertURItoMessageTag(requestURI.substring(6));
-		} else {
-			messageTag = BookStoreUtility.convertURItoMessageTag(requestURI);
+		if (executor == null) {
+			process(baseRequest, request, response);
+			return;
 		}
 
-		// The RequestURI before the switch.
-		if (messageTag == null) {
-			System.err.println("No message tag.");
-		} else {
-			switch (messageTag) {
-			case REMOVEBOOKS:
-				removeBooks(request, response);
-				break;
-
-			case REMOVEALLBOOKS:
-				removeAllBooks(response);
-				break;
-
-			case ADDBOOKS:
-				addBooks(request, response);
-				break;
-
-			case ADDCOPIES:
-				addCopies(request, response);
-				break;
-
-			case LISTBOOKS:
-				listBooks(response);
-				break;
-
-			case UPDATEEDITORPICKS:
-				updateEditorPicks(request, response);
-				break;
-
-			case BUYBOOKS:
-				buyBooks(request, response);
-				break;
-
-			case GETBOOKS:
-				getBooks(request, response);
-				break;
-
-			case GETEDITORPICKS:
-				getEditorPicks(request, response);
-				break;
-
-			case GETSTOCKBOOKSBYISBN:
-				getStockBooksByISBN(request, response);
-				break;
-
-			default:
-				System.err.println("Unsupported message tag.");
-				break;
-			}
-		}
-
-		// Mark the request as handled so that the HTTP response can be sent
+		// The request stays open until the executor has answered it.
+		AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(0);
 		baseRequest.setHandled(true);
-	}
-
-	/**
-	 * Gets the stock books by ISBN.
-	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
-	 */
-	@SuppressWarnings("unchecked")
-	private void getStockBooksByISBN(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			bookStoreResponse.setList(stockManager.getBooksByISBN(isbnSet));
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+			executor.execute(() -> {
+				try {
+					process(baseRequest, request, response);
+				} catch (IOException ex) {
+					// The client is gone.
+				} catch (RuntimeException ex) {
+					// Jetty only answers the failures of its own threads.
+					sendServerError(response);
+				} finally {
+					asyncContext.complete();
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			asyncContext.complete();
 		}
-
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
 	}
 
 	/**
-	 * Gets the editor picks.
+	 * Answers a request which failed on the executor with an internal server
+	 * error, unless part of its response was already sent.
 	 *
-	 * @param request
-	 *            the request
 	 * @param response
 	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
 	 */
-	private void getEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+	private static void sendServerError(HttpServletResponse response) {
+		if (response.isCommitted()) {
+			return;
+		}
 
 		try {
-			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
-			bookStoreResponse.setList(bookStore.getEditorPicks(numBooks));
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		} catch (IOException | IllegalStateException ex) {
+			// The client is gone.
 		}
-
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
 	}
 
 	/**
-	 * Gets the books.
+	 * Handles a request.
 	 *
+	 * @param baseRequest
+	 *            the Jetty request
 	 * @param request
 	 *            the request
 	 * @param response
@@ -206,211 +178,204 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	@SuppressWarnings("unchecked")
-	private void getBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private void process(Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		// Decode the request with the serializer of its Content-Type and encode
+		// the response with the first one of the Accept header.
+		BookStoreSerializerType requestType = getRequestType(request);
+
+		if (requestType == null || !BookStoreCompression
+				.isSupported(request.getHeader(HttpHeader.CONTENT_ENCODING.asString()))) {
+			response.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+			baseRequest.setHandled(true);
+			return;
+		}
 
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		BookStoreSerializerType responseType = BookStoreSerializerType
+				.forAccept(request.getHeader(HttpHeader.ACCEPT.asString()));
 
-		try {
-			bookStoreResponse.setList(bookStore.getBooks(isbnSet));
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+		if (responseType == null) {
+			responseType = requestType;
+		} else if (request.getContentType() == null) {
+			// A request without a body is only encoded by its response.
+			requestType = responseType;
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
-	}
+		// Refuse clients which would encode or decode the messages differently.
+		if ((requestType == BookStoreSerializerType.KRYO || responseType == BookStoreSerializerType.KRYO)
+				&& !BookStoreKryoRegistry.getFingerprint()
+						.equals(request.getHeader(BookStoreConstants.REGISTRY_HEADER))) {
+			response.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+			response.setHeader(BookStoreConstants.REGISTRY_HEADER, BookStoreKryoRegistry.getFingerprint());
+			baseRequest.setHandled(true);
+			return;
+		}
 
-	/**
-	 * Buys books.
-	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
-	 */
-	@SuppressWarnings("unchecked")
-	private void buyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+		// Both the customers and the stock manager (under /stock) are routed
+		// here; more sophisticated security features could be added.
+		BookStoreMessageTag messageTag = router.route(request.getRequestURI());
+
+		if (messageTag == null) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			baseRequest.setHandled(true);
+			return;
+		}
+
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(responseType.getMediaType());
 
-		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		BookStoreResponse bookStoreResponse;
 
 		try {
-			bookStore.buyBooks(bookCopiesToBuy);
+			bookStoreResponse = dispatcher.dispatch(messageTag, readValue(request, requestType));
 		} catch (BookStoreException ex) {
+			bookStoreResponse = new BookStoreResponse();
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(request, response, responseType, bookStoreResponse);
+
+		// Mark the request as handled so that the HTTP response can be sent
+		baseRequest.setHandled(true);
 	}
 
 	/**
-	 * Updates editor picks.
+	 * Reads the value of a message: the body of a POST request, or the number
+	 * of books of a GET request, if any.
 	 *
 	 * @param request
 	 *            the request
-	 * @param response
-	 *            the response
+	 * @param requestType
+	 *            the serializer type negotiated for the request
+	 * @return the value of the message
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the number of books is invalid
 	 */
-	@SuppressWarnings("unchecked")
-	private void updateEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) serializer.get()
-				.deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
-
-		try {
-			stockManager.updateEditorPicks(mapEditorPicksValues);
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+	private Object readValue(HttpServletRequest request, BookStoreSerializerType requestType)
+			throws IOException, BookStoreException {
+		if (HttpMethod.GET.is(request.getMethod())) {
+			String numBooksString = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
+			return (numBooksString != null) ? BookStoreUtility.convertStringToInt(numBooksString) : null;
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return readRequest(request, requestType);
 	}
 
 	/**
-	 * Lists the books.
+	 * Reads the request straight from the body of the HTTP request.
 	 *
-	 * @param response
-	 *            the response
+	 * @param request
+	 *            the request
+	 * @param requestType
+	 *            the serializer type negotiated for the request
+	 * @return the request content
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	private void listBooks(HttpServletResponse response) throws IOException {
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+	private Object readRequest(HttpServletRequest request, BookStoreSerializerType requestType) throws IOException {
+		long startTime = System.nanoTime();
+		InputStream in = BookStoreCompression.decode(request.getHeader(HttpHeader.CONTENT_ENCODING.asString()),
+				request.getInputStream());
+		BookStoreSerializer serializer = requestType.borrowSerializer();
+		Object value;
+
 		try {
-			bookStoreResponse.setList(stockManager.getBooks());
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+			value = serializer.deserialize(in);
+		} finally {
+			requestType.returnSerializer(serializer);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		requestType.getStatistics().recordDecoding(request.getContentLengthLong(), System.nanoTime() - startTime);
+		return value;
 	}
 
 	/**
-	 * Adds the copies.
+	 * Gets the serializer type of a request from its Content-Type. Requests
+	 * without a body or from clients which do not negotiate use the default.
 	 *
 	 * @param request
 	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @return the serializer type, or null if the server does not support the
+	 *         Content-Type
 	 */
-	@SuppressWarnings("unchecked")
-	private void addCopies(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private BookStoreSerializerType getRequestType(HttpServletRequest request) {
+		String contentType = request.getContentType();
 
-		Set<BookCopy> listBookCopies = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
-
-		try {
-			stockManager.addCopies(listBookCopies);
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+		if (contentType == null || contentType.startsWith(UNNAMED_MEDIA_TYPE)) {
+			return defaultSerializerType;
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return BookStoreSerializerType.forMediaType(contentType);
 	}
 
 	/**
-	 * Adds the books.
+	 * Writes the response straight into the body of the HTTP response,
+	 * compressed if the client accepts it and the body is large enough.
 	 *
 	 * @param request
 	 *            the request
 	 * @param response
 	 *            the response
+	 * @param responseType
+	 *            the serializer type negotiated for the response
+	 * @param bookStoreResponse
+	 *            the book store response
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	@SuppressWarnings("unchecked")
-	private void addBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private void writeResponse(HttpServletRequest request, HttpServletResponse response,
+			BookStoreSerializerType responseType, BookStoreResponse bookStoreResponse) throws IOException {
+		String contentEncoding = BookStoreCompression
+				.negotiate(request.getHeader(HttpHeader.ACCEPT_ENCODING.asString()));
+		OutputStream body = response.getOutputStream();
+
+		if (contentEncoding != null) {
+			response.setHeader(HttpHeader.VARY.asString(), HttpHeader.ACCEPT_ENCODING.asString());
+			body = new CompressingResponseStream(response, contentEncoding);
+		}
 
-		Set<StockBook> newBooks = (Set<StockBook>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		CountingOutputStream out = new CountingOutputStream(body);
+		long startTime = System.nanoTime();
+		BookStoreSerializer serializer = responseType.borrowSerializer();
 
 		try {
-			stockManager.addBooks(newBooks);
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+			serializer.serialize(bookStoreResponse, out);
+		} finally {
+			responseType.returnSerializer(serializer);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
-	}
-
-	/**
-	 * Removes all books.
-	 *
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
-	 */
-	private void removeAllBooks(HttpServletResponse response) throws IOException {
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		responseType.getStatistics().recordEncoding(out.count, System.nanoTime() - startTime);
 
-		try {
-			stockManager.removeAllBooks();
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+		// Sends the body held back by compression, or its end.
+		if (contentEncoding != null) {
+			body.close();
 		}
-
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
 	}
 
 	/**
-	 * Removes the books.
-	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * {@link CountingOutputStream} counts the bytes of a response.
 	 */
-	@SuppressWarnings("unchecked")
-	private void removeBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private static final class CountingOutputStream extends FilterOutputStream {
 
-		Set<Integer> bookSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		/** The number of bytes written. */
+		private long count;
 
-		try {
-			stockManager.removeBooks(bookSet);
-		} catch (BookStoreException ex) {
-			bookStoreResponse.setException(ex);
+		private CountingOutputStream(OutputStream out) {
+			super(out);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
-	}
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
 
-	/**
-	 * Gets the serialized request content.
-	 *
-	 * @param request the request
-	 * @return the serialized request content
-	 * @throws IOException Signals that an I/O exception has occurred.
-	 */
-	private byte[] getSerializedRequestContent(HttpServletRequest request) throws IOException {
-		Input in = new Input(request.getInputStream());
-		byte[] serializedRequestContent = in.readBytes(request.getContentLength());
-		in.close();
-		return serializedRequestContent;
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
 	}
 }
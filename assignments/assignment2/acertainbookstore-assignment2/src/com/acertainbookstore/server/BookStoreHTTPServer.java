@@ -1,10 +1,23 @@
 package com.acertainbookstore.server;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.MultiVersionConcurrentCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreSerializerStatistics;
+import com.acertainbookstore.utils.BookStoreSerializerType;
+import com.acertainbookstore.utils.WriteAheadLog;
+import com.acertainbookstore.utils.WriteAheadLog.FlushPolicy;
 
 /**
  * Starts the {@link BookStoreHTTPServer} that the clients will communicate
@@ -22,6 +35,12 @@ public class BookStoreHTTPServer {
 	 *  false - two-level locking */
 	private static final boolean SINGLE_LOCK = true;
 
+	/** The default flush interval of the periodic log flush policy. */
+	private static final long DEFAULT_LOG_FLUSH_INTERVAL_MILLIS = 10;
+
+	/** The default time between checkpoints, which truncate the log. */
+	private static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 60000;
+
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
 	 */
@@ -38,17 +57,58 @@ public class BookStoreHTTPServer {
 	public static void main(String[] args) {
 		int listenOnPort = DEFAULT_PORT;
 		
-		BookStoreHTTPMessageHandler handler = null;
+		BookStore bookStore;
+		StockManager stockManager;
 		
-		if (SINGLE_LOCK) {
-			SingleLockConcurrentCertainBookStore bookStore = new SingleLockConcurrentCertainBookStore();
-			/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
-			 * since it implements both interfaces: BookStore and StockManager */
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_MULTI_VERSION)) {
+			/* the lock-free store, chosen with -Dmultiversion=true */
+			MultiVersionConcurrentCertainBookStore store = new MultiVersionConcurrentCertainBookStore();
+			bookStore = store;
+			stockManager = store;
+		} else if (SINGLE_LOCK) {
+			SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+			bookStore = store;
+			stockManager = store;
 		} else {
-			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore();
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
-		}		
+			TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
+			bookStore = store;
+			stockManager = store;
+		}
+
+		String logFileString = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOG_FILE);
+
+		if (logFileString != null) {
+			/* with -Dlogfile=<path> the store is rebuilt from and logged to the file */
+			try {
+				DurableCertainBookStore durableStore = openDurableStore(logFileString, bookStore, stockManager);
+				bookStore = durableStore;
+				stockManager = durableStore;
+			} catch (IOException | IllegalArgumentException ex) {
+				System.err.println("The log " + logFileString + " could not be recovered: " + ex);
+				return;
+			}
+		}
+
+		/* the store implements both interfaces: BookStore and StockManager */
+		BookStoreRequestDispatcher dispatcher = new BookStoreRequestDispatcher(bookStore, stockManager);
+		ExecutorService virtualThreads = null;
+
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS)) {
+			/* with -Dvirtualthreads=true every request runs on its own virtual thread */
+			virtualThreads = BookStoreHTTPServerUtility.newVirtualThreadExecutor();
+
+			if (virtualThreads == null) {
+				System.err.println("Virtual threads need Java 21 or later, the requests run on the thread pool");
+			}
+		}
+
+		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(dispatcher, virtualThreads);
+
+		/* report how the clients used each serializer when the server stops */
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			printSerializerStatistics();
+			printRouteStatistics(dispatcher, handler);
+		}));
 		
 		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
 
@@ -60,7 +120,122 @@ public class BookStoreHTTPServer {
 			}
 		}
 
-		QueuedThreadPool threadpool = new QueuedThreadPool(MAX_THREADPOOL_SIZE, MIN_THREADPOOL_SIZE);
+		int maxThreads = Integer.getInteger(BookStoreConstants.PROPERTY_KEY_MAX_THREADS, MAX_THREADPOOL_SIZE);
+		QueuedThreadPool threadpool = new QueuedThreadPool(maxThreads, Math.min(MIN_THREADPOOL_SIZE, maxThreads));
+		Integer rpcPort = Integer.getInteger(BookStoreConstants.PROPERTY_KEY_RPC_PORT);
+
+		if (rpcPort != null) {
+			/* with -Drpcport=<port> the messages are also served without HTTP, by the same threads */
+			try {
+				threadpool.start();
+				new BookStoreRPCServer(rpcPort, dispatcher, (virtualThreads != null) ? virtualThreads : threadpool)
+						.start();
+			} catch (Exception ex) {
+				System.err.println("The RPC server could not be started on port " + rpcPort + ": " + ex);
+				stopThreadPool(threadpool);
+				return;
+			}
+		}
+
 		BookStoreHTTPServerUtility.createServer(listenOnPort, handler, threadpool);
 	}
+
+	/**
+	 * Stops a thread pool which was started before the server.
+	 *
+	 * @param threadpool
+	 *            the thread pool
+	 */
+	private static void stopThreadPool(QueuedThreadPool threadpool) {
+		try {
+			threadpool.stop();
+		} catch (Exception ex) {
+			System.err.println(ex.getStackTrace());
+		}
+	}
+
+	/**
+	 * Prints the statistics of the serializers which were used.
+	 */
+	private static void printSerializerStatistics() {
+		for (BookStoreSerializerType serializerType : BookStoreSerializerType.values()) {
+			BookStoreSerializerStatistics statistics = serializerType.getStatistics();
+
+			if (statistics.getEncodedMessages() + statistics.getDecodedMessages() > 0) {
+				System.out.println(serializerType + ": " + statistics);
+			}
+		}
+	}
+
+	/**
+	 * Prints the statistics of the messages which were executed.
+	 *
+	 * @param dispatcher
+	 *            the dispatcher of the messages
+	 * @param handler
+	 *            the handler of the HTTP requests
+	 */
+	private static void printRouteStatistics(BookStoreRequestDispatcher dispatcher,
+			BookStoreHTTPMessageHandler handler) {
+		for (BookStoreMessageTag messageTag : BookStoreMessageTag.values()) {
+			BookStoreRouteStatistics statistics = dispatcher.getStatistics(messageTag);
+
+			if (statistics != null && statistics.getMessages() > 0) {
+				System.out.println(messageTag + ": " + statistics);
+			}
+		}
+
+		if (handler.getUnroutedRequests() > 0) {
+			System.out.println("Requests without a message: " + handler.getUnroutedRequests());
+		}
+	}
+
+	/**
+	 * Restores the store from its last checkpoint and log, and starts taking
+	 * checkpoints.
+	 *
+	 * @param logFileString
+	 *            the log file
+	 * @param bookStore
+	 *            the store as seen by customers
+	 * @param stockManager
+	 *            the store as seen by the stock manager
+	 * @return the durable store
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static DurableCertainBookStore openDurableStore(String logFileString, BookStore bookStore,
+			StockManager stockManager) throws IOException {
+		String flushPolicyString = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOG_FLUSH);
+		FlushPolicy flushPolicy = (flushPolicyString != null) ? FlushPolicy.valueOf(flushPolicyString.toUpperCase())
+				: FlushPolicy.GROUP_COMMIT;
+		long flushIntervalMillis = Long.getLong(BookStoreConstants.PROPERTY_KEY_LOG_FLUSH_INTERVAL,
+				DEFAULT_LOG_FLUSH_INTERVAL_MILLIS);
+
+		String checkpointFileString = System.getProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_FILE,
+				logFileString + ".checkpoint");
+		long checkpointIntervalMillis = Long.getLong(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL,
+				DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+
+		WriteAheadLog log = new WriteAheadLog(Paths.get(logFileString), flushPolicy, flushIntervalMillis);
+		DurableCertainBookStore durableStore = new DurableCertainBookStore(bookStore, stockManager, log,
+				Paths.get(checkpointFileString));
+		long numRecords = durableStore.recover();
+		System.out.println("Recovered the checkpoint " + checkpointFileString + " and " + numRecords
+				+ " requests from the log " + logFileString);
+
+		if (checkpointIntervalMillis > 0) {
+			durableStore.startCheckpoints(checkpointIntervalMillis);
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				durableStore.close();
+			} catch (IOException ex) {
+				System.err.println("The log " + logFileString + " could not be closed: " + ex);
+			}
+		}));
+
+		return durableStore;
+	}
 }
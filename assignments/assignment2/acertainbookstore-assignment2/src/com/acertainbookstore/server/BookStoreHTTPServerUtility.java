@@ -3,12 +3,20 @@ package com.acertainbookstore.server;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
+import com.acertainbookstore.utils.BookStoreConstants;
+
 /**
  * {@link BookStoreHTTPServerUtility} creates Jetty server instances.
  */
@@ -31,15 +39,8 @@ public class BookStoreHTTPServerUtility {
 	 * @return true, if successful
 	 */
 	public static void createServer(int port, AbstractHandler handler, QueuedThreadPool threadpool) {
-		Server server = null;
-		if (threadpool != null) {
-			server = new Server(threadpool);
-			ServerConnector myConnector = new ServerConnector(server);
-			myConnector.setPort(port);
-			server.addConnector(myConnector);
-		} else {
-			server = new Server(port);
-		}
+		Server server = (threadpool != null) ? new Server(threadpool) : new Server();
+		server.addConnector(createConnector(server, port, Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2)));
 
 		if (handler != null) {
 			server.setHandler(handler);
@@ -54,6 +55,55 @@ public class BookStoreHTTPServerUtility {
 
 	}
 
+	/**
+	 * Creates a connector which speaks HTTP/1.1 and optionally HTTP/2 without
+	 * TLS (h2c) on the same port. HTTP/2 clients either start with the HTTP/2
+	 * preface or upgrade their first HTTP/1.1 request.
+	 *
+	 * @param server
+	 *            the server
+	 * @param port
+	 *            the port, or 0 for any free port
+	 * @param http2
+	 *            whether to accept h2c
+	 * @return the connector
+	 */
+	public static ServerConnector createConnector(Server server, int port, boolean http2) {
+		HttpConfiguration configuration = new HttpConfiguration();
+		ConnectionFactory http11 = new HttpConnectionFactory(configuration);
+		ServerConnector connector = http2 ? new ServerConnector(server, http11, createHTTP2C(configuration))
+				: new ServerConnector(server, http11);
+		connector.setPort(port);
+		return connector;
+	}
+
+	/**
+	 * Creates the connection factory of h2c, apart so that the HTTP/2 classes
+	 * are only loaded when it is enabled.
+	 *
+	 * @param configuration
+	 *            the HTTP configuration
+	 * @return the connection factory
+	 */
+	private static ConnectionFactory createHTTP2C(HttpConfiguration configuration) {
+		return new HTTP2CServerConnectionFactory(configuration);
+	}
+
+	/**
+	 * Creates an executor which starts a virtual thread per task, if the Java
+	 * runtime has virtual threads (Java 21 and later). The sources are built
+	 * for older runtimes too, so the executor is looked up by reflection.
+	 *
+	 * @return the executor, or null if the runtime has no virtual threads
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			return null;
+		}
+	}
+
 	/**
 	 * Creates a server on the InetAddress and blocks the calling thread.
 	 *
@@ -82,7 +132,11 @@ public class BookStoreHTTPServerUtility {
 			return false;
 		}
 
-		server = new Server(address);
+		server = new Server();
+		ServerConnector connector = createConnector(server, address.getPort(),
+				Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2));
+		connector.setHost(address.getHostString());
+		server.addConnector(connector);
 
 		if (handler != null) {
 			server.setHandler(handler);
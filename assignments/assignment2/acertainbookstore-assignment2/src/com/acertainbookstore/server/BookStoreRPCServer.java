@@ -0,0 +1,357 @@
+package com.acertainbookstore.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRPCFrame;
+import com.acertainbookstore.utils.BookStoreResponse;
+
+/**
+ * {@link BookStoreRPCServer} serves the messages over the binary RPC transport
+ * of {@link BookStoreRPCFrame}, a lighter alternative to HTTP for clients on
+ * the same network.
+ * <p>
+ * A single selector thread accepts the connections and reads their frames.
+ * Every request is executed by the workers, which may run the requests of a
+ * connection concurrently and answer them in any order, and which write the
+ * response themselves unless the socket is full, in which case the selector
+ * thread finishes writing it.
+ *
+ * @see BookStoreRequestDispatcher
+ * @see com.acertainbookstore.client.BookStoreRPCProxy
+ */
+public final class BookStoreRPCServer {
+
+	/** The initial size of the read buffer of a connection. */
+	private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+	/** Executes the messages. */
+	private final BookStoreRequestDispatcher dispatcher;
+
+	/** Executes the requests. */
+	private final Executor workers;
+
+	/** The port, or 0 for any free port. */
+	private final int port;
+
+	/** The selector of the connections. */
+	private Selector selector;
+
+	/** The channel accepting the connections. */
+	private ServerSocketChannel serverChannel;
+
+	/** The selector thread. */
+	private Thread selectorThread;
+
+	/**
+	 * Instantiates a new {@link BookStoreRPCServer}.
+	 *
+	 * @param port
+	 *            the port, or 0 for any free port
+	 * @param dispatcher
+	 *            executes the messages
+	 * @param workers
+	 *            executes the requests, for example the thread pool of the
+	 *            HTTP server
+	 */
+	public BookStoreRPCServer(int port, BookStoreRequestDispatcher dispatcher, Executor workers) {
+		this.port = port;
+		this.dispatcher = dispatcher;
+		this.workers = workers;
+	}
+
+	/**
+	 * Binds the port and starts the selector thread.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public synchronized void start() throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		selectorThread = new Thread(this::run, "BookStoreRPCServer");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	/**
+	 * Gets the port the server listens on.
+	 *
+	 * @return the port
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public int getLocalPort() throws IOException {
+		return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * Stops the server and closes its connections. Requests still executing
+	 * are not answered.
+	 */
+	public synchronized void stop() {
+		if (selector == null) {
+			return;
+		}
+
+		try {
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+
+			selector.close();
+			selectorThread.join();
+		} catch (IOException ex) {
+			System.err.println("The RPC server could not be stopped: " + ex);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		selector = null;
+	}
+
+	/**
+	 * Runs the selector loop until the server stops.
+	 */
+	private void run() {
+		try {
+			while (selector.isOpen()) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+
+						if (key.isAcceptable()) {
+							accept();
+							continue;
+						}
+
+						Connection connection = (Connection) key.attachment();
+
+						if (key.isWritable()) {
+							connection.flush();
+						}
+
+						if (key.isValid() && key.isReadable()) {
+							connection.read();
+						}
+					} catch (IOException | CancelledKeyException | RejectedExecutionException ex) {
+						// The connection is lost, not the server.
+						key.channel().close();
+					}
+				}
+			}
+		} catch (ClosedSelectorException ex) {
+			// Stopped.
+		} catch (IOException ex) {
+			System.err.println("The RPC server stopped: " + ex);
+		}
+	}
+
+	/**
+	 * Accepts a connection.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+
+		if (channel == null) {
+			return;
+		}
+
+		channel.configureBlocking(false);
+
+		// The frames are small and written whole: do not wait to fill packets.
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		key.attach(new Connection(channel, key));
+	}
+
+	/**
+	 * Executes a request and sends its response.
+	 *
+	 * @param connection
+	 *            the connection of the request
+	 * @param requestId
+	 *            the identifier of the request
+	 * @param ordinal
+	 *            the ordinal of the message tag
+	 * @param payload
+	 *            the encoded value of the message
+	 */
+	private void execute(Connection connection, int requestId, int ordinal, byte[] payload) {
+		BookStoreMessageTag messageTag = BookStoreRPCFrame.toMessageTag(ordinal);
+		BookStoreResponse bookStoreResponse;
+
+		try {
+			if (messageTag == null) {
+				throw new BookStoreException(BookStoreConstants.UNSUPPORTED_MESSAGE_TAG + ordinal);
+			}
+
+			bookStoreResponse = dispatcher.dispatch(messageTag, BookStoreRPCFrame.deserialize(payload));
+		} catch (BookStoreException ex) {
+			bookStoreResponse = new BookStoreResponse();
+			bookStoreResponse.setException(ex);
+		} catch (IOException | RuntimeException ex) {
+			// Answer anyway, or the client would wait for its timeout.
+			bookStoreResponse = new BookStoreResponse();
+			bookStoreResponse.setException(new BookStoreException(ex.toString()));
+		}
+
+		try {
+			connection.send(BookStoreRPCFrame.encodeResponse(requestId, bookStoreResponse));
+		} catch (IOException | CancelledKeyException ex) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * {@link Connection} is a connection of a client, with its partial request
+	 * and its responses not written yet.
+	 */
+	private final class Connection {
+
+		/** The channel. */
+		private final SocketChannel channel;
+
+		/** The key of the channel. */
+		private final SelectionKey key;
+
+		/** The bytes read and not executed yet. */
+		private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+		/** The responses waiting for the socket, guarded by the connection. */
+		private final ArrayDeque<ByteBuffer> pendingFrames = new ArrayDeque<>();
+
+		private Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+
+		/**
+		 * Reads what the socket holds and hands every complete request to the
+		 * workers. Called by the selector thread.
+		 *
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		private void read() throws IOException {
+			if (channel.read(readBuffer) < 0) {
+				close();
+				return;
+			}
+
+			readBuffer.flip();
+			int length;
+
+			while ((length = BookStoreRPCFrame.completeFrameLength(readBuffer)) >= 0) {
+				if (length < BookStoreRPCFrame.REQUEST_HEADER_SIZE) {
+					throw new IOException("Invalid request length " + length);
+				}
+
+				readBuffer.getInt();
+				int requestId = readBuffer.getInt();
+				int ordinal = readBuffer.get() & 0xFF;
+				byte[] payload = new byte[length - BookStoreRPCFrame.REQUEST_HEADER_SIZE];
+				readBuffer.get(payload);
+				workers.execute(() -> execute(this, requestId, ordinal, payload));
+			}
+
+			readBuffer.compact();
+
+			// Make room for a large request.
+			if (!readBuffer.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+				readBuffer.flip();
+				larger.put(readBuffer);
+				readBuffer = larger;
+			}
+		}
+
+		/**
+		 * Sends a response, or queues it if the socket is full. Called by the
+		 * workers.
+		 *
+		 * @param frame
+		 *            the frame of the response
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		private synchronized void send(ByteBuffer frame) throws IOException {
+			boolean idle = pendingFrames.isEmpty();
+			pendingFrames.add(frame);
+
+			if (idle && !flush()) {
+				// The selector thread writes the rest when the socket has room.
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				key.selector().wakeup();
+			}
+		}
+
+		/**
+		 * Writes the queued responses while the socket has room.
+		 *
+		 * @return true if all were written
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		private synchronized boolean flush() throws IOException {
+			while (!pendingFrames.isEmpty()) {
+				ByteBuffer frame = pendingFrames.peek();
+				channel.write(frame);
+
+				if (frame.hasRemaining()) {
+					return false;
+				}
+
+				pendingFrames.poll();
+			}
+
+			if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+
+			return true;
+		}
+
+		/**
+		 * Closes the connection.
+		 */
+		private void close() {
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				// Already lost.
+			}
+		}
+	}
+}
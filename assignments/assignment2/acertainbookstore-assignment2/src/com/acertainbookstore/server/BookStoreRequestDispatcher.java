@@ -0,0 +1,241 @@
+package com.acertainbookstore.server;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreOperation;
+import com.acertainbookstore.utils.BookStoreResponse;
+
+/**
+ * {@link BookStoreRequestDispatcher} executes the messages against the book
+ * store and the stock manager, whichever transport decoded them. The value of
+ * a message is what its HTTP request carries, or the number of books for
+ * {@link BookStoreMessageTag#GETEDITORPICKS}.
+ * <p>
+ * Every message tag has a {@link MessageHandler} in a registry, so a new
+ * message only needs its handler registered, and every handler counts its
+ * messages in its {@link BookStoreRouteStatistics}.
+ *
+ * @see BookStoreHTTPMessageHandler
+ * @see BookStoreRPCServer
+ */
+public final class BookStoreRequestDispatcher {
+
+	/**
+	 * {@link MessageHandler} executes the messages of a tag.
+	 */
+	@FunctionalInterface
+	public interface MessageHandler {
+
+		/**
+		 * Executes a message.
+		 *
+		 * @param inputValue
+		 *            the value of the message
+		 * @return the list of the response, or null if the message returns
+		 *         none
+		 * @throws BookStoreException
+		 *             the exception of the message
+		 */
+		List<?> execute(Object inputValue) throws BookStoreException;
+	}
+
+	/** The handlers of the message tags, with their statistics. */
+	private final Map<BookStoreMessageTag, Route> routes = new EnumMap<>(BookStoreMessageTag.class);
+
+	/**
+	 * Instantiates a new {@link BookStoreRequestDispatcher} with the handlers
+	 * of all the messages of the book store and the stock manager.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 */
+	@SuppressWarnings("unchecked")
+	public BookStoreRequestDispatcher(BookStore bookStore, StockManager stockManager) {
+		register(BookStoreMessageTag.ADDBOOKS, false, value -> {
+			stockManager.addBooks((Set<StockBook>) value);
+			return null;
+		});
+		register(BookStoreMessageTag.ADDCOPIES, true, value -> {
+			stockManager.addCopies((Set<BookCopy>) value);
+			return null;
+		});
+		register(BookStoreMessageTag.LISTBOOKS, false, value -> stockManager.getBooks());
+		register(BookStoreMessageTag.UPDATEEDITORPICKS, false, value -> {
+			stockManager.updateEditorPicks((Set<BookEditorPick>) value);
+			return null;
+		});
+		register(BookStoreMessageTag.REMOVEALLBOOKS, false, value -> {
+			stockManager.removeAllBooks();
+			return null;
+		});
+		register(BookStoreMessageTag.REMOVEBOOKS, false, value -> {
+			stockManager.removeBooks((Set<Integer>) value);
+			return null;
+		});
+		register(BookStoreMessageTag.GETSTOCKBOOKSBYISBN, false,
+				value -> stockManager.getBooksByISBN((Set<Integer>) value));
+		register(BookStoreMessageTag.GETBOOKS, true, value -> bookStore.getBooks((Set<Integer>) value));
+		register(BookStoreMessageTag.BUYBOOKS, true, value -> {
+			bookStore.buyBooks((Set<BookCopy>) value);
+			return null;
+		});
+		register(BookStoreMessageTag.RATEBOOKS, true, value -> {
+			bookStore.rateBooks((Set<BookRating>) value);
+			return null;
+		});
+		register(BookStoreMessageTag.GETEDITORPICKS, false,
+				value -> bookStore.getEditorPicks((Integer) requireValue(value)));
+		register(BookStoreMessageTag.BATCH, false,
+				value -> dispatchBatch((List<BookStoreOperation>) requireValue(value)));
+	}
+
+	/**
+	 * Checks the value of a message which the handler unboxes or iterates
+	 * itself, rather than passing it on to the store which checks it.
+	 *
+	 * @param value
+	 *            the value of the message
+	 * @return the value
+	 * @throws BookStoreException
+	 *             if the value is null
+	 */
+	private static Object requireValue(Object value) throws BookStoreException {
+		if (value == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return value;
+	}
+
+	/**
+	 * Registers the handler of a message tag, replacing its current one. The
+	 * handlers must be registered before the server starts.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param batchable
+	 *            whether the message can be part of a batch
+	 * @param handler
+	 *            the handler
+	 */
+	public void register(BookStoreMessageTag messageTag, boolean batchable, MessageHandler handler) {
+		routes.put(messageTag, new Route(handler, batchable));
+	}
+
+	/**
+	 * Gets the statistics of the messages of a tag.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @return the statistics, or null if the tag has no handler
+	 */
+	public BookStoreRouteStatistics getStatistics(BookStoreMessageTag messageTag) {
+		Route route = routes.get(messageTag);
+		return (route != null) ? route.statistics : null;
+	}
+
+	/**
+	 * Executes a message.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputValue
+	 *            the value of the message
+	 * @return the response, with the exception of the message if it failed
+	 */
+	public BookStoreResponse dispatch(BookStoreMessageTag messageTag, Object inputValue) {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		Route route = routes.get(messageTag);
+
+		if (route == null) {
+			bookStoreResponse.setException(new BookStoreException(BookStoreConstants.UNSUPPORTED_MESSAGE_TAG + messageTag));
+			return bookStoreResponse;
+		}
+
+		long startTime = System.nanoTime();
+
+		try {
+			bookStoreResponse.setList(route.handler.execute(inputValue));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		} catch (ClassCastException ex) {
+			bookStoreResponse
+					.setException(new BookStoreException(BookStoreConstants.INVALID_MESSAGE_VALUE + messageTag, ex));
+		}
+
+		route.statistics.recordExecution(bookStoreResponse.getException() != null, System.nanoTime() - startTime);
+		return bookStoreResponse;
+	}
+
+	/**
+	 * Executes the operations of a batch in order, with a response per
+	 * operation. A batch may mix the operations of the book store and of the
+	 * stock manager, such as a checkout which buys, rates and restocks books.
+	 * An operation which fails does not stop the others, and the batch is not
+	 * atomic: every operation is atomic on its own.
+	 *
+	 * @param operations
+	 *            the operations
+	 * @return the responses of the operations
+	 */
+	public List<BookStoreResponse> dispatchBatch(List<BookStoreOperation> operations) {
+		List<BookStoreResponse> results = new ArrayList<>(operations.size());
+
+		for (BookStoreOperation operation : operations) {
+			if (operation == null) {
+				BookStoreResponse result = new BookStoreResponse();
+				result.setException(new BookStoreException(BookStoreConstants.NULL_INPUT));
+				results.add(result);
+				continue;
+			}
+
+			Route route = routes.get(operation.getMessageTag());
+
+			if (route != null && route.batchable) {
+				results.add(dispatch(operation.getMessageTag(), operation.getInputValue()));
+			} else {
+				BookStoreResponse result = new BookStoreResponse();
+				result.setException(new BookStoreException(
+						operation.getMessageTag() + BookStoreConstants.BATCH_UNSUPPORTED_OPERATION));
+				results.add(result);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * {@link Route} is the handler of a message tag and its statistics.
+	 */
+	private static final class Route {
+
+		/** The handler. */
+		private final MessageHandler handler;
+
+		/** Whether the message can be part of a batch. */
+		private final boolean batchable;
+
+		/** The statistics of the messages. */
+		private final BookStoreRouteStatistics statistics = new BookStoreRouteStatistics();
+
+		private Route(MessageHandler handler, boolean batchable) {
+			this.handler = handler;
+			this.batchable = batchable;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.acertainbookstore.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link BookStoreRouteStatistics} counts the messages of a route, those which
+ * failed and the time spent executing them. The counters are updated
+ * concurrently by all the threads of the server.
+ *
+ * @see BookStoreRequestDispatcher#getStatistics(com.acertainbookstore.utils.BookStoreMessageTag)
+ */
+public final class BookStoreRouteStatistics {
+
+	private final LongAdder messages = new LongAdder();
+
+	private final LongAdder failures = new LongAdder();
+
+	private final LongAdder executionNanos = new LongAdder();
+
+	/**
+	 * Records an executed message.
+	 *
+	 * @param failed
+	 *            whether the message failed
+	 * @param nanos
+	 *            the time spent executing it
+	 */
+	public void recordExecution(boolean failed, long nanos) {
+		messages.increment();
+		executionNanos.add(nanos);
+
+		if (failed) {
+			failures.increment();
+		}
+	}
+
+	/**
+	 * Gets the number of executed messages.
+	 *
+	 * @return the number of messages
+	 */
+	public long getMessages() {
+		return messages.sum();
+	}
+
+	/**
+	 * Gets the number of messages which failed.
+	 *
+	 * @return the number of messages
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * Gets the time spent executing messages.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getExecutionNanos() {
+		return executionNanos.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "executed " + getMessages() + " messages, " + getFailures() + " failed, in "
+				+ getExecutionNanos() / 1000 + " us";
+	}
+}
@@ -0,0 +1,118 @@
+package com.acertainbookstore.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreRouter} maps the path of a request, such as /getbooks or
+ * /stock/addbooks, to its message tag. The names of the tags are matched
+ * ignoring case, with or without the /stock prefix of the stock manager.
+ * <p>
+ * The table of the routes is built once from {@link BookStoreMessageTag}, and
+ * a lookup hashes the characters of the path in place and compares them with
+ * a single candidate, so routing a request allocates nothing.
+ */
+final class BookStoreRouter {
+
+	/** The prefix of the requests of the stock manager. */
+	private static final String STOCK_PREFIX = "/stock";
+
+	/** The routes by hash of their name, with open addressing. */
+	private final BookStoreMessageTag[] routes;
+
+	/** The mask of a hash to an index of the routes. */
+	private final int mask;
+
+	/** The requests which matched no route. */
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Instantiates a new {@link BookStoreRouter} routing every message tag.
+	 */
+	BookStoreRouter() {
+		BookStoreMessageTag[] messageTags = BookStoreMessageTag.values();
+
+		// At most a quarter full, so that probes are short.
+		routes = new BookStoreMessageTag[Integer.highestOneBit(messageTags.length * 4 - 1) << 1];
+		mask = routes.length - 1;
+
+		for (BookStoreMessageTag messageTag : messageTags) {
+			String name = messageTag.name();
+			int index = hash(name, 0, name.length()) & mask;
+
+			while (routes[index] != null) {
+				index = (index + 1) & mask;
+			}
+
+			routes[index] = messageTag;
+		}
+	}
+
+	/**
+	 * Gets the message tag of the path of a request.
+	 *
+	 * @param path
+	 *            the path, without the query
+	 * @return the message tag, or null if no route matches the path
+	 */
+	BookStoreMessageTag route(String path) {
+		if (path == null) {
+			misses.increment();
+			return null;
+		}
+
+		int start = path.regionMatches(true, 0, STOCK_PREFIX, 0, STOCK_PREFIX.length()) ? STOCK_PREFIX.length() : 0;
+
+		if (path.length() > start + 1 && path.charAt(start) == '/') {
+			int length = path.length() - start - 1;
+			int index = hash(path, start + 1, length) & mask;
+			BookStoreMessageTag messageTag;
+
+			while ((messageTag = routes[index]) != null) {
+				String name = messageTag.name();
+
+				if (name.length() == length && name.regionMatches(true, 0, path, start + 1, length)) {
+					return messageTag;
+				}
+
+				index = (index + 1) & mask;
+			}
+		}
+
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Gets the number of requests which matched no route.
+	 *
+	 * @return the number of requests
+	 */
+	long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Hashes characters ignoring the case of ASCII letters, as the names of
+	 * the message tags are.
+	 *
+	 * @param chars
+	 *            the characters
+	 * @param offset
+	 *            the offset of the first character
+	 * @param length
+	 *            the number of characters
+	 * @return the hash
+	 */
+	private static int hash(CharSequence chars, int offset, int length) {
+		int hash = length;
+
+		for (int i = offset; i < offset + length; i++) {
+			char c = chars.charAt(i);
+			hash = 31 * hash + ((c >= 'a' && c <= 'z') ? c - ('a' - 'A') : c);
+		}
+
+		return hash ^ (hash >>> 16);
+	}
+}
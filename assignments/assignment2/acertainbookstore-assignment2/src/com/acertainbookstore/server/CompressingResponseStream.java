@@ -0,0 +1,90 @@
+package com.acertainbookstore.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpHeader;
+
+import com.acertainbookstore.utils.BookStoreCompression;
+
+/**
+ * {@link CompressingResponseStream} writes the body of a response, compressing
+ * it once it reaches the compression threshold. Until then the body is held
+ * back, so that the Content-Encoding header can still be set; small bodies are
+ * sent as they are when the stream is closed.
+ *
+ * @see BookStoreCompression
+ */
+final class CompressingResponseStream extends OutputStream {
+
+	/** The response. */
+	private final HttpServletResponse response;
+
+	/** The content coding used once the threshold is reached. */
+	private final String contentEncoding;
+
+	/** The body held back while it is below the threshold. */
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	/** The compressed body, once the threshold is reached. */
+	private OutputStream out;
+
+	/**
+	 * Instantiates a new {@link CompressingResponseStream}.
+	 *
+	 * @param response
+	 *            the response
+	 * @param contentEncoding
+	 *            the content coding accepted by the client
+	 */
+	CompressingResponseStream(HttpServletResponse response, String contentEncoding) {
+		this.response = response;
+		this.contentEncoding = contentEncoding;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (out == null) {
+			pending.write(b, off, len);
+
+			if (!BookStoreCompression.isWorthCompressing(pending.size())) {
+				return;
+			}
+
+			response.setHeader(HttpHeader.CONTENT_ENCODING.asString(), contentEncoding);
+			out = BookStoreCompression.encode(contentEncoding, response.getOutputStream());
+			pending.writeTo(out);
+			pending = null;
+		} else {
+			out.write(b, off, len);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		// Flushing the held back body would commit the response uncompressed.
+		if (out != null) {
+			out.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out != null) {
+			// Writes the end of the coding and releases the deflater.
+			out.close();
+		} else if (pending != null) {
+			response.setContentLength(pending.size());
+			pending.writeTo(response.getOutputStream());
+			pending = null;
+		}
+	}
+}
@@ -0,0 +1,702 @@
+package com.acertainbookstore.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreBinarySerializer} serializes the messages of the bookstore
+ * with a hand-written binary format, without reflection.
+ * <p>
+ * A message starts with the format version and the kind of message: one of
+ * the request sets, a string, an integer, a batch of operations or a
+ * {@link BookStoreResponse}. Integers are zigzag varints
+ * and strings are length-prefixed UTF-8. The sets of requests are sorted by
+ * ISBN and store the difference to the previous ISBN, so the ISBN sets of
+ * getBooks and buyBooks mostly take a byte per book. Lists of responses keep
+ * their order and store the difference to the previous ISBN too.
+ * <p>
+ * Like the other serializers, an instance reuses its buffer and is lent to
+ * one caller at a time by its {@link BookStoreSerializerType}.
+ *
+ * @see BookStoreSerializer
+ */
+public final class BookStoreBinarySerializer implements BookStoreSerializer {
+
+	/** The version of the format, the first byte of a message. */
+	private static final byte FORMAT_VERSION = 1;
+
+	/** The kind of a null message. */
+	private static final byte KIND_NULL = 0;
+
+	/** The kind of a set of ISBNs. */
+	private static final byte KIND_ISBNS = 1;
+
+	/** The kind of a set of {@link BookCopy}. */
+	private static final byte KIND_BOOK_COPIES = 2;
+
+	/** The kind of a set of {@link BookRating}. */
+	private static final byte KIND_BOOK_RATINGS = 3;
+
+	/** The kind of a set of {@link BookEditorPick}. */
+	private static final byte KIND_EDITOR_PICKS = 4;
+
+	/** The kind of a set of {@link StockBook}. */
+	private static final byte KIND_STOCK_BOOKS = 5;
+
+	/** The kind of a {@link BookStoreResponse}. */
+	private static final byte KIND_RESPONSE = 6;
+
+	/** The kind of a string, the empty body of requests without arguments. */
+	private static final byte KIND_STRING = 7;
+
+	/** The kind of a list of {@link BookStoreOperation}. */
+	private static final byte KIND_BATCH = 8;
+
+	/** The kind of an integer, such as the number of books to get. */
+	private static final byte KIND_INTEGER = 9;
+
+	/** The response has no list. */
+	private static final byte LIST_NONE = 0;
+
+	/** The response lists {@link Book} instances. */
+	private static final byte LIST_BOOKS = 1;
+
+	/** The response lists {@link StockBook} instances. */
+	private static final byte LIST_STOCK_BOOKS = 2;
+
+	/** A response with a list of responses, the results of a batch. */
+	private static final byte LIST_RESPONSES = 3;
+
+	/** The buffer messages are encoded into or read into. */
+	private byte[] buffer = new byte[BookStoreSerializerBuffers.INITIAL_BUFFER_SIZE];
+
+	/** The position in {@link #buffer} while encoding, or in the decoded bytes. */
+	private int position;
+
+	/** The bytes being decoded. */
+	private byte[] input;
+
+	/** The end of the bytes being decoded. */
+	private int limit;
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object)
+	 */
+	@Override
+	public byte[] serialize(Object object) throws IOException {
+		encode(object);
+		byte[] bytes = Arrays.copyOf(buffer, position);
+		releaseBuffer();
+		return bytes;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		encode(object);
+		out.write(buffer, 0, position);
+		out.flush();
+		releaseBuffer();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(byte[])
+	 */
+	@Override
+	public Object deserialize(byte[] bytes) throws IOException {
+		return decode(bytes, bytes.length);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) throws IOException {
+		int length = 0;
+		int read;
+
+		while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+			length += read;
+
+			if (length == buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+		}
+
+		try {
+			return decode(buffer, length);
+		} finally {
+			releaseBuffer();
+		}
+	}
+
+	private void releaseBuffer() {
+		buffer = BookStoreSerializerBuffers.retain(buffer, buffer.length, byte[]::new);
+	}
+
+	// Encoding
+
+	private void encode(Object object) throws IOException {
+		position = 0;
+		writeByte(FORMAT_VERSION);
+		writeValue(object);
+	}
+
+	private void writeValue(Object object) throws IOException {
+		if (object == null) {
+			writeByte(KIND_NULL);
+		} else if (object instanceof BookStoreResponse) {
+			writeByte(KIND_RESPONSE);
+			writeResponse((BookStoreResponse) object);
+		} else if (object instanceof Set) {
+			writeSet((Set<?>) object);
+		} else if (object instanceof String) {
+			writeByte(KIND_STRING);
+			writeString((String) object);
+		} else if (object instanceof Integer) {
+			writeByte(KIND_INTEGER);
+			writeZigZag((Integer) object);
+		} else if (object instanceof List) {
+			writeByte(KIND_BATCH);
+			writeBatch((List<?>) object);
+		} else {
+			throw new IOException("Cannot encode " + object.getClass().getName());
+		}
+	}
+
+	private void writeBatch(List<?> operations) throws IOException {
+		writeVarLong(operations.size());
+
+		for (Object element : operations) {
+			if (!(element instanceof BookStoreOperation)) {
+				throw new IOException("Cannot encode a batch with " + element);
+			}
+
+			BookStoreOperation operation = (BookStoreOperation) element;
+			writeString(operation.getMessageTag().name());
+			writeValue(operation.getInputValue());
+		}
+	}
+
+	private void writeSet(Set<?> set) throws IOException {
+		Iterator<?> iterator = set.iterator();
+		Object first = iterator.hasNext() ? iterator.next() : null;
+
+		if (first == null || first instanceof Integer) {
+			writeByte(KIND_ISBNS);
+			List<Integer> isbns = toSortedList(set, Integer.class, Integer::intValue);
+			writeVarLong(isbns.size());
+			long previousISBN = 0;
+
+			// The ISBNs are distinct, so consecutive ones take a zero byte.
+			for (int i = 0; i < isbns.size(); i++) {
+				int isbn = isbns.get(i);
+
+				if (i == 0) {
+					writeZigZag(isbn);
+				} else {
+					writeVarLong(isbn - previousISBN - 1);
+				}
+
+				previousISBN = isbn;
+			}
+		} else if (first instanceof BookCopy) {
+			writeByte(KIND_BOOK_COPIES);
+			List<BookCopy> bookCopies = toSortedList(set, BookCopy.class, BookCopy::getISBN);
+			writeVarLong(bookCopies.size());
+			int previousISBN = 0;
+
+			for (BookCopy bookCopy : bookCopies) {
+				writeISBNDelta(previousISBN, bookCopy.getISBN());
+				writeZigZag(bookCopy.getNumCopies());
+				previousISBN = bookCopy.getISBN();
+			}
+		} else if (first instanceof BookRating) {
+			writeByte(KIND_BOOK_RATINGS);
+			List<BookRating> bookRatings = toSortedList(set, BookRating.class, BookRating::getISBN);
+			writeVarLong(bookRatings.size());
+			int previousISBN = 0;
+
+			for (BookRating bookRating : bookRatings) {
+				writeISBNDelta(previousISBN, bookRating.getISBN());
+				writeZigZag(bookRating.getRating());
+				previousISBN = bookRating.getISBN();
+			}
+		} else if (first instanceof BookEditorPick) {
+			writeByte(KIND_EDITOR_PICKS);
+			List<BookEditorPick> editorPicks = toSortedList(set, BookEditorPick.class, BookEditorPick::getISBN);
+			writeVarLong(editorPicks.size());
+			int previousISBN = 0;
+
+			for (BookEditorPick editorPick : editorPicks) {
+				writeISBNDelta(previousISBN, editorPick.getISBN());
+				writeBoolean(editorPick.isEditorPick());
+				previousISBN = editorPick.getISBN();
+			}
+		} else if (first instanceof StockBook) {
+			writeByte(KIND_STOCK_BOOKS);
+			List<StockBook> books = toSortedList(set, StockBook.class, StockBook::getISBN);
+			writeVarLong(books.size());
+			int previousISBN = 0;
+
+			for (StockBook book : books) {
+				writeISBNDelta(previousISBN, book.getISBN());
+				writeStockBookFields(book);
+				previousISBN = book.getISBN();
+			}
+		} else {
+			throw new IOException("Cannot encode a set of " + first.getClass().getName());
+		}
+	}
+
+	private static <T> List<T> toSortedList(Set<?> set, Class<T> type, ToIntFunction<T> isbn) throws IOException {
+		List<T> list = new ArrayList<>(set.size());
+
+		for (Object element : set) {
+			if (!type.isInstance(element)) {
+				throw new IOException("Cannot encode a mixed set with " + element);
+			}
+
+			list.add(type.cast(element));
+		}
+
+		list.sort(Comparator.comparingInt(isbn));
+		return list;
+	}
+
+	private void writeISBNDelta(int previousISBN, int isbn) {
+		writeZigZag((long) isbn - previousISBN);
+	}
+
+	private void writeResponse(BookStoreResponse response) throws IOException {
+		BookStoreException exception = response.getException();
+		writeBoolean(exception != null);
+
+		if (exception != null) {
+			Throwable cause = exception.getCause();
+			writeString(exception.getMessage());
+			writeString((cause == null) ? null : cause.toString());
+		}
+
+		List<?> list = response.getList();
+
+		if (list == null) {
+			writeByte(LIST_NONE);
+			return;
+		}
+
+		if (!list.isEmpty() && list.get(0) instanceof BookStoreResponse) {
+			writeByte(LIST_RESPONSES);
+			writeVarLong(list.size());
+
+			for (Object element : list) {
+				if (!(element instanceof BookStoreResponse)) {
+					throw new IOException("Cannot encode a list with " + element);
+				}
+
+				writeResponse((BookStoreResponse) element);
+			}
+
+			return;
+		}
+
+		boolean stockBooks = !list.isEmpty();
+
+		for (Object element : list) {
+			if (!(element instanceof Book)) {
+				throw new IOException("Cannot encode a list with " + element);
+			}
+
+			stockBooks &= element instanceof StockBook;
+		}
+
+		writeByte(stockBooks ? LIST_STOCK_BOOKS : LIST_BOOKS);
+		writeVarLong(list.size());
+		int previousISBN = 0;
+
+		// The order of the list is kept, but it is usually sorted or close to it.
+		for (Object element : list) {
+			Book book = (Book) element;
+			writeISBNDelta(previousISBN, book.getISBN());
+			previousISBN = book.getISBN();
+
+			if (stockBooks) {
+				writeStockBookFields((StockBook) book);
+			} else {
+				writeBookFields(book);
+			}
+		}
+	}
+
+	private void writeBookFields(Book book) {
+		writeString(book.getTitle());
+		writeString(book.getAuthor());
+		writeFloat(book.getPrice());
+	}
+
+	private void writeStockBookFields(StockBook book) {
+		writeBookFields(book);
+		writeZigZag(book.getNumCopies());
+		writeZigZag(book.getNumSaleMisses());
+		writeZigZag(book.getNumTimesRated());
+		writeZigZag(book.getTotalRating());
+		writeBoolean(book.isEditorPick());
+	}
+
+	private void require(int numBytes) {
+		if (position + numBytes > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + numBytes));
+		}
+	}
+
+	private void writeByte(int value) {
+		require(1);
+		buffer[position++] = (byte) value;
+	}
+
+	private void writeBoolean(boolean value) {
+		writeByte(value ? 1 : 0);
+	}
+
+	private void writeVarLong(long value) {
+		require(10);
+
+		while ((value & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		buffer[position++] = (byte) value;
+	}
+
+	private void writeZigZag(long value) {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	private void writeFloat(float value) {
+		int bits = Float.floatToIntBits(value);
+		require(4);
+		buffer[position++] = (byte) (bits >>> 24);
+		buffer[position++] = (byte) (bits >>> 16);
+		buffer[position++] = (byte) (bits >>> 8);
+		buffer[position++] = (byte) bits;
+	}
+
+	private void writeString(String value) {
+		// The length is shifted by one so zero stands for null.
+		if (value == null) {
+			writeVarLong(0);
+			return;
+		}
+
+		int length = value.length();
+		boolean ascii = true;
+
+		for (int i = 0; i < length && ascii; i++) {
+			ascii = value.charAt(i) < 0x80;
+		}
+
+		if (ascii) {
+			writeVarLong(length + 1L);
+			require(length);
+
+			for (int i = 0; i < length; i++) {
+				buffer[position++] = (byte) value.charAt(i);
+			}
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(bytes.length + 1L);
+			require(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+	}
+
+	// Decoding
+
+	private Object decode(byte[] bytes, int length) throws IOException {
+		input = bytes;
+		limit = length;
+		position = 0;
+
+		try {
+			if (readByte() != FORMAT_VERSION) {
+				throw new IOException("Unsupported format version");
+			}
+
+			return readValue();
+		} finally {
+			input = null;
+		}
+	}
+
+	private Object readValue() throws IOException {
+		byte kind = readByte();
+
+		switch (kind) {
+		case KIND_NULL:
+			return null;
+
+		case KIND_RESPONSE:
+			return readResponse();
+
+		case KIND_STRING:
+			return readString();
+
+		case KIND_INTEGER:
+			return (int) readZigZag();
+
+		case KIND_ISBNS:
+			return readISBNs();
+
+		case KIND_BOOK_COPIES: {
+			int size = readSize();
+			Set<BookCopy> bookCopies = new HashSet<>(size * 2);
+			int isbn = 0;
+
+			for (int i = 0; i < size; i++) {
+				isbn = readISBNDelta(isbn);
+				bookCopies.add(new BookCopy(isbn, (int) readZigZag()));
+			}
+
+			return bookCopies;
+		}
+
+		case KIND_BOOK_RATINGS: {
+			int size = readSize();
+			Set<BookRating> bookRatings = new HashSet<>(size * 2);
+			int isbn = 0;
+
+			for (int i = 0; i < size; i++) {
+				isbn = readISBNDelta(isbn);
+				bookRatings.add(new BookRating(isbn, (int) readZigZag()));
+			}
+
+			return bookRatings;
+		}
+
+		case KIND_EDITOR_PICKS: {
+			int size = readSize();
+			Set<BookEditorPick> editorPicks = new HashSet<>(size * 2);
+			int isbn = 0;
+
+			for (int i = 0; i < size; i++) {
+				isbn = readISBNDelta(isbn);
+				editorPicks.add(new BookEditorPick(isbn, readBoolean()));
+			}
+
+			return editorPicks;
+		}
+
+		case KIND_STOCK_BOOKS: {
+			int size = readSize();
+			Set<StockBook> books = new HashSet<>(size * 2);
+			int isbn = 0;
+
+			for (int i = 0; i < size; i++) {
+				isbn = readISBNDelta(isbn);
+				books.add(readStockBook(isbn));
+			}
+
+			return books;
+		}
+
+		case KIND_BATCH: {
+			int size = readSize();
+			List<BookStoreOperation> operations = new ArrayList<>(size);
+
+			for (int i = 0; i < size; i++) {
+				BookStoreMessageTag messageTag = readMessageTag();
+				operations.add(new BookStoreOperation(messageTag, readValue()));
+			}
+
+			return operations;
+		}
+
+		default:
+			throw new IOException("Unknown message kind " + kind);
+		}
+	}
+
+	private BookStoreMessageTag readMessageTag() throws IOException {
+		String name = readString();
+
+		try {
+			return BookStoreMessageTag.valueOf(name);
+		} catch (IllegalArgumentException | NullPointerException ex) {
+			throw new IOException("Unknown message tag " + name, ex);
+		}
+	}
+
+	private Set<Integer> readISBNs() throws IOException {
+		int size = readSize();
+		Set<Integer> isbns = new HashSet<>(size * 2);
+
+		if (size > 0) {
+			long isbn = readZigZag();
+			isbns.add((int) isbn);
+
+			for (int i = 1; i < size; i++) {
+				isbn += readVarLong() + 1;
+				isbns.add((int) isbn);
+			}
+		}
+
+		return isbns;
+	}
+
+	private int readISBNDelta(int previousISBN) throws IOException {
+		return (int) (previousISBN + readZigZag());
+	}
+
+	private BookStoreResponse readResponse() throws IOException {
+		BookStoreResponse response = new BookStoreResponse();
+
+		if (readBoolean()) {
+			String message = readString();
+			String cause = readString();
+			response.setException((cause == null) ? new BookStoreException(message)
+					: new BookStoreException(message, new BookStoreException(cause)));
+		}
+
+		byte listKind = readByte();
+
+		if (listKind == LIST_NONE) {
+			return response;
+		}
+
+		int size = readSize();
+
+		if (listKind == LIST_RESPONSES) {
+			List<BookStoreResponse> responses = new ArrayList<>(size);
+
+			for (int i = 0; i < size; i++) {
+				responses.add(readResponse());
+			}
+
+			response.setList(responses);
+			return response;
+		}
+
+		List<Book> books = new ArrayList<>(size);
+		int isbn = 0;
+
+		for (int i = 0; i < size; i++) {
+			isbn = readISBNDelta(isbn);
+
+			if (listKind == LIST_STOCK_BOOKS) {
+				books.add(readStockBook(isbn));
+			} else {
+				books.add(new ImmutableBook(isbn, readString(), readString(), readFloat()));
+			}
+		}
+
+		response.setList(books);
+		return response;
+	}
+
+	private StockBook readStockBook(int isbn) throws IOException {
+		return new ImmutableStockBook(isbn, readString(), readString(), readFloat(), (int) readZigZag(),
+				readZigZag(), readZigZag(), readZigZag(), readBoolean());
+	}
+
+	private int readSize() throws IOException {
+		long size = readVarLong();
+
+		// Every element takes at least a byte, which bounds corrupt sizes.
+		if (size < 0 || size > limit - position) {
+			throw new IOException("Corrupt message size " + size);
+		}
+
+		return (int) size;
+	}
+
+	private byte readByte() throws IOException {
+		if (position >= limit) {
+			throw new IOException("Truncated message");
+		}
+
+		return input[position++];
+	}
+
+	private boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("Corrupt varint");
+	}
+
+	private long readZigZag() throws IOException {
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private float readFloat() throws IOException {
+		int bits = (readByte() & 0xFF) << 24 | (readByte() & 0xFF) << 16 | (readByte() & 0xFF) << 8
+				| (readByte() & 0xFF);
+		return Float.intBitsToFloat(bits);
+	}
+
+	private String readString() throws IOException {
+		long length = readVarLong() - 1;
+
+		if (length < 0) {
+			return null;
+		}
+
+		if (length > limit - position) {
+			throw new IOException("Truncated message");
+		}
+
+		String value = new String(input, position, (int) length, StandardCharsets.UTF_8);
+		position += (int) length;
+		return value;
+	}
+}
@@ -0,0 +1,176 @@
+package com.acertainbookstore.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * {@link BookStoreCompression} implements the content codings with which
+ * clients and server compress large message bodies, as negotiated by the
+ * Content-Encoding and Accept-Encoding headers. Bodies smaller than the
+ * threshold are not worth the time spent compressing them and are sent as
+ * they are.
+ */
+public final class BookStoreCompression {
+
+	/** The gzip content coding. */
+	public static final String GZIP = "gzip";
+
+	/** The deflate content coding, a zlib stream. */
+	public static final String DEFLATE = "deflate";
+
+	/** The content coding of uncompressed bodies. */
+	public static final String IDENTITY = "identity";
+
+	/** The default smallest body which is compressed, in bytes. */
+	private static final int DEFAULT_THRESHOLD = 8 * 1024;
+
+	/** The smallest body which is compressed, or negative if none is. */
+	private static final int THRESHOLD = Integer.getInteger(BookStoreConstants.PROPERTY_KEY_COMPRESSION_THRESHOLD,
+			DEFAULT_THRESHOLD);
+
+	/**
+	 * Prevents the instantiation of a new {@link BookStoreCompression}.
+	 */
+	private BookStoreCompression() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Gets the smallest body which is compressed, chosen with the
+	 * compressionthreshold property.
+	 *
+	 * @return the threshold in bytes, or a negative value if compression is
+	 *         disabled
+	 */
+	public static int getThreshold() {
+		return THRESHOLD;
+	}
+
+	/**
+	 * Checks whether a body of the given size should be compressed.
+	 *
+	 * @param size
+	 *            the size of the body in bytes
+	 * @return true if the body should be compressed
+	 */
+	public static boolean isWorthCompressing(long size) {
+		return THRESHOLD >= 0 && size >= THRESHOLD;
+	}
+
+	/**
+	 * Chooses the content coding of a response from the Accept-Encoding header
+	 * of the request, preferring gzip.
+	 *
+	 * @param acceptEncoding
+	 *            the value of the Accept-Encoding header
+	 * @return the content coding, or null if the client accepts none
+	 */
+	public static String negotiate(String acceptEncoding) {
+		if (acceptEncoding == null || THRESHOLD < 0) {
+			return null;
+		}
+
+		boolean deflate = false;
+
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parameters = coding.split(";");
+			String name = parameters[0].trim();
+
+			// A quality of zero refuses the coding.
+			if (parameters.length > 1 && parameters[1].trim().matches("q=0(\\.0*)?")) {
+				continue;
+			}
+
+			if (GZIP.equalsIgnoreCase(name)) {
+				return GZIP;
+			}
+
+			deflate |= DEFLATE.equalsIgnoreCase(name);
+		}
+
+		return deflate ? DEFLATE : null;
+	}
+
+	/**
+	 * Checks whether a body with the given Content-Encoding can be decoded.
+	 *
+	 * @param contentEncoding
+	 *            the value of the Content-Encoding header, or null
+	 * @return true if the content coding is supported
+	 */
+	public static boolean isSupported(String contentEncoding) {
+		return contentEncoding == null || IDENTITY.equalsIgnoreCase(contentEncoding)
+				|| GZIP.equalsIgnoreCase(contentEncoding) || DEFLATE.equalsIgnoreCase(contentEncoding);
+	}
+
+	/**
+	 * Wraps the stream of a body to decode its content coding.
+	 *
+	 * @param contentEncoding
+	 *            the value of the Content-Encoding header, or null
+	 * @param in
+	 *            the body
+	 * @return the decoded body
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static InputStream decode(String contentEncoding, InputStream in) throws IOException {
+		if (GZIP.equalsIgnoreCase(contentEncoding)) {
+			return new GZIPInputStream(in);
+		} else if (DEFLATE.equalsIgnoreCase(contentEncoding)) {
+			return new InflaterInputStream(in);
+		}
+
+		return in;
+	}
+
+	/**
+	 * Wraps the stream of a body to encode it with a content coding. The
+	 * returned stream must be closed, or finished, to write the end of the
+	 * coding.
+	 *
+	 * @param contentEncoding
+	 *            the content coding, gzip or deflate
+	 * @param out
+	 *            the body
+	 * @return the stream to write the body to
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static DeflaterOutputStream encode(String contentEncoding, OutputStream out) throws IOException {
+		if (GZIP.equalsIgnoreCase(contentEncoding)) {
+			return new GZIPOutputStream(out);
+		} else if (DEFLATE.equalsIgnoreCase(contentEncoding)) {
+			return new DeflaterOutputStream(out);
+		}
+
+		throw new IOException("Unsupported content coding " + contentEncoding);
+	}
+
+	/**
+	 * Compresses a body with a content coding.
+	 *
+	 * @param contentEncoding
+	 *            the content coding, gzip or deflate
+	 * @param bytes
+	 *            the body
+	 * @return the compressed body
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static byte[] compress(String contentEncoding, byte[] bytes) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+
+		try (DeflaterOutputStream out = encode(contentEncoding, compressed)) {
+			out.write(bytes);
+		}
+
+		return compressed.toByteArray();
+	}
+}
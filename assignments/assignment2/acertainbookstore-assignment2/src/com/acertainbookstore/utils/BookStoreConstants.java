@@ -7,7 +7,8 @@ package com.acertainbookstore.utils;
 public final class BookStoreConstants {
 
 	/**
-	 * The Constant BINARY_SERIALIZATION decides whether we use Kryo or XStream.
+	 * The Constant BINARY_SERIALIZATION decides whether we use Kryo or XStream,
+	 * unless a serializer is chosen at runtime with PROPERTY_KEY_SERIALIZER.
 	 */
 	public static final boolean BINARY_SERIALIZATION = true;
 
@@ -19,6 +20,9 @@ public final class BookStoreConstants {
 	/** The Constant BOOK_NUM_PARAM. */
 	public static final String BOOK_NUM_PARAM = "number_of_books";
 
+	/** The Constant REGISTRY_HEADER carrying the fingerprint of the Kryo registry. */
+	public static final String REGISTRY_HEADER = "X-BookStore-Kryo-Registry";
+
 	/** The Constant XMLSTRINGLEN_PARAM. */
 	public static final String XMLSTRINGLEN_PARAM = "len";
 
@@ -39,12 +43,21 @@ public final class BookStoreConstants {
 	/** The Constant NOT_AVAILABLE when the book is not in the store. */
 	public static final String NOT_AVAILABLE = " is not available";
 
+	/** The Constant LOCK_TIMEOUT when the book could not be locked in time. */
+	public static final String LOCK_TIMEOUT = " could not be locked in time, request aborted";
+
+	/** The Constant LOCK_INTERRUPTED when the wait for a lock was interrupted. */
+	public static final String LOCK_INTERRUPTED = " could not be locked, the request was interrupted";
+
 	/** The Constant BOOK. */
 	public static final String BOOK = "The Book: ";
 
 	/** The Constant ISBN. */
 	public static final String ISBN = "The ISBN: ";
 
+	/** The Constant CATALOG. */
+	public static final String CATALOG = "The catalog";
+
 	/** The Constant NUM_COPIES. */
 	public static final String NUM_COPIES = "The Number of copies: ";
 
@@ -54,15 +67,75 @@ public final class BookStoreConstants {
 	/** The Constant NULL_INPUT. */
 	public static final String NULL_INPUT = "null input parameters";
 
+	/** The Constant REGISTRY_MISMATCH when client and server encode differently. */
+	public static final String REGISTRY_MISMATCH = "The Kryo registries of client and server do not match";
+
+	/** The Constant BATCH_UNSUPPORTED_OPERATION when a message cannot be batched. */
+	public static final String BATCH_UNSUPPORTED_OPERATION = " cannot be part of a batch";
+
+	/** The Constant INVALID_MESSAGE_VALUE when a message carries the wrong value. */
+	public static final String INVALID_MESSAGE_VALUE = "Invalid value for the message ";
+
+	/** The Constant UNSUPPORTED_MESSAGE_TAG when the server has no handler for a message. */
+	public static final String UNSUPPORTED_MESSAGE_TAG = "The server does not support the message ";
+
+	/** The Constant UNSUPPORTED_MEDIA_TYPE when the server cannot decode a request. */
+	public static final String UNSUPPORTED_MEDIA_TYPE = "The server does not support the media type ";
+
+	/** The Constant HTTP_STATUS when the server answers without a response. */
+	public static final String HTTP_STATUS = "The server answered with the HTTP status ";
+
+	/** The Constant LOG_FAILURE when a request could not be logged. */
+	public static final String LOG_FAILURE = "The request could not be written to the log";
+
 	/** The Constant PROPERTY_KEY_LOCAL_TEST. */
 	public static final String PROPERTY_KEY_LOCAL_TEST = "localtest";
 	
 	/** The Constant PROPERTY_KEY_SINGLE_LOCK. */
 	public static final String PROPERTY_KEY_SINGLE_LOCK = "singlelock";
 
+	/** The Constant PROPERTY_KEY_MULTI_VERSION. */
+	public static final String PROPERTY_KEY_MULTI_VERSION = "multiversion";
+
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
+	/** The Constant PROPERTY_KEY_SERIALIZER, one of BookStoreSerializerType. */
+	public static final String PROPERTY_KEY_SERIALIZER = "serializer";
+
+	/** The Constant PROPERTY_KEY_LOG_FILE, the write-ahead log of the server. */
+	public static final String PROPERTY_KEY_LOG_FILE = "logfile";
+
+	/** The Constant PROPERTY_KEY_LOG_FLUSH, the flush policy of the log. */
+	public static final String PROPERTY_KEY_LOG_FLUSH = "logflush";
+
+	/** The Constant PROPERTY_KEY_LOG_FLUSH_INTERVAL, in milliseconds. */
+	public static final String PROPERTY_KEY_LOG_FLUSH_INTERVAL = "logflushinterval";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT_FILE, the snapshot of the server. */
+	public static final String PROPERTY_KEY_CHECKPOINT_FILE = "checkpointfile";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT_INTERVAL, in milliseconds. */
+	public static final String PROPERTY_KEY_CHECKPOINT_INTERVAL = "checkpointinterval";
+
+	/** The Constant PROPERTY_KEY_COMPRESSION_THRESHOLD, in bytes, negative to disable. */
+	public static final String PROPERTY_KEY_COMPRESSION_THRESHOLD = "compressionthreshold";
+
+	/** The Constant PROPERTY_KEY_BATCH_WINDOW, in microseconds, to batch small client calls. */
+	public static final String PROPERTY_KEY_BATCH_WINDOW = "batchwindow";
+
+	/** The Constant PROPERTY_KEY_HTTP2 to talk HTTP/2 without TLS (h2c). */
+	public static final String PROPERTY_KEY_HTTP2 = "http2";
+
+	/** The Constant PROPERTY_KEY_RPC_PORT of the binary RPC transport of the server. */
+	public static final String PROPERTY_KEY_RPC_PORT = "rpcport";
+
+	/** The Constant PROPERTY_KEY_MAX_THREADS of the thread pool of the server. */
+	public static final String PROPERTY_KEY_MAX_THREADS = "maxthreads";
+
+	/** The Constant PROPERTY_KEY_VIRTUAL_THREADS to handle the requests on virtual threads. */
+	public static final String PROPERTY_KEY_VIRTUAL_THREADS = "virtualthreads";
+
 	/** The Constant EPSILON used for floating point number comparison */
 	public static final float EPSILON = 0.000001F;
 
@@ -0,0 +1,498 @@
+package com.acertainbookstore.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.GoAwayFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.Promise;
+
+import com.acertainbookstore.client.BookStoreClientConstants;
+
+/**
+ * {@link BookStoreHTTP2Client} performs the HTTP exchanges of the proxies over
+ * HTTP/2 without TLS (h2c), knowing beforehand that the server speaks it.
+ * <p>
+ * All the requests to a server are streams of a single connection, so
+ * concurrent requests neither wait for the responses of the others nor need a
+ * connection and a thread each. Beyond
+ * {@link BookStoreClientConstants#CLIENT_MAX_CONCURRENT_STREAMS} streams, the
+ * requests to a server wait in a queue. The messages are the same as over
+ * HTTP/1.1, including the negotiation of the serializer and the compression.
+ * <p>
+ * When the connection is closed or fails, the requests in flight on it fail,
+ * so that their streams are handed to the waiting requests, which open a new
+ * connection.
+ *
+ * @see BookStoreUtility#performHttpExchange
+ */
+public final class BookStoreHTTP2Client {
+
+	/** The HTTP/2 client. */
+	private final HTTP2Client client;
+
+	/** The destinations, by host and port. */
+	private final ConcurrentMap<String, Destination> destinations = new ConcurrentHashMap<>();
+
+	/**
+	 * Instantiates and starts a new {@link BookStoreHTTP2Client}.
+	 *
+	 * @param executor
+	 *            the threads running the callbacks, not stopped with the
+	 *            client if already started
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTP2Client(Executor executor) throws Exception {
+		client = new HTTP2Client();
+		client.setExecutor(executor);
+
+		// Seconds timeout; if no server reply, the request expires.
+		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+
+		client.start();
+	}
+
+	/**
+	 * Performs an HTTP exchange, waiting for the response at most
+	 * {@link BookStoreClientConstants#CLIENT_MAX_TIMEOUT_MILLISECS}.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializerType
+	 *            the serializer type of the request, also asked for the
+	 *            response
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResponse performHttpExchange(BookStoreRequest bookStoreRequest,
+			BookStoreSerializerType serializerType) throws BookStoreException {
+		try {
+			return performHttpExchangeAsync(bookStoreRequest, serializerType)
+					.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (InterruptedException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof BookStoreException) {
+				throw (BookStoreException) ex.getCause();
+			}
+
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex.getCause());
+		}
+	}
+
+	/**
+	 * Performs an HTTP exchange without waiting for the response. The future
+	 * is completed by a thread of the client, or completed exceptionally with
+	 * a {@link BookStoreException}.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializerType
+	 *            the serializer type of the request, also asked for the
+	 *            response
+	 * @return the future book store response
+	 */
+	public CompletableFuture<BookStoreResponse> performHttpExchangeAsync(BookStoreRequest bookStoreRequest,
+			BookStoreSerializerType serializerType) {
+		CompletableFuture<BookStoreResponse> future = new CompletableFuture<>();
+		HttpURI uri = new HttpURI(bookStoreRequest.getURLString());
+		HttpFields fields = new HttpFields();
+		byte[] content = null;
+
+		fields.put(HttpHeader.ACCEPT, serializerType.getMediaType());
+		fields.put(HttpHeader.ACCEPT_ENCODING, BookStoreCompression.GZIP);
+
+		if (serializerType == BookStoreSerializerType.KRYO) {
+			fields.put(BookStoreConstants.REGISTRY_HEADER, BookStoreKryoRegistry.getFingerprint());
+		}
+
+		if (bookStoreRequest.getMethod() == HttpMethod.POST) {
+			try {
+				content = BookStoreUtility.serializeContent(bookStoreRequest.getInputValue(), serializerType);
+
+				if (BookStoreCompression.isWorthCompressing(content.length)) {
+					content = BookStoreUtility.compressContent(content);
+					fields.put(HttpHeader.CONTENT_ENCODING, BookStoreCompression.GZIP);
+				}
+			} catch (BookStoreException ex) {
+				future.completeExceptionally(ex);
+				return future;
+			}
+
+			fields.put(HttpHeader.CONTENT_TYPE, serializerType.getMediaType());
+		}
+
+		MetaData.Request metaData = new MetaData.Request(bookStoreRequest.getMethod().asString(), uri,
+				HttpVersion.HTTP_2, fields);
+		int port = (uri.getPort() < 0) ? 80 : uri.getPort();
+		Destination destination = destinations.computeIfAbsent(uri.getHost() + ":" + port,
+				key -> new Destination(new InetSocketAddress(uri.getHost(), port)));
+		destination.send(new Exchange(destination, metaData, content, serializerType, future));
+		return future;
+	}
+
+	/**
+	 * Stops the client. Requests still in flight fail.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	public void stop() throws Exception {
+		client.stop();
+	}
+
+	/**
+	 * {@link Destination} is the connection to a server, opened on the first
+	 * request and again after it is closed, and the requests waiting for one
+	 * of its streams.
+	 */
+	private final class Destination {
+
+		/** The address of the server. */
+		private final InetSocketAddress address;
+
+		/** The connection, or null before the first request. */
+		private Connection connection = null;
+
+		/** The number of streams in flight. */
+		private int activeStreams = 0;
+
+		/** The requests waiting for a stream. */
+		private final Queue<Exchange> pending = new ArrayDeque<>();
+
+		private Destination(InetSocketAddress address) {
+			this.address = address;
+		}
+
+		/**
+		 * Sends a request, or queues it if all the streams are in flight.
+		 *
+		 * @param exchange
+		 *            the exchange of the request
+		 */
+		private void send(Exchange exchange) {
+			synchronized (this) {
+				if (activeStreams >= BookStoreClientConstants.CLIENT_MAX_CONCURRENT_STREAMS) {
+					pending.add(exchange);
+					return;
+				}
+
+				activeStreams++;
+			}
+
+			start(exchange);
+		}
+
+		/**
+		 * Hands the stream of a completed exchange to the next request.
+		 */
+		private void release() {
+			Exchange next;
+
+			synchronized (this) {
+				next = pending.poll();
+
+				if (next == null) {
+					activeStreams--;
+				}
+			}
+
+			if (next != null) {
+				start(next);
+			}
+		}
+
+		private synchronized Connection getConnection() {
+			if (connection == null || connection.isClosed()) {
+				connection = new Connection();
+				client.connect(address, connection, connection.session);
+			}
+
+			return connection;
+		}
+
+		private void start(Exchange exchange) {
+			Connection started = getConnection();
+
+			started.session.whenComplete((connected, failure) -> {
+				if (failure != null) {
+					exchange.fail(new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION,
+							failure));
+				} else if (started.add(exchange)) {
+					connected.newStream(new HeadersFrame(exchange.metaData, null, exchange.content == null), exchange,
+							exchange);
+				}
+			});
+		}
+	}
+
+	/**
+	 * {@link Connection} is a connection to a server and the exchanges in
+	 * flight on it, which fail when it is closed or fails.
+	 */
+	private static final class Connection extends Session.Listener.Adapter {
+
+		/** The session, once connected. */
+		private final Promise.Completable<Session> session = new Promise.Completable<>();
+
+		/** The exchanges in flight. */
+		private final Set<Exchange> exchanges = ConcurrentHashMap.newKeySet();
+
+		/** The failure which closed the connection, or null while it is open. */
+		private volatile Throwable closure = null;
+
+		private boolean isClosed() {
+			return closure != null || session.isCompletedExceptionally()
+					|| (session.isDone() && session.join().isClosed());
+		}
+
+		/**
+		 * Adds an exchange about to open a stream.
+		 *
+		 * @param exchange
+		 *            the exchange
+		 * @return true, if the connection is still open; false, if it was
+		 *         closed and the exchange failed
+		 */
+		private boolean add(Exchange exchange) {
+			exchange.connection = this;
+			exchanges.add(exchange);
+
+			// The connection may have been closed before the exchange was added.
+			if (closure != null) {
+				exchange.fail(new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION,
+						closure));
+				return false;
+			}
+
+			return true;
+		}
+
+		private void remove(Exchange exchange) {
+			exchanges.remove(exchange);
+		}
+
+		@Override
+		public void onClose(Session session, GoAwayFrame frame) {
+			close(new IOException("Connection closed: " + frame));
+		}
+
+		@Override
+		public void onFailure(Session session, Throwable failure) {
+			close(failure);
+		}
+
+		private void close(Throwable failure) {
+			if (closure == null) {
+				closure = failure;
+			}
+
+			for (Exchange exchange : exchanges) {
+				exchange.fail(new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION,
+						failure));
+			}
+		}
+	}
+
+	/**
+	 * {@link Exchange} sends a request on its stream and collects the
+	 * response.
+	 */
+	private static final class Exchange extends Stream.Listener.Adapter implements Promise<Stream> {
+
+		/** The attempts of a request whose streams the server refuses. */
+		private static final int MAX_ATTEMPTS = 5;
+
+		/** The destination of the request. */
+		private final Destination destination;
+
+		/** The headers of the request. */
+		private final MetaData.Request metaData;
+
+		/** The body of the request, or null if it has none. */
+		private final byte[] content;
+
+		/** The serializer type of the request. */
+		private final BookStoreSerializerType serializerType;
+
+		/** The future response. */
+		private final CompletableFuture<BookStoreResponse> future;
+
+		/** Whether the exchange is over, so that it is completed once. */
+		private final AtomicBoolean completed = new AtomicBoolean();
+
+		/** The body of the response. */
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		/** The headers of the response. */
+		private MetaData.Response response = null;
+
+		/** The connection of the stream, once it is being opened. */
+		private volatile Connection connection = null;
+
+		/** The attempt of the request, from 1. */
+		private final int attempt;
+
+		private Exchange(Destination destination, MetaData.Request metaData, byte[] content,
+				BookStoreSerializerType serializerType, CompletableFuture<BookStoreResponse> future) {
+			this(destination, metaData, content, serializerType, future, 1);
+		}
+
+		private Exchange(Destination destination, MetaData.Request metaData, byte[] content,
+				BookStoreSerializerType serializerType, CompletableFuture<BookStoreResponse> future, int attempt) {
+			this.destination = destination;
+			this.metaData = metaData;
+			this.content = content;
+			this.serializerType = serializerType;
+			this.future = future;
+			this.attempt = attempt;
+		}
+
+		@Override
+		public void succeeded(Stream stream) {
+			stream.setIdleTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+
+			if (content != null) {
+				stream.data(new DataFrame(stream.getId(), ByteBuffer.wrap(content), true), Callback.NOOP);
+			}
+		}
+
+		@Override
+		public void failed(Throwable failure) {
+			fail(new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, failure));
+		}
+
+		@Override
+		public void onHeaders(Stream stream, HeadersFrame frame) {
+			if (frame.getMetaData() instanceof MetaData.Response) {
+				response = (MetaData.Response) frame.getMetaData();
+			}
+
+			if (frame.isEndStream()) {
+				complete();
+			}
+		}
+
+		@Override
+		public void onData(Stream stream, DataFrame frame, Callback callback) {
+			ByteBuffer data = frame.getData();
+			byte[] bytes = new byte[data.remaining()];
+			data.get(bytes);
+			body.write(bytes, 0, bytes.length);
+
+			// Gives the bytes back to the flow control window of the stream.
+			callback.succeeded();
+
+			if (frame.isEndStream()) {
+				complete();
+			}
+		}
+
+		@Override
+		public void onReset(Stream stream, ResetFrame frame) {
+			// A refused stream was not processed, so its request can be sent
+			// again, for example when the server saw the stream before the
+			// end of a previous one.
+			if (frame.getError() == ErrorCode.REFUSED_STREAM_ERROR.code && attempt < MAX_ATTEMPTS
+					&& completed.compareAndSet(false, true)) {
+				finish();
+				destination.send(new Exchange(destination, metaData, content, serializerType, future, attempt + 1));
+				return;
+			}
+
+			fail(new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION,
+					new IOException("Stream reset with error " + frame.getError())));
+		}
+
+		@Override
+		public boolean onIdleTimeout(Stream stream, Throwable failure) {
+			fail(new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, failure));
+			return true;
+		}
+
+		private void complete() {
+			if (!completed.compareAndSet(false, true)) {
+				return;
+			}
+
+			finish();
+
+			if (response == null) {
+				future.completeExceptionally(
+						new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_RESPONSE_DECODING));
+				return;
+			}
+
+			try {
+				byte[] bytes = body.toByteArray();
+				String contentEncoding = response.getFields().get(HttpHeader.CONTENT_ENCODING);
+
+				if (contentEncoding != null) {
+					try (InputStream in = BookStoreCompression.decode(contentEncoding,
+							new ByteArrayInputStream(bytes))) {
+						bytes = in.readAllBytes();
+					}
+				}
+
+				future.complete(BookStoreUtility.readHttpResponse(response.getStatus(), response.getFields(), bytes,
+						serializerType));
+			} catch (BookStoreException ex) {
+				future.completeExceptionally(ex);
+			} catch (IOException | RuntimeException ex) {
+				// A failure escaping into the client would leave the future pending.
+				future.completeExceptionally(
+						new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_RESPONSE_DECODING, ex));
+			}
+		}
+
+		private void fail(BookStoreException exception) {
+			if (completed.compareAndSet(false, true)) {
+				finish();
+				future.completeExceptionally(exception);
+			}
+		}
+
+		/**
+		 * Leaves the connection and hands the stream to the next request.
+		 */
+		private void finish() {
+			if (connection != null) {
+				connection.remove(this);
+			}
+
+			destination.release();
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package com.acertainbookstore.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * {@link BookStoreKryoRegistry} declares the classes sent between the clients
+ * and the server when Kryo is used. Each class is registered with a stable ID,
+ * so it is written as a small integer instead of its class name, and the
+ * business classes are written field by field by hand-written serializers.
+ * <p>
+ * The IDs are part of the wire format: never reuse or reorder them, only
+ * append. Both ends exchange the {@link #getFingerprint() fingerprint} of the
+ * table and refuse to talk if it differs. Classes missing from the table still
+ * work, but are written with their class name.
+ */
+public final class BookStoreKryoRegistry {
+
+	/**
+	 * {@link Registration} is an entry of the table.
+	 */
+	private static final class Registration {
+
+		private final int id;
+
+		private final Class<?> type;
+
+		private final Serializer<?> serializer;
+
+		private Registration(int id, Class<?> type, Serializer<?> serializer) {
+			this.id = id;
+			this.type = type;
+			this.serializer = serializer;
+		}
+	}
+
+	/** The table, IDs below 10 are taken by the primitives and strings. */
+	private static final List<Registration> REGISTRATIONS = new ArrayList<>();
+
+	static {
+		REGISTRATIONS.add(new Registration(10, ArrayList.class, null));
+		REGISTRATIONS.add(new Registration(11, HashSet.class, null));
+		REGISTRATIONS.add(new Registration(12, BookStoreResponse.class, new BookStoreResponseSerializer()));
+		REGISTRATIONS.add(new Registration(13, BookStoreException.class, new BookStoreExceptionSerializer()));
+		REGISTRATIONS.add(new Registration(14, ImmutableBook.class, new ImmutableBookSerializer()));
+		REGISTRATIONS.add(new Registration(15, ImmutableStockBook.class, new ImmutableStockBookSerializer()));
+		REGISTRATIONS.add(new Registration(16, BookCopy.class, new BookCopySerializer()));
+		REGISTRATIONS.add(new Registration(17, BookRating.class, new BookRatingSerializer()));
+		REGISTRATIONS.add(new Registration(18, BookEditorPick.class, new BookEditorPickSerializer()));
+		REGISTRATIONS.add(new Registration(19, BookStoreOperation.class, new BookStoreOperationSerializer()));
+	}
+
+	/** The fingerprint of the table. */
+	private static final String FINGERPRINT = computeFingerprint();
+
+	/**
+	 * Prevents the instantiation of a new {@link BookStoreKryoRegistry}.
+	 */
+	private BookStoreKryoRegistry() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Registers the classes of the table.
+	 *
+	 * @param kryo
+	 *            the Kryo instance
+	 */
+	static void registerAll(Kryo kryo) {
+		// Messages hold no shared or cyclic references, so do not track them.
+		kryo.setReferences(false);
+
+		for (Registration registration : REGISTRATIONS) {
+			if (registration.serializer == null) {
+				kryo.register(registration.type, registration.id);
+			} else {
+				kryo.register(registration.type, registration.serializer, registration.id);
+			}
+		}
+	}
+
+	/**
+	 * Gets the fingerprint of the table, which changes whenever a class, its
+	 * ID or its serializer changes.
+	 *
+	 * @return the fingerprint
+	 */
+	public static String getFingerprint() {
+		return FINGERPRINT;
+	}
+
+	private static String computeFingerprint() {
+		StringBuilder table = new StringBuilder("references=false");
+
+		for (Registration registration : REGISTRATIONS) {
+			table.append(';').append(registration.id).append('=').append(registration.type.getName());
+
+			if (registration.serializer != null) {
+				table.append('/').append(registration.serializer.getClass().getSimpleName());
+			}
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(table.toString().getBytes(StandardCharsets.UTF_8));
+		return Long.toHexString(crc.getValue());
+	}
+
+	/**
+	 * Writes a {@link BookStoreResponse} as its exception and its list.
+	 */
+	private static final class BookStoreResponseSerializer extends Serializer<BookStoreResponse> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookStoreResponse response) {
+			kryo.writeObjectOrNull(output, response.getException(), BookStoreException.class);
+			kryo.writeClassAndObject(output, response.getList());
+		}
+
+		@Override
+		public BookStoreResponse read(Kryo kryo, Input input, Class<BookStoreResponse> type) {
+			BookStoreResponse response = new BookStoreResponse();
+			response.setException(kryo.readObjectOrNull(input, BookStoreException.class));
+			response.setList((List<?>) kryo.readClassAndObject(input));
+			return response;
+		}
+	}
+
+	/**
+	 * Writes a {@link BookStoreOperation} as the name of its message tag and
+	 * its input value.
+	 */
+	private static final class BookStoreOperationSerializer extends Serializer<BookStoreOperation> {
+
+		private BookStoreOperationSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, BookStoreOperation operation) {
+			output.writeString(operation.getMessageTag().name());
+			kryo.writeClassAndObject(output, operation.getInputValue());
+		}
+
+		@Override
+		public BookStoreOperation read(Kryo kryo, Input input, Class<BookStoreOperation> type) {
+			BookStoreMessageTag messageTag = BookStoreMessageTag.valueOf(input.readString());
+			return new BookStoreOperation(messageTag, kryo.readClassAndObject(input));
+		}
+	}
+
+	/**
+	 * Writes a {@link BookStoreException} as its message and a description of
+	 * its cause. The stack trace of the server is of no use to the client and
+	 * is not sent.
+	 */
+	private static final class BookStoreExceptionSerializer extends Serializer<BookStoreException> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookStoreException exception) {
+			Throwable cause = exception.getCause();
+			output.writeString(exception.getMessage());
+			output.writeString((cause == null) ? null : cause.toString());
+		}
+
+		@Override
+		public BookStoreException read(Kryo kryo, Input input, Class<BookStoreException> type) {
+			String message = input.readString();
+			String cause = input.readString();
+			return (cause == null) ? new BookStoreException(message)
+					: new BookStoreException(message, new BookStoreException(cause));
+		}
+	}
+
+	/**
+	 * Writes an {@link ImmutableBook} field by field.
+	 */
+	private static final class ImmutableBookSerializer extends Serializer<ImmutableBook> {
+
+		private ImmutableBookSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, ImmutableBook book) {
+			output.writeInt(book.getISBN(), false);
+			output.writeString(book.getTitle());
+			output.writeString(book.getAuthor());
+			output.writeFloat(book.getPrice());
+		}
+
+		@Override
+		public ImmutableBook read(Kryo kryo, Input input, Class<ImmutableBook> type) {
+			return new ImmutableBook(input.readInt(false), input.readString(), input.readString(), input.readFloat());
+		}
+	}
+
+	/**
+	 * Writes an {@link ImmutableStockBook} field by field.
+	 */
+	private static final class ImmutableStockBookSerializer extends Serializer<ImmutableStockBook> {
+
+		private ImmutableStockBookSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, ImmutableStockBook book) {
+			output.writeInt(book.getISBN(), false);
+			output.writeString(book.getTitle());
+			output.writeString(book.getAuthor());
+			output.writeFloat(book.getPrice());
+			output.writeInt(book.getNumCopies(), false);
+			output.writeLong(book.getNumSaleMisses(), false);
+			output.writeLong(book.getNumTimesRated(), false);
+			output.writeLong(book.getTotalRating(), false);
+			output.writeBoolean(book.isEditorPick());
+		}
+
+		@Override
+		public ImmutableStockBook read(Kryo kryo, Input input, Class<ImmutableStockBook> type) {
+			return new ImmutableStockBook(input.readInt(false), input.readString(), input.readString(),
+					input.readFloat(), input.readInt(false), input.readLong(false), input.readLong(false),
+					input.readLong(false), input.readBoolean());
+		}
+	}
+
+	/**
+	 * Writes a {@link BookCopy} field by field.
+	 */
+	private static final class BookCopySerializer extends Serializer<BookCopy> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookCopy bookCopy) {
+			output.writeInt(bookCopy.getISBN(), false);
+			output.writeInt(bookCopy.getNumCopies(), false);
+		}
+
+		@Override
+		public BookCopy read(Kryo kryo, Input input, Class<BookCopy> type) {
+			return new BookCopy(input.readInt(false), input.readInt(false));
+		}
+	}
+
+	/**
+	 * Writes a {@link BookRating} field by field.
+	 */
+	private static final class BookRatingSerializer extends Serializer<BookRating> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookRating bookRating) {
+			output.writeInt(bookRating.getISBN(), false);
+			output.writeInt(bookRating.getRating(), false);
+		}
+
+		@Override
+		public BookRating read(Kryo kryo, Input input, Class<BookRating> type) {
+			return new BookRating(input.readInt(false), input.readInt(false));
+		}
+	}
+
+	/**
+	 * Writes a {@link BookEditorPick} field by field.
+	 */
+	private static final class BookEditorPickSerializer extends Serializer<BookEditorPick> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookEditorPick editorPick) {
+			output.writeInt(editorPick.getISBN(), false);
+			output.writeBoolean(editorPick.isEditorPick());
+		}
+
+		@Override
+		public BookEditorPick read(Kryo kryo, Input input, Class<BookEditorPick> type) {
+			return new BookEditorPick(input.readInt(false), input.readBoolean());
+		}
+	}
+}
@@ -1,10 +1,8 @@
 package com.acertainbookstore.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import com.acertainbookstore.business.ImmutableStockBook;
+import java.io.OutputStream;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
@@ -14,21 +12,44 @@ import org.objenesis.strategy.StdInstantiatorStrategy;
 /**
  * {@link BookStoreKryoSerializer} serializes objects to arrays of bytes
  * representing strings using the Kryo library.
+ * <p>
+ * Like the Kryo instance it wraps, a serializer is not thread-safe and is lent
+ * to one caller at a time by its type. It reuses its buffers across calls, so a round trip only
+ * allocates the encoded message and the decoded objects. The classes on the
+ * wire are registered by {@link BookStoreKryoRegistry}.
  * 
  * @see BookStoreSerializer
  */
 public final class BookStoreKryoSerializer implements BookStoreSerializer {
 
+	/** The size of the buffers reused by the streaming methods. */
+	private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+	/** Releases the last decoded message from {@link #input}. */
+	private static final byte[] NO_BYTES = new byte[0];
+
 	/** The binary stream. */
 	private final Kryo binaryStream;
 
+	/** Encodes the messages of serialize, reused across calls. */
+	private Output output = new Output(BookStoreSerializerBuffers.INITIAL_BUFFER_SIZE, -1);
+
+	/** Decodes the messages of deserialize in place, reused across calls. */
+	private final Input input = new Input(NO_BYTES);
+
+	/** Buffers the streamed output, reused across calls. */
+	private final Output streamOutput = new Output(STREAM_BUFFER_SIZE);
+
+	/** Buffers the streamed input, reused across calls. */
+	private final Input streamInput = new Input(STREAM_BUFFER_SIZE);
+
 	/**
 	 * Instantiates a new {@link BookStoreKryoSerializer}.
 	 */
 	public BookStoreKryoSerializer() {
 		binaryStream = new Kryo();
 		binaryStream.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
-		binaryStream.register(ImmutableStockBook.class);
+		BookStoreKryoRegistry.registerAll(binaryStream);
 	}
 
 	/*
@@ -40,11 +61,11 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public byte[] serialize(Object object) throws IOException {
-		try (ByteArrayOutputStream outStream = new ByteArrayOutputStream(); Output out = new Output(outStream)) {
-			binaryStream.writeClassAndObject(out, object);
-			out.flush();
-			return outStream.toByteArray();
-		}
+		output.clear();
+		binaryStream.writeClassAndObject(output, object);
+		byte[] bytes = output.toBytes();
+		output = BookStoreSerializerBuffers.retain(output, output.getBuffer().length, size -> new Output(size, -1));
+		return bytes;
 	}
 
 	/*
@@ -54,8 +75,51 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public Object deserialize(byte[] bytes) throws IOException {
-		try (InputStream inStream = new ByteArrayInputStream(bytes); Input in = new Input(inStream)) {
-			return binaryStream.readClassAndObject(in);
+		input.setBuffer(bytes);
+
+		try {
+			return binaryStream.readClassAndObject(input);
+		} finally {
+			input.setBuffer(NO_BYTES);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		// The buffer is written to the stream whenever it fills up.
+		streamOutput.setOutputStream(out);
+
+		try {
+			binaryStream.writeClassAndObject(streamOutput, object);
+			streamOutput.flush();
+		} finally {
+			streamOutput.setOutputStream(null);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) throws IOException {
+		// The buffer is refilled from the stream whenever it runs dry.
+		streamInput.setInputStream(in);
+
+		try {
+			return binaryStream.readClassAndObject(streamInput);
+		} finally {
+			streamInput.setInputStream(null);
 		}
 	}
 }
@@ -34,5 +34,14 @@ public enum BookStoreMessageTag {
 	REMOVEBOOKS,
 
 	/** The tag for the get stock books by ISBN message. */
-	GETSTOCKBOOKSBYISBN;
+	GETSTOCKBOOKSBYISBN,
+
+	/** The tag for the rate books message. */
+	RATEBOOKS,
+
+	/**
+	 * The tag for the batch message, a list of {@link BookStoreOperation}
+	 * answered with a list of {@link BookStoreResponse}, one per operation.
+	 */
+	BATCH;
 }
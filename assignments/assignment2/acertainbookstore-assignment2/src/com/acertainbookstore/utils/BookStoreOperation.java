@@ -0,0 +1,47 @@
+package com.acertainbookstore.utils;
+
+/**
+ * {@link BookStoreOperation} is an operation of a batch request: the message
+ * it stands for and the value which the message would carry on its own.
+ *
+ * @see BookStoreMessageTag#BATCH
+ */
+public final class BookStoreOperation {
+
+	/** The message tag. */
+	private final BookStoreMessageTag messageTag;
+
+	/** The input value. */
+	private final Object inputValue;
+
+	/**
+	 * Instantiates a new {@link BookStoreOperation}.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputValue
+	 *            the input value
+	 */
+	public BookStoreOperation(BookStoreMessageTag messageTag, Object inputValue) {
+		this.messageTag = messageTag;
+		this.inputValue = inputValue;
+	}
+
+	/**
+	 * Gets the message tag.
+	 *
+	 * @return the message tag
+	 */
+	public BookStoreMessageTag getMessageTag() {
+		return messageTag;
+	}
+
+	/**
+	 * Gets the input value.
+	 *
+	 * @return the input value
+	 */
+	public Object getInputValue() {
+		return inputValue;
+	}
+}
@@ -0,0 +1,167 @@
+package com.acertainbookstore.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreRPCFrame} encodes and decodes the frames of the binary RPC
+ * transport, which carries the messages over plain TCP without HTTP.
+ * <p>
+ * Every frame starts with its length, which does not count itself, and the
+ * identifier of its request, so responses may come back in any order. A
+ * request then has the ordinal of its {@link BookStoreMessageTag} and its
+ * value, and a response its {@link BookStoreResponse}, both encoded by
+ * {@link BookStoreBinarySerializer}. The ordinals are part of the format:
+ * message tags may only be appended. Numbers are big endian.
+ */
+public final class BookStoreRPCFrame {
+
+	/** The size of the length which starts every frame. */
+	public static final int LENGTH_SIZE = 4;
+
+	/** The size of the header of a request after its length. */
+	public static final int REQUEST_HEADER_SIZE = 5;
+
+	/** The size of the header of a response after its length. */
+	public static final int RESPONSE_HEADER_SIZE = 4;
+
+	/** The largest frame either side accepts, without its length. */
+	public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+	/** The message tags by ordinal. */
+	private static final BookStoreMessageTag[] MESSAGE_TAGS = BookStoreMessageTag.values();
+
+	/** The serializer type of the frames. */
+	private static final BookStoreSerializerType SERIALIZER_TYPE = BookStoreSerializerType.BINARY;
+
+	/**
+	 * Prevents the instantiation of a new {@link BookStoreRPCFrame}.
+	 */
+	private BookStoreRPCFrame() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * Encodes a request frame, ready to be written.
+	 *
+	 * @param requestId
+	 *            the identifier of the request
+	 * @param messageTag
+	 *            the message tag
+	 * @param inputValue
+	 *            the value of the message
+	 * @return the frame
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static ByteBuffer encodeRequest(int requestId, BookStoreMessageTag messageTag, Object inputValue)
+			throws IOException {
+		byte[] payload = serialize(inputValue);
+		ByteBuffer frame = allocate(REQUEST_HEADER_SIZE + payload.length);
+		frame.putInt(requestId).put((byte) messageTag.ordinal()).put(payload).flip();
+		return frame;
+	}
+
+	/**
+	 * Encodes a response frame, ready to be written.
+	 *
+	 * @param requestId
+	 *            the identifier of the request answered
+	 * @param bookStoreResponse
+	 *            the book store response
+	 * @return the frame
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static ByteBuffer encodeResponse(int requestId, BookStoreResponse bookStoreResponse) throws IOException {
+		byte[] payload = serialize(bookStoreResponse);
+		ByteBuffer frame = allocate(RESPONSE_HEADER_SIZE + payload.length);
+		frame.putInt(requestId).put(payload).flip();
+		return frame;
+	}
+
+	/**
+	 * Gets the length of the next frame of a buffer, if the buffer holds the
+	 * whole frame. The position of the buffer is not moved.
+	 *
+	 * @param buffer
+	 *            the buffer, ready to be read
+	 * @return the length of the frame without its own, or -1 if the frame is
+	 *         not complete yet
+	 * @throws IOException
+	 *             if the length is out of bounds
+	 */
+	public static int completeFrameLength(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < LENGTH_SIZE) {
+			return -1;
+		}
+
+		int length = buffer.getInt(buffer.position());
+
+		if (length < RESPONSE_HEADER_SIZE || length > MAX_FRAME_LENGTH) {
+			throw new IOException("Invalid frame length " + length);
+		}
+
+		return (buffer.remaining() - LENGTH_SIZE >= length) ? length : -1;
+	}
+
+	/**
+	 * Gets the message tag of an ordinal read from a request frame.
+	 *
+	 * @param ordinal
+	 *            the ordinal
+	 * @return the message tag, or null if there is none with the ordinal
+	 */
+	public static BookStoreMessageTag toMessageTag(int ordinal) {
+		return (ordinal >= 0 && ordinal < MESSAGE_TAGS.length) ? MESSAGE_TAGS[ordinal] : null;
+	}
+
+	/**
+	 * Decodes the value of a frame.
+	 *
+	 * @param payload
+	 *            the bytes of the value
+	 * @return the value
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static Object deserialize(byte[] payload) throws IOException {
+		BookStoreSerializer serializer = SERIALIZER_TYPE.borrowSerializer();
+		long startTime = System.nanoTime();
+		Object value;
+
+		try {
+			value = serializer.deserialize(payload);
+		} finally {
+			SERIALIZER_TYPE.returnSerializer(serializer);
+		}
+
+		SERIALIZER_TYPE.getStatistics().recordDecoding(payload.length, System.nanoTime() - startTime);
+		return value;
+	}
+
+	private static byte[] serialize(Object value) throws IOException {
+		BookStoreSerializer serializer = SERIALIZER_TYPE.borrowSerializer();
+		long startTime = System.nanoTime();
+		byte[] payload;
+
+		try {
+			payload = serializer.serialize(value);
+		} finally {
+			SERIALIZER_TYPE.returnSerializer(serializer);
+		}
+
+		SERIALIZER_TYPE.getStatistics().recordEncoding(payload.length, System.nanoTime() - startTime);
+		return payload;
+	}
+
+	private static ByteBuffer allocate(int length) throws IOException {
+		if (length > MAX_FRAME_LENGTH) {
+			throw new IOException("Frame too large: " + length);
+		}
+
+		return ByteBuffer.allocate(LENGTH_SIZE + length).putInt(length);
+	}
+}
@@ -0,0 +1,43 @@
+package com.acertainbookstore.utils;
+
+import java.util.function.IntFunction;
+
+/**
+ * {@link BookStoreSerializerBuffers} sizes the buffers which the serializers
+ * reuse across messages. A buffer starts small and grows with the messages,
+ * but is dropped after an unusually large one, so that the idle serializers of
+ * a {@link BookStoreSerializerType} do not each hold on to the memory of the
+ * largest message they ever saw.
+ */
+public final class BookStoreSerializerBuffers {
+
+	/** The initial size of a reused buffer. */
+	public static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+	/** The largest buffer kept for reuse after a large message. */
+	public static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Prevents the instantiation of a new {@link BookStoreSerializerBuffers}.
+	 */
+	private BookStoreSerializerBuffers() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Gets the buffer to reuse for the next message: the buffer itself, or a
+	 * new buffer of the initial size if it grew past
+	 * {@link #MAX_RETAINED_BUFFER_SIZE}.
+	 *
+	 * @param buffer
+	 *            the buffer of the last message
+	 * @param size
+	 *            the size of the buffer
+	 * @param newBuffer
+	 *            creates a buffer of the given size
+	 * @return the buffer to reuse
+	 */
+	public static <B> B retain(B buffer, int size, IntFunction<B> newBuffer) {
+		return (size > MAX_RETAINED_BUFFER_SIZE) ? newBuffer.apply(INITIAL_BUFFER_SIZE) : buffer;
+	}
+}
@@ -0,0 +1,125 @@
+package com.acertainbookstore.utils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link BookStoreSerializerStatistics} counts the messages, bytes and time
+ * spent encoding and decoding with a {@link BookStoreSerializerType}. The
+ * counters are updated concurrently by all the threads of the process.
+ *
+ * @see BookStoreSerializerType#getStatistics()
+ */
+public final class BookStoreSerializerStatistics {
+
+	private final LongAdder encodedMessages = new LongAdder();
+
+	private final LongAdder encodedBytes = new LongAdder();
+
+	private final LongAdder encodingNanos = new LongAdder();
+
+	private final LongAdder decodedMessages = new LongAdder();
+
+	private final LongAdder decodedBytes = new LongAdder();
+
+	private final LongAdder decodingNanos = new LongAdder();
+
+	/**
+	 * Records an encoded message.
+	 *
+	 * @param bytes
+	 *            the size of the message, or a negative value if unknown
+	 * @param nanos
+	 *            the time spent encoding it
+	 */
+	public void recordEncoding(long bytes, long nanos) {
+		encodedMessages.increment();
+		encodingNanos.add(nanos);
+
+		if (bytes > 0) {
+			encodedBytes.add(bytes);
+		}
+	}
+
+	/**
+	 * Records a decoded message.
+	 *
+	 * @param bytes
+	 *            the size of the message, or a negative value if unknown
+	 * @param nanos
+	 *            the time spent decoding it
+	 */
+	public void recordDecoding(long bytes, long nanos) {
+		decodedMessages.increment();
+		decodingNanos.add(nanos);
+
+		if (bytes > 0) {
+			decodedBytes.add(bytes);
+		}
+	}
+
+	/**
+	 * Gets the number of encoded messages.
+	 *
+	 * @return the number of messages
+	 */
+	public long getEncodedMessages() {
+		return encodedMessages.sum();
+	}
+
+	/**
+	 * Gets the bytes of the encoded messages.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getEncodedBytes() {
+		return encodedBytes.sum();
+	}
+
+	/**
+	 * Gets the time spent encoding messages.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getEncodingNanos() {
+		return encodingNanos.sum();
+	}
+
+	/**
+	 * Gets the number of decoded messages.
+	 *
+	 * @return the number of messages
+	 */
+	public long getDecodedMessages() {
+		return decodedMessages.sum();
+	}
+
+	/**
+	 * Gets the bytes of the decoded messages.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getDecodedBytes() {
+		return decodedBytes.sum();
+	}
+
+	/**
+	 * Gets the time spent decoding messages.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getDecodingNanos() {
+		return decodingNanos.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "encoded " + getEncodedMessages() + " messages, " + getEncodedBytes() + " bytes in "
+				+ getEncodingNanos() / 1000 + " us; decoded " + getDecodedMessages() + " messages, "
+				+ getDecodedBytes() + " bytes in " + getDecodingNanos() / 1000 + " us";
+	}
+}
@@ -0,0 +1,176 @@
+package com.acertainbookstore.utils;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.Supplier;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreSerializerType} implements the serializers which clients and
+ * server can talk with. Each serializer has a media type, which the clients
+ * send as Content-Type and Accept headers so the server can choose the
+ * serializer of every request.
+ */
+public enum BookStoreSerializerType {
+
+	/** XML through XStream. */
+	XSTREAM("application/xml", BookStoreXStreamSerializer::new),
+
+	/** XML through XStream, with short aliases for the business classes. */
+	XSTREAM_COMPACT("application/x-bookstore+xml", () -> new BookStoreXStreamSerializer(true)),
+
+	/** Binary through Kryo. */
+	KRYO("application/x-kryo", BookStoreKryoSerializer::new),
+
+	/** The hand-written binary format of {@link BookStoreBinarySerializer}. */
+	BINARY("application/x-bookstore-binary", BookStoreBinarySerializer::new);
+
+	/**
+	 * The largest number of idle serializers kept per type, enough for the
+	 * requests in flight at once on the thread pool of the server.
+	 */
+	private static final int MAX_IDLE_SERIALIZERS = 64;
+
+	/** The media type of the messages. */
+	private final String mediaType;
+
+	/** Creates the serializers of the type. */
+	private final Supplier<BookStoreSerializer> factory;
+
+	/**
+	 * The idle serializers, lent to one caller at a time since serializers are
+	 * not thread-safe. Unlike serializers kept per thread, they are reused by
+	 * requests which each run on a new thread, such as virtual threads. The
+	 * last one returned is lent first, as its buffers are the most likely to
+	 * be in the cache.
+	 */
+	private final BlockingDeque<BookStoreSerializer> idleSerializers = new LinkedBlockingDeque<>(
+			MAX_IDLE_SERIALIZERS);
+
+	/** The statistics of the messages encoded and decoded. */
+	private final BookStoreSerializerStatistics statistics = new BookStoreSerializerStatistics();
+
+	private BookStoreSerializerType(String mediaType, Supplier<BookStoreSerializer> factory) {
+		this.mediaType = mediaType;
+		this.factory = factory;
+	}
+
+	/**
+	 * Gets the media type of the messages.
+	 *
+	 * @return the media type
+	 */
+	public String getMediaType() {
+		return mediaType;
+	}
+
+	/**
+	 * Creates a serializer of the type. Serializers are not thread-safe, so
+	 * each concurrent caller needs its own.
+	 *
+	 * @return the serializer
+	 */
+	public BookStoreSerializer newSerializer() {
+		return factory.get();
+	}
+
+	/**
+	 * Borrows an idle serializer of the type, or creates one if none is idle.
+	 * The caller has it to itself until it returns it with
+	 * {@link #returnSerializer(BookStoreSerializer)}.
+	 *
+	 * @return the serializer
+	 */
+	public BookStoreSerializer borrowSerializer() {
+		BookStoreSerializer serializer = idleSerializers.pollFirst();
+		return (serializer != null) ? serializer : newSerializer();
+	}
+
+	/**
+	 * Returns a borrowed serializer, which is dropped if enough serializers
+	 * are idle already.
+	 *
+	 * @param serializer
+	 *            the serializer, no longer used by the caller
+	 */
+	public void returnSerializer(BookStoreSerializer serializer) {
+		idleSerializers.offerFirst(serializer);
+	}
+
+	/**
+	 * Gets the statistics of the messages encoded and decoded with the type in
+	 * this process.
+	 *
+	 * @return the statistics
+	 */
+	public BookStoreSerializerStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Gets the serializer type of a media type, ignoring its parameters such as
+	 * the charset.
+	 *
+	 * @param mediaType
+	 *            the media type, for example the value of a Content-Type
+	 *            header
+	 * @return the serializer type, or null if none has the media type
+	 */
+	public static BookStoreSerializerType forMediaType(String mediaType) {
+		if (mediaType == null) {
+			return null;
+		}
+
+		int parameters = mediaType.indexOf(';');
+		String name = ((parameters < 0) ? mediaType : mediaType.substring(0, parameters)).trim();
+
+		for (BookStoreSerializerType type : values()) {
+			if (type.mediaType.equalsIgnoreCase(name)) {
+				return type;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Gets the first serializer type listed by an Accept header.
+	 *
+	 * @param accept
+	 *            the value of the Accept header
+	 * @return the serializer type, or null if the header lists none
+	 */
+	public static BookStoreSerializerType forAccept(String accept) {
+		if (accept == null) {
+			return null;
+		}
+
+		for (String mediaType : accept.split(",")) {
+			BookStoreSerializerType type = forMediaType(mediaType);
+
+			if (type != null) {
+				return type;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Gets the serializer type chosen with the serializer property, for
+	 * example -Dserializer=binary, or otherwise the one chosen by
+	 * {@link BookStoreConstants#BINARY_SERIALIZATION}.
+	 *
+	 * @return the serializer type
+	 */
+	public static BookStoreSerializerType getConfigured() {
+		String serializerString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERIALIZER);
+
+		if (serializerString != null) {
+			return valueOf(serializerString.trim().toUpperCase());
+		}
+
+		return BookStoreConstants.BINARY_SERIALIZATION ? KRYO : XSTREAM;
+	}
+}
@@ -1,6 +1,7 @@
 package com.acertainbookstore.utils;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
@@ -8,8 +9,14 @@ import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
 
 import com.acertainbookstore.client.BookStoreClientConstants;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
@@ -129,40 +136,109 @@ public final class BookStoreUtility {
 	}
 
 	/**
-	 * Convert a request URI to the message tags supported in CertainBookStore.
+	 * Perform HTTP exchange, waiting for the response.
 	 *
-	 * @param requestURI
-	 *            the request URI
-	 * @return the book store message tag
+	 * @param client
+	 *            the client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializerType
+	 *            the serializer type of the request, also asked for the
+	 *            response
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
 	 */
-	public static BookStoreMessageTag convertURItoMessageTag(String requestURI) {
+	public static BookStoreResponse performHttpExchange(HttpClient client, BookStoreRequest bookStoreRequest,
+			BookStoreSerializerType serializerType) throws BookStoreException {
+		Request request = newHttpRequest(client, bookStoreRequest, serializerType);
+		ContentResponse response;
 
 		try {
-			return BookStoreMessageTag.valueOf(requestURI.substring(1).toUpperCase());
-		} catch (IllegalArgumentException | NullPointerException ex) {
-			// Enumeration type matching failed so non supported message or the
-			// request URI was empty.
-			System.err.println(ex.getStackTrace());
+			response = request.send();
+		} catch (InterruptedException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
 		}
 
-		return null;
+		// The HTTP client asks for gzip responses and decodes them itself.
+		return readHttpResponse(response.getStatus(), response.getHeaders(), response.getContent(), serializerType);
 	}
 
 	/**
-	 * Perform HTTP exchange.
+	 * Performs an HTTP exchange without waiting for the response. The future
+	 * is completed by a thread of the client, or completed exceptionally with
+	 * a {@link BookStoreException}.
 	 *
 	 * @param client
 	 *            the client
 	 * @param bookStoreRequest
 	 *            the book store request
-	 * @param serializer
-	 *            the serializer
-	 * @return the book store response
+	 * @param serializerType
+	 *            the serializer type of the request, also asked for the
+	 *            response
+	 * @return the future book store response
+	 */
+	public static CompletableFuture<BookStoreResponse> performHttpExchangeAsync(HttpClient client,
+			BookStoreRequest bookStoreRequest, BookStoreSerializerType serializerType) {
+		CompletableFuture<BookStoreResponse> future = new CompletableFuture<>();
+		Request request;
+
+		try {
+			request = newHttpRequest(client, bookStoreRequest, serializerType);
+		} catch (BookStoreException ex) {
+			future.completeExceptionally(ex);
+			return future;
+		}
+
+		request.send(new BufferingResponseListener() {
+
+			@Override
+			public void onComplete(Result result) {
+				if (result.isFailed()) {
+					Throwable failure = result.getFailure();
+					future.completeExceptionally(new BookStoreException((failure instanceof TimeoutException)
+							? BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT
+							: BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, failure));
+					return;
+				}
+
+				try {
+					Response response = result.getResponse();
+					future.complete(
+							readHttpResponse(response.getStatus(), response.getHeaders(), getContent(), serializerType));
+				} catch (BookStoreException ex) {
+					future.completeExceptionally(ex);
+				} catch (RuntimeException ex) {
+					// A failure escaping into the client would leave the future pending.
+					future.completeExceptionally(
+							new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_RESPONSE_DECODING, ex));
+				}
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Creates the HTTP request of a book store request.
+	 *
+	 * @param client
+	 *            the client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializerType
+	 *            the serializer type of the request, also asked for the
+	 *            response
+	 * @return the HTTP request
 	 * @throws BookStoreException
 	 *             the book store exception
 	 */
-	public static BookStoreResponse performHttpExchange(HttpClient client, BookStoreRequest bookStoreRequest,
-			BookStoreSerializer serializer) throws BookStoreException {
+	private static Request newHttpRequest(HttpClient client, BookStoreRequest bookStoreRequest,
+			BookStoreSerializerType serializerType) throws BookStoreException {
 		Request request;
 
 		switch (bookStoreRequest.getMethod()) {
@@ -171,12 +247,18 @@ public final class BookStoreUtility {
 			break;
 
 		case POST:
-			try {
-				byte[] serializedValue = serializer.serialize(bookStoreRequest.getInputValue());
-				ContentProvider contentProvider = new BytesContentProvider(serializedValue);
-				request = client.POST(bookStoreRequest.getURLString()).content(contentProvider);
-			} catch (IOException ex) {
-				throw new BookStoreException("Serialization error", ex);
+			byte[] serializedValue = serializeContent(bookStoreRequest.getInputValue(), serializerType);
+			boolean compressed = BookStoreCompression.isWorthCompressing(serializedValue.length);
+
+			if (compressed) {
+				serializedValue = compressContent(serializedValue);
+			}
+
+			ContentProvider contentProvider = new BytesContentProvider(serializerType.getMediaType(), serializedValue);
+			request = client.POST(bookStoreRequest.getURLString()).content(contentProvider);
+
+			if (compressed) {
+				request.header(HttpHeader.CONTENT_ENCODING, BookStoreCompression.GZIP);
 			}
 
 			break;
@@ -185,24 +267,110 @@ public final class BookStoreUtility {
 			throw new IllegalArgumentException("HTTP Method not supported.");
 		}
 
-		ContentResponse response;
+		request.header(HttpHeader.ACCEPT, serializerType.getMediaType());
+
+		if (serializerType == BookStoreSerializerType.KRYO) {
+			request.header(BookStoreConstants.REGISTRY_HEADER, BookStoreKryoRegistry.getFingerprint());
+		}
+
+		return request;
+	}
+
+	/**
+	 * Serializes the value of a request.
+	 *
+	 * @param inputValue
+	 *            the value of the request
+	 * @param serializerType
+	 *            the serializer type of the request
+	 * @return the body of the request
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	static byte[] serializeContent(Object inputValue, BookStoreSerializerType serializerType)
+			throws BookStoreException {
+		BookStoreSerializer serializer = serializerType.borrowSerializer();
 
 		try {
-			response = request.send();
-		} catch (InterruptedException ex) {
-			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
-		} catch (TimeoutException ex) {
-			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
-		} catch (ExecutionException ex) {
-			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+			long startTime = System.nanoTime();
+			byte[] serializedValue = serializer.serialize(inputValue);
+			serializerType.getStatistics().recordEncoding(serializedValue.length, System.nanoTime() - startTime);
+			return serializedValue;
+		} catch (IOException ex) {
+			throw new BookStoreException("Serialization error", ex);
+		} finally {
+			serializerType.returnSerializer(serializer);
+		}
+	}
+
+	/**
+	 * Compresses the body of a request with gzip.
+	 *
+	 * @param content
+	 *            the body of the request
+	 * @return the compressed body
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	static byte[] compressContent(byte[] content) throws BookStoreException {
+		try {
+			return BookStoreCompression.compress(BookStoreCompression.GZIP, content);
+		} catch (IOException ex) {
+			throw new BookStoreException("Serialization error", ex);
+		}
+	}
+
+	/**
+	 * Decodes the HTTP response of a book store request. Statuses other than 200
+	 * are turned into a {@link BookStoreException} without decoding the body.
+	 *
+	 * @param status
+	 *            the status of the HTTP response
+	 * @param headers
+	 *            the headers of the HTTP response
+	 * @param content
+	 *            the body of the response, already decompressed
+	 * @param serializerType
+	 *            the serializer type of the request
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the exception of the response, or the book store exception
+	 */
+	static BookStoreResponse readHttpResponse(int status, HttpFields headers, byte[] content,
+			BookStoreSerializerType serializerType) throws BookStoreException {
+		if (status == HttpStatus.PRECONDITION_FAILED_412) {
+			throw new BookStoreException(BookStoreConstants.REGISTRY_MISMATCH);
+		}
+
+		if (status == HttpStatus.UNSUPPORTED_MEDIA_TYPE_415) {
+			throw new BookStoreException(BookStoreConstants.UNSUPPORTED_MEDIA_TYPE + serializerType.getMediaType());
+		}
+
+		// Only a 200 carries a response; the other answers have no body to decode.
+		if (status != HttpStatus.OK_200) {
+			throw new BookStoreException(BookStoreConstants.HTTP_STATUS + status);
+		}
+
+		// Decode with the serializer the server answered with, which servers
+		// older than the negotiation do not tell.
+		BookStoreSerializerType responseType = BookStoreSerializerType
+				.forMediaType(headers.get(HttpHeader.CONTENT_TYPE));
+
+		if (responseType == null) {
+			responseType = serializerType;
 		}
 
 		BookStoreResponse bookStoreResponse;
+		BookStoreSerializer serializer = responseType.borrowSerializer();
 
 		try {
-			bookStoreResponse = (BookStoreResponse) serializer.deserialize(response.getContent());
+			long startTime = System.nanoTime();
+			bookStoreResponse = (BookStoreResponse) serializer.deserialize(content);
+			responseType.getStatistics().recordDecoding(content.length, System.nanoTime() - startTime);
 		} catch (IOException ex) {
 			throw new BookStoreException("Deserialization error", ex);
+		} finally {
+			responseType.returnSerializer(serializer);
 		}
 
 		BookStoreException exception = bookStoreResponse.getException();
@@ -1,5 +1,15 @@
 package com.acertainbookstore.utils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.StaxDriver;
@@ -7,36 +17,126 @@ import com.thoughtworks.xstream.io.xml.StaxDriver;
 /**
  * {@link BookStoreXStreamSerializer} serializes objects to arrays of bytes
  * representing XML trees using the XStream library.
- * 
+ * <p>
+ * The XML is written to and parsed from UTF-8 bytes without building strings.
+ * In compact mode the business classes are written with short aliases instead
+ * of their class names and their numbers as attributes; compact serializers
+ * still read the XML of the default mode, but not the other way around.
+ * Configuring XStream is expensive, so each mode has a single instance, which
+ * is thread-safe once configured.
+ *
  * @see BookStoreSerializer
  */
 public final class BookStoreXStreamSerializer implements BookStoreSerializer {
 
+	/** The XML stream writing the full class names. */
+	private static final XStream DEFAULT_XML_STREAM = new XStream(new StaxDriver());
+
+	/** The XML stream writing the aliases of the business classes. */
+	private static final XStream COMPACT_XML_STREAM = createCompactXStream();
+
 	/** The XML stream. */
-	private final XStream xmlStream = new XStream(new StaxDriver());
+	private final XStream xmlStream;
+
+	/** The buffer messages are encoded into. */
+	private ByteArrayOutputStream buffer = new ByteArrayOutputStream(BookStoreSerializerBuffers.INITIAL_BUFFER_SIZE);
+
+	/**
+	 * Instantiates a new {@link BookStoreXStreamSerializer} writing the full
+	 * class names, as understood by all XStream clients.
+	 */
+	public BookStoreXStreamSerializer() {
+		this(false);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreXStreamSerializer}.
+	 *
+	 * @param compact
+	 *            whether to write the aliases of the business classes
+	 */
+	public BookStoreXStreamSerializer(boolean compact) {
+		xmlStream = compact ? COMPACT_XML_STREAM : DEFAULT_XML_STREAM;
+	}
+
+	private static XStream createCompactXStream() {
+		XStream xStream = new XStream(new StaxDriver());
+
+		// The aliases are part of the compact format: never change them.
+		xStream.alias("book", ImmutableBook.class);
+		xStream.alias("stockBook", ImmutableStockBook.class);
+		xStream.alias("copy", BookCopy.class);
+		xStream.alias("rating", BookRating.class);
+		xStream.alias("pick", BookEditorPick.class);
+		xStream.alias("response", BookStoreResponse.class);
+		xStream.alias("error", BookStoreException.class);
+		xStream.alias("operation", BookStoreOperation.class);
+
+		// Numbers and flags are written as attributes, which saves their end tags.
+		xStream.useAttributeFor(ImmutableBook.class, "isbn");
+		xStream.useAttributeFor(ImmutableBook.class, "price");
+		xStream.useAttributeFor(ImmutableStockBook.class, "totalRating");
+		xStream.useAttributeFor(ImmutableStockBook.class, "numTimesRated");
+		xStream.useAttributeFor(ImmutableStockBook.class, "numCopies");
+		xStream.useAttributeFor(ImmutableStockBook.class, "numSaleMisses");
+		xStream.useAttributeFor(ImmutableStockBook.class, "editorPick");
+		xStream.useAttributeFor(BookCopy.class, "isbn");
+		xStream.useAttributeFor(BookCopy.class, "numCopies");
+		xStream.useAttributeFor(BookRating.class, "isbn");
+		xStream.useAttributeFor(BookRating.class, "rating");
+		xStream.useAttributeFor(BookEditorPick.class, "isbn");
+		xStream.useAttributeFor(BookEditorPick.class, "editorPick");
+		return xStream;
+	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
 	 * Object)
 	 */
 	@Override
 	public byte[] serialize(Object object) {
-		String xml = xmlStream.toXML(object);
-		return xml.getBytes();
+		buffer.reset();
+		xmlStream.toXML(object, buffer);
+		byte[] bytes = buffer.toByteArray();
+		buffer = BookStoreSerializerBuffers.retain(buffer, bytes.length, ByteArrayOutputStream::new);
+		return bytes;
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(byte[])
 	 */
 	@Override
 	public Object deserialize(byte[] bytes) {
-		String xml = new String(bytes);
-		return xmlStream.fromXML(xml);
+		return xmlStream.fromXML(new ByteArrayInputStream(bytes));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) {
+		xmlStream.toXML(object, out);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) {
+		return xmlStream.fromXML(in);
 	}
 }
@@ -0,0 +1,624 @@
+package com.acertainbookstore.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * {@link WriteAheadLog} is an append-only log of records on a
+ * {@link FileChannel}, used to make the state of a store survive restarts.
+ * <p>
+ * Appending a record only copies it into an in-memory buffer and returns its
+ * log sequence number (LSN), the log offset just past the record. A writer
+ * then calls {@link #commit(long)} to wait until its record is durable. The
+ * first committer to find no flush in progress writes out everything appended
+ * so far with a single write and force, while the others wait for it, so
+ * concurrent commits share one fsync (group commit). The {@link FlushPolicy}
+ * trades durability for latency.
+ * <p>
+ * Each record is framed by its length and a CRC32 checksum. When the log is
+ * opened, a torn, corrupt or zero-filled tail left by a crash is cut off. The
+ * file starts with the LSN of its first record, so the records covered by a
+ * checkpoint can be dropped with {@link #truncate(long)} while LSNs keep
+ * growing.
+ */
+public final class WriteAheadLog implements Closeable {
+
+	/**
+	 * {@link FlushPolicy} decides when appended records reach the disk.
+	 */
+	public enum FlushPolicy {
+
+		/** Commits wait until their records are forced to disk. */
+		GROUP_COMMIT,
+
+		/**
+		 * Commits return immediately, records are forced to disk periodically
+		 * and at most one flush interval of commits is lost in a crash.
+		 */
+		PERIODIC,
+
+		/**
+		 * Commits wait until their records are written to the operating
+		 * system, which survives a crash of the server but not of the machine.
+		 */
+		NO_SYNC
+	}
+
+	/**
+	 * {@link RecordHandler} receives the records of the log when it is
+	 * replayed.
+	 */
+	public interface RecordHandler {
+
+		/**
+		 * Handles a record.
+		 *
+		 * @param lsn
+		 *            the LSN of the record
+		 * @param record
+		 *            the record
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		void handle(long lsn, byte[] record) throws IOException;
+	}
+
+	/** The size of the file header holding the LSN of the start of the file. */
+	private static final int FILE_HEADER_SIZE = Long.BYTES;
+
+	/** The size of the record header holding the length and checksum. */
+	private static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+
+	/** The initial size of the append buffers. */
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	/** The path of the log file. */
+	private final Path path;
+
+	/** The log file, only replaced by the thread holding {@link #flushing}. */
+	private FileChannel channel;
+
+	/** The flush policy. */
+	private final FlushPolicy flushPolicy;
+
+	/** Forces the log periodically, with {@link FlushPolicy#PERIODIC} only. */
+	private final ScheduledExecutorService flusher;
+
+	/** Guards the fields below. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signalled whenever a flush finishes. */
+	private final Condition flushed = lock.newCondition();
+
+	/** The records appended but not yet written. */
+	private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	/** The buffer being written by the flushing thread. */
+	private ByteBuffer writing = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	/** The LSN of the start of the file. */
+	private long startLsn;
+
+	/** The LSN just past the last appended record. */
+	private long appendedLsn;
+
+	/** The LSN up to which the log is written to the operating system. */
+	private long writtenLsn;
+
+	/** The LSN up to which the log is forced to disk. */
+	private long forcedLsn;
+
+	/** Whether a thread is flushing. */
+	private boolean flushing = false;
+
+	/** The failure of an earlier flush, after which the log is unusable. */
+	private IOException failure = null;
+
+	/** Whether the log was closed. */
+	private boolean closed = false;
+
+	/** The number of appended records. */
+	private final AtomicLong numRecords = new AtomicLong();
+
+	/** The number of flushes, fewer than the records thanks to group commit. */
+	private final AtomicLong numFlushes = new AtomicLong();
+
+	/**
+	 * Opens or creates a {@link WriteAheadLog}, cutting off a torn tail.
+	 *
+	 * @param path
+	 *            the log file
+	 * @param flushPolicy
+	 *            the flush policy
+	 * @param flushIntervalMillis
+	 *            the flush interval of {@link FlushPolicy#PERIODIC}
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public WriteAheadLog(Path path, FlushPolicy flushPolicy, long flushIntervalMillis) throws IOException {
+		this.path = path;
+		this.flushPolicy = flushPolicy;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		if (channel.size() < FILE_HEADER_SIZE) {
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+			header.putLong(0, 0);
+			channel.write(header, 0);
+			channel.force(false);
+		} else {
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+			readFully(header, 0);
+			startLsn = header.getLong(0);
+		}
+
+		long end = scan(null);
+		channel.truncate(end);
+		channel.position(end);
+		appendedLsn = toLsn(end);
+		writtenLsn = appendedLsn;
+		forcedLsn = appendedLsn;
+
+		if (flushPolicy == FlushPolicy.PERIODIC) {
+			flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "log-flusher");
+				thread.setDaemon(true);
+				return thread;
+			});
+			flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+					TimeUnit.MILLISECONDS);
+		} else {
+			flusher = null;
+		}
+	}
+
+	private long toLsn(long offset) {
+		return startLsn + offset - FILE_HEADER_SIZE;
+	}
+
+	private long toOffset(long lsn) {
+		return lsn - startLsn + FILE_HEADER_SIZE;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	/**
+	 * Reads the valid records of the file.
+	 *
+	 * @return the offset just past the last valid record
+	 */
+	private long scan(RecordHandler handler) throws IOException {
+		long offset = FILE_HEADER_SIZE;
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		CRC32 crc = new CRC32();
+
+		while (offset + RECORD_HEADER_SIZE <= size) {
+			header.clear();
+			readFully(header, offset);
+			int length = header.getInt(0);
+			int checksum = header.getInt(Integer.BYTES);
+
+			// No record is empty, so a zero length is a tail which was
+			// allocated but never written, whose checksum would match.
+			if (length <= 0 || offset + RECORD_HEADER_SIZE + length > size) {
+				break;
+			}
+
+			byte[] record = new byte[length];
+			readFully(ByteBuffer.wrap(record), offset + RECORD_HEADER_SIZE);
+			crc.reset();
+			crc.update(record, 0, length);
+
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+
+			offset += RECORD_HEADER_SIZE + length;
+
+			if (handler != null) {
+				handler.handle(toLsn(offset), record);
+			}
+		}
+
+		return offset;
+	}
+
+	/**
+	 * Replays the records of the log in order. Must be called before any
+	 * record is appended.
+	 *
+	 * @param handler
+	 *            the handler of the records
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void replay(RecordHandler handler) throws IOException {
+		scan(handler);
+	}
+
+	/**
+	 * Restarts an empty log at the LSN if it ends before, so that no LSN is
+	 * handed out twice when the log lost records a checkpoint already covers.
+	 * Must be called before any record is appended.
+	 *
+	 * @param lsn
+	 *            the LSN, usually of the last checkpoint
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void restartAt(long lsn) throws IOException {
+		lock.lock();
+		try {
+			checkUsable();
+
+			if (lsn <= appendedLsn) {
+				return;
+			}
+
+			// Until the new header is written, a crash leaves an empty log
+			// which still starts before the LSN and is restarted again.
+			channel.truncate(FILE_HEADER_SIZE);
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+			header.putLong(0, lsn);
+			channel.write(header, 0);
+			channel.force(false);
+			channel.position(FILE_HEADER_SIZE);
+
+			startLsn = lsn;
+			appendedLsn = lsn;
+			writtenLsn = lsn;
+			forcedLsn = lsn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends a record to the log. The record is not durable until it is
+	 * committed.
+	 *
+	 * @param record
+	 *            the record
+	 * @return the LSN of the record
+	 * @throws IOException
+	 *             Signals that the log failed or was closed.
+	 * @throws IllegalArgumentException
+	 *             if the record is empty
+	 */
+	public long append(byte[] record) throws IOException {
+		if (record.length == 0) {
+			throw new IllegalArgumentException("A record must not be empty");
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(record, 0, record.length);
+
+		lock.lock();
+		try {
+			checkUsable();
+
+			int size = RECORD_HEADER_SIZE + record.length;
+
+			if (pending.remaining() < size) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+				pending.flip();
+				grown.put(pending);
+				pending = grown;
+			}
+
+			pending.putInt(record.length);
+			pending.putInt((int) crc.getValue());
+			pending.put(record);
+			appendedLsn += size;
+			numRecords.incrementAndGet();
+			return appendedLsn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the log is durable up to the LSN, as far as the flush policy
+	 * demands.
+	 *
+	 * @param lsn
+	 *            the LSN
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void commit(long lsn) throws IOException {
+		if (flushPolicy == FlushPolicy.PERIODIC) {
+			return;
+		}
+
+		flush(lsn, flushPolicy == FlushPolicy.GROUP_COMMIT);
+	}
+
+	/**
+	 * Forces everything appended so far to disk.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void flush() throws IOException {
+		lock.lock();
+		long lsn;
+		try {
+			lsn = appendedLsn;
+		} finally {
+			lock.unlock();
+		}
+
+		flush(lsn, true);
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException ex) {
+			// Remembered in failure and reported to the next writer.
+		}
+	}
+
+	private void flush(long lsn, boolean force) throws IOException {
+		lock.lock();
+		try {
+			while ((force ? forcedLsn : writtenLsn) < lsn) {
+				checkUsable();
+
+				if (flushing) {
+					flushed.awaitUninterruptibly();
+					continue;
+				}
+
+				// Become the leader and write out all appended records.
+				flushing = true;
+				ByteBuffer batch = pending;
+				pending = writing;
+				writing = batch;
+				long batchLsn = appendedLsn;
+				lock.unlock();
+
+				try {
+					batch.flip();
+
+					while (batch.hasRemaining()) {
+						channel.write(batch);
+					}
+
+					batch.clear();
+
+					if (force) {
+						channel.force(false);
+					}
+
+					numFlushes.incrementAndGet();
+				} catch (IOException ex) {
+					lock.lock();
+					failure = ex;
+					throw ex;
+				} finally {
+					if (!lock.isHeldByCurrentThread()) {
+						lock.lock();
+					}
+
+					flushing = false;
+					flushed.signalAll();
+				}
+
+				writtenLsn = batchLsn;
+
+				if (force) {
+					forcedLsn = batchLsn;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops the records up to the LSN, which must be forced. The remaining
+	 * records are copied to a new file which atomically replaces the old one,
+	 * while writers keep appending to the in-memory buffer.
+	 *
+	 * @param lsn
+	 *            the LSN, usually of a checkpoint
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void truncate(long lsn) throws IOException {
+		lock.lock();
+		try {
+			checkUsable();
+
+			while (flushing) {
+				flushed.awaitUninterruptibly();
+				checkUsable();
+			}
+
+			if (lsn <= startLsn) {
+				return;
+			}
+
+			if (lsn > forcedLsn) {
+				throw new IllegalArgumentException("The log is not forced up to " + lsn);
+			}
+
+			// Keep flushes off the channel while it is replaced.
+			flushing = true;
+		} finally {
+			lock.unlock();
+		}
+
+		FileChannel truncated = null;
+		FileChannel replaced = null;
+		boolean moved = false;
+
+		try {
+			Path truncatedPath = path.resolveSibling(path.getFileName() + ".truncated");
+
+			try (FileChannel copy = FileChannel.open(truncatedPath, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+				header.putLong(0, lsn);
+				copy.write(header, 0);
+				copy.position(FILE_HEADER_SIZE);
+
+				long from = toOffset(lsn);
+				long to = channel.size();
+
+				while (from < to) {
+					from += channel.transferTo(from, to - from, copy);
+				}
+
+				copy.force(false);
+			}
+
+			// Until the move, a crash leaves the old file, which is still valid.
+			Files.move(truncatedPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+			truncated = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			truncated.position(truncated.size());
+		} catch (IOException ex) {
+			if (moved) {
+				// The old file is gone, so nothing can be appended safely anymore.
+				lock.lock();
+				failure = ex;
+				lock.unlock();
+			}
+
+			throw ex;
+		} finally {
+			lock.lock();
+			try {
+				if (truncated != null) {
+					replaced = channel;
+					channel = truncated;
+					startLsn = lsn;
+				}
+
+				flushing = false;
+				flushed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		replaced.close();
+	}
+
+	private void checkUsable() throws IOException {
+		if (failure != null) {
+			throw new IOException("The log failed before", failure);
+		}
+
+		if (closed) {
+			throw new IOException("The log is closed");
+		}
+	}
+
+	/**
+	 * Gets the LSN of the start of the log, after which records were kept.
+	 *
+	 * @return the LSN
+	 */
+	public long getStartLsn() {
+		lock.lock();
+		try {
+			return startLsn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the LSN just past the last appended record.
+	 *
+	 * @return the LSN
+	 */
+	public long getAppendedLsn() {
+		lock.lock();
+		try {
+			return appendedLsn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of records appended since the log was opened.
+	 *
+	 * @return the number of records
+	 */
+	public long getNumRecords() {
+		return numRecords.get();
+	}
+
+	/**
+	 * Gets the number of flushes since the log was opened.
+	 *
+	 * @return the number of flushes
+	 */
+	public long getNumFlushes() {
+		return numFlushes.get();
+	}
+
+	/**
+	 * Gets the flush policy.
+	 *
+	 * @return the flush policy
+	 */
+	public FlushPolicy getFlushPolicy() {
+		return flushPolicy;
+	}
+
+	/**
+	 * Forces the log to disk and closes it.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (flusher != null) {
+			flusher.shutdown();
+		}
+
+		try {
+			if (failure == null) {
+				flush();
+			}
+		} finally {
+			lock.lock();
+			try {
+				closed = true;
+			} finally {
+				lock.unlock();
+			}
+
+			channel.close();
+		}
+	}
+}
@@ -30,6 +30,9 @@ public class CertainBookStore implements BookStore, StockManager {
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
 	private Map<Integer, BookStoreBook> bookMap = null;
 
+	/** The books ordered by number of copies, fewest first. */
+	private final LeastCopiesIndex leastCopiesIndex = new LeastCopiesIndex();
+
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
@@ -112,7 +115,9 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		for (StockBook book : bookSet) {
 			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			BookStoreBook bookStoreBook = new BookStoreBook(book);
+			bookMap.put(isbn, bookStoreBook);
+			leastCopiesIndex.update(bookStoreBook);
 		}
 	}
 
@@ -142,6 +147,7 @@ public class CertainBookStore implements BookStore, StockManager {
 			numCopies = bookCopy.getNumCopies();
 			book = bookMap.get(isbn);
 			book.addCopies(numCopies);
+			leastCopiesIndex.update(book);
 		}
 	}
 
@@ -228,6 +234,7 @@ public class CertainBookStore implements BookStore, StockManager {
 		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
 			book = bookMap.get(bookCopyToBuy.getISBN());
 			book.buyCopies(bookCopyToBuy.getNumCopies());
+			leastCopiesIndex.update(book);
 		}
 	}
 
@@ -337,6 +344,21 @@ public class CertainBookStore implements BookStore, StockManager {
 		throw new BookStoreException();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksWithLeastCopies(int)
+	 */
+	public synchronized List<StockBook> getBooksWithLeastCopies(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return leastCopiesIndex.getISBNs(numBooks).stream().map(isbn -> bookMap.get(isbn).immutableStockBook())
+				.collect(Collectors.toList());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -354,6 +376,7 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	public synchronized void removeAllBooks() throws BookStoreException {
 		bookMap.clear();
+		leastCopiesIndex.clear();
 	}
 
 	/*
@@ -379,6 +402,7 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		for (int isbn : isbnSet) {
 			bookMap.remove(isbn);
+			leastCopiesIndex.remove(isbn);
 		}
 	}
 }
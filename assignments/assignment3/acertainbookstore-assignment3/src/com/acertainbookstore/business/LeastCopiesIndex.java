@@ -0,0 +1,101 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * {@link LeastCopiesIndex} keeps the books of the store ordered by their
+ * number of copies, fewest first, so the books to replenish are read off its
+ * head instead of sorting the whole catalog.
+ * <p>
+ * The index is not thread-safe, the store updates and reads it under its lock.
+ */
+final class LeastCopiesIndex {
+
+	/**
+	 * {@link Entry} is the position of a book in the index.
+	 */
+	private static final class Entry {
+
+		private final int isbn;
+
+		private final int numCopies;
+
+		private Entry(int isbn, int numCopies) {
+			this.isbn = isbn;
+			this.numCopies = numCopies;
+		}
+	}
+
+	/** Fewest copies first, and ties by ascending ISBN so entries are unique. */
+	private static final Comparator<Entry> ORDER = Comparator.comparingInt((Entry entry) -> entry.numCopies)
+			.thenComparingInt(entry -> entry.isbn);
+
+	/** The entries in number of copies order. */
+	private final TreeSet<Entry> entries = new TreeSet<>(ORDER);
+
+	/** The current entry of each book, to find it again in {@link #entries}. */
+	private final Map<Integer, Entry> entriesByISBN = new HashMap<>();
+
+	/**
+	 * Adds or repositions a book after its number of copies changed.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void update(BookStoreBook book) {
+		Entry entry = new Entry(book.getISBN(), book.getNumCopies());
+		Entry previous = entriesByISBN.put(entry.isbn, entry);
+
+		if (previous != null) {
+			entries.remove(previous);
+		}
+
+		entries.add(entry);
+	}
+
+	/**
+	 * Removes a book.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	void remove(int isbn) {
+		Entry previous = entriesByISBN.remove(isbn);
+
+		if (previous != null) {
+			entries.remove(previous);
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	void clear() {
+		entriesByISBN.clear();
+		entries.clear();
+	}
+
+	/**
+	 * Gets the books with the fewest copies.
+	 *
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the ISBNs of the books, fewest copies first
+	 */
+	List<Integer> getISBNs(int numBooks) {
+		List<Integer> isbns = new ArrayList<>(Math.min(numBooks, entries.size()));
+		Iterator<Entry> iterator = entries.iterator();
+
+		while (isbns.size() < numBooks && iterator.hasNext()) {
+			isbns.add(iterator.next().isbn);
+		}
+
+		return isbns;
+	}
+}
@@ -1,5 +1,7 @@
 package com.acertainbookstore.client;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
 
@@ -151,6 +153,24 @@ public class StockManagerHTTPProxy implements StockManager {
 		throw new BookStoreException("Not implemented");
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksWithLeastCopies(int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooksWithLeastCopies(int numBooks) throws BookStoreException {
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSWITHLEASTCOPIES + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
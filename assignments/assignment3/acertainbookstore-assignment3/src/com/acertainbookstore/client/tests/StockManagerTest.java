@@ -475,6 +475,42 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that the books with the fewest copies follow purchases and
+	 * replenishments.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksWithLeastCopies() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES + 1, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES + 2, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> leastCopies = storeManager.getBooksWithLeastCopies(2);
+		assertEquals(2, leastCopies.size());
+		assertEquals(TEST_ISBN, (Integer) leastCopies.get(0).getISBN());
+		assertEquals(TEST_ISBN + 1, leastCopies.get(1).getISBN());
+
+		// Buying copies moves the book to the front.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN + 2, NUM_COPIES));
+		client.buyBooks(booksToBuy);
+		assertEquals(TEST_ISBN + 2, storeManager.getBooksWithLeastCopies(1).get(0).getISBN());
+
+		// Replenishing moves it back.
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN + 2, NUM_COPIES));
+		storeManager.addCopies(copiesToAdd);
+		assertEquals(TEST_ISBN, (Integer) storeManager.getBooksWithLeastCopies(1).get(0).getISBN());
+
+		assertEquals(3, storeManager.getBooksWithLeastCopies(100).size());
+	}
+
 	/**
 	 * Tear down after class.
 	 *
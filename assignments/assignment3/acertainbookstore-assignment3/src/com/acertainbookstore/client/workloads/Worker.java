@@ -11,7 +11,6 @@ import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreException;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
@@ -127,10 +126,9 @@ public class Worker implements Callable<WorkerRunResult> {
   private void runFrequentStockManagerInteraction() throws BookStoreException {
     StockManager stockManager = configuration.getStockManager();
 
+    // The server picks the books with the fewest copies, so only those are shipped.
     final Set<BookCopy> bookCopies = new HashSet<>();
-    stockManager.getBooks().stream()
-        .sorted(Comparator.comparing(StockBook::getNumCopies).reversed())
-        .limit(configuration.getNumBooksWithLeastCopies())
+    stockManager.getBooksWithLeastCopies(configuration.getNumBooksWithLeastCopies())
         .forEach(stockBook -> bookCopies
             .add(new BookCopy(stockBook.getISBN(), configuration.getNumAddCopies())));
 
@@ -60,6 +60,18 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooksInDemand() throws BookStoreException;
 
+	/**
+	 * Gets the books with the fewest copies in stock, fewest first. These are
+	 * the books to replenish first.
+	 *
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books with the fewest copies
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> getBooksWithLeastCopies(int numBooks) throws BookStoreException;
+
 	/**
 	 * Updates the books by mark/unmark them as editor pick.
 	 *